@@ -2,6 +2,7 @@ package align;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import data.STData;
 import data.STDataStatistics;
@@ -10,7 +11,7 @@ import filter.FilterFactory;
 import filter.Filters;
 import filter.GaussianFilterFactory;
 import filter.GaussianFilterFactory.WeightType;
-import filter.MeanFilterFactory;
+import filter.RadiusSearchFilterFactory;
 import filter.SingleSpotRemovingFilterFactory;
 import gui.bdv.AddedGene.Rendering;
 import ij.ImagePlus;
@@ -33,8 +34,9 @@ import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
-import render.MaxDistanceParam;
+import render.FlatKDTreeSamples;
 import render.Render;
+import render.TiledRasterizer;
 
 public class AlignTools
 {
@@ -57,6 +59,23 @@ public class AlignTools
 			final List< FilterFactory< DoubleType, DoubleType > > filterFactories,
 			final Rendering renderType,
 			final double smoothnessFactor )
+	{
+		return display( stdata, stStats, gene, renderInterval, transform, filterFactories, renderType, smoothnessFactor, null );
+	}
+
+	/**
+	 * @param service - renders the image together with the calling thread, null renders in the calling thread only
+	 */
+	public static RandomAccessibleInterval< DoubleType > display(
+			final STData stdata,
+			final STDataStatistics stStats,
+			final String gene,
+			final Interval renderInterval,
+			final AffineTransform2D transform,
+			final List< FilterFactory< DoubleType, DoubleType > > filterFactories,
+			final Rendering renderType,
+			final double smoothnessFactor,
+			final ExecutorService service )
 	{
 		//System.out.println( "Mean distance: " + stStats.getMeanDistance());
 		//System.out.println( "Median distance: " + stStats.getMedianDistance() );
@@ -103,10 +122,21 @@ public class AlignTools
 
 		//data = TransformCoordinates.sample( data, stStats.getMedianDistance() );
 
-		// filter the iterable
-		if ( filterFactories != null )
+		// radius search filters share the tree of the locations and filter in parallel into arrays
+		FlatKDTreeSamples< DoubleType > samples = null;
+
+		if ( filterFactories != null && filterFactories.stream().allMatch( f -> f instanceof RadiusSearchFilterFactory ) )
+		{
+			samples = FlatKDTreeSamples.of( data );
+
+			for ( final FilterFactory<DoubleType, DoubleType> filterFactory : filterFactories )
+				samples = Filters.filter( samples, (RadiusSearchFilterFactory< DoubleType, DoubleType >)filterFactory, service );
+		}
+		else if ( filterFactories != null )
+		{
 			for ( final FilterFactory<DoubleType, DoubleType> filterFactory : filterFactories )
 				data = Filters.filter( data, filterFactory );
+		}
 
 		//data = Filters.filter( data, new DensityFilterFactory<>( new DoubleType(), medianDistance ) );
 		//data = Filters.filter( data, new MeanFilterFactory<>( outofbounds, medianDistance * 10 ) );
@@ -118,28 +148,15 @@ public class AlignTools
 		//System.out.println( "Min intensity: " + minmax.getA() );
 		//System.out.println( "Max intensity: " + minmax.getB() );
 
-		// for rendering the input pointcloud
-		final RealRandomAccessible< DoubleType > renderRRA;
-
-		if ( renderType == Rendering.Gauss )
-			renderRRA = Render.render( data, new GaussianFilterFactory<>( outofbounds, medianDistance*smoothnessFactor, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
-		else if ( renderType == Rendering.NN )
-			renderRRA = Render.renderNN( data, outofbounds, new MaxDistanceParam( medianDistance*smoothnessFactor ) );
-		else if ( renderType == Rendering.Mean )
-			renderRRA = Render.render( data, new MeanFilterFactory<>( outofbounds, medianDistance*smoothnessFactor  ) );
-		else // LINEAR
-			renderRRA = Render.renderLinear( data, 5, 3.0, new DoubleType( 0 ), new MaxDistanceParam( medianDistance*smoothnessFactor ) );
-
-		//final RealRandomAccessible< DoubleType > renderRRA = Render.renderNN(data, outofbounds, stStats.getMedianDistance() * 10 );
-
-		// for rendering a 16x (median distance), regular sampled pointcloud
-		//final RealRandomAccessible< DoubleType > renderRRA = Render.render( data, new GaussianFilterFactory<>( outofbounds, stStats.getMedianDistance() / 4.0, WeightType.NONE ) );
-		
-		final RandomAccessibleInterval< DoubleType > rendered = Views.interval( RealViews.affine( renderRRA, transform ), renderInterval );
-		//ImageJFunctions.show( rendered, Threads.createFixedExecutorService() ).setTitle( stdata.toString() );
-		//System.out.println( new Date(System.currentTimeMillis()) + ": Done..." );
-
-		return rendered;
+		// renders tiles in parallel, each of them searching only the locations near the tile
+		return TiledRasterizer.rasterize(
+				samples != null ? samples : FlatKDTreeSamples.of( data ),
+				renderType,
+				medianDistance,
+				smoothnessFactor,
+				transform,
+				renderInterval,
+				service );
 	}
 
 	public static RandomAccessibleInterval< DoubleType > displayDensityMap(
@@ -194,8 +211,8 @@ public class AlignTools
 
 		final ImageStack stack = new ImageStack( (int)finalInterval.dimension( 0 ), (int)finalInterval.dimension( 1 ) );
 
-		final RandomAccessibleInterval<DoubleType> visA = display( stDataA, new STDataStatistics( stDataA ), gene, finalInterval, tA, null, rendering, smoothnessFactor );
-		final RandomAccessibleInterval<DoubleType> visB = display( stDataB, new STDataStatistics( stDataB ), gene, finalInterval, tB, null, rendering, smoothnessFactor );
+		final RandomAccessibleInterval<DoubleType> visA = display( stDataA, STDataStatistics.of( stDataA ), gene, finalInterval, tA, null, rendering, smoothnessFactor );
+		final RandomAccessibleInterval<DoubleType> visB = display( stDataB, STDataStatistics.of( stDataB ), gene, finalInterval, tB, null, rendering, smoothnessFactor );
 
 		stack.addSlice(stDataA.toString(), ImageJFunctions.wrapFloat( visA, new RealFloatConverter<>(), stDataA.toString(), null ).getProcessor());
 		stack.addSlice(stDataB.toString(), ImageJFunctions.wrapFloat( visB, new RealFloatConverter<>(), stDataB.toString(), null ).getProcessor());
@@ -259,7 +276,7 @@ public class AlignTools
 			final AffineTransform2D tA = transforms.get( i ).copy();
 			tA.preConcatenate( tS );
 
-			final RandomAccessibleInterval<DoubleType> vis = display( stdata, new STDataStatistics( stdata ), gene, finalInterval, tA, null, rendering, smoothnessFactor );
+			final RandomAccessibleInterval<DoubleType> vis = display( stdata, STDataStatistics.of( stdata ), gene, finalInterval, tA, null, rendering, smoothnessFactor );
 
 			stack.addSlice( stdata.toString(), ImageJFunctions.wrapFloat( vis, new RealFloatConverter<>(), stdata.toString(), null ).getProcessor());
 		}
@@ -0,0 +1,403 @@
+package align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * Matches SIFT features to an indexed set of features with the same results as
+ * {@link mpicbg.ij.FeatureTransform#matchFeatures} (closest/next closest distance ratio, removing
+ * ambiguous matches). A single descriptor coordinate hardly bounds a distance in 128 dimensions, so the descriptors are
+ * projected onto their first principal components: the squared distance of the projections (orthonormal directions)
+ * is a lower bound of the squared distance of the descriptors. The indexed descriptors are sorted by the first
+ * projection, the search for the two closest descriptors starts at the query and stops once this projection alone is
+ * further away than the second closest one, and candidates whose projections are further away are skipped without
+ * computing their distance. The distances are accumulated in the same order as {@link Feature#descriptorDistance(Feature)}
+ * and abandoned once they exceed the second closest one, so the search is exact.
+ *
+ * @author spreibi
+ */
+public class FeatureMatcher
+{
+	// the distances are compared with the second closest one every that many coordinates
+	final static int abandonStep = 16;
+
+	// number of principal components of the lower bound, and power iterations to find each of them
+	final static int numComponents = 8;
+	final static int powerIterations = 32;
+
+	// a bound is only trusted if it exceeds the distance by more than the rounding error of the distance, whose
+	// coordinate differences are computed in float precision like Feature.descriptorDistance()
+	final static double boundTolerance = 1e-5;
+
+	final List< Feature > features;
+
+	// sorted by the first projection
+	final float[][] descriptors;
+	final double[] projections;
+	final double[] keys;
+
+	// sorted index to index of the feature
+	final int[] order;
+
+	// the principal components, orthonormal, size: [k][n]
+	final double[][] components;
+
+	/**
+	 * @param features - the features that are searched (all descriptors need to have the same length)
+	 */
+	public FeatureMatcher( final Collection< Feature > features )
+	{
+		this.features = new ArrayList<>( features );
+
+		final int size = this.features.size();
+		final int n = size == 0 ? 0 : this.features.get( 0 ).descriptor.length;
+
+		this.components = principalComponents( this.features, n, Math.min( numComponents, Math.min( n, size ) ) );
+		final int k = components.length;
+
+		final double[] unsortedProjections = new double[ size * k ];
+		for ( int i = 0; i < size; ++i )
+			project( this.features.get( i ).descriptor, unsortedProjections, i * k );
+
+		final Integer[] sorted = new Integer[ size ];
+		for ( int i = 0; i < size; ++i )
+			sorted[ i ] = i;
+
+		if ( k > 0 )
+			Arrays.sort( sorted, ( a, b ) -> Double.compare( unsortedProjections[ a * k ], unsortedProjections[ b * k ] ) );
+
+		this.order = new int[ size ];
+		this.descriptors = new float[ size ][];
+		this.projections = new double[ size * k ];
+		this.keys = new double[ size ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			order[ i ] = sorted[ i ];
+			descriptors[ i ] = this.features.get( order[ i ] ).descriptor;
+			System.arraycopy( unsortedProjections, order[ i ] * k, projections, i * k, k );
+			keys[ i ] = k > 0 ? projections[ i * k ] : 0;
+		}
+	}
+
+	/**
+	 * Matches every feature to the closest indexed one if the ratio of the distances to the closest and the second closest
+	 * one is below rod, and removes all matches whose indexed feature is matched more than once.
+	 *
+	 * @param fs - the query features
+	 * @param matches - the matches are added to this list, from the query to the indexed feature
+	 * @param rod - closest/next closest distance ratio
+	 */
+	public void match( final Collection< Feature > fs, final List< PointMatch > matches, final double rod )
+	{
+		final int k = components.length;
+		final double[] p = new double[ k ];
+
+		for ( final Feature f : fs )
+		{
+			final float[] q = f.descriptor;
+			project( q, p, 0 );
+			final double key = k > 0 ? p[ 0 ] : 0;
+
+			// the squared distances and the feature index of the closest one
+			final double[] closest = new double[] { Double.MAX_VALUE, Double.MAX_VALUE };
+			int best = -1;
+
+			// walk away from the query in both directions, always taking the closer key first
+			int hi = lowerBound( key );
+			int lo = hi - 1;
+
+			while ( lo >= 0 || hi < keys.length )
+			{
+				final double dLo = lo >= 0 ? bound( key, keys[ lo ] ) : Double.MAX_VALUE;
+				final double dHi = hi < keys.length ? bound( key, keys[ hi ] ) : Double.MAX_VALUE;
+
+				final int i;
+
+				if ( dLo <= dHi )
+				{
+					if ( exceeds( dLo, closest[ 1 ] ) )
+						break;
+
+					i = lo--;
+				}
+				else
+				{
+					if ( exceeds( dHi, closest[ 1 ] ) )
+						break;
+
+					i = hi++;
+				}
+
+				if ( exceeds( projectedSquareDistance( p, i ), closest[ 1 ] ) )
+					continue;
+
+				final double sqDist = squareDistance( q, descriptors[ i ], closest[ 1 ] );
+
+				// equal distances are resolved by the order of the features like the brute force search
+				if ( sqDist < closest[ 0 ] || ( sqDist == closest[ 0 ] && order[ i ] < best ) )
+				{
+					closest[ 1 ] = closest[ 0 ];
+					closest[ 0 ] = sqDist;
+					best = order[ i ];
+				}
+				else if ( sqDist < closest[ 1 ] )
+				{
+					closest[ 1 ] = sqDist;
+				}
+			}
+
+			if ( best < 0 || closest[ 1 ] == Double.MAX_VALUE )
+				continue;
+
+			final double bestDistance = Math.sqrt( closest[ 0 ] );
+			final double secondBestDistance = Math.sqrt( closest[ 1 ] );
+
+			if ( bestDistance / secondBestDistance < rod )
+			{
+				final Feature match = features.get( best );
+
+				matches.add(
+						new PointMatch(
+								new Point( new double[] { f.location[ 0 ], f.location[ 1 ] } ),
+								new Point( new double[] { match.location[ 0 ], match.location[ 1 ] } ),
+								bestDistance / secondBestDistance ) );
+			}
+		}
+
+		removeAmbiguousMatches( matches );
+	}
+
+	/**
+	 * Same as {@link mpicbg.ij.FeatureTransform#matchFeatures}.
+	 */
+	public static void matchFeatures(
+			final Collection< Feature > fs1,
+			final Collection< Feature > fs2,
+			final List< PointMatch > matches,
+			final double rod )
+	{
+		new FeatureMatcher( fs2 ).match( fs1, matches, rod );
+	}
+
+	/**
+	 * Removes all matches whose target location occurs more than once, keeping the order of the others.
+	 */
+	public static void removeAmbiguousMatches( final List< PointMatch > matches )
+	{
+		final HashMap< List< Double >, Integer > counts = new HashMap<>();
+
+		for ( final PointMatch m : matches )
+			counts.merge( key( m.getP2().getL() ), 1, Integer::sum );
+
+		matches.removeIf( m -> counts.get( key( m.getP2().getL() ) ) > 1 );
+	}
+
+	private static List< Double > key( final double[] l )
+	{
+		// + 0.0 turns -0.0 into 0.0, as they are equal locations
+		return Arrays.asList( l[ 0 ] + 0.0, l[ 1 ] + 0.0 );
+	}
+
+	/**
+	 * @return the squared distance of two projections, a lower bound for the squared distance of the descriptors
+	 */
+	private static double bound( final double a, final double b )
+	{
+		final double d = a - b;
+		return d * d;
+	}
+
+	/**
+	 * @return true if the lower bound is larger than the distance even with the rounding error of the projections
+	 */
+	private static boolean exceeds( final double bound, final double sqDistance )
+	{
+		return bound * ( 1.0 - boundTolerance ) > sqDistance;
+	}
+
+	/**
+	 * @return the squared distance of the projections of a query and an indexed descriptor
+	 */
+	private double projectedSquareDistance( final double[] p, final int sortedIndex )
+	{
+		final int k = p.length;
+		double sum = 0;
+
+		for ( int c = 0; c < k; ++c )
+		{
+			final double d = p[ c ] - projections[ sortedIndex * k + c ];
+			sum += d * d;
+		}
+
+		return sum;
+	}
+
+	private void project( final float[] descriptor, final double[] target, final int offset )
+	{
+		for ( int c = 0; c < components.length; ++c )
+		{
+			final double[] component = components[ c ];
+			double sum = 0;
+
+			for ( int d = 0; d < descriptor.length; ++d )
+				sum += component[ d ] * descriptor[ d ];
+
+			target[ offset + c ] = sum;
+		}
+	}
+
+	/**
+	 * Finds the directions of largest variance by power iterations on the covariance matrix, every direction is kept
+	 * orthogonal to the previous ones. Directions that do not converge still give an exact (but weaker) bound.
+	 *
+	 * @return up to k orthonormal directions, fewer if the descriptors do not vary in more directions
+	 */
+	protected static double[][] principalComponents( final List< Feature > features, final int n, final int k )
+	{
+		final int size = features.size();
+		final double[] mean = new double[ n ];
+
+		for ( final Feature f : features )
+			for ( int d = 0; d < n; ++d )
+				mean[ d ] += f.descriptor[ d ];
+
+		for ( int d = 0; d < n; ++d )
+			mean[ d ] /= size;
+
+		final double[][] covariance = new double[ n ][ n ];
+		final double[] centered = new double[ n ];
+
+		for ( final Feature f : features )
+		{
+			for ( int d = 0; d < n; ++d )
+				centered[ d ] = f.descriptor[ d ] - mean[ d ];
+
+			for ( int a = 0; a < n; ++a )
+				for ( int b = a; b < n; ++b )
+					covariance[ a ][ b ] += centered[ a ] * centered[ b ];
+		}
+
+		for ( int a = 0; a < n; ++a )
+			for ( int b = 0; b < a; ++b )
+				covariance[ a ][ b ] = covariance[ b ][ a ];
+
+		final List< double[] > components = new ArrayList<>();
+		final double[] next = new double[ n ];
+
+		for ( int c = 0; c < k; ++c )
+		{
+			// deterministic start that is not orthogonal to most directions
+			double[] v = new double[ n ];
+			for ( int d = 0; d < n; ++d )
+				v[ d ] = 1.0 + d * 1e-3;
+
+			boolean valid = orthonormalize( v, components );
+
+			for ( int it = 0; it < powerIterations && valid; ++it )
+			{
+				for ( int a = 0; a < n; ++a )
+				{
+					double sum = 0;
+					for ( int b = 0; b < n; ++b )
+						sum += covariance[ a ][ b ] * v[ b ];
+					next[ a ] = sum;
+				}
+
+				valid = orthonormalize( next, components );
+
+				if ( valid )
+					System.arraycopy( next, 0, v, 0, n );
+			}
+
+			if ( !valid )
+				break;
+
+			components.add( v );
+		}
+
+		return components.toArray( new double[ components.size() ][] );
+	}
+
+	/**
+	 * Removes the parts along the (orthonormal) directions twice, for numerical stability, and normalizes.
+	 *
+	 * @return false if nothing is left
+	 */
+	private static boolean orthonormalize( final double[] v, final List< double[] > directions )
+	{
+		for ( int pass = 0; pass < 2; ++pass )
+			for ( final double[] u : directions )
+			{
+				double dot = 0;
+				for ( int d = 0; d < v.length; ++d )
+					dot += u[ d ] * v[ d ];
+
+				for ( int d = 0; d < v.length; ++d )
+					v[ d ] -= dot * u[ d ];
+			}
+
+		double norm = 0;
+		for ( int d = 0; d < v.length; ++d )
+			norm += v[ d ] * v[ d ];
+
+		norm = Math.sqrt( norm );
+
+		if ( !( norm > 1e-12 ) )
+			return false;
+
+		for ( int d = 0; d < v.length; ++d )
+			v[ d ] /= norm;
+
+		return true;
+	}
+
+	/**
+	 * @return the squared distance, or a partial sum larger than max
+	 */
+	private static double squareDistance( final float[] a, final float[] b, final double max )
+	{
+		double sum = 0;
+
+		for ( int i = 0; i < a.length; )
+		{
+			for ( final int end = Math.min( a.length, i + abandonStep ); i < end; ++i )
+			{
+				final double d = a[ i ] - b[ i ];
+				sum += d * d;
+			}
+
+			if ( sum > max )
+				return sum;
+		}
+
+		return sum;
+	}
+
+	/**
+	 * @return the first sorted index whose key is not smaller than the key
+	 */
+	private int lowerBound( final double key )
+	{
+		int lo = 0, hi = keys.length;
+
+		while ( lo < hi )
+		{
+			final int mid = ( lo + hi ) >>> 1;
+
+			if ( keys[ mid ] < key )
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		return lo;
+	}
+}
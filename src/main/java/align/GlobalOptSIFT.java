@@ -84,13 +84,8 @@ public class GlobalOptSIFT
 			final double smoothnessFactor,
 			final String displaygene ) throws IOException
 	{
-		final ArrayList<SpatialDataIO> ioObjects = new ArrayList<>();
-		final ArrayList<STDataAssembly> data = new ArrayList<>();
-		for (final String name : datasets) {
-			SpatialDataIO sdio = container.openDataset(name);
-			ioObjects.add(sdio);
-			data.add(sdio.readData());
-		}
+		final List<SpatialDataIO> ioObjects = container.openDatasets(datasets);
+		final List<STDataAssembly> data = SpatialDataIO.readData(ioObjects, numThreads);
 
 		final HashMap<STDataAssembly, Tile<InterpolatedAffineModel2D<AffineModel2D, RigidModel2D>>> dataToTile = new HashMap<>();
 		final HashMap<Tile<InterpolatedAffineModel2D<AffineModel2D, RigidModel2D>>, STDataAssembly> tileToData = new HashMap<>();
@@ -208,7 +203,7 @@ public class GlobalOptSIFT
 		if ( !skipDisplayResults )
 		{
 			new ImageJ();
-			AlignTools.visualizeList(dataTrafoPair, AlignTools.defaultScale, Rendering.Gauss, smoothnessFactor, displaygene, true);
+			AlignTools.visualizeList(dataTrafoPair, AlignTools.defaultScale, Rendering.GaussGrid, smoothnessFactor, displaygene, true);
 		}
 
 		logger.info("Avg error: {}", tileConfig.getError());
@@ -344,7 +339,7 @@ public class GlobalOptSIFT
 			}
 
 			if ( !skipDisplayResults )
-				AlignTools.visualizeList( dataICP, AlignTools.defaultScale, Rendering.Gauss, smoothnessFactor, displaygene, true ).setTitle( "ICP-reg" );
+				AlignTools.visualizeList( dataICP, AlignTools.defaultScale, Rendering.GaussGrid, smoothnessFactor, displaygene, true ).setTitle( "ICP-reg" );
 
 			logger.info("Avg error: {}", tileConfigICP.getError());
 		}
@@ -3,6 +3,7 @@ package align;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -21,9 +22,11 @@ import net.imglib2.realtransform.AffineGet;
 
 import data.STData;
 import data.STDataStatistics;
+import data.STDataUtils;
 import filter.Filters;
 import filter.GaussianFilterFactory;
 import filter.GaussianFilterFactory.WeightType;
+import filter.RadiusSearchFilterFactory;
 import io.Path;
 import mpicbg.models.Affine1D;
 import mpicbg.models.AffineModel1D;
@@ -37,15 +40,12 @@ import mpicbg.models.PointMatch;
 import mpicbg.models.Tile;
 import mpicbg.models.TileConfiguration;
 import mpicbg.models.TranslationModel1D;
-import net.imglib2.IterableRealInterval;
-import net.imglib2.KDTree;
-import net.imglib2.RealCursor;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
-import util.KDTreeUtil;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
 import util.Threads;
 import org.apache.logging.log4j.Logger;
 import util.LoggerUtil;
@@ -55,6 +55,26 @@ public class IntensityAdjustment
 {
 	private static final Logger logger = LoggerUtil.getLogger();
 
+	/**
+	 * @return the filtered values of all genes in location order, the neighbors of every location are searched once for all genes
+	 */
+	protected static List< double[] > filterGenes(
+			final STData data,
+			final FlatKDTree tree,
+			final List< String > genes,
+			final List< ? extends RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories,
+			final ExecutorService service )
+	{
+		final List< double[] > values = new ArrayList<>();
+
+		for ( final String gene : genes )
+			values.add( STDataUtils.exprValues( data, gene ) );
+
+		Filters.filter( tree, values, filterFactories, service );
+
+		return values;
+	}
+
 	public static HashMap< Integer, AffineModel1D > adjustIntensities(
 			final SpatialDataContainer container,
 			final List< String > pucks,
@@ -109,52 +129,74 @@ public class IntensityAdjustment
 
 		final HashMap< Pair< Integer, Integer >, ArrayList< PointMatch > > intensityMatches = new HashMap<>();
 
+		// use all genes that were used for alignment (the same genes for all pairs, otherwise this is useless)
+		final List< String > geneList = new ArrayList<>( genes );
+		final List< GaussianFilterFactory< DoubleType, DoubleType > > gauss =
+				Collections.singletonList( new GaussianFilterFactory< DoubleType, DoubleType >( new DoubleType( 0 ), maxDistance * 4, WeightType.BY_SUM_OF_WEIGHTS ) );
+
+		// puck i is filtered once (all genes together) for all of its pairs, puck i + 1 is kept for the next iteration
+		// and every other puck is filtered for its pair only, so at most three filtered pucks are held in memory
+		List< double[] > filteredNext = null;
+
 		for ( int i = 0; i < pucks.size() - 1; ++i )
 		{
+			List< double[] > filteredI = filteredNext;
+			filteredNext = null;
+
+			final FlatKDTree treeI = FlatKDTree.forLocations( puckData.get( i ).getLocations() );
+
+			// location index to tree index, so the locations are visited in location order
+			final int[] treeIndexI = new int[ treeI.size() ];
+			for ( int t = 0; t < treeI.size(); ++t )
+				treeIndexI[ treeI.permutation()[ t ] ] = t;
+
 			for ( int j = i + 1; j < pucks.size(); ++j )
 			{
-				final int i0 = i;
-				final int j0 = j;
-
 				// load the matches
 				final SiftMatch siftmatches = GlobalOptSIFT.loadMatch(container, pucks.get(i), pucks.get(j));
 
 				if ( siftmatches.getNumInliers() == 0 )
 					continue;
 
+				final FlatKDTree treeJ = FlatKDTree.forLocations( puckData.get( j ).getLocations() );
+
+				if ( filteredI == null )
+					filteredI = filterGenes( puckData.get( i ), treeI, geneList, gauss, service );
+
+				final List< double[] > filteredJ = filterGenes( puckData.get( j ), treeJ, geneList, gauss, service );
+
+				if ( j == i + 1 )
+					filteredNext = filteredJ;
+
 				final List< Callable< ArrayList< PointMatch > > > tasks = new ArrayList<>();
 
-				// use all genes that were used for alignment (the same genes for all pairs, otherwise this is useless)
-				for ( final String gene : genes )
+				for ( int g = 0; g < geneList.size(); ++g )
 				{
+					final double[] valuesI = filteredI.get( g );
+					final double[] valuesJ = filteredJ.get( g );
+
 					tasks.add( () ->
 					{
 						final ArrayList< PointMatch > threadMatches = new ArrayList<>();
 
-						// create two transformed IterableRealIntervals
-						IterableRealInterval< DoubleType > dataI = puckData.get( i0 ).getExprData( gene );
-						IterableRealInterval< DoubleType > dataJ = puckData.get( j0 ).getExprData( gene );
-	
-						dataI = Filters.filter( dataI, new GaussianFilterFactory<>( new DoubleType( 0 ), maxDistance * 4, WeightType.BY_SUM_OF_WEIGHTS ) );
-						dataJ = Filters.filter( dataJ, new GaussianFilterFactory<>( new DoubleType( 0 ), maxDistance * 4, WeightType.BY_SUM_OF_WEIGHTS ) );
-
-						final KDTree< DoubleType > treeJ = KDTreeUtil.createParallelizableKDTreeFrom( dataJ );
-						final NearestNeighborSearchOnKDTree< DoubleType > searchJ = new NearestNeighborSearchOnKDTree<>( treeJ );
-	
-						final RealCursor< DoubleType > cursorI = dataI.localizingCursor();
-	
-						while ( cursorI.hasNext() )
+						final int[] permutationJ = treeJ.permutation();
+						final Neighbors neighbors = new Neighbors();
+						final double[] query = new double[ treeI.numDimensions() ];
+
+						for ( int l = 0; l < valuesI.length; ++l )
 						{
-							cursorI.fwd();
-							final double valueI = cursorI.get().get();
+							final double valueI = valuesI[ l ];
 
 							if ( valueI > 0.25 )
 							{
-								searchJ.search( cursorI );
+								for ( int d = 0; d < query.length; ++d )
+									query[ d ] = treeI.position( treeIndexI[ l ], d );
+
+								treeJ.kNearestNeighbors( query, 1, neighbors );
 		
-								if ( searchJ.getDistance() < maxDistance )
+								if ( neighbors.size() > 0 && Math.sqrt( neighbors.squaredDistance( 0 ) ) < maxDistance )
 								{
-									final double valueJ = searchJ.getSampler().get().get();
+									final double valueJ = valuesJ[ permutationJ[ neighbors.treeIndex( 0 ) ] ];
 		
 									if ( valueI + valueJ > 0.5 && valueJ > 0.25 )
 										threadMatches.add(
@@ -97,8 +97,8 @@ public class Pairwise
 
 		/*
 		// regularly sample the reference dataset
-		final STDataStatistics stStatsDataA = new STDataStatistics( stdataA );
-		final STDataStatistics stStatsDataB = new STDataStatistics( stdataB );
+		final STDataStatistics stStatsDataA = STDataStatistics.of( stdataA );
+		final STDataStatistics stStatsDataB = STDataStatistics.of( stdataB );
 		// tmp
 		System.out.println( "listB (target) sampling: " + StDataPointMatchIdentification.sampling );
 		StDataPointMatchIdentification.sampling = 4.0;//Math.min( stStatsDataA.getMedianDistance(), stStatsDataB.getMedianDistance() ) / 2.0;
@@ -270,8 +270,8 @@ public class Pairwise
 			final int topN,
 			final boolean doGradientDescent  )
 	{
-		final STDataStatistics statA = new STDataStatistics( stdataA );
-		final STDataStatistics statB = new STDataStatistics( stdataB );
+		final STDataStatistics statA = STDataStatistics.of( stdataA );
+		final STDataStatistics statB = STDataStatistics.of( stdataB );
 
 		final AffineTransform2D scalingTransform = new AffineTransform2D();
 		scalingTransform.scale( scaling );
@@ -442,7 +442,7 @@ public class Pairwise
 		final ArrayList< Pair< PhaseCorrelationPeak2, Double > > topPeaks = new ArrayList<>();
 
 		final RandomAccessibleInterval< DoubleType > imgA = ImgLib2Util.copyImg(
-				AlignTools.display( stdataA, statA, gene, ImgLib2Util.transformInterval( interval, scalingTransform ), scalingTransform, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ), new ArrayImgFactory<>( new DoubleType() ), service );
+				AlignTools.display( stdataA, statA, gene, ImgLib2Util.transformInterval( interval, scalingTransform ), scalingTransform, null, Rendering.GaussGrid, AlignTools.defaultSmoothnessFactor ), new ArrayImgFactory<>( new DoubleType() ), service );
 
 		// initial scouting
 		//System.out.println( "Scouting: " + gene );
@@ -453,7 +453,7 @@ public class Pairwise
 			transformB.rotate( Math.toRadians( deg ) );
 
 			final RandomAccessibleInterval< DoubleType > imgB = ImgLib2Util.copyImg(
-					AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ), new ArrayImgFactory<>( new DoubleType() ), service );
+					AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.GaussGrid, AlignTools.defaultSmoothnessFactor ), new ArrayImgFactory<>( new DoubleType() ), service );
 
 			final PhaseCorrelationPeak2 shiftPeak = testPair( Views.zeroMin( imgA ), Views.zeroMin( imgB ), nHighest, service );
 			insertIntoList( topPeaks, topN, shiftPeak, deg );
@@ -485,7 +485,7 @@ public class Pairwise
 					transformB.rotate( Math.toRadians( deg + step ) );
 
 					PhaseCorrelationPeak2 shiftPeak = testPair( imgA, Views.zeroMin(
-							AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ), nHighest, service );
+							AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.GaussGrid, AlignTools.defaultSmoothnessFactor ) ), nHighest, service );
 
 					if ( shiftPeak.getCrossCorr() > bestPeak.getA().getCrossCorr() )
 					{
@@ -499,7 +499,7 @@ public class Pairwise
 					transformB.rotate( Math.toRadians( deg - step ) );
 
 					shiftPeak = testPair( imgA, Views.zeroMin(
-							AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ), nHighest, service );
+							AlignTools.display( stdataB, statB, gene, ImgLib2Util.transformInterval( interval, transformB ), transformB, null, Rendering.GaussGrid, AlignTools.defaultSmoothnessFactor ) ), nHighest, service );
 
 					if ( shiftPeak.getCrossCorr() > bestPeak.getA().getCrossCorr() )
 					{
@@ -642,9 +642,9 @@ public class Pairwise
 		
 				new ImageJ();
 		
-				ImageJFunctions.show( AlignTools.display( stDataA, new STDataStatistics( stDataA ), "Calm1", finalInterval, tA, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) );
-				ImageJFunctions.show( AlignTools.display( stDataB, new STDataStatistics( stDataB ), "Calm1", finalInterval, tB_PCM, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ).setTitle( "Calm1-PCM" );
-				ImageJFunctions.show( AlignTools.display( stDataB, new STDataStatistics( stDataB ), "Calm1", finalInterval, tB_ICP, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ).setTitle( "Calm1-ICP" );
+				ImageJFunctions.show( AlignTools.display( stDataA, STDataStatistics.of( stDataA ), "Calm1", finalInterval, tA, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) );
+				ImageJFunctions.show( AlignTools.display( stDataB, STDataStatistics.of( stDataB ), "Calm1", finalInterval, tB_PCM, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ).setTitle( "Calm1-PCM" );
+				ImageJFunctions.show( AlignTools.display( stDataB, STDataStatistics.of( stDataB ), "Calm1", finalInterval, tB_ICP, null, Rendering.Gauss, AlignTools.defaultSmoothnessFactor ) ).setTitle( "Calm1-ICP" );
 			}
 		}
 		service.shutdown();
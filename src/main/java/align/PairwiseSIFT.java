@@ -5,11 +5,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -30,7 +29,6 @@ import ij.process.ImageProcessor;
 import imglib2.ImgLib2Util;
 import io.Path;
 import io.SpatialDataContainer;
-import mpicbg.ij.FeatureTransform;
 import mpicbg.ij.SIFT;
 import mpicbg.ij.util.Util;
 import mpicbg.imagefeatures.Feature;
@@ -61,78 +59,38 @@ public class PairwiseSIFT
 			final List< PointMatch > matches,
 			final float rod )
 	{
-		for ( final Feature f1 : fs1 )
-		{
-			Feature best = null;
-			double best_d = Double.MAX_VALUE;
-			double second_best_d = Double.MAX_VALUE;
-
-			for ( final Feature f2 : fs2 )
-			{
-				final double d = f1.descriptorDistance( f2 );
-				if ( d < best_d )
-				{
-					second_best_d = best_d;
-					best_d = d;
-					best = f2;
-				}
-				else if ( d < second_best_d )
-					second_best_d = d;
-			}
-
-			if ( best != null && second_best_d < Double.MAX_VALUE && best_d / second_best_d < rod )
-				matches.add(
-						new PointMatch(
-								new Point(
-										new double[] { f1.location[ 0 ], f1.location[ 1 ] } ),
-								new Point(
-										new double[] { best.location[ 0 ], best.location[ 1 ] } ),
-								best_d / second_best_d ) );
-		}
-
-		// now remove ambiguous matches
-		for ( int i = 0; i < matches.size(); )
-		{
-			boolean amb = false;
-			final PointMatch m = matches.get( i );
-			final double[] m_p2 = m.getP2().getL();
-			for ( int j = i + 1; j < matches.size(); )
-			{
-				final PointMatch n = matches.get( j );
-				final double[] n_p2 = n.getP2().getL();
-				if ( m_p2[ 0 ] == n_p2[ 0 ] && m_p2[ 1 ] == n_p2[ 1 ] )
-				{
-					amb = true;
-					matches.remove( j );
-				}
-				else ++j;
-			}
-			if ( amb )
-				matches.remove( i );
-			else ++i;
-		}
+		FeatureMatcher.matchFeatures( fs1, fs2, matches, rod );
 	}
 
 	public static List< PointMatch > extractCandidates( final ImageProcessor ip1, final ImageProcessor ip2, final String gene, final SIFTParam p )
 	{
-		final List< Feature > fs1 = new ArrayList<>();
-		final List< Feature > fs2 = new ArrayList<>();
+		return matchCandidates( extractFeatures( ip1, p ), extractFeatures( ip2, p ), gene, p );
+	}
+
+	public static List< Feature > extractFeatures( final ImageProcessor ip, final SIFTParam p )
+	{
+		final List< Feature > fs = new ArrayList<>();
 
 		final FloatArray2DSIFT sift = new FloatArray2DSIFT( p.sift );
 
 		final SIFT ijSIFT = new SIFT( sift );
-		ijSIFT.extractFeatures( ip1, fs1 );
-		ijSIFT.extractFeatures( ip2, fs2 );
+		ijSIFT.extractFeatures( ip, fs );
 
+		return fs;
+	}
+
+	public static List< PointMatch > matchCandidates( final List< Feature > fs1, final List< Feature > fs2, final String gene, final SIFTParam p )
+	{
 		final List< PointMatch > candidates = new ArrayList<>();
-		FeatureTransform.matchFeatures( fs1, fs2, candidates, p.rod );
+		FeatureMatcher.matchFeatures( fs1, fs2, candidates, p.rod );
 
+		// copies, the locations of the features are shared by all pairs they are matched in
 		final List< PointMatch > candidatesST = new ArrayList<>();
 		for ( final PointMatch pm : candidates )
 			candidatesST.add(
 					new PointMatch(
-							new PointST( pm.getP1().getL(), gene ),
-							new PointST( pm.getP2().getL(), gene ) ));
+							new PointST( pm.getP1().getL().clone(), gene ),
+							new PointST( pm.getP2().getL().clone(), gene ) ));
 
 		return candidatesST;
 	}
@@ -215,6 +173,113 @@ public class PairwiseSIFT
 		return s;
 	}
 
+	/**
+	 * Extracts the SIFT features of one gene of a dataset in two stages (render, SIFT). Every dataset is rendered into
+	 * its own interval with its own display range, so the features are the same in every pair it takes part in.
+	 *
+	 * @param interval - the image, see {@link #intervalForAlignment(STData, AffineTransform2D)}
+	 * @param displayRange - min and max intensity of the image, see {@link #displayRange}
+	 * @return the features, their locations are in the coordinates of the transform (not the image)
+	 */
+	protected static CompletableFuture< List< Feature > > features(
+			final STData stData,
+			final String stDataName,
+			final String gene,
+			final AffineTransform2D transform,
+			final Interval interval,
+			final double[] displayRange,
+			final SIFTParam p,
+			final ExecutorService service,
+			final SiftFeatureCache cache,
+			final List< Thread > threads )
+	{
+		if ( cache != null )
+			return cache.features( stDataName, gene, transform, interval, displayRange, p,
+					() -> features( stData, stDataName, gene, transform, interval, displayRange, p, service, null, threads ) );
+
+		return CompletableFuture
+				.supplyAsync( () -> render( stData, gene, interval, transform, displayRange, p, stDataName + "_", service, threads ), service )
+				.thenApplyAsync( ip ->
+				{
+					register( threads );
+
+					final List< Feature > fs = extractFeatures( ip, p );
+
+					for ( final Feature f : fs )
+						for ( int d = 0; d < f.location.length; ++d )
+							f.location[ d ] += interval.min( d );
+
+					return fs;
+				}, service );
+	}
+
+	/**
+	 * Renders one gene of a dataset for SIFT.
+	 *
+	 * @param displayRange - min and max intensity of the image
+	 * @param service - renders tiles of the image together with the calling thread
+	 * @return the image, scaled to the display range
+	 */
+	protected static ImageProcessor render(
+			final STData stData,
+			final String gene,
+			final Interval interval,
+			final AffineTransform2D transform,
+			final double[] displayRange,
+			final SIFTParam p,
+			final String title,
+			final ExecutorService service,
+			final List< Thread > threads )
+	{
+		register( threads );
+
+		// splatting renders the same images as Gauss, but faster
+		final Rendering rendering = p.rendering == Rendering.Gauss ? Rendering.Splat : p.rendering;
+
+		final RandomAccessibleInterval<DoubleType> img =
+				AlignTools.display( stData, STDataStatistics.of( stData ), gene, interval, transform, p.filterFactories, rendering, p.renderingSmoothness, service );
+
+		final ImagePlus imp = ImageJFunctions.wrapFloat( img, new RealFloatConverter<>(), title + gene );
+
+		// this massively adjusts the amount of features, but min/max seems the right choice?
+		//imp.resetDisplayRange();
+		imp.setDisplayRange( displayRange[ 0 ], displayRange[ 1 ] );
+
+		return imp.getProcessor();
+	}
+
+	/**
+	 * @return min and max intensity for rendering a gene of a dataset
+	 */
+	protected static double[] displayRange( final STData stData, final String gene, final SIFTParam p )
+	{
+		final double[] minmax = AddedGene.minmax( stData.getExprData( gene ) );
+
+		return new double[] {
+				AddedGene.getDisplayMin( minmax[ 0 ], minmax[ 1 ], p.brightnessMin ),
+				AddedGene.getDisplayMax( minmax[ 1 ], p.brightnessMax ) };
+	}
+
+	/**
+	 * Remembers the thread that runs a stage, so it can be stopped from the GUI.
+	 */
+	protected static void register( final List< Thread > threads )
+	{
+		synchronized ( threads )
+		{
+			if ( !threads.contains( Thread.currentThread() ) )
+				threads.add( Thread.currentThread() );
+		}
+	}
+
+	/**
+	 * @return the interval a dataset is rendered into for SIFT, independent of the dataset it is aligned to
+	 */
+	public static Interval intervalForAlignment( final STData stData, final AffineTransform2D t )
+	{
+		return Intervals.expand( ImgLib2Util.transformInterval( stData.getRenderInterval(), t ), 100 );
+	}
+
 	public static Interval intervalForAlignment(
 			final STData stDataA,
 			final AffineTransform2D tA,
@@ -245,6 +310,32 @@ public class PairwiseSIFT
 			final ExecutorService service,
 			final List< Thread > threads,
 			final Consumer< Double > progressBar )
+	{
+		return pairwiseSIFT(
+				stDataA, transformA, stDataAname, stDataB, transformB, stDataBname,
+				modelPairwise, modelGlobal, genesToTest, p,
+				visualizeResult, service, null, threads, progressBar );
+	}
+
+	/**
+	 * @param cache - shares the features of a dataset between pairs, null extracts them for this pair only
+	 */
+	public static SiftMatch pairwiseSIFT(
+			final STData stDataA,
+			final AffineTransform2D transformA,
+			final String stDataAname,
+			final STData stDataB,
+			final AffineTransform2D transformB,
+			final String stDataBname,
+			final Model<?> modelPairwise,
+			final Model<?> modelGlobal,
+			final List< String > genesToTest,
+			final SIFTParam p,
+			final boolean visualizeResult,
+			final ExecutorService service,
+			final SiftFeatureCache cache,
+			final List< Thread > threads,
+			final Consumer< Double > progressBar )
 	{
 		final AffineTransform2D tScale = new AffineTransform2D();
 		tScale.scale( p.scale );
@@ -252,63 +343,45 @@ public class PairwiseSIFT
 		final AffineTransform2D tA = transformA.copy().preConcatenate( tScale );
 		final AffineTransform2D tB = transformB.copy().preConcatenate( tScale );
 
-		final Interval finalInterval = intervalForAlignment( stDataA, tA, stDataB, tB );
 		final List< PointMatch > allCandidates = new ArrayList<>();
-		final List< Callable< List< PointMatch > > > tasks = new ArrayList<>();
+		final List< CompletableFuture< List< PointMatch > > > futures = new ArrayList<>();
 		final double progressPerGene = 90.0 / genesToTest.size();
+		final Interval intervalA = intervalForAlignment( stDataA, tA );
+		final Interval intervalB = intervalForAlignment( stDataB, tB );
 
 		//new ImageJ();
 
-		for ( int nextGene = 0; nextGene < genesToTest.size(); ++nextGene )
+		// every gene is a graph of stages (render A/B, SIFT A/B, match, RANSAC) that only wait for their inputs,
+		// so the stages of all genes keep the threads busy even if there are fewer genes than threads
+		for ( final String gene : genesToTest )
 		{
-			final int g = nextGene;
-
-			tasks.add( () ->
+			final CompletableFuture< List< Feature > > featuresA = CompletableFuture.supplyAsync( () ->
 			{
-				synchronized ( threads ) { threads.add( Thread.currentThread() ); }
-				
-				progressBar.accept( progressPerGene / 10.0 );
-				final List< PointMatch > allPerGeneInliers = new ArrayList<>();
-
-				final String gene = genesToTest.get( g );
-				//System.out.println( "current gene: " + gene );
-
-				final double[] minmax = AddedGene.minmax( stDataA.getExprData( gene ) );
-				final double minDisplay = AddedGene.getDisplayMin( minmax[ 0 ], minmax[ 1 ], p.brightnessMin );
-				final double maxDisplay = AddedGene.getDisplayMax( minmax[ 1 ], p.brightnessMax );
-
-				final RandomAccessibleInterval<DoubleType> imgA =
-						AlignTools.display( stDataA, new STDataStatistics( stDataA ), gene, finalInterval, tA, p.filterFactories, p.rendering, p.renderingSmoothness );
-				final RandomAccessibleInterval<DoubleType> imgB =
-						AlignTools.display( stDataB, new STDataStatistics( stDataB ), gene, finalInterval, tB, p.filterFactories, p.rendering, p.renderingSmoothness );
-
-				final ImagePlus impA = ImageJFunctions.wrapFloat( imgA, new RealFloatConverter<>(), "A_" + gene);
-				final ImagePlus impB = ImageJFunctions.wrapFloat( imgB, new RealFloatConverter<>(), "B_" + gene );
-
-				// this massively adjusts the amount of features, but min/max seems the right choice?
-				//impA.resetDisplayRange();
-				//impB.resetDisplayRange();
-				impA.setDisplayRange(minDisplay, maxDisplay);
-				impB.setDisplayRange(minDisplay, maxDisplay);
-
-				//impA.show();
-				//impB.show();
-				//SimpleMultiThreading.threadHaltUnClean();
+				register( threads );
+				return displayRange( stDataA, gene, p );
+			}, service ).thenCompose( range ->
+					features( stDataA, stDataAname, gene, tA, intervalA, range, p, service, cache, threads ) );
+			final CompletableFuture< List< Feature > > featuresB = CompletableFuture.supplyAsync( () ->
+			{
+				register( threads );
+				return displayRange( stDataB, gene, p );
+			}, service ).thenCompose( range ->
+					features( stDataB, stDataBname, gene, tB, intervalB, range, p, service, cache, threads ) );
 
-				progressBar.accept( progressPerGene / 4.0 );
+			final CompletableFuture< List< PointMatch > > candidates = featuresA.thenCombineAsync( featuresB, ( fsA, fsB ) ->
+			{
+				register( threads );
+				progressBar.accept( progressPerGene * ( 1.0 / 10.0 + 1.0 / 4.0 ) );
 
-				final List< PointMatch > matchesAB = extractCandidates(impA.getProcessor(), impB.getProcessor(), gene, p );
+				final List< PointMatch > matchesAB = matchCandidates( fsA, fsB, gene, p );
 				final List< PointMatch > candidatesTmp = new ArrayList<>();
 
 				if ( p.biDirectional )
 				{
-					final List< PointMatch > matchesBA = extractCandidates(impB.getProcessor(), impA.getProcessor(), gene, p );
-
-					//System.out.println( gene + " = " + matchesAB.size() );
-					//System.out.println( gene + " = " + matchesBA.size() );
+					final List< PointMatch > matchesBA = matchCandidates( fsB, fsA, gene, p );
 
 					if (matchesAB.isEmpty() && matchesBA.isEmpty())
-						return allPerGeneInliers;
+						return candidatesTmp;
 	
 					if ( matchesBA.size() > matchesAB.size() )
 						PointMatch.flip( matchesBA, candidatesTmp );
@@ -318,7 +391,7 @@ public class PairwiseSIFT
 				else
 				{
 					if (matchesAB.isEmpty())
-						return allPerGeneInliers;
+						return candidatesTmp;
 
 					candidatesTmp.addAll( matchesAB );
 				}
@@ -326,19 +399,31 @@ public class PairwiseSIFT
 				progressBar.accept( progressPerGene / 2.0 );
 
 				// adjust the locations to the global coordinate system
-				// and store the gene name it came from
+				// (the features are in the scaled coordinates already)
 				for ( final PointMatch pm : candidatesTmp )
 				{
 					final Point p1 = pm.getP1();
 					final Point p2 = pm.getP2();
 
-					for ( int d = 0; d < finalInterval.numDimensions(); ++d )
+					for ( int d = 0; d < p1.getL().length; ++d )
 					{
-						p1.getL()[ d ] = p1.getW()[ d ] = ( p1.getL()[ d ] + finalInterval.min( d ) ) / p.scale;
-						p2.getL()[ d ] = p2.getW()[ d ] = ( p2.getL()[ d ] + finalInterval.min( d ) ) / p.scale;
+						p1.getL()[ d ] = p1.getW()[ d ] = p1.getL()[ d ] / p.scale;
+						p2.getL()[ d ] = p2.getW()[ d ] = p2.getL()[ d ] / p.scale;
 					}
 				}
 
+				return candidatesTmp;
+			}, service );
+
+			futures.add( candidates.thenApplyAsync( candidatesTmp ->
+			{
+				register( threads );
+
+				final List< PointMatch > allPerGeneInliers = new ArrayList<>();
+
+				if ( candidatesTmp.isEmpty() )
+					return allPerGeneInliers;
+
 				// prefilter the candidates
 				final Model<?> model = modelPairwise.copy();
 				final List< PointMatch > inliers = consensus( candidatesTmp, model, p.minInliersGene, p.iterations, p.minInlierRatio, p.maxError );
@@ -367,7 +452,7 @@ public class PairwiseSIFT
 					final Point p1 = pm.getP1();
 					final Point p2 = pm.getP2();
 
-					for ( int d = 0; d < finalInterval.numDimensions(); ++d )
+					for ( int d = 0; d < p1.getL().length; ++d )
 					{
 						p1.getW()[ d ] = p1.getL()[ d ];
 						p2.getW()[ d ] = p2.getL()[ d ];
@@ -379,20 +464,18 @@ public class PairwiseSIFT
 					allPerGeneInliers.addAll( inliers );
 					logger.debug("{}-{}: {}/{}, {}/{}/{}, {}",
 								 stDataAname, stDataBname, inliers.size(), candidatesTmp.size(), minError, error, maxError, ((PointST) inliers.get(0).getP1()).getGene());
-					//System.out.println( ki + "-" + kj + ": " + inliers.size() + "/" + candidatesTmp.size() + ", " + ((PointST)inliers.get( 0 ).getP1()).getGene() + ", " );
 					//GlobalOpt.visualizePair(stDataA, stDataB, new AffineTransform2D(), GlobalOpt.modelToAffineTransform2D( model ).inverse() ).setTitle( gene +"_" + inliers.size() );;
 				}
 
 				progressBar.accept( progressPerGene / 4.0 );
 
 				return allPerGeneInliers;
-			});
+			}, service ) );
 		}
 
 		try
 		{
-			final List< Future< List< PointMatch > > > futures = service.invokeAll( tasks );
-			for ( final Future< List< PointMatch > > future : futures )
+			for ( final CompletableFuture< List< PointMatch > > future : futures )
 				allCandidates.addAll( future.get() );
 		}
 		catch ( final InterruptedException | ExecutionException e )
@@ -0,0 +1,157 @@
+package align;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+
+import io.SpatialDataContainer;
+import mpicbg.imagefeatures.Feature;
+import net.imglib2.Interval;
+import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.util.Intervals;
+import util.LoggerUtil;
+
+/**
+ * SIFT features of a gene of a dataset, rendered with a transform, interval, display range and parameters. When
+ * aligning several pairs, the same image of a dataset can be needed more than once, so its features are extracted once
+ * and shared. The features are stored in the coordinates of the transformed (and scaled) dataset.
+ *
+ * @author spreibi
+ */
+public class SiftFeatureCache
+{
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	// per dataset, the features by key
+	final Map< String, Map< String, CompletableFuture< List< Feature > > > > features = new ConcurrentHashMap<>();
+	final SpatialDataContainer container;
+
+	public SiftFeatureCache()
+	{
+		this( null );
+	}
+
+	/**
+	 * @param container - stores the features of its datasets so later runs can load them, null keeps them in memory only
+	 */
+	public SiftFeatureCache( final SpatialDataContainer container )
+	{
+		this.container = container;
+	}
+
+	/**
+	 * @param dataset - the name of the dataset
+	 * @param gene - the gene
+	 * @param transform - the transform of the dataset, including the scaling for rendering
+	 * @param interval - the rendered image
+	 * @param displayRange - min and max intensity of the image
+	 * @param p - the rendering and SIFT parameters
+	 * @param extract - extracts the features if they are not cached
+	 * @return the features, shared by all callers with the same key (see {@link #key}), features rendered with filters
+	 * are extracted for every call
+	 */
+	public CompletableFuture< List< Feature > > features(
+			final String dataset,
+			final String gene,
+			final AffineTransform2D transform,
+			final Interval interval,
+			final double[] displayRange,
+			final SIFTParam p,
+			final Supplier< CompletableFuture< List< Feature > > > extract )
+	{
+		// the filters cannot be part of the key, so images rendered with them are not shared
+		if ( p.filterFactories != null )
+			return extract.get();
+
+		final String key = key( dataset, gene, transform, interval, displayRange, p );
+		final Map< String, CompletableFuture< List< Feature > > > ofDataset = features.computeIfAbsent( dataset, d -> new ConcurrentHashMap<>() );
+
+		final CompletableFuture< List< Feature > > future = new CompletableFuture<>();
+		final CompletableFuture< List< Feature > > existing = ofDataset.putIfAbsent( key, future );
+
+		if ( existing != null )
+			return existing;
+
+		final boolean persist = container != null && container.getDatasets().contains( dataset );
+
+		if ( persist && container.hasFeatures( dataset, key ) )
+		{
+			try
+			{
+				future.complete( container.loadFeatures( dataset, key ) );
+				return future;
+			}
+			catch ( final Exception e )
+			{
+				logger.warn( "Could not load features of {} for {}, extracting them again.", dataset, gene, e );
+			}
+		}
+
+		extract.get().whenComplete( ( fs, e ) ->
+		{
+			if ( e != null )
+			{
+				// a later request extracts them again
+				ofDataset.remove( key, future );
+				future.completeExceptionally( e );
+				return;
+			}
+
+			if ( persist )
+			{
+				try
+				{
+					synchronized ( container ) { container.saveFeatures( dataset, key, fs ); }
+				}
+				catch ( final Exception ex )
+				{
+					logger.warn( "Could not save features of {} for {}.", dataset, gene, ex );
+				}
+			}
+
+			future.complete( fs );
+		});
+
+		return future;
+	}
+
+	/**
+	 * Forgets the features of a dataset that are kept in memory, e.g. once all pairs it takes part in are aligned.
+	 *
+	 * @param dataset - the name of the dataset
+	 */
+	public void evict( final String dataset )
+	{
+		features.remove( dataset );
+	}
+
+	public void clear()
+	{
+		features.clear();
+	}
+
+	/**
+	 * @return everything the features of a gene depend on, except filters
+	 */
+	public static String key(
+			final String dataset,
+			final String gene,
+			final AffineTransform2D transform,
+			final Interval interval,
+			final double[] displayRange,
+			final SIFTParam p )
+	{
+		return dataset + "/" + gene +
+				"/t=" + Arrays.toString( transform.getRowPackedCopy() ) +
+				"/interval=" + Arrays.toString( Intervals.minAsLongArray( interval ) ) + Arrays.toString( Intervals.maxAsLongArray( interval ) ) +
+				"/display=" + displayRange[ 0 ] + "," + displayRange[ 1 ] +
+				"/scale=" + p.scale +
+				"/rendering=" + p.rendering + "," + p.renderingSmoothness + "," + p.brightnessMin + "," + p.brightnessMax +
+				"/sift=" + p.sift.fdSize + "," + p.sift.fdBins + "," + p.sift.minOctaveSize + "," + p.sift.maxOctaveSize + "," + p.sift.steps + "," + p.sift.initialSigma;
+	}
+}
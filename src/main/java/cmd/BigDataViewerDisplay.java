@@ -42,6 +42,7 @@ import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.util.ValuePair;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import render.Render;
 import org.apache.logging.log4j.Logger;
@@ -95,6 +96,12 @@ public class BigDataViewerDisplay implements Callable<Void>
 	@Option(names = {"--ffMean"}, required = false, description = "mean/avg-filter all spots using a given radius, e.g --ffMean 2.5 (default: no filtering)")
 	private Double ffMean = null;
 
+	@Option(names = {"--sparse"}, required = false, description = "hold the expression values as a sparse matrix in memory, reduces memory for sparse data (default: false)")
+	private boolean sparse = false;
+
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	@Override
 	public Void call() throws Exception {
 
@@ -112,6 +119,7 @@ public class BigDataViewerDisplay implements Callable<Void>
 		if (SpatialDataContainer.isCompatibleContainer(inputPath))
 		{
 			final SpatialDataContainer container = SpatialDataContainer.openForReading(inputPath, service);
+			blockCacheOptions.apply(container);
 
 			if (dataset != null && !dataset.trim().isEmpty()) {
 				logger.debug("Opening dataset '{}' in '{}' ...", dataset, inputPath);
@@ -141,6 +149,7 @@ public class BigDataViewerDisplay implements Callable<Void>
 
 		logger.debug( genesToShow.size() ) ;
 
+		iodata.setSparseExpressionValues(sparse);
 		final STDataAssembly dataToVisualize = iodata.readData();
 
 		if (!useTransform)
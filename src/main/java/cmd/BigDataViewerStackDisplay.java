@@ -35,11 +35,13 @@ import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import render.Render;
 import org.apache.logging.log4j.Logger;
 
 import util.LoggerUtil;
+import util.Threads;
 
 @Command(name = "st-bdv-view3d", mixinStandardHelpOptions = true, version = "0.3.2-SNAPSHOT", description = "Spatial Transcriptomics as IMages project - visualize ST data in BigDataViewer")
 public class BigDataViewerStackDisplay implements Callable<Void> {
@@ -87,6 +89,12 @@ public class BigDataViewerStackDisplay implements Callable<Void> {
 	@Option(names = {"--ffMean"}, required = false, description = "mean/avg-filter all spots using a given radius, e.g --ffMean 2.5 (default: no filtering)")
 	private Double ffMean = null;
 
+	@Option(names = {"--sparse"}, required = false, description = "hold the expression values as a sparse matrix in memory, reduces memory for sparse data (default: false)")
+	private boolean sparse = false;
+
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	@Override
 	public Void call() throws Exception {
 
@@ -102,6 +110,7 @@ public class BigDataViewerStackDisplay implements Callable<Void> {
 		final List<SpatialDataIO> iodata = new ArrayList<>();
 		if (SpatialDataContainer.isCompatibleContainer(inputPath)) {
 			SpatialDataContainer container = SpatialDataContainer.openForReading(inputPath, service);
+			blockCacheOptions.apply(container);
 
 			if (datasets != null && !datasets.isEmpty()) {
 				for (String dataset : datasets.split(",")) {
@@ -136,14 +145,11 @@ public class BigDataViewerStackDisplay implements Callable<Void> {
 			return null;
 		}
 
-		final List<STDataAssembly> dataToVisualize = new ArrayList<>();
-		for (final SpatialDataIO sdio : iodata) {
-			STDataAssembly data = sdio.readData();
-			dataToVisualize.add(data);
-
-			if (!useTransform)
+		iodata.forEach(io -> io.setSparseExpressionValues(sparse));
+		final List<STDataAssembly> dataToVisualize = SpatialDataIO.readData(iodata, Threads.numThreads());
+		if (!useTransform)
+			for (final STDataAssembly data : dataToVisualize)
 				data.transform().set(new AffineTransform2D());
-		}
 
 		List<String> annotationList;
 		if (annotations != null && !annotations.isEmpty()) {
@@ -199,7 +205,7 @@ public class BigDataViewerStackDisplay implements Callable<Void> {
 		final DoubleType outOfBounds = new DoubleType( 0 );
 		final List<FilterFactory<DoubleType, DoubleType>> filterFactories =
 				RenderImage.assembleFilterFactories(
-						new STDataStatistics( dataToVisualize.get( 0 ).data() ),
+						STDataStatistics.of( dataToVisualize.get( 0 ).data() ),
 						ffSingleSpot, ffMedian, ffGauss, ffMean );
 
 		// random gene coloring
@@ -223,7 +229,7 @@ public class BigDataViewerStackDisplay implements Callable<Void> {
 							filterFactories );
 
 			BdvOptions options = BdvOptions.options().numRenderingThreads( Runtime.getRuntime().availableProcessors() ).addTo( source );
-			source = BdvFunctions.show( stack.rra, stack.interval, gene, options );
+			source = BdvFunctions.show( stack.source, options );
 			source.setDisplayRange( stack.minDisplay, stack.maxDisplay );
 			source.setDisplayRangeBounds( stack.minDisplay, stack.maxDisplay * 2);
 			source.getBdvHandle().getViewerPanel().setDisplayMode( DisplayMode.FUSED );
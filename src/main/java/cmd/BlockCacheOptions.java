@@ -0,0 +1,22 @@
+package cmd;
+
+import io.SpatialDataContainer;
+import picocli.CommandLine.Option;
+
+/**
+ * Options for the block cache of a {@link SpatialDataContainer}, shared by all commands that read expression values
+ * of a container repeatedly; include with {@code @Mixin}.
+ */
+public class BlockCacheOptions {
+
+	@Option(names = {"--blockCacheSize"}, required = false, description = "memory budget in MB for caching decoded blocks of the expression values, shared by all datasets of a container (default: 25% of the maximal heap size)")
+	private Long blockCacheSize = null;
+
+	/**
+	 * @param container - the container whose block cache is configured; left unchanged if no size was given
+	 */
+	public void apply(final SpatialDataContainer container) {
+		if (blockCacheSize != null)
+			container.setBlockCacheSize(blockCacheSize * 1024 * 1024);
+	}
+}
@@ -34,6 +34,7 @@ import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import picocli.CommandLine;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import util.Threads;
 import org.apache.logging.log4j.Logger;
@@ -101,6 +102,9 @@ public class InteractiveAlignment implements Callable<Void> {
 	@Option(names = {"--ffMean"}, required = false, description = "mean/avg-filter all spots using a given radius, e.g --ffMean 2.5 (default: no filtering)")
 	private Double ffMean = null;
 
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	@Override
 	public Void call() throws Exception
 	{
@@ -118,6 +122,7 @@ public class InteractiveAlignment implements Callable<Void> {
 
 		// we might save the transformation, so open for writing
 		final SpatialDataContainer container = SpatialDataContainer.openExisting(inputPath, service);
+		blockCacheOptions.apply(container);
 
 		logger.info("Opening dataset '{}' in '{}' ...", movingDataset, inputPath);
 
@@ -2,22 +2,29 @@ package cmd;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import gui.STDataAssembly;
+import io.BlockSizes;
+import io.CompressionReport;
+import io.Compressions;
 import io.SpatialDataContainer;
 import io.SpatialDataIO;
+import io.StorageType;
 
 import data.NormalizingSTData;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Command;
 import org.apache.logging.log4j.Logger;
 import util.LoggerUtil;
+import util.Threads;
 
 @Command(name = "st-normalize", mixinStandardHelpOptions = true, version = "0.3.2-SNAPSHOT", description = "Spatial Transcriptomics as IMages project - normalize dataset")
 public class Normalize implements Callable<Void> {
@@ -33,8 +40,36 @@ public class Normalize implements Callable<Void> {
 		@Option(names = {"-i", "--input"}, required = true, description = "comma separated list of input datasets, e.g. -i /home/ssq.n5")
 		private String input = null;
 
+		@Option(names = {"--geneMajor"}, required = false, description = "additionally store the expression values gene-major (one block per gene) for fast single-gene access; N5/Zarr only (default: false)")
+		private boolean geneMajor = false;
+
+		@Option(names = {"--materialize"}, required = false, description = "compute all normalized values once in parallel and keep them in memory before writing, instead of computing them on access (default: false)")
+		private boolean materialize = false;
+
+		@Option(names = {"--storageType"}, required = false, description = "how expression values are stored: FLOAT64, FLOAT32 or LOG_UINT8 (8-bit log-quantized, lossy, N5/Zarr only) (default: FLOAT64)")
+		private StorageType storageType = StorageType.FLOAT64;
+
+		@Option(names = {"--compression"}, required = false, description = "compression of the datasets: raw, gzip[:level], bzip2[:level], xz[:level], lz4, zstd[:level] or blosc[:codec[:level]]; zstd and blosc need the n5 codec plugins (default: gzip:3)")
+		private String compression = "gzip:3";
+
+		@Option(names = {"--blockSize"}, required = false, description = "block size of the expression values as 'genes,locations', or 'auto' to choose it from the data size and --accessPattern (default: 512,512)")
+		private String blockSize = "512,512";
+
+		@Option(names = {"--accessPattern"}, required = false, description = "expected access pattern for --blockSize auto: GENE, LOCATION or BALANCED (default: GENE)")
+		private BlockSizes.AccessPattern accessPattern = BlockSizes.AccessPattern.GENE;
+
+		@Option(names = {"--compressionReport"}, required = false, description = "log compression ratio and decode throughput of the written expression values (default: false)")
+		private boolean compressionReport = false;
+
 		@Override
 		public Void call() throws Exception {
+			if (storageType.isIntegral()) {
+				logger.error("Storage type {} would round the normalized values to integers, use FLOAT32, FLOAT64 or LOG_UINT8. Stopping.", storageType);
+				return null;
+			}
+			if (storageType.isQuantized())
+				logger.warn("Storage type {} is lossy, expression values are log-quantized to 256 levels (relative error of about 1% at the maximum value).", storageType);
+
 			List<String> inputDatasets = (input == null) ? new ArrayList<>() :
 					Arrays.stream(input.split(",")).map(String::trim).collect(Collectors.toList());
 			if (inputDatasets.isEmpty()) {
@@ -62,8 +97,9 @@ public class Normalize implements Callable<Void> {
 				return null;
 			}
 
+			final int[] matrixBlockSize = BlockSizes.parse(blockSize);
 			final boolean isStandaloneDataset = (containerPath == null || containerPath.trim().isEmpty());
-			final ExecutorService service = Executors.newFixedThreadPool(8);
+			final ExecutorService service = Threads.createFixedExecutorService();
 			SpatialDataContainer container = isStandaloneDataset ? null : SpatialDataContainer.openExisting(containerPath, service);
 			SpatialDataIO sdin;
 
@@ -79,12 +115,33 @@ public class Normalize implements Callable<Void> {
 					return null;
 				}
 
-				STDataAssembly normalizedData = new STDataAssembly(new NormalizingSTData(stData.data()),
+				final RandomAccessibleInterval<DoubleType> librarySizes = NormalizingSTData.getLibrarySizes(stData.data());
+
+				STDataAssembly normalizedData = new STDataAssembly(new NormalizingSTData(stData.data(), librarySizes, materialize, service),
 																   stData.statistics(),
 																   stData.transform() );
 
 				SpatialDataIO sdout = SpatialDataIO.open(outputPath, service);
+				sdout.setWriteGeneMajorExpressionValues(geneMajor);
+				sdout.setStorageType(storageType);
+				sdout.setCompression(Compressions.create(compression));
+				if (matrixBlockSize == null)
+					sdout.setAutoBlockSize(accessPattern);
+				else
+					sdout.setBlockSize(SpatialDataIO.defaultVectorBlockSize, matrixBlockSize);
+
 				sdout.writeData(normalizedData);
+
+				// stored in the output so that the raw library sizes remain available, the input is not modified
+				if (!stData.data().getAnnotations().containsKey(NormalizingSTData.librarySizeAnnotation))
+					sdout.updateStoredAnnotations(Collections.singletonMap(NormalizingSTData.librarySizeAnnotation, librarySizes));
+
+				if (compressionReport) {
+					final CompressionReport report = sdout.measureCompression(64);
+					if (report != null)
+						logger.info("{}", report);
+				}
+
 				if (!isStandaloneDataset)
 					container.addExistingDataset(outputPath);
 			}
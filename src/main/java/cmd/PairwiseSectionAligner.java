@@ -19,6 +19,7 @@ import align.Pairwise;
 import align.PairwiseSIFT;
 import align.SIFTParam;
 import align.SIFTParam.SIFTPreset;
+import align.SiftFeatureCache;
 import align.SiftMatch;
 import analyze.ExtractGeneLists;
 import data.STData;
@@ -31,6 +32,7 @@ import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.numeric.real.DoubleType;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import util.Threads;
 import org.apache.logging.log4j.Logger;
@@ -96,6 +98,12 @@ public class PairwiseSectionAligner implements Callable<Void> {
 	@Option(names = {"--numThreads"}, required = false, description = "number of threads for parallel processing (default: 8)")
 	private int numThreads = 8;
 
+	@Option(names = {"--saveFeatures"}, required = false, description = "store the SIFT features of every dataset and gene in the container and load them in later runs with the same parameters; delete the 'features' group if the datasets change (default: false)")
+	private boolean saveFeatures = false;
+
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	//-c /Users/spreibi/Documents/BIMSB/Publications/imglib2-st/slide-seq-test.n5 -d 'Puck_180602_20,Puck_180602_18,Puck_180602_17,Puck_180602_16,Puck_180602_15,Puck_180531_23,Puck_180531_22,Puck_180531_19,Puck_180531_18,Puck_180531_17,Puck_180531_13,Puck_180528_22,Puck_180528_20' -n 100 --overwrite
 
 	@Override
@@ -114,6 +122,7 @@ public class PairwiseSectionAligner implements Callable<Void> {
 
 		final ExecutorService service = Executors.newFixedThreadPool(8);
 		SpatialDataContainer container = SpatialDataContainer.openExisting(containerPath, service);
+		blockCacheOptions.apply(container);
 
 		final List<String> datasetNames;
 		if (datasets != null && !datasets.trim().isEmpty()) {
@@ -133,11 +142,7 @@ public class PairwiseSectionAligner implements Callable<Void> {
 		}
 
 		logger.info("Opening {} datasets", datasetNames.size());
-		final List<STDataAssembly> dataToAlign = new ArrayList<>();
-		for (final String dataset : datasetNames) {
-			logger.debug("Opening dataset '{}' in '{}' ...", dataset, containerPath);
-			dataToAlign.add(container.openDataset(dataset).readData());
-		}
+		final List<STDataAssembly> dataToAlign = container.readDatasets(datasetNames, threadsUse);
 
 		if (maxEpsilon <= 0.0) {
 			maxEpsilon = 10 * dataToAlign.stream()
@@ -162,6 +167,7 @@ public class PairwiseSectionAligner implements Callable<Void> {
 					}
 					else {
 						logger.error("Previous results exist '{}', stopping. [Rerun with --overwrite for automatic deletion of previous results]", pairwiseMatchName);
+						service.shutdown();
 						return null;
 					}
 				}
@@ -201,73 +207,88 @@ public class PairwiseSectionAligner implements Callable<Void> {
 			stData.data().getGeneAnnotations().put(stdevLabel, entropyValues);
 		}
 
-		for ( int i = 0; i < dataToAlign.size() - 1; ++i ) {
-			for ( int j = i + 1; j < dataToAlign.size(); ++j ) {
-				if ( Math.abs( j - i ) > range )
-					continue;
+		// one scheduler for all pairs, the stages of all genes of a pair share its threads
+		final ExecutorService alignService = Threads.createFixedExecutorService(threadsUse);
 
-				final STData stData1 = dataToAlign.get( i ).data();
-				final STData stData2 = dataToAlign.get( j ).data();
-				final AffineTransform2D t1 = dataToAlign.get( i ).transform();
-				final AffineTransform2D t2 = dataToAlign.get( j ).transform();
-				final String dataset1 = datasetNames.get( i );
-				final String dataset2 = datasetNames.get( j );
+		// features of an image that is needed again are extracted once (and stored for later runs with --saveFeatures)
+		final SiftFeatureCache featureCache = new SiftFeatureCache(saveFeatures ? container : null);
 
-				// assemble gene set for alignment
-				final HashSet<String> genesToTest = new HashSet<>(Pairwise.genesToTest(stData1, stData2, stdevLabel, numGenes));
-		
-				if ( genes != null && !genes.isEmpty())
-				{
-					HashSet< String > genes1 = new HashSet<>( stData1.getGeneNames() );
-					HashSet< String > genes2 = new HashSet<>( stData2.getGeneNames() );
+		try {
+			for ( int i = 0; i < dataToAlign.size() - 1; ++i ) {
+				for ( int j = i + 1; j < dataToAlign.size(); ++j ) {
+					if ( Math.abs( j - i ) > range )
+						continue;
+
+					final STData stData1 = dataToAlign.get( i ).data();
+					final STData stData2 = dataToAlign.get( j ).data();
+					final AffineTransform2D t1 = dataToAlign.get( i ).transform();
+					final AffineTransform2D t2 = dataToAlign.get( j ).transform();
+					final String dataset1 = datasetNames.get( i );
+					final String dataset2 = datasetNames.get( j );
+
+					// assemble gene set for alignment
+					final HashSet<String> genesToTest = new HashSet<>(Pairwise.genesToTest(stData1, stData2, stdevLabel, numGenes));
 		
-					for ( final String gene : genes.trim().split( "," ) )
+					if ( genes != null && !genes.isEmpty())
 					{
-						String name = gene.trim();
+						HashSet< String > genes1 = new HashSet<>( stData1.getGeneNames() );
+						HashSet< String > genes2 = new HashSet<>( stData2.getGeneNames() );
+		
+						for ( final String gene : genes.trim().split( "," ) )
+						{
+							String name = gene.trim();
 						
-						if ( genes1.contains( name ) && genes2.contains( name ) )
-							genesToTest.add( name );
-						else
-							logger.warn("Gene '{}' is not present in both datasets, omitting.", name);
+							if ( genes1.contains( name ) && genes2.contains( name ) )
+								genesToTest.add( name );
+							else
+								logger.warn("Gene '{}' is not present in both datasets, omitting.", name);
+						}
 					}
-				}
 
-				logger.debug("Gene set for pairwise alignment: {}", genesToTest.toString());
-				//
-				// start alignment
-				//
-				logger.info("Aligning {} <> {} on {} genes ({} threads)", dataset1, dataset2, genesToTest.size(), threadsUse);
-				final SIFTParam p = new SIFTParam();
-				final List< FilterFactory< DoubleType, DoubleType > > filterFactories = null;
-				p.setDatasetParameters(maxEpsilon, scale, 1024, filterFactories, rendering, renderingFactor, brightnessMin, brightnessMax);
-				p.setIntrinsicParameters( SIFTPreset.VERY_THOROUGH);
-				p.minInliersGene = minNumInliersGene;
-				p.minInliersTotal = minNumInliers;
-
-				if ( visualizeResult )
-				{
-					String renderingGene = genesToTest.iterator().next();
-					AlignTools.defaultGene = renderingGene;
-					AlignTools.defaultScale = scale;
-					logger.info("Gene used for rendering: {}", renderingGene);
-				}
+					logger.debug("Gene set for pairwise alignment: {}", genesToTest.toString());
+					//
+					// start alignment
+					//
+					logger.info("Aligning {} <> {} on {} genes ({} threads)", dataset1, dataset2, genesToTest.size(), threadsUse);
+					final SIFTParam p = new SIFTParam();
+					final List< FilterFactory< DoubleType, DoubleType > > filterFactories = null;
+					p.setDatasetParameters(maxEpsilon, scale, 1024, filterFactories, rendering, renderingFactor, brightnessMin, brightnessMax);
+					p.setIntrinsicParameters( SIFTPreset.VERY_THOROUGH);
+					p.minInliersGene = minNumInliersGene;
+					p.minInliersTotal = minNumInliers;
+
+					if ( visualizeResult )
+					{
+						String renderingGene = genesToTest.iterator().next();
+						AlignTools.defaultGene = renderingGene;
+						AlignTools.defaultScale = scale;
+						logger.info("Gene used for rendering: {}", renderingGene);
+					}
+
+					logger.debug("Processing SIFT with parameters: {}", p.toString());
+					long time = System.currentTimeMillis();
+					ProgressBar progressBar = new ProgressBar(100);
+					SiftMatch match = PairwiseSIFT.pairwiseSIFT(
+							stData1, t1, dataset1, stData2, t2, dataset2,
+							new RigidModel2D(), new RigidModel2D(),
+							new ArrayList<>( genesToTest ),
+							p, visualizeResult, alignService, featureCache, new ArrayList<>(), progressBar);
+
+					if (saveResult && match.getNumInliers() >= minNumInliers) {
+						container.savePairwiseMatch(match);
+					}
+					logger.debug("Aligned {} <> {} in {} s", dataset1, dataset2, (System.currentTimeMillis() - time) / 1000);
 
-				logger.debug("Processing SIFT with parameters: {}", p.toString());
-				long time = System.currentTimeMillis();
-				ProgressBar progressBar = new ProgressBar(100);
-				SiftMatch match = PairwiseSIFT.pairwiseSIFT(
-						stData1, t1, dataset1, stData2, t2, dataset2,
-						new RigidModel2D(), new RigidModel2D(),
-						new ArrayList<>( genesToTest ),
-						p, visualizeResult, threadsUse, progressBar);
-
-				if (saveResult && match.getNumInliers() >= minNumInliers) {
-					container.savePairwiseMatch(match);
 				}
-				logger.debug("Aligned {} <> {} in {} s", dataset1, dataset2, (System.currentTimeMillis() - time) / 1000);
 
+				// all pairs of dataset i are done
+				featureCache.evict(datasetNames.get(i));
 			}
 		}
+		finally {
+			// the threads are not daemons, they would keep the JVM alive
+			alignService.shutdown();
+		}
 
 		service.shutdown();
 		return null;
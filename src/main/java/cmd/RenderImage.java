@@ -39,18 +39,19 @@ import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform2D;
-import net.imglib2.realtransform.RealViews;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
-import net.imglib2.view.Views;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import render.MaxDistanceParam;
+import render.FlatKDTreeSamples;
 import render.Render;
+import render.TiledRasterizer;
 import org.apache.logging.log4j.Logger;
 
 import util.LoggerUtil;
@@ -83,7 +84,7 @@ public class RenderImage implements Callable<Void> {
 	@Option(names = {"-bmax", "--brightnessMax"}, required = false, description = "max initial brightness relative to the maximal value (default: 0.5)")
 	private double brightnessMax = 0.5;
 
-	@Option(names = {"--rendering"}, required = false, description = "initial rendering type (Gauss, Mean, NearestNeighbor, Linear), e.g --rendering Gauss (default: Gauss)")
+	@Option(names = {"--rendering"}, required = false, description = "initial rendering type (Gauss, Mean, NN, Linear, Splat - a faster Gauss, GaussGrid - an approximate Gauss for large -rf), e.g --rendering Gauss (default: Gauss)")
 	private Rendering rendering = Rendering.Gauss;
 
 	@Option(names = {"-rf", "--renderingFactor"}, required = false, description = "factor for the amount of filtering or radius used for rendering, corresponds to smoothness for Gauss, e.g -rf 2.0 (default: 1.5)")
@@ -107,6 +108,12 @@ public class RenderImage implements Callable<Void> {
 	@Option(names = {"--ignoreTransforms"}, required = false, description = "ignore the transforms stored in the metadata when rendering (default: false)")
 	private boolean ignoreTransforms = false;
 
+	@Option(names = {"--sparse"}, required = false, description = "hold the expression values as a sparse matrix in memory, reduces memory for sparse data (default: false)")
+	private boolean sparse = false;
+
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	@Override
 	public Void call() throws Exception {
 		if (! SpatialDataContainer.exists(inputPath)) {
@@ -118,6 +125,7 @@ public class RenderImage implements Callable<Void> {
 		final ArrayList<Pair<String, SpatialDataIO>> iodata = new ArrayList<>();
 		if (SpatialDataContainer.isCompatibleContainer(inputPath)) {
 			SpatialDataContainer container = SpatialDataContainer.openForReading(inputPath, service);
+			blockCacheOptions.apply(container);
 
 			final List<String> datasetNames;
 			if (datasets != null && !datasets.isEmpty())
@@ -145,6 +153,7 @@ public class RenderImage implements Callable<Void> {
 
 		final List<Pair<STData, AffineTransform2D>> dataToVisualize = new ArrayList<>();
 		for (final Pair<String, SpatialDataIO> entry : iodata ) {
+			entry.getB().setSparseExpressionValues(sparse);
 			final STDataAssembly stAssembly = entry.getB().readData();
 
 			if (stAssembly != null) {
@@ -163,7 +172,7 @@ public class RenderImage implements Callable<Void> {
 
 		final List<FilterFactory<DoubleType, DoubleType>> filterFactories =
 				assembleFilterFactories(
-						new STDataStatistics( dataToVisualize.get( 0 ).getA() ),
+						STDataStatistics.of( dataToVisualize.get( 0 ).getA() ),
 						ffSingleSpot, ffMedian, ffGauss, ffMean );
 
 		if ( output == null )
@@ -177,7 +186,7 @@ public class RenderImage implements Callable<Void> {
 			logger.info("Rendering gene {}", gene);
 
 			//ImagePlus imp = AlignTools.visualizeList( dataToVisualize, scale, gene, true );// filterFactories );
-			ImagePlus imp = visualizeList( dataToVisualize, scale, brightnessMin, brightnessMax, gene, rendering, renderingFactor, border, filterFactories );
+			ImagePlus imp = visualizeList( dataToVisualize, scale, brightnessMin, brightnessMax, gene, rendering, renderingFactor, border, filterFactories, service );
 			imp.setTitle( gene );
 
 			if ( output == null )
@@ -206,7 +215,8 @@ public class RenderImage implements Callable<Void> {
 			final Rendering renderType,
 			final double renderingFactor,
 			final int border,
-			final List< FilterFactory< DoubleType, DoubleType > > filterFactories )
+			final List< FilterFactory< DoubleType, DoubleType > > filterFactories,
+			final ExecutorService service )
 	{
 		// visualize result using the global transform
 		final AffineTransform2D tS = new AffineTransform2D();
@@ -237,13 +247,14 @@ public class RenderImage implements Callable<Void> {
 			final RandomAccessibleInterval<DoubleType> vis =
 					display(
 							pair.getA(),
-							new STDataStatistics( pair.getA() ),
+							STDataStatistics.of( pair.getA() ),
 							pair.getB().copy().preConcatenate( tS ),
 							renderType,
 							renderingFactor,
 							filterFactories,
 							gene,
-							finalInterval );
+							finalInterval,
+							service );
 
 			logger.info("rendering  {}", pair.getA().toString());
 
@@ -308,7 +319,7 @@ public class RenderImage implements Callable<Void> {
 	{
 		final RealRandomAccessible< DoubleType > renderRRA;
 
-		if ( renderType == Rendering.Gauss )
+		if ( renderType == Rendering.Gauss || renderType == Rendering.Splat || renderType == Rendering.GaussGrid )
 		{
 			renderRRA = Render.render( data, new GaussianFilterFactory<>( new DoubleType( 0 ), medianDistance*renderingFactor, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
 		}
@@ -337,11 +348,28 @@ public class RenderImage implements Callable<Void> {
 			final List< FilterFactory< DoubleType, DoubleType > > filterFactories,
 			final String gene,
 			final Interval renderInterval )
+	{
+		return display( stdata, stStats, coordinateTransform, renderType, renderingFactor, filterFactories, gene, renderInterval, null );
+	}
+
+	/**
+	 * @param service - renders in parallel together with the calling thread, null renders in the calling thread only
+	 */
+	public static RandomAccessibleInterval< DoubleType > display(
+			final STData stdata,
+			final STDataStatistics stStats,
+			final AffineGet coordinateTransform,
+			final Rendering renderType,
+			final double renderingFactor,
+			final List< FilterFactory< DoubleType, DoubleType > > filterFactories,
+			final String gene,
+			final Interval renderInterval,
+			final ExecutorService service )
 	{
 		// we work at full resolution so rendering and filter parameters are independent of the scale
 		final IterableRealInterval< DoubleType > data = Render.getRealIterable( stdata, null, gene, filterFactories );
 
-		return display(data, stStats.getMedianDistance(), coordinateTransform, renderType, renderingFactor, renderInterval );
+		return display(data, stStats.getMedianDistance(), coordinateTransform, renderType, renderingFactor, renderInterval, service );
 		/*
 		final RealRandomAccessible< DoubleType > renderRRA =
 				createRRA( data, stStats.getMedianDistance(), renderType, renderingFactor );
@@ -357,10 +385,29 @@ public class RenderImage implements Callable<Void> {
 			final double renderingFactor,
 			final Interval renderInterval )
 	{
-		final RealRandomAccessible< DoubleType > renderRRA =
-				createRRA( data, medianDistance, renderType, renderingFactor );
+		return display( data, medianDistance, coordinateTransform, renderType, renderingFactor, renderInterval, null );
+	}
 
-		return Views.interval( RealViews.affine( renderRRA, coordinateTransform ), renderInterval );
+	/**
+	 * @param service - renders in parallel together with the calling thread, null renders in the calling thread only
+	 */
+	public static RandomAccessibleInterval< DoubleType > display(
+			final IterableRealInterval< DoubleType > data,
+			final double medianDistance,
+			final AffineGet coordinateTransform,
+			final Rendering renderType,
+			final double renderingFactor,
+			final Interval renderInterval,
+			final ExecutorService service )
+	{
+		return TiledRasterizer.rasterize(
+				FlatKDTreeSamples.of( data ),
+				renderType,
+				medianDistance,
+				renderingFactor,
+				coordinateTransform,
+				renderInterval,
+				service );
 	}
 
 	public static void main(final String... args) {
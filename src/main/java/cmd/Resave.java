@@ -16,13 +16,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import gui.STDataAssembly;
+import io.BlockSizes;
+import io.CompressionReport;
+import io.Compressions;
 import io.SpatialDataContainer;
 import io.SpatialDataIO;
+import io.StorageType;
+import io.StreamingSpatialDataWriter;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
@@ -32,6 +36,8 @@ import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 
 import data.NormalizingSTData;
 import data.STData;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
 import io.TextFileAccess;
 import io.TextFileIO;
 import picocli.CommandLine;
@@ -39,6 +45,7 @@ import picocli.CommandLine.Option;
 import picocli.CommandLine.Command;
 import org.apache.logging.log4j.Logger;
 import util.LoggerUtil;
+import util.Threads;
 
 @Command(name = "st-resave", mixinStandardHelpOptions = true, version = "0.3.2-SNAPSHOT", description = "Spatial Transcriptomics as IMages project - resave a slice-dataset to N5/AnnData")
 public class Resave implements Callable<Void> {
@@ -56,8 +63,39 @@ public class Resave implements Callable<Void> {
 	@Option(names = {"-n", "--normalize"}, required = false, description = "log-normalize the input data before saving (default: false)")
 	private boolean normalize = false;
 
+	@Option(names = {"--geneMajor"}, required = false, description = "additionally store the expression values gene-major (one block per gene) for fast single-gene access; N5/Zarr only (default: false)")
+	private boolean geneMajor = false;
+
+	@Option(names = {"--spillDirectory"}, required = false, description = "parse the expression values into a temporary N5 in this directory instead of memory, for matrices larger than the heap (default: in memory)")
+	private String spillDirectory = null;
+
+	@Option(names = {"--streaming"}, required = false, description = "write the expression values block-row by block-row while parsing, without holding them in memory (reads the input twice, genes are stored in file order); N5/Zarr only (default: false)")
+	private boolean streaming = false;
+
+	@Option(names = {"--storageType"}, required = false, description = "how expression values are stored: FLOAT64, FLOAT32, UINT16 (rounded counts, not with --normalize) or LOG_UINT8 (8-bit log-quantized, N5/Zarr only) (default: FLOAT64)")
+	private StorageType storageType = StorageType.FLOAT64;
+
+	@Option(names = {"--compression"}, required = false, description = "compression of the datasets: raw, gzip[:level], bzip2[:level], xz[:level], lz4, zstd[:level] or blosc[:codec[:level]]; zstd and blosc need the n5 codec plugins (default: gzip:3)")
+	private String compression = "gzip:3";
+
+	@Option(names = {"--blockSize"}, required = false, description = "block size of the expression values as 'genes,locations', or 'auto' to choose it from the data size and --accessPattern (default: 512,512)")
+	private String blockSize = "512,512";
+
+	@Option(names = {"--accessPattern"}, required = false, description = "expected access pattern for --blockSize auto: GENE, LOCATION or BALANCED (default: GENE)")
+	private BlockSizes.AccessPattern accessPattern = BlockSizes.AccessPattern.GENE;
+
+	@Option(names = {"--compressionReport"}, required = false, description = "log compression ratio and decode throughput of the written expression values (default: false)")
+	private boolean compressionReport = false;
+
 	@Override
 	public Void call() throws Exception {
+		if (normalize && storageType.isIntegral()) {
+			logger.error("Storage type {} would round the normalized values to integers, use FLOAT32, FLOAT64 or LOG_UINT8. Stopping.", storageType);
+			return null;
+		}
+		if (storageType.isQuantized())
+			logger.warn("Storage type {} is lossy, expression values are log-quantized to 256 levels (relative error of about 1% at the maximum value).", storageType);
+
 		if (inputPaths == null) {
 			logger.error("No input paths defined: {}. Stopping.", inputPaths);
 			return null;
@@ -97,37 +135,109 @@ public class Resave implements Callable<Void> {
 			return null;
 		}
 
-		STData data;
-		if (annotations.isEmpty())
-			data = TextFileIO.readSlideSeq(locationsIn, readsIn);
-		else
-			data = TextFileIO.readSlideSeq(locationsIn, readsIn, annotationsInMap);
+		final ExecutorService service = Threads.createFixedExecutorService();
+		File spillFile = null;
+
+		try {
+			if (streaming) {
+				final SpatialDataIO sdio = SpatialDataIO.open(outputFile.getAbsolutePath(), service);
+				if (!(sdio instanceof StreamingSpatialDataWriter)) {
+					logger.error("Streaming is only supported for N5/Zarr output, not for '{}'.", outputFile.getPath());
+					return null;
+				}
+
+				sdio.setWriteGeneMajorExpressionValues(geneMajor);
+				sdio.setStorageType(storageType);
+				configureCompression(sdio);
+				logger.info("Streaming to file '{}'", outputFile.getPath());
+				TextFileIO.resaveSlideSeqStreaming(locationsIn, readsIn, openCsvInput(readsFile, "reads"), annotationsInMap, normalize, service, (StreamingSpatialDataWriter) sdio);
+				reportCompression(sdio);
+
+				moveToContainer(outputFile, service);
+
+				logger.info("Done.");
+				return null;
+			}
+
+			if (spillDirectory != null) {
+				Files.createDirectories(Paths.get(spillDirectory));
+				spillFile = Files.createTempDirectory(Paths.get(spillDirectory), "st-resave-").toFile();
+				logger.info("Spilling expression values to '{}'", spillFile.getAbsolutePath());
+			}
 
-		if (normalize) {
-			logger.info("Normalizing input ... ");
-			data =  new NormalizingSTData(data);
+			STData data = TextFileIO.readSlideSeq(locationsIn, readsIn, annotationsInMap, service, spillFile);
+
+			if (normalize) {
+				logger.info("Normalizing input ... ");
+				// stored in the output so that the raw library sizes remain available
+				final RandomAccessibleInterval<DoubleType> librarySizes = NormalizingSTData.getLibrarySizes(data);
+				data.getAnnotations().put(NormalizingSTData.librarySizeAnnotation, librarySizes);
+				data =  new NormalizingSTData(data, librarySizes, false);
+			}
+
+			SpatialDataIO sdio = SpatialDataIO.open(outputFile.getAbsolutePath(), service);
+			sdio.setWriteGeneMajorExpressionValues(geneMajor);
+			sdio.setStorageType(storageType);
+			configureCompression(sdio);
+			logger.info("Saving in file '{}'", outputFile.getPath());
+			sdio.writeData(new STDataAssembly(data));
+			reportCompression(sdio);
+
+			moveToContainer(outputFile, service);
+
+			logger.info("Done.");
+			return null;
 		}
+		finally {
+			// the spilled values are read lazily until the output is written
+			if (spillFile != null)
+				deleteRecursively(spillFile);
 
-		final ExecutorService service = Executors.newFixedThreadPool(8);
-		SpatialDataIO sdio = SpatialDataIO.open(outputFile.getAbsolutePath(), service);
-		logger.info("Saving in file '{}'", outputFile.getPath());
-		sdio.writeData(new STDataAssembly(data));
+			service.shutdown();
+		}
+	}
 
-		if (containerPath != null) {
-			final File n5File = new File(containerPath);
-			SpatialDataContainer container;
-			if (n5File.exists())
-				container = SpatialDataContainer.openExisting(containerPath, service);
-			else
-				container = SpatialDataContainer.createNew(containerPath, service);
+	private void configureCompression(final SpatialDataIO sdio) {
+		sdio.setCompression(Compressions.create(compression));
+
+		final int[] matrixBlockSize = BlockSizes.parse(blockSize);
+		if (matrixBlockSize == null)
+			sdio.setAutoBlockSize(accessPattern);
+		else
+			sdio.setBlockSize(SpatialDataIO.defaultVectorBlockSize, matrixBlockSize);
+	}
 
-			logger.info("Moving file to '{}'", containerPath);
-			container.addExistingDataset(outputFile.getAbsolutePath());
+	private void reportCompression(final SpatialDataIO sdio) throws IOException {
+		if (compressionReport) {
+			final CompressionReport report = sdio.measureCompression(64);
+			if (report != null)
+				logger.info("{}", report);
 		}
+	}
 
-		logger.info("Done.");
-		service.shutdown();
-		return null;
+	private void moveToContainer(final File outputFile, final ExecutorService service) throws IOException {
+		if (containerPath == null)
+			return;
+
+		final File n5File = new File(containerPath);
+		SpatialDataContainer container;
+		if (n5File.exists())
+			container = SpatialDataContainer.openExisting(containerPath, service);
+		else
+			container = SpatialDataContainer.createNew(containerPath, service);
+
+		logger.info("Moving file to '{}'", containerPath);
+		container.addExistingDataset(outputFile.getAbsolutePath());
+	}
+
+	private static void deleteRecursively(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (final File child : children)
+				deleteRecursively(child);
+
+		if (!file.delete())
+			logger.warn("Could not delete temporary file '{}'", file.getAbsolutePath());
 	}
 
 	private static BufferedReader openCsvInput(File file, String contentDescriptor) throws IOException {
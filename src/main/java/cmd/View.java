@@ -14,6 +14,7 @@ import io.SpatialDataContainer;
 import io.SpatialDataIO;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
 import picocli.CommandLine.Option;
 import org.apache.logging.log4j.Logger;
 
@@ -31,6 +32,9 @@ public class View implements Callable<Void> {
 	@Option(names = {"-d", "--datasets"}, required = false, description = "if input is a container: comma separated list of datasets, e.g. -d 'Puck_180528_20,Puck_180528_22' (default: open all datasets)")
 	private String datasets = null;
 
+	@Mixin
+	private BlockCacheOptions blockCacheOptions = new BlockCacheOptions();
+
 	@Override
 	public Void call() throws IOException {
 		if (! SpatialDataContainer.exists(inputPath)) {
@@ -43,6 +47,7 @@ public class View implements Callable<Void> {
 		final List<String> datasetNames = new ArrayList<>();
 		if (SpatialDataContainer.isCompatibleContainer(inputPath)) {
 			SpatialDataContainer container = SpatialDataContainer.openExisting(inputPath, service);
+			blockCacheOptions.apply(container);
 
 			if (datasets != null && !datasets.trim().isEmpty()) {
 				Arrays.stream(datasets.split(","))
@@ -35,15 +35,22 @@ public class NormalizingRandomAccess implements RandomAccess< DoubleType >
 //		by 10*5 to get meaningful numbers, add 1 to escape infinities
 //		and take a logarithm of that.
 
-		final double d_mn = inputRandomAccess.get().get();
-		final double sum_k = sumsPerLocationRandomAccess.get().get();
+		value.set( normalize( inputRandomAccess.get().get(), sumsPerLocationRandomAccess.get().get() ) );
 
+		return value;
+	}
+
+	/**
+	 * @param d_mn - the expression value of gene m at location n
+	 * @param sum_k - the sum of all expression values at location n
+	 * @return the log-normalized value
+	 */
+	public static double normalize( final double d_mn, final double sum_k )
+	{
 		if ( sum_k == 0 || d_mn == 0 )
-			value.set( 0 );
+			return 0;
 		else
-			value.set( Math.log( 10000 * d_mn / sum_k + 1 ) );
-
-		return value;
+			return Math.log( 10000 * d_mn / sum_k + 1 );
 	}
 
 	@Override
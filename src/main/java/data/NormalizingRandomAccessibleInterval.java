@@ -35,21 +35,37 @@ public class NormalizingRandomAccessibleInterval implements RandomAccessibleInte
 	/*
 	 * the sum of all genes at each location
 	 */
-	final Img< DoubleType > sumsPerLocation;
+	final RandomAccessibleInterval< DoubleType > sumsPerLocation;
 
 	public NormalizingRandomAccessibleInterval( final RandomAccessibleInterval< DoubleType > input )
 	{
+		this( input, computeSumsPerLocation( input ) );
+	}
+
+	/**
+	 * @param input - the expression values, size: [numGenes x numLocations]
+	 * @param sumsPerLocation - precomputed sum of all genes at each location (library size), size: [numLocations]
+	 */
+	public NormalizingRandomAccessibleInterval( final RandomAccessibleInterval< DoubleType > input, final RandomAccessibleInterval< DoubleType > sumsPerLocation )
+	{
+		if ( sumsPerLocation.numDimensions() != 1 || sumsPerLocation.dimension( 0 ) != input.dimension( 1 ) )
+			throw new IllegalArgumentException( "sums per location do not match the number of locations: " + sumsPerLocation.dimension( 0 ) + " != " + input.dimension( 1 ) );
+
 		this.n = input.numDimensions();
 		this.input = input;
-		
-		this.sumsPerLocation = ArrayImgs.doubles( input.dimension( 1 ) ); // numLocations in size
-
-		init();
+		this.sumsPerLocation = sumsPerLocation;
 	}
 
-	final protected void init()
+	public RandomAccessibleInterval< DoubleType > getSumsPerLocation() { return sumsPerLocation; }
+
+	/**
+	 * @param input - the expression values, size: [numGenes x numLocations]
+	 * @return the sum of all genes at each location, size: [numLocations]
+	 */
+	public static Img< DoubleType > computeSumsPerLocation( final RandomAccessibleInterval< DoubleType > input )
 	{
 		final long numLocations = input.dimension( 1 );
+		final Img< DoubleType > sumsPerLocation = ArrayImgs.doubles( numLocations );
 
 		logger.info("Computing normalization sums for all genes ({}) and locations ({}) ... ", input.dimension(0), input.dimension(1));
 
@@ -94,6 +110,8 @@ public class NormalizingRandomAccessibleInterval implements RandomAccessibleInte
 		}
 
 		executorService.shutdown();
+
+		return sumsPerLocation;
 	}
 
 	@Override
@@ -1,8 +1,13 @@
 package data;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import imglib2.ExpValueRealIterable;
 import net.imglib2.Cursor;
@@ -10,16 +15,33 @@ import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.IterableRealInterval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealCursor;
 import net.imglib2.RealLocalizable;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Util;
 import net.imglib2.view.Views;
+import org.apache.logging.log4j.Logger;
+import util.LoggerUtil;
+import util.Threads;
 
 public class NormalizingSTData implements STData
 {
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	/**
+	 * name of the location annotation that holds the library size (sum of all genes) of each location of the raw data
+	 */
+	public static String librarySizeAnnotation = "librarySize";
+
 	final STData data;
+	final RandomAccessibleInterval< DoubleType > sumsPerLocation;
 	final RandomAccessibleInterval< DoubleType > allExprValues;
 
 	/**
@@ -28,9 +50,166 @@ public class NormalizingSTData implements STData
 	 * @param data - an STData instance
 	 */
 	public NormalizingSTData( final STData data )
+	{
+		this( data, false );
+	}
+
+	/**
+	 * Replaces the underlying data with a normalized version of it, the library sizes are taken from the
+	 * {@link #librarySizeAnnotation} annotation if it matches the data (see {@link #getLibrarySizes(STData)}).
+	 *
+	 * @param data - an STData instance
+	 * @param materialize - if true, all normalized values are computed once (in parallel) and kept in a cell image,
+	 * otherwise each access computes the normalized value
+	 */
+	public NormalizingSTData( final STData data, final boolean materialize )
+	{
+		this( data, getLibrarySizes( data ), materialize );
+	}
+
+	/**
+	 * Replaces the underlying data with a normalized version of it
+	 *
+	 * @param data - an STData instance
+	 * @param sumsPerLocation - the library size of each location, size: [numLocations]
+	 * @param materialize - if true, all normalized values are computed once (in parallel) and kept in a cell image
+	 */
+	public NormalizingSTData( final STData data, final RandomAccessibleInterval< DoubleType > sumsPerLocation, final boolean materialize )
+	{
+		this( data, sumsPerLocation, materialize, null );
+	}
+
+	/**
+	 * Replaces the underlying data with a normalized version of it
+	 *
+	 * @param data - an STData instance
+	 * @param sumsPerLocation - the library size of each location, size: [numLocations]
+	 * @param materialize - if true, all normalized values are computed once (in parallel) and kept in a cell image
+	 * @param service - executes the materialization, null uses a temporary thread pool
+	 */
+	public NormalizingSTData(
+			final STData data,
+			final RandomAccessibleInterval< DoubleType > sumsPerLocation,
+			final boolean materialize,
+			final ExecutorService service )
 	{
 		this.data = data;
-		this.allExprValues = new NormalizingRandomAccessibleInterval( data.getAllExprValues() );
+		this.sumsPerLocation = sumsPerLocation;
+
+		final NormalizingRandomAccessibleInterval normalized = new NormalizingRandomAccessibleInterval( data.getAllExprValues(), sumsPerLocation );
+		this.allExprValues = materialize ? materialize( normalized, service ) : normalized;
+	}
+
+	/**
+	 * @return the library size (sum of all genes of the raw data) of each location, size: [numLocations]
+	 */
+	public RandomAccessibleInterval< DoubleType > getLibrarySizes() { return sumsPerLocation; }
+
+	/**
+	 * The stored {@link #librarySizeAnnotation} annotation is only used if it agrees with the sums of the data at a few
+	 * sampled locations, so that e.g. the raw library sizes copied into a normalized dataset are not applied again.
+	 *
+	 * @param data - an STData instance holding raw counts
+	 * @return the stored {@link #librarySizeAnnotation} annotation if present and valid, otherwise the library sizes are computed
+	 */
+	public static RandomAccessibleInterval< DoubleType > getLibrarySizes( final STData data )
+	{
+		final RandomAccessibleInterval< ? extends NativeType< ? > > stored = data.getAnnotations().get( librarySizeAnnotation );
+
+		if ( stored != null && stored.numDimensions() == 1 && stored.dimension( 0 ) == data.numLocations() && Util.getTypeFromInterval( stored ) instanceof RealType )
+		{
+			final double[] sums = new double[ (int)data.numLocations() ];
+
+			int i = 0;
+			for ( final Object t : Views.flatIterable( stored ) )
+				sums[ i++ ] = ( (RealType< ? >)t ).getRealDouble();
+
+			if ( matchesData( data, sums ) )
+				return ArrayImgs.doubles( sums, sums.length );
+
+			logger.debug( "Stored '{}' annotation does not match the data, recomputing it.", librarySizeAnnotation );
+		}
+
+		return NormalizingRandomAccessibleInterval.computeSumsPerLocation( data.getAllExprValues() );
+	}
+
+	// number of locations at which stored library sizes are compared to the data
+	private static final int numValidatedLocations = 16;
+
+	private static boolean matchesData( final STData data, final double[] sums )
+	{
+		final int step = Math.max( 1, sums.length / numValidatedLocations );
+
+		for ( int l = 0; l < sums.length; l += step )
+		{
+			double sum = 0;
+			for ( final DoubleType t : Views.flatIterable( data.getExprValues( l ) ) )
+				sum += t.get();
+
+			if ( Math.abs( sum - sums[ l ] ) > 1e-6 * Math.max( 1.0, Math.abs( sum ) ) )
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Computes all values of a (virtual) expression value image once, in parallel, into a cell image.
+	 *
+	 * @param input - the expression values, size: [numGenes x numLocations]
+	 * @param service - executes the computation, null uses a temporary thread pool
+	 * @return a copy that is backed by memory
+	 */
+	public static Img< DoubleType > materialize( final RandomAccessibleInterval< DoubleType > input, final ExecutorService service )
+	{
+		final long numGenes = input.dimension( 0 );
+		final long numLocations = input.dimension( 1 );
+		final int blockSize = 128;
+
+		final Img< DoubleType > img = new CellImgFactory<>( new DoubleType(), blockSize ).create( numGenes, numLocations );
+
+		final List< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( long g = 0; g < numGenes; g += blockSize )
+		{
+			final long[] min = new long[] { g, 0 };
+			final long[] max = new long[] { Math.min( g + blockSize, numGenes ) - 1, numLocations - 1 };
+
+			tasks.add( () -> {
+				final Cursor< DoubleType > cursor = Views.flatIterable( Views.interval( img, min, max ) ).localizingCursor();
+				final RandomAccess< DoubleType > randomAccess = input.randomAccess();
+
+				while ( cursor.hasNext() )
+				{
+					final DoubleType t = cursor.next();
+					randomAccess.setPosition( cursor );
+					t.set( randomAccess.get() );
+				}
+
+				return null;
+			} );
+		}
+
+		final ExecutorService executorService = service == null ? Threads.createFixedExecutorService() : service;
+
+		try
+		{
+			final List< Future< Void > > futures = executorService.invokeAll( tasks );
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			logger.error("Error during materialization of normalized values", e);
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			if ( service == null )
+				executorService.shutdown();
+		}
+
+		return img;
 	}
 
 	/*
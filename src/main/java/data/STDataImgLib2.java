@@ -8,6 +8,7 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.real.DoubleType;
+import util.LazyMap;
 
 /**
  * An implementation of STData that uses ImgLib2 datastructures to hold the actual data
@@ -62,8 +63,8 @@ public class STDataImgLib2 extends STDataAbstract
 		this.barcodes = barcodes;
 		this.geneLookup = geneLookup;
 
-		this.annotations = new HashMap<>();
-		this.geneAnnotations = new HashMap<>();
+		this.annotations = new LazyMap<>();
+		this.geneAnnotations = new LazyMap<>();
 
 		this.realInterval = STDataUtils.computeRealInterval( this );
 	}
@@ -0,0 +1,435 @@
+package data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import imglib2.SparseExpValueRealIterable;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+import util.LazyMap;
+
+/**
+ * An implementation of STData that holds the expression values as a compressed sparse matrix with
+ * one row per gene (CSR over genes, i.e. CSC of the [numLocations x numGenes] AnnData matrix).
+ * <p>
+ * Memory and per-gene access scale with the number of non-zero entries. {@link #getAllExprValues()}
+ * is a read-only virtual view onto the sparse data, values can be changed with {@link #setExpValues(String, double[])}.
+ *
+ * @author spreibi
+ */
+public class STDataSparse extends STDataAbstract
+{
+	/**
+	 * a 2d datastructure that holds all sequenced locations, size: [numLocations x numDimensions]
+	 */
+	private final RandomAccessibleInterval< DoubleType > locations;
+
+	/**
+	 * the non-zero entries of gene i are stored in [rowPointers[i], rowPointers[i+1]), size: numGenes + 1
+	 */
+	private int[] rowPointers;
+
+	/**
+	 * location index of each non-zero entry, sorted within each gene, size: nnz
+	 */
+	private int[] locationIndices;
+
+	/**
+	 * the non-zero expression values, size: nnz
+	 */
+	private double[] values;
+
+	private final List< String > geneNames, barcodes;
+	private final HashMap< String, Integer > geneLookup;
+
+	private final Map<String, RandomAccessibleInterval<? extends NativeType< ? >>> annotations;
+	private final Map<String, RandomAccessibleInterval<? extends NativeType< ? >>> geneAnnotations;
+
+	private final RandomAccessibleInterval< DoubleType > exprValues;
+
+	private RealInterval realInterval;
+
+	// if true, getExprData() iterates all locations and returns 0 for missing entries
+	private boolean implicitZeros = true;
+
+	public STDataSparse(
+			final RandomAccessibleInterval< DoubleType > locations,
+			final int[] rowPointers,
+			final int[] locationIndices,
+			final double[] values,
+			final List< String > geneNames,
+			final List< String > barcodes,
+			final HashMap< String, Integer > geneLookup )
+	{
+		super( (int)locations.dimension( 1 ), (int)locations.dimension( 0 ), rowPointers.length - 1 );
+
+		if ( locationIndices.length != values.length || rowPointers[ rowPointers.length - 1 ] != values.length )
+			throw new IllegalArgumentException( "Inconsistent sparse matrix: #indices=" + locationIndices.length +
+					", #values=" + values.length + ", last row pointer=" + rowPointers[ rowPointers.length - 1 ] );
+
+		this.locations = locations;
+		this.rowPointers = rowPointers;
+		this.locationIndices = locationIndices;
+		this.values = values;
+		this.geneNames = geneNames;
+		this.barcodes = barcodes;
+		this.geneLookup = geneLookup;
+
+		this.annotations = new LazyMap<>();
+		this.geneAnnotations = new LazyMap<>();
+
+		this.exprValues = new SparseRandomAccessibleInterval( this );
+		this.realInterval = STDataUtils.computeRealInterval( this );
+	}
+
+	/**
+	 * Compresses the expression values of an existing STData object, annotations are shared with the input.
+	 *
+	 * @param data - the input
+	 * @return a sparse copy of the input
+	 */
+	public static STDataSparse fromSTData( final STData data )
+	{
+		final HashMap< String, Integer > geneLookup = new HashMap<>();
+		for ( final String gene : data.getGeneNames() )
+			geneLookup.put( gene, data.getIndexForGene( gene ) );
+
+		final STDataSparse sparse = fromDense( data.getLocations(), data.getAllExprValues(), data.getGeneNames(), data.getBarcodes(), geneLookup );
+
+		sparse.getAnnotations().putAll( data.getAnnotations() );
+		sparse.getGeneAnnotations().putAll( data.getGeneAnnotations() );
+
+		return sparse;
+	}
+
+	/**
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @param exprValues - dense expression values, size: [numGenes x numLocations]
+	 * @param geneNames - gene names
+	 * @param barcodes - barcodes
+	 * @param geneLookup - gene name to row in exprValues
+	 * @return a sparse STData holding only the non-zero entries of exprValues
+	 */
+	public static STDataSparse fromDense(
+			final RandomAccessibleInterval< DoubleType > locations,
+			final RandomAccessibleInterval< DoubleType > exprValues,
+			final List< String > geneNames,
+			final List< String > barcodes,
+			final HashMap< String, Integer > geneLookup )
+	{
+		final int numGenes = (int)exprValues.dimension( 0 );
+
+		final int[] rowPointers = new int[ numGenes + 1 ];
+		int[] locationIndices = new int[ 1024 ];
+		double[] values = new double[ 1024 ];
+		int nnz = 0;
+
+		for ( int g = 0; g < numGenes; ++g )
+		{
+			int l = 0;
+			for ( final DoubleType t : Views.flatIterable( Views.hyperSlice( exprValues, 0, g ) ) )
+			{
+				final double v = t.get();
+
+				if ( v != 0 )
+				{
+					if ( nnz == values.length )
+					{
+						final int newLength = (int)Math.min( Integer.MAX_VALUE - 8, 2L * values.length );
+						locationIndices = Arrays.copyOf( locationIndices, newLength );
+						values = Arrays.copyOf( values, newLength );
+					}
+
+					locationIndices[ nnz ] = l;
+					values[ nnz ] = v;
+					++nnz;
+				}
+				++l;
+			}
+
+			rowPointers[ g + 1 ] = nnz;
+		}
+
+		return new STDataSparse(
+				locations, rowPointers,
+				Arrays.copyOf( locationIndices, nnz ), Arrays.copyOf( values, nnz ),
+				geneNames, barcodes, geneLookup );
+	}
+
+	/**
+	 * Creates an STDataSparse from a location-major sparse matrix (CSR of the [numLocations x numGenes] matrix,
+	 * as e.g. stored in AnnData), the entries are transposed in O(nnz).
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @param numGenes - number of genes
+	 * @param locationPointers - the entries of location i are stored in [locationPointers[i], locationPointers[i+1])
+	 * @param geneIndices - gene index of each entry
+	 * @param data - value of each entry
+	 * @param geneNames - gene names
+	 * @param barcodes - barcodes
+	 * @param geneLookup - gene name to gene index
+	 * @return a gene-major sparse STData
+	 */
+	public static STDataSparse fromLocationMajor(
+			final RandomAccessibleInterval< DoubleType > locations,
+			final int numGenes,
+			final int[] locationPointers,
+			final int[] geneIndices,
+			final double[] data,
+			final List< String > geneNames,
+			final List< String > barcodes,
+			final HashMap< String, Integer > geneLookup )
+	{
+		final int numLocations = locationPointers.length - 1;
+		final int nnz = locationPointers[ numLocations ];
+
+		// count entries per gene
+		final int[] rowPointers = new int[ numGenes + 1 ];
+		for ( int k = 0; k < nnz; ++k )
+			++rowPointers[ geneIndices[ k ] + 1 ];
+
+		for ( int g = 0; g < numGenes; ++g )
+			rowPointers[ g + 1 ] += rowPointers[ g ];
+
+		// scatter, iterating locations in order keeps the location indices sorted within each gene
+		final int[] next = Arrays.copyOf( rowPointers, numGenes );
+		final int[] locationIndices = new int[ nnz ];
+		final double[] values = new double[ nnz ];
+
+		for ( int l = 0; l < numLocations; ++l )
+		{
+			for ( int k = locationPointers[ l ]; k < locationPointers[ l + 1 ]; ++k )
+			{
+				final int i = next[ geneIndices[ k ] ]++;
+				locationIndices[ i ] = l;
+				values[ i ] = data[ k ];
+			}
+		}
+
+		return new STDataSparse( locations, rowPointers, locationIndices, values, geneNames, barcodes, geneLookup );
+	}
+
+	/**
+	 * Sorts the indices within each row of a compressed sparse matrix in place, together with their values.
+	 * Rows that are already sorted are only checked.
+	 *
+	 * @param rowPointers - the entries of row i are stored in [rowPointers[i], rowPointers[i+1])
+	 * @param indices - column index of each entry
+	 * @param values - value of each entry
+	 * @return the number of rows that had to be sorted
+	 */
+	public static int sortIndicesPerRow( final int[] rowPointers, final int[] indices, final double[] values )
+	{
+		int numSorted = 0;
+
+		for ( int r = 0; r < rowPointers.length - 1; ++r )
+		{
+			final int start = rowPointers[ r ];
+			final int end = rowPointers[ r + 1 ];
+
+			if ( isSorted( indices, start, end ) )
+				continue;
+
+			// sort a permutation of the row, then apply it to indices and values
+			final Integer[] order = new Integer[ end - start ];
+			for ( int k = 0; k < order.length; ++k )
+				order[ k ] = start + k;
+
+			Arrays.sort( order, ( a, b ) -> Integer.compare( indices[ a ], indices[ b ] ) );
+
+			final int[] sortedIndices = new int[ order.length ];
+			final double[] sortedValues = new double[ order.length ];
+			for ( int k = 0; k < order.length; ++k )
+			{
+				sortedIndices[ k ] = indices[ order[ k ] ];
+				sortedValues[ k ] = values[ order[ k ] ];
+			}
+
+			System.arraycopy( sortedIndices, 0, indices, start, order.length );
+			System.arraycopy( sortedValues, 0, values, start, order.length );
+			++numSorted;
+		}
+
+		return numSorted;
+	}
+
+	private static boolean isSorted( final int[] indices, final int start, final int end )
+	{
+		for ( int k = start + 1; k < end; ++k )
+			if ( indices[ k ] < indices[ k - 1 ] )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @param implicitZeros - if true (default), {@link #getExprData(String)} iterates all locations and
+	 * returns 0 where no value is stored; if false it only iterates the non-zero locations
+	 */
+	public void setImplicitZeros( final boolean implicitZeros ) { this.implicitZeros = implicitZeros; }
+
+	public boolean implicitZeros() { return implicitZeros; }
+
+	@Override
+	public SparseExpValueRealIterable getExprData( final String geneName )
+	{
+		return getExprData( geneName, implicitZeros );
+	}
+
+	/**
+	 * @param geneName - the gene
+	 * @return an iterable over only the locations where the gene has a non-zero value
+	 */
+	public SparseExpValueRealIterable getNonZeroExprData( final String geneName )
+	{
+		return getExprData( geneName, false );
+	}
+
+	protected SparseExpValueRealIterable getExprData( final String geneName, final boolean implicitZeros )
+	{
+		final int gene = getIndexForGene( geneName );
+
+		return new SparseExpValueRealIterable(
+				getLocations(),
+				locationIndices,
+				values,
+				rowPointers[ gene ],
+				rowPointers[ gene + 1 ],
+				implicitZeros,
+				new FinalRealInterval( this ) );
+	}
+
+	/**
+	 * @param geneName - the gene
+	 * @return the number of locations where the gene has a non-zero value
+	 */
+	public int numNonZeros( final String geneName )
+	{
+		final int gene = getIndexForGene( geneName );
+		return rowPointers[ gene + 1 ] - rowPointers[ gene ];
+	}
+
+	/**
+	 * @return the total number of non-zero entries
+	 */
+	public int numNonZeros() { return rowPointers[ rowPointers.length - 1 ]; }
+
+	public int[] getRowPointers() { return rowPointers; }
+	public int[] getLocationIndices() { return locationIndices; }
+	public double[] getValues() { return values; }
+
+	@Override
+	public double[] getExpValuesCopy( final String geneName )
+	{
+		final int gene = getIndexForGene( geneName );
+		final double[] exprValuesCopy = new double[ numLocations ];
+
+		for ( int k = rowPointers[ gene ]; k < rowPointers[ gene + 1 ]; ++k )
+			exprValuesCopy[ locationIndices[ k ] ] = values[ k ];
+
+		return exprValuesCopy;
+	}
+
+	@Override
+	public synchronized void setExpValues( final String geneName, final double[] exprValuesCopy )
+	{
+		final int gene = getIndexForGene( geneName );
+
+		int newRowSize = 0;
+		for ( final double v : exprValuesCopy )
+			if ( v != 0 )
+				++newRowSize;
+
+		final int start = rowPointers[ gene ];
+		final int end = rowPointers[ gene + 1 ];
+		final int nnz = numNonZeros() - ( end - start ) + newRowSize;
+
+		// new arrays, so iterables and random accesses created before remain valid
+		final int[] newRowPointers = rowPointers.clone();
+		final int[] newLocationIndices = new int[ nnz ];
+		final double[] newValues = new double[ nnz ];
+
+		System.arraycopy( locationIndices, 0, newLocationIndices, 0, start );
+		System.arraycopy( values, 0, newValues, 0, start );
+
+		int k = start;
+		for ( int l = 0; l < exprValuesCopy.length; ++l )
+		{
+			if ( exprValuesCopy[ l ] != 0 )
+			{
+				newLocationIndices[ k ] = l;
+				newValues[ k ] = exprValuesCopy[ l ];
+				++k;
+			}
+		}
+
+		System.arraycopy( locationIndices, end, newLocationIndices, k, locationIndices.length - end );
+		System.arraycopy( values, end, newValues, k, values.length - end );
+
+		final int shift = newRowSize - ( end - start );
+		for ( int g = gene + 1; g < newRowPointers.length; ++g )
+			newRowPointers[ g ] += shift;
+
+		this.rowPointers = newRowPointers;
+		this.locationIndices = newLocationIndices;
+		this.values = newValues;
+	}
+
+	@Override
+	public Map<String, RandomAccessibleInterval<? extends NativeType< ? >>> getAnnotations()
+	{
+		return annotations;
+	}
+
+	@Override
+	public Map<String, RandomAccessibleInterval<? extends NativeType< ? >>> getGeneAnnotations()
+	{
+		return geneAnnotations;
+	}
+
+	@Override
+	protected RealInterval getLocationRealInterval()
+	{
+		return realInterval;
+	}
+
+	@Override
+	public void setLocations( final List< double[] > locations )
+	{
+		STDataText.setLocations( locations, this.locations );
+		this.realInterval = STDataUtils.computeRealInterval( this );
+	}
+
+	@Override
+	public int getIndexForGene( final String gene )
+	{
+		return geneLookup.get( gene );
+	}
+
+	@Override
+	public List< String > getGeneNames() { return geneNames; }
+
+	@Override
+	public List< String > getBarcodes() { return barcodes; }
+
+	/**
+	 * @return a read-only virtual view of all expression values, size: [numGenes x numLocations]
+	 */
+	@Override
+	public RandomAccessibleInterval< DoubleType > getAllExprValues()
+	{
+		return exprValues;
+	}
+
+	@Override
+	public RandomAccessibleInterval< DoubleType > getLocations()
+	{
+		return locations;
+	}
+}
@@ -1,16 +1,75 @@
 package data;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import data.STDataUtils.DistanceStats;
-import net.imglib2.RealPoint;
-import util.KDTreeUtil;
+import util.FlatKDTree;
 
 public class STDataStatistics
 {
+	// statistics of datasets that were computed or loaded before, validated by the hash of the locations
+	private static final Map< STData, STDataStatistics > cache = Collections.synchronizedMap( new WeakHashMap<>() );
+
 	private final DistanceStats ds;
+	private final long locationHash;
+	private FlatKDTree spatialIndex;
 
 	public STDataStatistics( final STData data )
 	{
-		this.ds = STDataUtils.distanceStats( KDTreeUtil.createParallelizableKDTreeFrom( data, p -> new RealPoint( p ) ) );//new KDTree<>( data ) );
+		this( FlatKDTree.forLocations( data.getLocations() ), FlatKDTree.locationHash( data.getLocations() ) );
+	}
+
+	/**
+	 * @param spatialIndex - the spatial index of the locations
+	 * @param locationHash - see {@link FlatKDTree#hashLocations(net.imglib2.RandomAccessibleInterval)}
+	 */
+	public STDataStatistics( final FlatKDTree spatialIndex, final long locationHash )
+	{
+		this.ds = STDataUtils.distanceStats( spatialIndex.nearestNeighborDistances() );
+		this.locationHash = locationHash;
+		this.spatialIndex = spatialIndex;
+	}
+
+	/**
+	 * Statistics that were persisted before, the spatial index can be set later.
+	 */
+	public STDataStatistics( final double meanDistance, final double medianDistance, final double minDistance, final double maxDistance, final long locationHash )
+	{
+		this.ds = new DistanceStats();
+		this.ds.avgDist = meanDistance;
+		this.ds.medianDist = medianDistance;
+		this.ds.minDist = minDistance;
+		this.ds.maxDist = maxDistance;
+		this.locationHash = locationHash;
+	}
+
+	/**
+	 * Returns the statistics of a dataset that were computed or loaded before if its locations did not change, otherwise
+	 * computes (and remembers) them. The hash of the locations is cached, so known statistics are returned in constant time.
+	 *
+	 * @param data - the dataset
+	 * @return the statistics
+	 */
+	public static STDataStatistics of( final STData data )
+	{
+		final STDataStatistics cached = cache.get( data );
+
+		if ( cached != null && cached.locationHash == FlatKDTree.locationHash( data.getLocations() ) )
+			return cached;
+
+		final STDataStatistics stats = new STDataStatistics( data );
+		cache.put( data, stats );
+		return stats;
+	}
+
+	/**
+	 * Remembers the statistics of a dataset for {@link #of(STData)}.
+	 */
+	public static void remember( final STData data, final STDataStatistics stats )
+	{
+		cache.put( data, stats );
 	}
 
 	public double getMeanDistance() { return ds.avgDist; }
@@ -18,6 +77,15 @@ public class STDataStatistics
 	public double getMinDistance() { return ds.minDist; }
 	public double getMaxDistance() { return ds.maxDist; }
 
+	public long getLocationHash() { return locationHash; }
+
+	/**
+	 * @return the spatial index of the locations, null if the statistics were loaded without it
+	 */
+	public FlatKDTree getSpatialIndex() { return spatialIndex; }
+
+	public void setSpatialIndex( final FlatKDTree spatialIndex ) { this.spatialIndex = spatialIndex; }
+
 	@Override
 	public String toString()
 	{
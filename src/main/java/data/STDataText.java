@@ -11,7 +11,11 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
 import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.cell.LazyCellImg;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 
@@ -123,4 +127,23 @@ public class STDataText extends STDataImgLib2
 
 		return img;
 	}
+
+	/**
+	 * Wraps the expression values of each gene as one cell of an Img without copying them.
+	 *
+	 * @param rows - the expression values of each gene, the order defines the order in the imglib2 img
+	 * @param numLocations - the number of locations, i.e. the length of each row
+	 *
+	 * @return a 2d datastructure that holds all expression values, size: [numGenes x numLocations]
+	 */
+	public static Img< DoubleType > geneRowsToImgLib2( final List< double[] > rows, final int numLocations )
+	{
+		final CellGrid grid = new CellGrid( new long[] { rows.size(), numLocations }, new int[] { 1, numLocations } );
+
+		final List< Cell< DoubleArray > > cells = new ArrayList<>( rows.size() );
+		for ( int i = 0; i < rows.size(); ++i )
+			cells.add( new Cell<>( new int[] { 1, numLocations }, new long[] { i, 0 }, new DoubleArray( rows.get( i ) ) ) );
+
+		return new LazyCellImg<>( grid, new DoubleType(), index -> cells.get( (int)index ) );
+	}
 }
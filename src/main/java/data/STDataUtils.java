@@ -15,7 +15,9 @@ import net.imglib2.RealInterval;
 import net.imglib2.RealLocalizable;
 import net.imglib2.neighborsearch.KNearestNeighborSearch;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 
 public class STDataUtils
 {
@@ -36,6 +38,22 @@ public class STDataUtils
 		return commonGeneNames;
 	}
 
+	/**
+	 * @param data - the dataset
+	 * @param gene - the gene
+	 * @return a copy of the expression values of the gene in location order
+	 */
+	public static double[] exprValues( final STData data, final String gene )
+	{
+		final double[] values = new double[ (int)data.numLocations() ];
+
+		int i = 0;
+		for ( final DoubleType t : Views.flatIterable( data.getExprValues( gene ) ) )
+			values[ i++ ] = t.get();
+
+		return values;
+	}
+
 	public static Interval getCommonInterval( final STData stDataA, final STData stDataB )
 	{
 		final ArrayList< STData > list = new ArrayList<>();
@@ -160,6 +178,29 @@ public class STDataUtils
 		return stats;
 	}
 
+	/**
+	 * @param nearestNeighborDistances - distance of every location to its closest other location
+	 * @return the statistics
+	 */
+	public static DistanceStats distanceStats( final double[] nearestNeighborDistances )
+	{
+		final DistanceStats stats = new DistanceStats();
+
+		stats.minDist = Double.MAX_VALUE;
+		stats.maxDist = -Double.MAX_VALUE;
+
+		for ( final double d : nearestNeighborDistances )
+		{
+			stats.minDist = Math.min( d, stats.minDist );
+			stats.maxDist = Math.max( d, stats.maxDist );
+		}
+
+		stats.medianDist = Util.median( nearestNeighborDistances );
+		stats.avgDist = Util.average( nearestNeighborDistances );
+
+		return stats;
+	}
+
 	public static RealInterval computeRealInterval( final IterableRealInterval< ? > coord )
 	{
 		if ( coord.size() == 0 )
@@ -0,0 +1,76 @@
+package data;
+
+import java.util.Arrays;
+
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * RandomAccess into a gene-major sparse matrix, position: [gene, location]. Looks up the
+ * value by binary search within the row of the gene, sequential access along the locations
+ * is answered without searching.
+ *
+ * @author spreibi
+ */
+public class SparseRandomAccess extends Point implements RandomAccess< DoubleType >
+{
+	final protected DoubleType value = new DoubleType();
+
+	final int[] rowPointers, locationIndices;
+	final double[] values;
+
+	// the entry that was found last, speeds up iterating along a gene
+	int hint = 0;
+
+	public SparseRandomAccess( final int[] rowPointers, final int[] locationIndices, final double[] values )
+	{
+		super( 2 );
+
+		this.rowPointers = rowPointers;
+		this.locationIndices = locationIndices;
+		this.values = values;
+	}
+
+	@Override
+	public DoubleType get()
+	{
+		final int gene = (int)position[ 0 ];
+		final int location = (int)position[ 1 ];
+
+		final int start = rowPointers[ gene ];
+		final int end = rowPointers[ gene + 1 ];
+
+		int k;
+
+		if ( hint >= start && hint < end && locationIndices[ hint ] == location )
+			k = hint;
+		else if ( hint + 1 >= start && hint + 1 < end && locationIndices[ hint + 1 ] == location )
+			k = hint + 1;
+		else
+			k = Arrays.binarySearch( locationIndices, start, end, location );
+
+		if ( k >= 0 )
+		{
+			hint = k;
+			value.set( values[ k ] );
+		}
+		else
+		{
+			// insertion point - 1 is the last entry smaller than location
+			hint = -k - 2;
+			value.set( 0 );
+		}
+
+		return value;
+	}
+
+	@Override
+	public SparseRandomAccess copy()
+	{
+		final SparseRandomAccess r = new SparseRandomAccess( rowPointers, locationIndices, values );
+		r.setPosition( this );
+		r.hint = hint;
+		return r;
+	}
+}
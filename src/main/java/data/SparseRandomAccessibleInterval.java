@@ -0,0 +1,41 @@
+package data;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * A read-only virtual view of the expression values of an {@link STDataSparse}, size: [numGenes x numLocations]
+ *
+ * @author spreibi
+ */
+public class SparseRandomAccessibleInterval extends AbstractInterval implements RandomAccessibleInterval< DoubleType >
+{
+	final STDataSparse data;
+
+	public SparseRandomAccessibleInterval( final STDataSparse data )
+	{
+		super( new long[] { data.numGenes(), data.numLocations() } );
+
+		this.data = data;
+	}
+
+	@Override
+	public RandomAccess< DoubleType > randomAccess()
+	{
+		return new SparseRandomAccess( data.getRowPointers(), data.getLocationIndices(), data.getValues() );
+	}
+
+	@Override
+	public RandomAccess< DoubleType > randomAccess( final Interval interval )
+	{
+		return randomAccess();
+	}
+
+	public DoubleType getType()
+	{
+		return new DoubleType();
+	}
+}
@@ -23,7 +23,6 @@ import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
 import bdv.viewer.DisplayMode;
-import cmd.RenderImage;
 import data.STData;
 import data.STDataStatistics;
 import data.STDataUtils;
@@ -33,6 +32,7 @@ import filter.SingleSpotRemovingFilterFactory;
 import gui.STDataAssembly;
 import gui.bdv.AddedGene;
 import gui.bdv.AddedGene.Rendering;
+import gui.bdv.MultiResolutionSource;
 import ij.ImageJ;
 import ij.ImagePlus;
 import imglib2.StackedIterableRealInterval;
@@ -53,6 +53,7 @@ import net.imglib2.realtransform.Scale3D;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
+import render.FlatKDTreeSamples;
 import render.Render;
 import tools.BDVFlyThrough;
 import tools.BDVFlyThrough.CallbackBDV;
@@ -69,6 +70,7 @@ public class VisualizeStack
 	public static class STIMStack
 	{
 		public RealRandomAccessible< DoubleType > rra;
+		public MultiResolutionSource source;
 		public Interval interval;
 		public double minDisplay, maxDisplay;
 	}
@@ -264,7 +266,8 @@ public class VisualizeStack
 		final StackedIterableRealInterval< DoubleType > stack = new StackedIterableRealInterval<>( slices, spacing );
 
 		final STIMStack stimStack = new STIMStack();
-		stimStack.rra = RenderImage.createRRA( stack, medianDistance, renderType, renderingFactor );
+		stimStack.source = MultiResolutionSource.of( gene, FlatKDTreeSamples.of( stack ), interval, renderType, medianDistance, renderingFactor );
+		stimStack.rra = stimStack.source.fullResolution();
 		stimStack.interval = interval;
 		stimStack.minDisplay = minDisplay;
 		stimStack.maxDisplay = maxDisplay;
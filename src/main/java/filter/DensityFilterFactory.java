@@ -1,7 +1,6 @@
 package filter;
 
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
 
 public class DensityFilterFactory< T extends RealType< T > > extends RadiusSearchFilterFactory< T, T >
@@ -15,13 +14,19 @@ public class DensityFilterFactory< T extends RealType< T > > extends RadiusSearc
 	}
 
 	@Override
-	public Filter< T > createFilter( final KDTree< T > tree )
+	public Filter< T > createFilter( final RadiusNeighborSearch< T > search )
 	{
 		return new DensityFilter<>(
-				new RadiusNeighborSearchOnKDTree<>(tree),
+				search,
 				this);
 	}
 
+	@Override
+	public NeighborhoodFilter createNeighborhoodFilter()
+	{
+		return ( values, permutation, neighbors ) -> neighbors.size();
+	}
+
 	@Override
 	public T create()
 	{
@@ -1,30 +1,41 @@
 package filter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
 
+import filter.GaussianFilterFactory.WeightType;
 import imglib2.ConvertingIterableRealInterval;
 import imglib2.ConvertingIterableRealInterval.TriConsumer;
 import net.imglib2.Cursor;
 import net.imglib2.IterableRealInterval;
 import net.imglib2.Iterator;
-import net.imglib2.KDTree;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealCursor;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.RealPointSampleList;
 import net.imglib2.type.Type;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.view.Views;
-import util.KDTreeUtil;
+import render.FlatKDTreeSamples;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+import util.Threads;
 
 public class Filters
 {
+	// number of consecutive locations a thread filters at once
+	public static final int chunkSize = 256;
+
 	public static < S extends Type< S >, T > IterableRealInterval< T > filterVirtual(
 			final IterableRealInterval< S > data,
 			final FilterFactory< S, T > filterFactory,
@@ -33,14 +44,14 @@ public class Filters
 		// can't use standard converters because we need location
 		final Supplier<TriConsumer<RealLocalizable, ? super S, ? super T>> functionSupplier = new Supplier< TriConsumer<RealLocalizable, ? super S, ? super T>>()
 		{
-			// we share a KDtree for all instances
-			final KDTree< S > tree = KDTreeUtil.createParallelizableKDTreeFrom( data );
+			// we share a tree for all instances
+			final FlatKDTreeSamples< S > samples = filterFactory instanceof RadiusSearchFilterFactory ? FlatKDTreeSamples.of( data ) : null;
 
 			// when requesting a new TriConsumer, we create a new filter
 			@Override
 			public TriConsumer<RealLocalizable, S, T> get()
 			{
-				final Filter<T> filter = filterFactory.createFilter( tree );
+				final Filter<T> filter = createFilter( data, samples, filterFactory );
 
 				return ( r, s, t ) -> filter.filter( r, t );
 			}
@@ -52,59 +63,288 @@ public class Filters
 				typeSupplier );
 	}
 
+	/**
+	 * Filters the data in parallel. The locations are indexed once, split into chunks of consecutive tree indices that
+	 * the threads take from a shared counter until all are done, and the results are collected in location order.
+	 *
+	 * @param data - the data
+	 * @param filterFactory - the filter
+	 * @param service - the threads
+	 * @return the filtered values at the locations of the data, in the same order
+	 */
 	public static < S extends Type< S >, T > RealPointSampleList< T > filter( final IterableRealInterval< S > data, final FilterFactory< S, T > filterFactory, ExecutorService service )
 	{
-		// create full realpointsamplelist
-		final RealPointSampleList< T > filtered = new RealPointSampleList<>( data.numDimensions() );
+		// all filters share one tree
+		final FlatKDTreeSamples< S > samples = FlatKDTreeSamples.of( data );
+		final FlatKDTree tree = samples.tree();
+		final int[] permutation = tree.permutation();
+		final int size = tree.size();
+
+		final T type = filterFactory.create();
+		final boolean real = type instanceof RealType;
 
+		// location order, only one of them is used
+		final double[] values = real ? new double[ size ] : null;
+		final List< T > objects = real ? null : new ArrayList<>( Collections.nCopies( size, null ) );
+
+		forEachTreeIndex( size, service, () ->
+		{
+			final Filter< T > filter = createFilter( data, samples, filterFactory );
+			final FlatKDTreeSamples< S >.IndexedPosition position = samples.position();
+			final T value = filterFactory.create();
+
+			return t ->
+			{
+				position.setTreeIndex( t );
+
+				if ( real )
+				{
+					filter.filter( position, value );
+					values[ permutation[ t ] ] = ( (RealType< ? >)value ).getRealDouble();
+				}
+				else
+				{
+					final T object = filterFactory.create();
+					filter.filter( position, object );
+					objects.set( permutation[ t ], object );
+				}
+			};
+		});
+
+		final RealPointSampleList< T > filtered = new RealPointSampleList<>( data.numDimensions() );
 		final RealCursor< S > cursor = data.localizingCursor();
 
-		while ( cursor.hasNext() )
+		for ( int i = 0; cursor.hasNext(); ++i )
 		{
 			cursor.fwd();
-			filtered.add( new RealPoint( cursor ), filterFactory.create() );
+
+			if ( real )
+			{
+				final T value = filterFactory.create();
+				( (RealType< ? >)value ).setReal( values[ i ] );
+				filtered.add( new RealPoint( cursor ), value );
+			}
+			else
+			{
+				filtered.add( new RealPoint( cursor ), objects.get( i ) );
+			}
 		}
 
-		final KDTree< S > tree = KDTreeUtil.createParallelizableKDTreeFrom( data );
+		return filtered;
+	}
 
-		final List< Callable< Void > > tasks = new ArrayList<>();
-		final long blockSize = Math.max( 1000, data.size() / 100 );
+	/**
+	 * Filters indexed values in parallel into an array, without building a tree or creating points.
+	 *
+	 * @param samples - the indexed values
+	 * @param filterFactory - the filter
+	 * @param service - the threads, null filters in the calling thread
+	 * @return the filtered values, indexed by the tree (and positions) of the input
+	 */
+	public static < S, T extends RealType< T > > FlatKDTreeSamples< T > filter(
+			final FlatKDTreeSamples< S > samples,
+			final RadiusSearchFilterFactory< S, T > filterFactory,
+			final ExecutorService service )
+	{
+		final FlatKDTree tree = samples.tree();
+		final int[] permutation = tree.permutation();
+		final double[] values = new double[ tree.size() ];
 
-		for ( long i = 0; i < data.size(); i += blockSize )
+		forEachTreeIndex( tree.size(), service, () ->
 		{
-			final long steps = i;
+			final Filter< T > filter = filterFactory.createFilter( samples );
+			final FlatKDTreeSamples< S >.IndexedPosition position = samples.position();
+			final T value = filterFactory.create();
 
-			tasks.add( () ->
+			return t ->
 			{
-				final Filter< T > filter = filterFactory.createFilter( tree );
+				position.setTreeIndex( t );
+				filter.filter( position, value );
+				values[ permutation[ t ] ] = value.getRealDouble();
+			};
+		});
 
-				final RealCursor< T > outputCursor = filtered.localizingCursor();
-				if ( steps > 0 )
-					outputCursor.jumpFwd( steps );
+		return new FlatKDTreeSamples<>( tree, values, filterFactory.create() );
+	}
 
-				for ( long j = steps; j < Math.min( blockSize + steps, data.size() ); ++j )
-				{
-					final T value = outputCursor.next();
-					filter.filter( outputCursor, value );
-				}
+	/**
+	 * Visits all tree indices in parallel: they are split into chunks of consecutive indices (that are close to each
+	 * other) which the threads take from a shared counter until all are done.
+	 *
+	 * @param size - number of tree indices
+	 * @param service - the threads, null visits them in the calling thread
+	 * @param perThread - creates the consumer of the tree indices of one thread
+	 */
+	protected static void forEachTreeIndex( final int size, final ExecutorService service, final Supplier< IntConsumer > perThread )
+	{
+		final int numChunks = ( size + chunkSize - 1 ) / chunkSize;
+		final AtomicInteger nextChunk = new AtomicInteger();
+
+		final List< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int i = 0; i < Math.min( numChunks, service == null ? 1 : Threads.numThreads( service ) ); ++i )
+		{
+			tasks.add( () ->
+			{
+				final IntConsumer consumer = perThread.get();
+
+				for ( int chunk = nextChunk.getAndIncrement(); chunk < numChunks; chunk = nextChunk.getAndIncrement() )
+					for ( int t = chunk * chunkSize; t < Math.min( size, ( chunk + 1 ) * chunkSize ); ++t )
+						consumer.accept( t );
 
 				return null;
 			});
 		}
 
-		try
+		Threads.runTasks( tasks, service );
+	}
+
+	/**
+	 * @return a new filter that uses the shared index if the filter is a radius search, otherwise a filter on the data
+	 */
+	protected static < S, T > Filter< T > createFilter(
+			final IterableRealInterval< S > data,
+			final FlatKDTreeSamples< S > samples,
+			final FilterFactory< S, T > filterFactory )
+	{
+		if ( filterFactory instanceof RadiusSearchFilterFactory )
+			return ( (RadiusSearchFilterFactory< S, T >)filterFactory ).createFilter( samples );
+		else
+			return filterFactory.createFilter( data );
+	}
+
+	/**
+	 * Filters values that are bound to a location index at every location, without building a tree.
+	 *
+	 * @param samples - the indexed values
+	 * @param filterFactory - the filter
+	 * @return the filtered values in location order, like {@link FlatKDTreeSamples#values()}
+	 */
+	public static < S, T extends RealType< T > > double[] filter( final FlatKDTreeSamples< S > samples, final RadiusSearchFilterFactory< S, T > filterFactory )
+	{
+		final int[] permutation = samples.tree().permutation();
+		final double[] filtered = new double[ permutation.length ];
+
+		final Filter< T > filter = filterFactory.createFilter( samples );
+		final FlatKDTreeSamples< S >.IndexedPosition position = samples.position();
+		final T value = filterFactory.create();
+
+		for ( int i = 0; i < permutation.length; ++i )
 		{
-			final List< Future< Void > > futures = service.invokeAll( tasks );
-			for ( final Future< Void > future : futures )
-				future.get();
+			position.setTreeIndex( i );
+			filter.filter( position, value );
+			filtered[ permutation[ i ] ] = value.getRealDouble();
 		}
-		catch ( final InterruptedException | ExecutionException e )
+
+		return filtered;
+	}
+
+	/**
+	 * Filters the values of several genes that are bound to the same location index with a chain of filters. Every
+	 * filter searches the neighbors of each location once and applies them to the values of all genes, instead of
+	 * searching them again for every gene. Filters without a {@link NeighborhoodFilter} are applied gene by gene.
+	 *
+	 * @param tree - the location index
+	 * @param values - the values of each gene in location order, replaced by the filtered values
+	 * @param filterFactories - the filters, applied in this order
+	 * @param service - the threads
+	 */
+	public static void filter(
+			final FlatKDTree tree,
+			final List< double[] > values,
+			final List< ? extends RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories,
+			final ExecutorService service )
+	{
+		final int size = tree.size();
+		final int numGenes = values.size();
+		final int[] permutation = tree.permutation();
+
+		for ( final RadiusSearchFilterFactory< DoubleType, DoubleType > filterFactory : filterFactories )
 		{
-			e.printStackTrace();
-			throw new RuntimeException( e );
+			if ( filterFactory.createNeighborhoodFilter() == null )
+			{
+				for ( final double[] geneValues : values )
+					System.arraycopy( filter( new FlatKDTreeSamples<>( tree, geneValues, new DoubleType() ), filterFactory ), 0, geneValues, 0, size );
+
+				continue;
+			}
+
+			// gene-major, like the input
+			final double[][] filtered = new double[ numGenes ][ size ];
+
+			final List< Callable< Void > > tasks = new ArrayList<>();
+			final int blockSize = Math.max( 1000, size / 100 );
+
+			for ( int i = 0; i < size; i += blockSize )
+			{
+				final int start = i;
+				final int end = Math.min( size, i + blockSize );
+
+				tasks.add( () ->
+				{
+					final NeighborhoodFilter filter = filterFactory.createNeighborhoodFilter();
+					final Neighbors neighbors = new Neighbors();
+					final double[] query = new double[ tree.numDimensions() ];
+
+					// consecutive tree indices are close to each other, so neighboring searches touch the same nodes
+					for ( int t = start; t < end; ++t )
+					{
+						for ( int d = 0; d < query.length; ++d )
+							query[ d ] = tree.position( t, d );
+
+						tree.radiusSearch( query, filterFactory.getRadius(), filterFactory.sortsNeighbors(), neighbors );
+
+						final int location = permutation[ t ];
+
+						for ( int g = 0; g < numGenes; ++g )
+							filtered[ g ][ location ] = filter.filter( values.get( g ), permutation, neighbors );
+					}
+
+					return null;
+				});
+			}
+
+			try
+			{
+				final List< Future< Void > > futures = service.invokeAll( tasks );
+				for ( final Future< Void > future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				e.printStackTrace();
+				throw new RuntimeException( e );
+			}
+
+			for ( int g = 0; g < numGenes; ++g )
+				System.arraycopy( filtered[ g ], 0, values.get( g ), 0, size );
 		}
+	}
 
-		return filtered;
+	/**
+	 * @return the chain of filters used to prepare the expression values for alignment, null parameters skip a filter
+	 */
+	public static List< RadiusSearchFilterFactory< DoubleType, DoubleType > > alignmentFilters(
+			final Double ffSingleSpot,
+			final Double ffMedian,
+			final Double ffGauss,
+			final Double ffMean )
+	{
+		final List< RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories = new ArrayList<>();
+
+		if ( ffSingleSpot != null )
+			filterFactories.add( new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), ffSingleSpot ) );
+
+		if ( ffMedian != null )
+			filterFactories.add( new MedianFilterFactory<>( new DoubleType( 0 ), ffMedian ) );
+
+		if ( ffGauss != null )
+			filterFactories.add( new GaussianFilterFactory< DoubleType, DoubleType >( new DoubleType( 0 ), ffGauss, WeightType.BY_SUM_OF_WEIGHTS ) );
+
+		if ( ffMean != null )
+			filterFactories.add( new MeanFilterFactory< DoubleType, DoubleType >( new DoubleType( 0 ), ffMean ) );
+
+		return filterFactories;
 	}
 
 	public static < S, T > RealPointSampleList< T > filter( final IterableRealInterval< S > data, final FilterFactory< S, T > filterFactory )
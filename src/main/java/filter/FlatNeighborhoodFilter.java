@@ -0,0 +1,50 @@
+package filter;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.type.numeric.RealType;
+import render.FlatKDTreeSamples;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+
+/**
+ * Radius search filter for samples with real values in a double[], which searches the tree directly and filters with
+ * the {@link NeighborhoodFilter} of the factory instead of going through samplers and positions.
+ * Not thread-safe, every thread needs its own instance (they can share the {@link FlatKDTreeSamples}).
+ *
+ * @param <T> output type, a {@link RealType}
+ *
+ * @author spreibi
+ */
+public class FlatNeighborhoodFilter< T > implements Filter< T >
+{
+	final FlatKDTree tree;
+	final int[] permutation;
+	final double[] values;
+	final RadiusSearchFilterFactory< ?, T > factory;
+	final NeighborhoodFilter filter;
+
+	final Neighbors neighbors = new Neighbors();
+	final double[] query;
+
+	public FlatNeighborhoodFilter(
+			final FlatKDTreeSamples< ? > samples,
+			final RadiusSearchFilterFactory< ?, T > factory,
+			final NeighborhoodFilter filter )
+	{
+		this.tree = samples.tree();
+		this.permutation = tree.permutation();
+		this.values = samples.values();
+		this.factory = factory;
+		this.filter = filter;
+		this.query = new double[ tree.numDimensions() ];
+	}
+
+	@Override
+	public void filter( final RealLocalizable position, final T output )
+	{
+		position.localize( query );
+		tree.radiusSearch( query, factory.getRadius(), factory.sortsNeighbors(), neighbors );
+
+		( (RealType< ? >)output ).setReal( filter.filter( values, permutation, neighbors ) );
+	}
+}
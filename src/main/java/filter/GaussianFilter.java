@@ -1,5 +1,7 @@
 package filter;
 
+import java.util.function.IntToDoubleFunction;
+
 import filter.GaussianFilterFactory.WeightType;
 import net.imglib2.RealLocalizable;
 import net.imglib2.neighborsearch.RadiusNeighborSearch;
@@ -11,8 +13,20 @@ public class GaussianFilter< S extends RealType< S >, T extends RealType< T > >
 	//final WeightType normalize;
 	//final double two_sq_sigma;
 
-	final double thresholdMax = 0.5;
-	final double thresholdMin = 0.001;
+	static final double thresholdMax = 0.5;
+	static final double thresholdMin = 0.001;
+
+	// exp( -x ) for x = i * kernelStep up to kernelMax, the remainder between two entries is expanded into a series
+	static final int kernelEntries = 2048;
+	static final double kernelMax = 32.0;
+	static final double kernelStep = kernelMax / kernelEntries;
+	static final double[] kernel = new double[ kernelEntries + 1 ];
+
+	static
+	{
+		for ( int i = 0; i <= kernelEntries; ++i )
+			kernel[ i ] = Math.exp( -i * kernelStep );
+	}
 
 	public GaussianFilter(
 			final RadiusNeighborSearch< S > search,
@@ -37,42 +51,96 @@ public class GaussianFilter< S extends RealType< S >, T extends RealType< T > >
 		}
 		else
 		{
-			double value = 0;
-			double weight = 0;
+			// hypothesis: these cursors are not copied again, so they are accessed in parallel
+			output.setReal( weightedValue(
+					search.numNeighbors(),
+					search::getSquareDistance,
+					i -> search.getSampler( i ).get().getRealDouble(),
+					factory.getTwoSqSigma(),
+					factory.getNormalize() ) );
+		}
+	}
 
-			for ( int i = 0; i < search.numNeighbors(); ++i )
-			{
-				final double dist = search.getDistance( i );
-				final double w = Math.exp( -( dist * dist ) / factory.getTwoSqSigma() );
+	/**
+	 * The Gaussian weighted value of the neighbors of a position, used by all Gaussian filters.
+	 *
+	 * @param numNeighbors - number of neighbors, at least one
+	 * @param squaredDistance - squared distance of the i-th neighbor
+	 * @param value - value of the i-th neighbor
+	 * @param twoSqSigma - 2*sigma^2
+	 * @param normalize - the weight type
+	 * @return the filtered value
+	 */
+	public static double weightedValue(
+			final int numNeighbors,
+			final IntToDoubleFunction squaredDistance,
+			final IntToDoubleFunction value,
+			final double twoSqSigma,
+			final WeightType normalize )
+	{
+		final double invTwoSqSigma = 1.0 / twoSqSigma;
+		double sum = 0;
+		double weight = 0;
 
-				// hypothesis: these cursors are not copied again, so they are accessed in parallel
-				value += search.getSampler( i ).get().getRealDouble() * w;
+		// the weights are always summed, normalize() ignores them if they are not needed
+		for ( int i = 0; i < numNeighbors; ++i )
+		{
+			final double w = exp( squaredDistance.applyAsDouble( i ) * invTwoSqSigma );
 
-				if ( factory.getNormalize() == WeightType.BY_SUM_OF_WEIGHTS || factory.getNormalize() == WeightType.PARTIAL_BY_SUM_OF_WEIGHTS )
-					weight += w;
-			}
+			sum += value.applyAsDouble( i ) * w;
+			weight += w;
+		}
 
-			if ( factory.getNormalize() == WeightType.PARTIAL_BY_SUM_OF_WEIGHTS )
+		return normalize( sum, weight, numNeighbors, normalize );
+	}
+
+	/**
+	 * Gaussian weight from a lookup table, within 1e-12 (relative) of {@link Math#exp}.
+	 *
+	 * @param x - squared distance divided by 2*sigma^2
+	 * @return exp( -x )
+	 */
+	public static double exp( final double x )
+	{
+		if ( !( x < kernelMax ) )
+			return Math.exp( -x );
+
+		final int i = (int)( x * ( 1.0 / kernelStep ) );
+		final double r = x - i * kernelStep;
+
+		// exp( -r ) for 0 <= r < kernelStep
+		return kernel[ i ] * ( 1.0 - r * ( 1.0 - r * ( 0.5 - r * ( 1.0 / 6.0 - r * ( 1.0 / 24.0 - r * ( 1.0 / 120.0 ) ) ) ) ) );
+	}
+
+	/**
+	 * @param value - sum of the weighted values
+	 * @param weight - sum of the weights
+	 * @param numSamples - number of values
+	 * @param normalize - the weight type
+	 * @return the filtered value
+	 */
+	public static double normalize( final double value, final double weight, final int numSamples, final WeightType normalize )
+	{
+		if ( normalize == WeightType.PARTIAL_BY_SUM_OF_WEIGHTS )
+		{
+			if ( weight > thresholdMax )
+				return value / weight;
+			else if ( weight <= thresholdMax && weight >= thresholdMin )
 			{
-				if ( weight > thresholdMax )
-					output.setReal( value / weight );
-				else if ( weight <= thresholdMax && weight >= thresholdMin )
-				{
-					final double a = Math.sin( ( ( weight - thresholdMin ) / ( thresholdMax - thresholdMin ) ) * Math.PI/2 );
-					final double b = 1.0 - a;
-
-					output.setReal( a * ( value / weight ) + b * value );
-				}
-				else
-					output.setReal( value );
+				final double a = Math.sin( ( ( weight - thresholdMin ) / ( thresholdMax - thresholdMin ) ) * Math.PI/2 );
+				final double b = 1.0 - a;
+
+				return a * ( value / weight ) + b * value;
 			}
-			else if ( factory.getNormalize() == WeightType.BY_SUM_OF_WEIGHTS )
-				output.setReal( value / weight );
-			else if ( factory.getNormalize() == WeightType.BY_SUM_OF_SAMPLES )
-				output.setReal( value / search.numNeighbors() );
 			else
-				output.setReal( value );
+				return value;
 		}
+		else if ( normalize == WeightType.BY_SUM_OF_WEIGHTS )
+			return value / weight;
+		else if ( normalize == WeightType.BY_SUM_OF_SAMPLES )
+			return value / numSamples;
+		else
+			return value;
 	}
 
 	public static void main( String[] arg )
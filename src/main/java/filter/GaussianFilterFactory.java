@@ -1,7 +1,6 @@
 package filter;
 
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
 
 public class GaussianFilterFactory< S extends RealType< S >, T extends RealType< T > > extends RadiusSearchFilterFactory< S, T >
@@ -42,10 +41,31 @@ public class GaussianFilterFactory< S extends RealType< S >, T extends RealType<
 	}
 
 	@Override
-	public Filter< T > createFilter( final KDTree< S > tree )
+	public NeighborhoodFilter createNeighborhoodFilter()
+	{
+		final double outOfBoundsValue = outOfBounds.getRealDouble();
+
+		return ( values, permutation, neighbors ) ->
+		{
+			final int numNeighbors = neighbors.size();
+
+			if ( numNeighbors == 0 )
+				return outOfBoundsValue;
+
+			return GaussianFilter.weightedValue(
+					numNeighbors,
+					neighbors::squaredDistance,
+					i -> values[ permutation[ neighbors.treeIndex( i ) ] ],
+					getTwoSqSigma(),
+					normalize );
+		};
+	}
+
+	@Override
+	public Filter< T > createFilter( final RadiusNeighborSearch< S > search )
 	{
 		return new GaussianFilter<>(
-				new RadiusNeighborSearchOnKDTree<>(tree), // TODO: is this copied?
+				search,
 				this,
 				outOfBounds.copy());
 				/*radius,
@@ -81,6 +101,11 @@ public class GaussianFilterFactory< S extends RealType< S >, T extends RealType<
 	 */
 	public WeightType getNormalize() { return normalize; }
 
+	/**
+	 * @return - the value of positions without samples in the radius
+	 */
+	public T getOutOfBounds() { return outOfBounds; }
+
 	@Override
 	public T create()
 	{
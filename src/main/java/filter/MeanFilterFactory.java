@@ -1,7 +1,6 @@
 package filter;
 
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
 
 public class MeanFilterFactory< S extends RealType< S >, T extends RealType< T > > extends RadiusSearchFilterFactory< S, T >
@@ -17,14 +16,35 @@ public class MeanFilterFactory< S extends RealType< S >, T extends RealType< T >
 	}
 
 	@Override
-	public Filter< T > createFilter( final KDTree< S > tree )
+	public Filter< T > createFilter( final RadiusNeighborSearch< S > search )
 	{
 		return new MeanFilter<>(
-				new RadiusNeighborSearchOnKDTree<>(tree),
+				search,
 				this,
 				outOfBounds);
 	}
 
+	@Override
+	public NeighborhoodFilter createNeighborhoodFilter()
+	{
+		final double outOfBoundsValue = outOfBounds.getRealDouble();
+
+		return ( values, permutation, neighbors ) ->
+		{
+			final int numNeighbors = neighbors.size();
+
+			if ( numNeighbors == 0 )
+				return outOfBoundsValue;
+
+			double value = 0;
+
+			for ( int i = 0; i < numNeighbors; ++i )
+				value += values[ permutation[ neighbors.treeIndex( i ) ] ];
+
+			return value / numNeighbors;
+		};
+	}
+
 	@Override
 	public T create()
 	{
@@ -5,10 +5,16 @@ import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.Util;
 
+/**
+ * Median of the values within the radius, computed by selection in a buffer that is reused by all searches of an
+ * instance, so filtering does not allocate once the buffer fits the largest neighborhood.
+ */
 public class MedianFilter< T extends RealType< T > > extends RadiusSearchFilter< T, T, MedianFilterFactory< T > >
 {
 	final T outOfBounds;
 
+	double[] buffer = new double[ 16 ];
+
 	public MedianFilter(
 			final RadiusNeighborSearch< T > search,
 			final MedianFilterFactory< T > factory,
@@ -26,12 +32,15 @@ public class MedianFilter< T extends RealType< T > > extends RadiusSearchFilter<
 
 		if ( search.numNeighbors() > 1 )
 		{
-			final double[] values = new double[ search.numNeighbors() ];
+			final int numNeighbors = search.numNeighbors();
+
+			if ( numNeighbors > buffer.length )
+				buffer = new double[ Math.max( numNeighbors, buffer.length * 2 ) ];
 
-			for ( int i = 0; i < search.numNeighbors(); ++i )
-				values[ i ] = search.getSampler( i ).get().getRealDouble();
+			for ( int i = 0; i < numNeighbors; ++i )
+				buffer[ i ] = search.getSampler( i ).get().getRealDouble();
 
-			output.setReal( Util.median( values ) );
+			output.setReal( median( buffer, numNeighbors ) );
 		}
 		else if ( search.numNeighbors() == 1 )
 		{
@@ -42,4 +51,88 @@ public class MedianFilter< T extends RealType< T > > extends RadiusSearchFilter<
 			output.set(outOfBounds);
 		}
 	}
+
+	/**
+	 * The median like {@link Util#median(double[])} (the mean of the two middle values for an even length), found by
+	 * selection instead of sorting. The values are reordered.
+	 *
+	 * @param values - the values, only the first length entries are used
+	 * @param length - number of values
+	 * @return the median
+	 */
+	public static double median( final double[] values, final int length )
+	{
+		final int k = length / 2;
+		final double upper = select( values, length, k );
+
+		if ( length % 2 == 1 )
+			return upper;
+
+		// all values before k are smaller or equal after the selection
+		double lower = values[ 0 ];
+		for ( int i = 1; i < k; ++i )
+			lower = Math.max( lower, values[ i ] );
+
+		return ( lower + upper ) / 2;
+	}
+
+	/**
+	 * Quickselect: reorders the values so that the k-th smallest is at index k, smaller or equal values before and
+	 * larger or equal values after it.
+	 *
+	 * @param values - the values, only the first length entries are used
+	 * @param length - number of values
+	 * @param k - the rank
+	 * @return the k-th smallest value
+	 */
+	public static double select( final double[] values, final int length, final int k )
+	{
+		int lo = 0;
+		int hi = length - 1;
+
+		while ( hi > lo )
+		{
+			// median of three as pivot
+			final int mid = ( lo + hi ) >>> 1;
+
+			if ( values[ mid ] < values[ lo ] )
+				swap( values, lo, mid );
+			if ( values[ hi ] < values[ lo ] )
+				swap( values, lo, hi );
+			if ( values[ hi ] < values[ mid ] )
+				swap( values, mid, hi );
+
+			final double pivot = values[ mid ];
+			int i = lo;
+			int j = hi;
+
+			while ( i <= j )
+			{
+				while ( values[ i ] < pivot )
+					++i;
+				while ( values[ j ] > pivot )
+					--j;
+
+				if ( i <= j )
+					swap( values, i++, j-- );
+			}
+
+			// values between j and i are equal to the pivot
+			if ( k <= j )
+				hi = j;
+			else if ( k >= i )
+				lo = i;
+			else
+				return values[ k ];
+		}
+
+		return values[ k ];
+	}
+
+	private static void swap( final double[] values, final int i, final int j )
+	{
+		final double tmp = values[ i ];
+		values[ i ] = values[ j ];
+		values[ j ] = tmp;
+	}
 }
@@ -1,8 +1,8 @@
 package filter;
 
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
+import util.FlatKDTree.Neighbors;
 
 public class MedianFilterFactory< T extends RealType< T > > extends RadiusSearchFilterFactory< T, T >
 {
@@ -17,10 +17,38 @@ public class MedianFilterFactory< T extends RealType< T > > extends RadiusSearch
 	}
 
 	@Override
-	public Filter< T > createFilter( final KDTree< T > tree )
+	public NeighborhoodFilter createNeighborhoodFilter()
+	{
+		final double outOfBoundsValue = outOfBounds.getRealDouble();
+
+		return new NeighborhoodFilter()
+		{
+			double[] buffer = new double[ 16 ];
+
+			@Override
+			public double filter( final double[] values, final int[] permutation, final Neighbors neighbors )
+			{
+				final int numNeighbors = neighbors.size();
+
+				if ( numNeighbors == 0 )
+					return outOfBoundsValue;
+
+				if ( numNeighbors > buffer.length )
+					buffer = new double[ Math.max( numNeighbors, buffer.length * 2 ) ];
+
+				for ( int i = 0; i < numNeighbors; ++i )
+					buffer[ i ] = values[ permutation[ neighbors.treeIndex( i ) ] ];
+
+				return MedianFilter.median( buffer, numNeighbors );
+			}
+		};
+	}
+
+	@Override
+	public Filter< T > createFilter( final RadiusNeighborSearch< T > search )
 	{
 		return new MedianFilter<>(
-				new RadiusNeighborSearchOnKDTree<>(tree),
+				search,
 				this,
 				outOfBounds);
 	}
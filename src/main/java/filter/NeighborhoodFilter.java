@@ -0,0 +1,20 @@
+package filter;
+
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+
+/**
+ * A filter of real values over neighbors that were searched before, so that the neighbors of a location can be
+ * searched once and used for the values of many genes (see {@link Filters#filter(FlatKDTree, java.util.List, java.util.List, java.util.concurrent.ExecutorService)}).
+ * Not thread-safe, every thread needs its own instance.
+ */
+public interface NeighborhoodFilter
+{
+	/**
+	 * @param values - the values of all locations in location order
+	 * @param permutation - tree index to location index, see {@link FlatKDTree#permutation()}
+	 * @param neighbors - the neighbors of the filtered location (sorted if {@link RadiusSearchFilterFactory#sortsNeighbors()})
+	 * @return the filtered value
+	 */
+	double filter( final double[] values, final int[] permutation, final Neighbors neighbors );
+}
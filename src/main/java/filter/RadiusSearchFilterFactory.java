@@ -2,7 +2,10 @@ package filter;
 
 import net.imglib2.IterableRealInterval;
 import net.imglib2.KDTree;
-import util.KDTreeUtil;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import render.FlatKDTreeSamples;
+import render.RadiusNeighborSearchOnFlatKDTree;
 
 public abstract class RadiusSearchFilterFactory< S, T > implements FilterFactory< S, T >
 {
@@ -16,10 +19,40 @@ public abstract class RadiusSearchFilterFactory< S, T > implements FilterFactory
 	@Override
 	public Filter< T > createFilter( final IterableRealInterval< S > data )
 	{
-		return createFilter( KDTreeUtil.createParallelizableKDTreeFrom( (IterableRealInterval)data ) );
+		return createFilter( FlatKDTreeSamples.of( data ) );
 	}
 
-	public abstract Filter< T > createFilter( final KDTree< S > tree );
+	/**
+	 * @param samples - the indexed data, can be shared by the filters of all threads
+	 * @return a new filter (not thread-safe)
+	 */
+	public Filter< T > createFilter( final FlatKDTreeSamples< S > samples )
+	{
+		// real values are filtered directly on the arrays of the samples if the filter supports it
+		final NeighborhoodFilter filter = samples.values() != null ? createNeighborhoodFilter() : null;
+
+		if ( filter != null )
+			return new FlatNeighborhoodFilter<>( samples, this, filter );
+		else
+			return createFilter( new RadiusNeighborSearchOnFlatKDTree<>( samples ) );
+	}
+
+	/**
+	 * @return a new filter of real values over precomputed neighbors (not thread-safe), null if the filter does not support it
+	 */
+	public NeighborhoodFilter createNeighborhoodFilter() { return null; }
+
+	/**
+	 * @return true if the filter needs the neighbors sorted by distance
+	 */
+	public boolean sortsNeighbors() { return false; }
+
+	public Filter< T > createFilter( final KDTree< S > tree )
+	{
+		return createFilter( new RadiusNeighborSearchOnKDTree<>( tree ) );
+	}
+
+	public abstract Filter< T > createFilter( final RadiusNeighborSearch< S > search );
 
 	/**
 	 * @return - the current radius for the search, can be changed dynamically (each instance requests the radius from its factory when using it)
@@ -1,7 +1,6 @@
 package filter;
 
-import net.imglib2.KDTree;
-import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
 import net.imglib2.type.numeric.RealType;
 
 public class SingleSpotRemovingFilterFactory< T extends RealType< T > > extends RadiusSearchFilterFactory< T, T >
@@ -17,14 +16,27 @@ public class SingleSpotRemovingFilterFactory< T extends RealType< T > > extends
 	}
 
 	@Override
-	public Filter< T > createFilter( final KDTree< T > tree )
+	public Filter< T > createFilter( final RadiusNeighborSearch< T > search )
 	{
 		return new SingleSpotRemovingFilter<>(
-				new RadiusNeighborSearchOnKDTree<>(tree),
+				search,
 				this,
 				outOfBounds);
 	}
 
+	@Override
+	public NeighborhoodFilter createNeighborhoodFilter()
+	{
+		final double outOfBoundsValue = outOfBounds.getRealDouble();
+
+		// the value of the closest location (the filtered location itself) if it has neighbors
+		return ( values, permutation, neighbors ) ->
+				neighbors.size() > 1 ? values[ permutation[ neighbors.treeIndex( 0 ) ] ] : outOfBoundsValue;
+	}
+
+	@Override
+	public boolean sortsNeighbors() { return true; }
+
 	@Override
 	public T create()
 	{
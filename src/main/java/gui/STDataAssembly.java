@@ -1,8 +1,14 @@
 package gui;
 
+import java.util.Arrays;
+
 import data.STData;
 import data.STDataStatistics;
+import data.STDataUtils;
 import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.type.numeric.real.DoubleType;
+import render.FlatKDTreeSamples;
+import util.FlatKDTree;
 
 public class STDataAssembly
 {
@@ -10,6 +16,10 @@ public class STDataAssembly
 	final private STDataStatistics statistics;
 	final private AffineTransform2D transform;
 
+	// index of the transformed locations, rebuilt only if the transform changes
+	private FlatKDTree locationIndex;
+	private double[] indexedTransform;
+
 	public STDataAssembly(
 			final STData data,
 			final STDataStatistics statistics,
@@ -21,10 +31,41 @@ public class STDataAssembly
 	}
 
 	public STDataAssembly(final STData data) {
-		this(data, new STDataStatistics(data), new AffineTransform2D());
+		this(data, STDataStatistics.of(data), new AffineTransform2D());
 	}
 
 	public STData data() { return data; }
 	public STDataStatistics statistics() { return statistics; }
 	public AffineTransform2D transform() { return transform; }
+
+	/**
+	 * @return the index of the (transformed) locations, which is built once and shared by all genes
+	 */
+	public synchronized FlatKDTree locationIndex()
+	{
+		final double[] t = transform.getRowPackedCopy();
+
+		if ( locationIndex == null || !Arrays.equals( t, indexedTransform ) )
+		{
+			if ( transform.isIdentity() )
+				locationIndex = FlatKDTree.forLocations( data.getLocations() );
+			else
+				locationIndex = new FlatKDTree( data.getLocations(), transform );
+
+			indexedTransform = t;
+		}
+
+		return locationIndex;
+	}
+
+	/**
+	 * Binds the expression values of a gene to the location index, which only copies the values.
+	 *
+	 * @param gene - the gene
+	 * @return the values of the gene in location order, indexed by {@link #locationIndex()}
+	 */
+	public FlatKDTreeSamples< DoubleType > samples( final String gene )
+	{
+		return new FlatKDTreeSamples<>( locationIndex(), STDataUtils.exprValues( data, gene ), new DoubleType() );
+	}
 }
@@ -1,6 +1,7 @@
 package gui.bdv;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,16 +25,14 @@ import imglib2.TransformedIterableRealInterval;
 import mpicbg.models.Affine2D;
 import mpicbg.models.AffineModel2D;
 import net.imglib2.Interval;
-import net.imglib2.IterableRealInterval;
-import net.imglib2.KDTree;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.ARGBType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
-import net.imglib2.util.Pair;
 import org.apache.logging.log4j.Logger;
+import render.FlatKDTreeSamples;
 import render.MaxDistanceParam;
 import render.Render;
 import util.BDVUtils;
@@ -41,18 +40,25 @@ import util.LoggerUtil;
 
 public class AddedGene
 {
-	public enum Rendering { Gauss, Mean, NN, Linear }
+	// Splat (same result) and GaussGrid (approximate, for large smoothness) are faster Gauss renderings into images, they render like Gauss in the viewer
+	public enum Rendering { Gauss, Mean, NN, Linear, Splat, GaussGrid }
+
+	/**
+	 * The renderings offered in the viewer, without the image renderings Splat and GaussGrid.
+	 */
+	public static final List< Rendering > viewerRenderings = Arrays.asList( Rendering.Gauss, Rendering.Mean, Rendering.NN, Rendering.Linear );
 
 	private static final Logger logger = LoggerUtil.getLogger();
 
 	final String inputPath, dataset;
 	final STDataAssembly data;
 	final RealRandomAccessible< DoubleType > rra;
-	final KDTree< DoubleType > tree;
-	final ArrayList< Double > originalValues;
+	final FlatKDTreeSamples< DoubleType > samples;
+	final double[] originalValues;
 	final private GaussianFilterFactory< DoubleType, DoubleType > gaussFactory;
 	final private RadiusSearchFilterFactory< DoubleType, DoubleType > radiusFactory;
 	final private MaxDistanceParam maxDistanceParam;
+	final private MultiResolutionSource multiResolutionSource;
 	final private BdvStackSource<?> source;
 	final TransformedSource<?> transformedSource;
 	final SourceAndConverter<?> soc;
@@ -68,10 +74,11 @@ public class AddedGene
 			final String dataset,
 			final STDataAssembly data,
 			final RealRandomAccessible< DoubleType > rra,
-			final KDTree< DoubleType > tree,
+			final FlatKDTreeSamples< DoubleType > samples,
 			final GaussianFilterFactory< DoubleType, DoubleType > gaussFactory,
 			final RadiusSearchFilterFactory< DoubleType, DoubleType > radiusFactory,
 			final MaxDistanceParam maxDistanceParam,
+			final MultiResolutionSource multiResolutionSource,
 			final BdvStackSource<?> source,
 			final SourceAndConverter<?> soc,
 			final TransformedSource<?> transformedSource,
@@ -83,10 +90,11 @@ public class AddedGene
 		this.dataset = dataset;
 		this.data = data;
 		this.rra = rra;
-		this.tree = tree;
+		this.samples = samples;
 		this.gaussFactory = gaussFactory;
 		this.radiusFactory = radiusFactory;
 		this.maxDistanceParam = maxDistanceParam;
+		this.multiResolutionSource = multiResolutionSource;
 		this.source = source;
 		this.soc = soc;
 		this.transformedSource = transformedSource;
@@ -94,20 +102,23 @@ public class AddedGene
 		this.min = min;
 		this.max = max;
 
-		this.originalValues = new ArrayList<>();
-		tree.forEach( t -> originalValues.add( t.get() ) );
+		this.originalValues = samples.values().clone();
 	}
 
-	public List< Double > originalValues() { return originalValues; }
+	public double[] originalValues() { return originalValues; }
 
 	public String inputPath() { return inputPath; }
 	public String dataset() { return dataset; }
 	public STDataAssembly data() { return data; }
 	public RealRandomAccessible< DoubleType > rra() { return rra; }
-	public KDTree< DoubleType > tree() { return tree; }
+	/**
+	 * @return the values of the gene bound to the location index of the dataset, changing them changes the rendering
+	 */
+	public FlatKDTreeSamples< DoubleType > samples() { return samples; }
 	public GaussianFilterFactory< DoubleType, DoubleType > gaussFactory(){ return gaussFactory; }
 	public RadiusSearchFilterFactory< DoubleType, DoubleType > radiusFactory(){ return radiusFactory; }
 	public MaxDistanceParam maxDistanceParam(){ return maxDistanceParam; }
+	public MultiResolutionSource multiResolutionSource(){ return multiResolutionSource; }
 	public BdvStackSource<?> source(){ return source; }
 	public SourceAndConverter<?> soc() { return soc; }
 	public TransformedSource<?> transformedSource() { return transformedSource; }
@@ -118,6 +129,31 @@ public class AddedGene
 	public AffineTransform2D currentModel2D() { return m2d; }
 	public AffineTransform3D currentModel3D() { return m3d; }
 
+	/**
+	 * Sets the smoothness or radius of the rendering at all resolution levels.
+	 *
+	 * @param distance - smoothness or radius at full resolution
+	 */
+	public void setRenderingDistance( final double distance )
+	{
+		if ( gaussFactory != null )
+			gaussFactory.setSigma( distance );
+		else if ( radiusFactory != null )
+			radiusFactory.setRadius( distance );
+		else
+			maxDistanceParam.setMaxDistance( distance );
+
+		multiResolutionSource.setRenderingDistance( distance );
+	}
+
+	/**
+	 * Updates the lower resolution levels after the values of the samples changed.
+	 */
+	public void valuesChanged()
+	{
+		multiResolutionSource.updateValues();
+	}
+
 	public synchronized void setCurrentModel( final Affine2D< ? > model )
 	{
 		this.model = model; // mapping A to B
@@ -230,24 +266,21 @@ public class AddedGene
 		logger.debug("min/max display range: {}/{}", minDisplay, maxDisplay);
 
 		final RealRandomAccessible< DoubleType > rra;
-		final KDTree< DoubleType > tree;
 		final GaussianFilterFactory< DoubleType, DoubleType > gaussFactory;
 		final RadiusSearchFilterFactory< DoubleType, DoubleType > radiusFactory;
 		final MaxDistanceParam maxDistanceParam;
 
-		// loads the transformed data
-		final IterableRealInterval< DoubleType > iri = Render.getRealIterable( data, gene, null );
+		// binds the values of the gene to the (transformed) locations that are indexed once per dataset
+		final FlatKDTreeSamples< DoubleType > samples = data.samples( gene );
 		final double medianDistance = data.statistics().getMedianDistance();
 
-		if ( renderType == Rendering.Gauss )
+		if ( renderType == Rendering.Gauss || renderType == Rendering.Splat || renderType == Rendering.GaussGrid )
 		{
 			gaussFactory = new GaussianFilterFactory<>( new DoubleType( 0 ), renderFactor * medianDistance, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS );
 			radiusFactory = null;
 			maxDistanceParam = null;
 
-			final Pair<RealRandomAccessible<DoubleType>, KDTree<DoubleType>> r = Render.render2( iri, gaussFactory );
-			rra = r.getA();
-			tree = r.getB();
+			rra = Render.render( samples, gaussFactory );
 		}
 		else if ( renderType == Rendering.NN )
 		{
@@ -255,9 +288,7 @@ public class AddedGene
 			radiusFactory = null;
 			gaussFactory = null;
 
-			final Pair<RealRandomAccessible<DoubleType>, KDTree<DoubleType>> r = Render.renderNN2( iri, new DoubleType( 0 ), maxDistanceParam );
-			rra = r.getA();
-			tree = r.getB();
+			rra = Render.renderNN( samples, new DoubleType( 0 ), maxDistanceParam );
 		}
 		else if ( renderType == Rendering.Mean )
 		{
@@ -265,9 +296,7 @@ public class AddedGene
 			maxDistanceParam = null;
 			gaussFactory = null;
 
-			final Pair<RealRandomAccessible<DoubleType>, KDTree<DoubleType>> r = Render.render2( iri, radiusFactory );
-			rra = r.getA();
-			tree = r.getB();
+			rra = Render.render( samples, radiusFactory );
 		}
 		else // LINEAR
 		{
@@ -275,9 +304,7 @@ public class AddedGene
 			gaussFactory = null;
 			maxDistanceParam = new MaxDistanceParam( renderFactor * medianDistance );
 
-			final Pair<RealRandomAccessible<DoubleType>, KDTree<DoubleType>> r = Render.renderLinear2( iri, 5, 3.0, new DoubleType( 0 ), maxDistanceParam );
-			rra = r.getA();
-			tree = r.getB();
+			rra = Render.renderLinear( samples, 5, 3.0, new DoubleType( 0 ), maxDistanceParam );
 		}
 
 		final Interval interval =
@@ -289,7 +316,11 @@ public class AddedGene
 		BdvOptions options = BdvOptions.options().numRenderingThreads(Math.max(2,Runtime.getRuntime().availableProcessors() / 2))
 				.addTo(bdv).is2D().preferredSize(1000, 925);
 
-		final BdvStackSource< ? > source = BdvFunctions.show( rra, interval, gene, options );
+		// coarser levels are shown when zoomed out
+		final MultiResolutionSource multiResolutionSource =
+				new MultiResolutionSource( gene, samples, rra, interval, renderType, medianDistance, renderFactor * medianDistance );
+
+		final BdvStackSource< ? > source = BdvFunctions.show( multiResolutionSource, options );
 
 		// get TransformedSource (that is dynamically updated with the alignment)
 		final TransformedSource<?> transformedSource = BDVUtils.getTransformedSource( source );
@@ -316,8 +347,8 @@ public class AddedGene
 		source.getBdvHandle().getViewerPanel().state().setViewerTransform( t );
 
 		final AddedGene g = new AddedGene(
-				inputContainer, dataset, data, rra, tree, gaussFactory, radiusFactory,
-				maxDistanceParam, source, soc, transformedSource, color, min, max );
+				inputContainer, dataset, data, rra, samples, gaussFactory, radiusFactory,
+				maxDistanceParam, multiResolutionSource, source, soc, transformedSource, color, min, max );
 
 		if ( fixedTransform != null )
 			g.setCurrentModel3D( fixedTransform );
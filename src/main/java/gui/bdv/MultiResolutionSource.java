@@ -0,0 +1,355 @@
+package gui.bdv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+import bdv.viewer.Interpolation;
+import bdv.viewer.Source;
+import filter.GaussianFilterFactory;
+import filter.GaussianFilterFactory.WeightType;
+import filter.MeanFilterFactory;
+import gui.bdv.AddedGene.Rendering;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.realtransform.Scale3D;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import render.FlatKDTreeSamples;
+import render.MaxDistanceParam;
+import render.PointCloudPyramid;
+import render.Render;
+import render.TiledRasterizer;
+
+/**
+ * A mipmapped BigDataViewer source of rendered values: the finest levels render all locations, level 0 with a voxel
+ * size of a fraction of the median distance (see {@link #levelZeroVoxelsPerDistance}), the coarser levels render the
+ * cells of a {@link PointCloudPyramid} with a distance that grows with the cell size. BigDataViewer picks the level
+ * by the zoom, so zoomed out views search a fraction of the locations. The coarser levels are rasterized lazily into
+ * cached tiles, so repainting, panning back or showing the source again only renders tiles that were not seen before;
+ * the tiles are discarded if the values or the smoothness change. Level 0 is shown as the continuous rendering, so
+ * zooming in never shows pixels.
+ *
+ * @author spreibi
+ */
+public class MultiResolutionSource implements Source< DoubleType >
+{
+	// voxels of level 0 per median distance between locations
+	public static final double levelZeroVoxelsPerDistance = 4;
+
+	final String name;
+	final FlatKDTreeSamples< DoubleType > samples;
+	final RealRandomAccessible< DoubleType > rra;
+	final PointCloudPyramid pyramid;
+	final double medianDistance;
+	final boolean is2D;
+	final DoubleType type = new DoubleType();
+
+	// number of levels that render all locations, the finest level is 0
+	final int numFullResolutionLevels;
+
+	// per level, the aggregated values (null for the full resolution levels), the rendering in voxel coordinates and its distance setter
+	final List< FlatKDTreeSamples< DoubleType > > levelSamples = new ArrayList<>();
+	final List< RealRandomAccessible< DoubleType > > levelRRAs = new ArrayList<>();
+	final List< DoubleConsumer > levelDistances = new ArrayList<>();
+	final List< Interval > levelIntervals = new ArrayList<>();
+	final List< double[] > levelScales = new ArrayList<>();
+
+	// the current smoothness or radius at full resolution, the tiles rendered with it
+	double distance;
+	volatile List< RandomAccessibleInterval< DoubleType > > levelTiles;
+
+	/**
+	 * @param name - name of the source
+	 * @param samples - the values at full resolution (2D or 3D)
+	 * @param rra - the rendering at full resolution, its distance is set by the caller
+	 * @param interval - the interval of the rendering
+	 * @param renderType - the rendering of the coarser levels
+	 * @param medianDistance - median distance between locations
+	 * @param distance - smoothness or radius of the rendering at full resolution
+	 */
+	public MultiResolutionSource(
+			final String name,
+			final FlatKDTreeSamples< DoubleType > samples,
+			final RealRandomAccessible< DoubleType > rra,
+			final Interval interval,
+			final Rendering renderType,
+			final double medianDistance,
+			final double distance )
+	{
+		this.name = name;
+		this.samples = samples;
+		this.rra = rra;
+		this.medianDistance = medianDistance;
+		this.distance = distance;
+		this.is2D = samples.numDimensions() == 2;
+		this.pyramid = PointCloudPyramid.forTree( samples.tree(), medianDistance );
+
+		// all locations are rasterized down to a fraction of their spacing, so zooming in does not show blocks, the
+		// cells of the pyramid start at twice the median distance
+		double voxelSize = medianDistance > 0 ? medianDistance / levelZeroVoxelsPerDistance : 1;
+
+		do
+		{
+			addLevel( null, rra, d -> {}, interval, voxelSize );
+			voxelSize *= 2;
+		}
+		while ( voxelSize < 2 * medianDistance );
+
+		this.numFullResolutionLevels = levelRRAs.size();
+
+		for ( int i = 0; i < pyramid.numLevels(); ++i )
+		{
+			final PointCloudPyramid.Level level = pyramid.level( i );
+			final FlatKDTreeSamples< DoubleType > cells = new FlatKDTreeSamples<>( level.tree(), level.aggregate( samples.values() ), new DoubleType() );
+
+			final LevelRendering rendering = render( cells, renderType, distance * levelScale( level ) );
+			addLevel( cells, rendering.rra, rendering.distance, interval, level.cellSize() );
+		}
+
+		invalidateTiles();
+	}
+
+	/**
+	 * Creates the source including the rendering at full resolution.
+	 */
+	public static MultiResolutionSource of(
+			final String name,
+			final FlatKDTreeSamples< DoubleType > samples,
+			final Interval interval,
+			final Rendering renderType,
+			final double medianDistance,
+			final double renderingFactor )
+	{
+		final double distance = medianDistance * renderingFactor;
+		final LevelRendering rendering = render( samples, renderType, distance );
+		final MultiResolutionSource source = new MultiResolutionSource( name, samples, rendering.rra, interval, renderType, medianDistance, distance );
+		source.levelDistances.set( 0, rendering.distance );
+
+		return source;
+	}
+
+	/**
+	 * @return the rendering at full resolution
+	 */
+	public RealRandomAccessible< DoubleType > fullResolution() { return rra; }
+
+	/**
+	 * Sets the smoothness or radius of the coarser levels (and of level 0 if it was created by {@link #of}), relative
+	 * to the distance at full resolution.
+	 *
+	 * @param distance - smoothness or radius of the rendering at full resolution
+	 */
+	public void setRenderingDistance( final double distance )
+	{
+		this.distance = distance;
+
+		for ( int i = 0; i < levelDistances.size(); ++i )
+			levelDistances.get( i ).accept( levelDistance( i ) );
+
+		invalidateTiles();
+	}
+
+	/**
+	 * Aggregates the values of the coarser levels again, must be called after changing the values of the samples.
+	 */
+	public void updateValues()
+	{
+		for ( int i = numFullResolutionLevels; i < levelSamples.size(); ++i )
+			pyramid.level( i - numFullResolutionLevels ).aggregate( samples.values(), levelSamples.get( i ).values() );
+
+		invalidateTiles();
+	}
+
+	/**
+	 * Discards all rendered tiles, the levels are rendered again when they are shown. Tiles that are still being
+	 * rendered end up in the discarded caches.
+	 */
+	public void invalidateTiles()
+	{
+		final List< RandomAccessibleInterval< DoubleType > > tiles = new ArrayList<>();
+
+		for ( int i = 0; i < levelRRAs.size(); ++i )
+		{
+			final RealRandomAccessible< DoubleType > rra = levelRRAs.get( i );
+			final double[] scale = levelScales.get( i );
+			final double levelDistance = levelDistance( i );
+
+			// the renderings reach beyond the locations by up to 5 sigma (or the radius)
+			final long[] border = new long[ 3 ];
+			for ( int d = 0; d < ( is2D ? 2 : 3 ); ++d )
+				border[ d ] = (long)Math.ceil( 5 * levelDistance / scale[ d ] );
+
+			final Interval interval = Intervals.expand( levelIntervals.get( i ), border );
+			final long[] min = interval.minAsLongArray();
+			final int tileSize = TiledRasterizer.defaultTileSize;
+
+			tiles.add( Views.translate(
+					new ReadOnlyCachedCellImgFactory(
+							ReadOnlyCachedCellImgOptions.options().cellDimensions( tileSize, tileSize, is2D ? 1 : tileSize / 4 ) ).create(
+									Intervals.dimensionsAsLongArray( interval ),
+									new DoubleType(),
+									cell -> renderTile( rra, min, cell ) ),
+					min ) );
+		}
+
+		levelTiles = tiles;
+	}
+
+	protected static void renderTile(
+			final RealRandomAccessible< DoubleType > rra,
+			final long[] offset,
+			final SingleCellArrayImg< DoubleType, ? > cell )
+	{
+		final RealRandomAccess< DoubleType > access = rra.realRandomAccess();
+		final Cursor< DoubleType > cursor = cell.localizingCursor();
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+
+			for ( int d = 0; d < offset.length; ++d )
+				access.setPosition( cursor.getLongPosition( d ) + offset[ d ], d );
+
+			cursor.get().set( access.get() );
+		}
+	}
+
+	/**
+	 * @return the smoothness or radius of the rendering of a level
+	 */
+	protected double levelDistance( final int i )
+	{
+		return i < numFullResolutionLevels ? distance : distance * levelScale( pyramid.level( i - numFullResolutionLevels ) );
+	}
+
+	protected double levelScale( final PointCloudPyramid.Level level )
+	{
+		return Math.max( 1.0, level.cellSize() / medianDistance );
+	}
+
+	protected void addLevel(
+			final FlatKDTreeSamples< DoubleType > cells,
+			final RealRandomAccessible< DoubleType > rra,
+			final DoubleConsumer distance,
+			final Interval interval,
+			final double voxelSize )
+	{
+		final RealRandomAccessible< DoubleType > rra3d = is2D ? RealViews.addDimension( rra ) : rra;
+		final double[] scale = new double[] { voxelSize, voxelSize, is2D ? 1 : voxelSize };
+
+		final long[] min = new long[ 3 ];
+		final long[] max = new long[ 3 ];
+
+		for ( int d = 0; d < 3; ++d )
+		{
+			min[ d ] = d < interval.numDimensions() ? (long)Math.floor( interval.min( d ) / scale[ d ] ) : 0;
+			max[ d ] = d < interval.numDimensions() ? (long)Math.ceil( interval.max( d ) / scale[ d ] ) : 0;
+		}
+
+		levelSamples.add( cells );
+		levelRRAs.add( RealViews.affineReal( rra3d, new Scale3D( 1.0 / scale[ 0 ], 1.0 / scale[ 1 ], 1.0 / scale[ 2 ] ) ) );
+		levelDistances.add( distance );
+		levelIntervals.add( new FinalInterval( min, max ) );
+		levelScales.add( scale );
+	}
+
+	protected static class LevelRendering
+	{
+		RealRandomAccessible< DoubleType > rra;
+		DoubleConsumer distance;
+	}
+
+	/**
+	 * @return the rendering of the given type, like {@link AddedGene#addGene}
+	 */
+	protected static LevelRendering render( final FlatKDTreeSamples< DoubleType > samples, final Rendering renderType, final double distance )
+	{
+		final LevelRendering rendering = new LevelRendering();
+
+		if ( renderType == Rendering.Gauss || renderType == Rendering.Splat || renderType == Rendering.GaussGrid )
+		{
+			final GaussianFilterFactory< DoubleType, DoubleType > factory = new GaussianFilterFactory<>( new DoubleType( 0 ), distance, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS );
+			rendering.rra = Render.render( samples, factory );
+			rendering.distance = factory::setSigma;
+		}
+		else if ( renderType == Rendering.NN )
+		{
+			final MaxDistanceParam param = new MaxDistanceParam( distance );
+			rendering.rra = Render.renderNN( samples, new DoubleType( 0 ), param );
+			rendering.distance = param::setMaxDistance;
+		}
+		else if ( renderType == Rendering.Mean )
+		{
+			final MeanFilterFactory< DoubleType, DoubleType > factory = new MeanFilterFactory<>( new DoubleType( 0 ), distance );
+			rendering.rra = Render.render( samples, factory );
+			rendering.distance = factory::setRadius;
+		}
+		else // LINEAR
+		{
+			final MaxDistanceParam param = new MaxDistanceParam( distance );
+			rendering.rra = Render.renderLinear( samples, 5, 3.0, new DoubleType( 0 ), param );
+			rendering.distance = param::setMaxDistance;
+		}
+
+		return rendering;
+	}
+
+	@Override
+	public boolean isPresent( final int t ) { return true; }
+
+	@Override
+	public RandomAccessibleInterval< DoubleType > getSource( final int t, final int level )
+	{
+		return levelTiles.get( level );
+	}
+
+	@Override
+	public RealRandomAccessible< DoubleType > getInterpolatedSource( final int t, final int level, final Interpolation method )
+	{
+		// zooming in beyond the finest level shows the continuous rendering instead of interpolated pixels
+		if ( level == 0 )
+			return levelRRAs.get( 0 );
+		else if ( method == Interpolation.NLINEAR )
+			return Views.interpolate( Views.extendZero( getSource( t, level ) ), new NLinearInterpolatorFactory<>() );
+		else
+			return Views.interpolate( Views.extendZero( getSource( t, level ) ), new NearestNeighborInterpolatorFactory<>() );
+	}
+
+	@Override
+	public void getSourceTransform( final int t, final int level, final AffineTransform3D transform )
+	{
+		final double[] scale = levelScales.get( level );
+
+		transform.identity();
+		transform.set( scale[ 0 ], 0, 0 );
+		transform.set( scale[ 1 ], 1, 1 );
+		transform.set( scale[ 2 ], 2, 2 );
+	}
+
+	@Override
+	public DoubleType getType() { return type; }
+
+	@Override
+	public String getName() { return name; }
+
+	@Override
+	public VoxelDimensions getVoxelDimensions() { return new FinalVoxelDimensions( "", 1, 1, 1 ); }
+
+	@Override
+	public int getNumMipmapLevels() { return levelRRAs.size(); }
+}
@@ -6,7 +6,6 @@ import java.awt.Font;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -76,7 +75,7 @@ public class STIMCard
 		this.currentBrightnessMin = initialBrightnessMin;
 		this.currentBrightnessMax = initialBrightnessMax;
 		this.currentRF = initialRF;
-		this.currentRendering = initialRendering;
+		this.currentRendering = AddedGene.viewerRenderings.contains( initialRendering ) ? initialRendering : Rendering.Gauss;
 		this.medianDistance = medianDistance;
 
 		this.panel = new JPanel(new MigLayout("gap 0, ins 5 5 5 0, fill", "[right][grow]", "center"));
@@ -89,10 +88,10 @@ public class STIMCard
 
 		final JPanel extraPanel = new JPanel( new MigLayout("gap 0, ins 0 0 0 0, fill", "[right][grow]", "center") );
 		// TODO: Advanced parameters for many of them
-		final String[] options = Arrays.stream(Rendering.values()).map(Enum::name).toArray(String[]::new);
+		final String[] options = AddedGene.viewerRenderings.stream().map(Enum::name).toArray(String[]::new);
 		final JComboBox< String > box = new JComboBox<>(options);
 		box.setBorder( BorderFactory.createEmptyBorder(0, 10, 0, 5));
-		box.setSelectedIndex( currentRendering.ordinal() );
+		box.setSelectedIndex( AddedGene.viewerRenderings.indexOf( currentRendering ) );
 		extraPanel.add( box, "aligny baseline" /*"growx, wrap"*/ );
 		final JButton add = new JButton("Genes (+)");
 		add.setFont( add.getFont().deriveFont( 10f ).deriveFont( Font.BOLD ) );
@@ -127,9 +126,9 @@ public class STIMCard
 
 			synchronized ( this )
 			{
-				if ( Rendering.values()[ box.getSelectedIndex() ] != currentRendering )
+				if ( AddedGene.viewerRenderings.get( box.getSelectedIndex() ) != currentRendering )
 				{
-					currentRendering = Rendering.values()[ box.getSelectedIndex() ];
+					currentRendering = AddedGene.viewerRenderings.get( box.getSelectedIndex() );
 					logger.debug("now rendering as: {}", currentRendering);
 
 					final SynchronizedViewerState state = bdvhandle.getViewerPanel().state();
@@ -206,15 +205,7 @@ public class STIMCard
 				final double actualSigma = currentRF * medianDistance;
 				sourceData.values().forEach( list ->
 				{
-					list.forEach( gene -> {
-						if ( gene.gaussFactory() != null )
-							gene.gaussFactory().setSigma( actualSigma );
-						else if ( gene.radiusFactory() != null )
-							gene.radiusFactory().setRadius( actualSigma );
-						else
-							gene.maxDistanceParam().setMaxDistance( actualSigma );
-						
-					});
+					list.forEach( gene -> gene.setRenderingDistance( actualSigma ) );
 					/*
 					if ( p.getA().gaussFactory() != null )
 						p.getA().gaussFactory().setSigma( actualSigma );
@@ -4,7 +4,6 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
@@ -25,9 +24,8 @@ import filter.Filters;
 import filter.GaussianFilterFactory;
 import filter.MeanFilterFactory;
 import filter.MedianFilterFactory;
+import filter.RadiusSearchFilterFactory;
 import filter.SingleSpotRemovingFilterFactory;
-import net.imglib2.RealCursor;
-import net.imglib2.RealPointSampleList;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.miginfocom.swing.MigLayout;
 import org.apache.logging.log4j.Logger;
@@ -109,7 +107,15 @@ public class STIMCardFilter
 
 	public List< FilterFactory< DoubleType, DoubleType > > filterFactories()
 	{
-		final List< FilterFactory< DoubleType, DoubleType > > f = new ArrayList<>();
+		return new ArrayList<>( radiusSearchFilterFactories() );
+	}
+
+	/**
+	 * @return the active filters, all of them are radius searches that can run on the shared location index
+	 */
+	public List< RadiusSearchFilterFactory< DoubleType, DoubleType > > radiusSearchFilterFactories()
+	{
+		final List< RadiusSearchFilterFactory< DoubleType, DoubleType > > f = new ArrayList<>();
 
 		if ( tableModel.currentActiveValues[ 0 ] ) // single spot filter
 			f.add( new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), stimcard.medianDistance() * tableModel.currentRadiusValues[ 0 ] ) );
@@ -297,22 +303,18 @@ public class STIMCardFilter
 				SwingUtilities.invokeLater( () -> table.setForeground( Color.lightGray ) );
 	
 				// replace original values first
-				stimcard.sourceData().values().forEach(data -> data.forEach(d -> {
-					final Iterator<Double> iFilt = d.originalValues().iterator();
-					d.tree().forEach( t -> t.set( iFilt.next() ) );
-				}));
+				stimcard.sourceData().values().forEach(data -> data.forEach(d ->
+					System.arraycopy( d.originalValues(), 0, d.samples().values(), 0, d.originalValues().length ) ));
 	
-				for ( final FilterFactory<DoubleType, DoubleType> filterFactory : filterFactories() )
+				for ( final RadiusSearchFilterFactory<DoubleType, DoubleType> filterFactory : radiusSearchFilterFactories() )
 				{
 					stimcard.sourceData().forEach( (gene,data) ->
 					{
 						final List< Callable< Void > > tasks = new ArrayList<>();
 
 						data.forEach(d -> tasks.add(() -> {
-							final RealPointSampleList<DoubleType> filteredA = Filters.filter(d.tree(), d.tree().cursor(), filterFactory);
-
-							final RealCursor<DoubleType> iAFilt = filteredA.cursor();
-							d.tree().forEach( t -> t.set( iAFilt.next() ) );
+							final double[] filtered = Filters.filter( d.samples(), filterFactory );
+							System.arraycopy( filtered, 0, d.samples().values(), 0, filtered.length );
 
 							return null;
 						}));
@@ -320,6 +322,8 @@ public class STIMCardFilter
 						try { service.invokeAll( tasks ); } catch (InterruptedException e) { logger.warn(e); }
 					});
 				}
+
+				stimcard.sourceData().values().forEach( data -> data.forEach( AddedGene::valuesChanged ) );
 	
 				stimcard.bdvhandle().getViewerPanel().requestRepaint();
 				SwingUtilities.invokeLater( () -> table.setForeground( Color.black ) );
@@ -45,6 +45,16 @@ public class ExpValueRealIterable< T > implements IterableRealInterval< T >
 		this.iterableValues = Views.flatIterable( values );
 	}
 
+	/**
+	 * @return the locations, size: [numLocations x numDimensions]
+	 */
+	public RandomAccessibleInterval< DoubleType > getLocations() { return locations; }
+
+	/**
+	 * @return the values in the order of the locations
+	 */
+	public IterableInterval< T > getValues() { return iterableValues; }
+
 	@Override
 	public RealCursor< T > localizingCursor()
 	{
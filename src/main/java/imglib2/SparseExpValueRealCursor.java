@@ -0,0 +1,182 @@
+package imglib2;
+
+import java.util.Arrays;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class SparseExpValueRealCursor implements RealCursor< DoubleType >
+{
+	final LocationRealCursor locationCursor;
+	final DoubleType value = new DoubleType();
+
+	final int[] locationIndices;
+	final double[] values;
+	final int start, end;
+	final boolean implicitZeros;
+	final long lastIndex;
+
+	// current location index
+	long index;
+
+	// next (implicitZeros) or current entry in the sparse arrays
+	int entry;
+
+	public SparseExpValueRealCursor(
+			final RandomAccessibleInterval< DoubleType > locations,
+			final int[] locationIndices,
+			final double[] values,
+			final int start,
+			final int end,
+			final boolean implicitZeros )
+	{
+		this.locationCursor = new LocationRealCursor( locations );
+		this.locationIndices = locationIndices;
+		this.values = values;
+		this.start = start;
+		this.end = end;
+		this.implicitZeros = implicitZeros;
+		this.lastIndex = implicitZeros ? locations.dimension( 0 ) - 1 : end - start - 1;
+
+		reset();
+	}
+
+	protected SparseExpValueRealCursor( final SparseExpValueRealCursor c )
+	{
+		this.locationCursor = new LocationRealCursor( c.locationCursor );
+		this.locationIndices = c.locationIndices;
+		this.values = c.values;
+		this.start = c.start;
+		this.end = c.end;
+		this.implicitZeros = c.implicitZeros;
+		this.lastIndex = c.lastIndex;
+		this.index = c.index;
+		this.entry = c.entry;
+		this.value.set( c.value );
+	}
+
+	@Override
+	public DoubleType get()
+	{
+		return value;
+	}
+
+	@Override
+	public void jumpFwd( final long steps )
+	{
+		index += steps;
+
+		if ( implicitZeros )
+		{
+			locationCursor.jumpFwd( steps );
+
+			// find the first entry >= index
+			int k = Arrays.binarySearch( locationIndices, entry, end, (int)index );
+			entry = k >= 0 ? k : -k - 1;
+
+			updateImplicitZeroValue();
+		}
+		else
+		{
+			final int location = locationIndices[ start + (int)index ];
+			locationCursor.jumpFwd( location - locationCursor.getIndex() );
+			value.set( values[ start + (int)index ] );
+		}
+	}
+
+	@Override
+	public void fwd()
+	{
+		++index;
+
+		if ( implicitZeros )
+		{
+			locationCursor.fwd();
+
+			while ( entry < end && locationIndices[ entry ] < index )
+				++entry;
+
+			updateImplicitZeroValue();
+		}
+		else
+		{
+			final int location = locationIndices[ start + (int)index ];
+			locationCursor.jumpFwd( location - locationCursor.getIndex() );
+			value.set( values[ start + (int)index ] );
+		}
+	}
+
+	protected void updateImplicitZeroValue()
+	{
+		if ( entry < end && locationIndices[ entry ] == index )
+			value.set( values[ entry ] );
+		else
+			value.set( 0 );
+	}
+
+	@Override
+	public void reset()
+	{
+		locationCursor.reset();
+		index = -1;
+		entry = start;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return index < lastIndex;
+	}
+
+	@Override
+	public DoubleType next()
+	{
+		fwd();
+		return get();
+	}
+
+	/**
+	 * @return the index of the current location
+	 */
+	public long getLocationIndex()
+	{
+		return locationCursor.getIndex();
+	}
+
+	@Override
+	public void localize( final float[] position )
+	{
+		locationCursor.localize( position );
+	}
+
+	@Override
+	public void localize( final double[] position )
+	{
+		locationCursor.localize( position );
+	}
+
+	@Override
+	public float getFloatPosition( final int d )
+	{
+		return locationCursor.getFloatPosition( d );
+	}
+
+	@Override
+	public double getDoublePosition( final int d )
+	{
+		return locationCursor.getDoublePosition( d );
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return locationCursor.numDimensions();
+	}
+
+	@Override
+	public SparseExpValueRealCursor copy()
+	{
+		return new SparseExpValueRealCursor( this );
+	}
+}
@@ -0,0 +1,151 @@
+package imglib2;
+
+import java.util.Iterator;
+
+import net.imglib2.IterableRealInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.RealInterval;
+import net.imglib2.RealPositionable;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Iterates the expression values of one gene of a sparse matrix, either only the non-zero
+ * entries or all locations with implicit zeros for the missing entries.
+ *
+ * @author spreibi
+ */
+public class SparseExpValueRealIterable implements IterableRealInterval< DoubleType >
+{
+	final RandomAccessibleInterval< DoubleType > locations;
+	final RealInterval realInterval;
+	final int[] locationIndices;
+	final double[] values;
+	final int start, end;
+	final boolean implicitZeros;
+
+	/**
+	 * @param locations - all locations, size: [numLocations x numDimensions]
+	 * @param locationIndices - location index of each non-zero entry
+	 * @param values - value of each non-zero entry
+	 * @param start - first entry of the gene
+	 * @param end - last entry of the gene (exclusive)
+	 * @param implicitZeros - iterate all locations (true) or only non-zero locations (false)
+	 * @param realInterval - the interval of the locations
+	 */
+	public SparseExpValueRealIterable(
+			final RandomAccessibleInterval< DoubleType > locations,
+			final int[] locationIndices,
+			final double[] values,
+			final int start,
+			final int end,
+			final boolean implicitZeros,
+			final RealInterval realInterval )
+	{
+		this.locations = locations;
+		this.locationIndices = locationIndices;
+		this.values = values;
+		this.start = start;
+		this.end = end;
+		this.implicitZeros = implicitZeros;
+		this.realInterval = realInterval;
+	}
+
+	public boolean implicitZeros() { return implicitZeros; }
+
+	/**
+	 * @return the locations, size: [numLocations x numDimensions]
+	 */
+	public RandomAccessibleInterval< DoubleType > getLocations() { return locations; }
+
+	/**
+	 * @return the values of all locations (including zeros) in the order of the locations
+	 */
+	public double[] getDenseValues()
+	{
+		final double[] dense = new double[ (int)locations.dimension( 0 ) ];
+
+		for ( int i = start; i < end; ++i )
+			dense[ locationIndices[ i ] ] = values[ i ];
+
+		return dense;
+	}
+
+	@Override
+	public RealCursor< DoubleType > localizingCursor()
+	{
+		return new SparseExpValueRealCursor( locations, locationIndices, values, start, end, implicitZeros );
+	}
+
+	@Override
+	public double realMin( final int d )
+	{
+		return realInterval.realMin( d );
+	}
+
+	@Override
+	public void realMin( final double[] min )
+	{
+		realInterval.realMin( min );
+	}
+
+	@Override
+	public void realMin( final RealPositionable min )
+	{
+		realInterval.realMin( min );
+	}
+
+	@Override
+	public double realMax( final int d )
+	{
+		return realInterval.realMax( d );
+	}
+
+	@Override
+	public void realMax( final double[] max )
+	{
+		realInterval.realMax( max );
+	}
+
+	@Override
+	public void realMax( final RealPositionable max )
+	{
+		realInterval.realMax( max );
+	}
+
+	@Override
+	public int numDimensions()
+	{
+		return realInterval.numDimensions();
+	}
+
+	@Override
+	public Iterator< DoubleType > iterator()
+	{
+		return localizingCursor();
+	}
+
+	@Override
+	public RealCursor< DoubleType > cursor()
+	{
+		return localizingCursor();
+	}
+
+	@Override
+	public long size()
+	{
+		return implicitZeros ? locations.dimension( 0 ) : end - start;
+	}
+
+	@Override
+	public DoubleType firstElement()
+	{
+		return cursor().next();
+	}
+
+	@Override
+	public Object iterationOrder()
+	{
+		return this;
+	}
+}
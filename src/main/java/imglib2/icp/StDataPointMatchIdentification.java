@@ -28,25 +28,23 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 import data.STData;
+import data.STDataUtils;
 import filter.Filters;
-import filter.GaussianFilterFactory;
-import filter.SingleSpotRemovingFilterFactory;
-import filter.GaussianFilterFactory.WeightType;
-import filter.MeanFilterFactory;
-import filter.MedianFilterFactory;
+import filter.RadiusSearchFilterFactory;
 import mpicbg.models.PointMatch;
 import net.imglib2.IterableRealInterval;
 import net.imglib2.KDTree;
-import net.imglib2.RealCursor;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.RealPointSampleList;
 import net.imglib2.converter.Converters;
 import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 import util.CompensatedSum;
+import util.FlatKDTree;
 import util.KDTreeUtil;
 
 public class StDataPointMatchIdentification < P extends RealLocalizable > implements PointMatchIdentification< P >
@@ -82,86 +80,12 @@ public class StDataPointMatchIdentification < P extends RealLocalizable > implem
 		//this.searchTarget = new HashMap<>();
 		//this.searchReference = new HashMap<>();
 
-		IterableRealInterval< DoubleType > sumReference = null;
-		IterableRealInterval< DoubleType > sumTarget = null;
+		// all genes are filtered together and summed per location
+		final List< RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories =
+				Filters.alignmentFilters( ffSingleSpot, ffMedian, ffGauss, ffMean );
 
-		for ( final String gene : genes )
-		{
-			System.out.print(  " " + gene );
-
-			// normalize per gene 0...1 and gaussian blur first
-			IterableRealInterval<DoubleType> ref = stDataReference.getExprData( gene );
-			IterableRealInterval<DoubleType> target = stDataTarget.getExprData( gene );
-
-			if ( ffSingleSpot != null )
-			{
-				ref = Filters.filter( ref, new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), ffSingleSpot ), service );
-				target = Filters.filter( target, new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), ffSingleSpot ), service );
-			}
-
-			if ( ffMedian != null )
-			{
-				ref = Filters.filter( ref, new MedianFilterFactory<>( new DoubleType( 0 ), ffMedian ), service );
-				target = Filters.filter( target, new MedianFilterFactory<>( new DoubleType( 0 ), ffMedian ), service );
-			}
-
-			if ( ffGauss != null )
-			{
-				ref = Filters.filter( ref, new GaussianFilterFactory<>( new DoubleType( 0 ), ffGauss, WeightType.BY_SUM_OF_WEIGHTS ), service );
-				target = Filters.filter( target, new GaussianFilterFactory<>( new DoubleType( 0 ), ffGauss, WeightType.BY_SUM_OF_WEIGHTS ), service );
-			}
-
-			if ( ffMean != null )
-			{
-				ref = Filters.filter( ref, new MeanFilterFactory<>( new DoubleType( 0 ), ffMean ), service );
-				target = Filters.filter( target, new MeanFilterFactory<>( new DoubleType( 0 ), ffMean ), service );
-			}
-
-			if ( sumReference == null )
-			{
-				sumReference = new RealPointSampleList<>( stDataReference.numDimensions() );
-				sumTarget = new RealPointSampleList<>( stDataTarget.numDimensions() );
-
-				final RealCursor< DoubleType > cR = ref.localizingCursor();
-
-				while ( cR.hasNext() )
-				{
-					final DoubleType value = cR.next();
-					((RealPointSampleList<DoubleType>)sumReference).add( new RealPoint( cR ), value.copy() );
-				}
-
-				final RealCursor< DoubleType > cT = target.localizingCursor();
-
-				while ( cT.hasNext() )
-				{
-					final DoubleType value = cT.next();
-					((RealPointSampleList<DoubleType>)sumTarget).add( new RealPoint( cT ), value.copy() );
-				}
-			}
-			else
-			{
-				final RealCursor< DoubleType > cR = ref.localizingCursor();
-				final RealCursor< DoubleType > cRout = sumReference.localizingCursor();
-
-				while ( cR.hasNext() )
-					cRout.next().add( cR.next() );
-
-				final RealCursor< DoubleType > cT = target.localizingCursor();
-				final RealCursor< DoubleType > cTout = sumTarget.localizingCursor();
-
-				while ( cT.hasNext() )
-					cTout.next().add( cT.next() );
-			}
-
-			//ref = normalize( ref );
-			//target = normalize( target );
-
-			//searchReference.put( gene, new NearestNeighborSearchOnKDTree<>( new KDTree<>( ref ) ) );
-			//searchTarget.put( gene, new NearestNeighborSearchOnKDTree<>( new KDTree<>( target ) ) );
-
-			// regularly sample the reference dataset
-			//searchTarget.put( gene, new NearestNeighborSearchOnKDTree<>( new KDTree<>( TransformCoordinates.sample( stDataTarget.getExprData( gene ), sampling ) ) ) );
-		}
+		IterableRealInterval< DoubleType > sumReference = sumFilteredGenes( stDataReference, null, genes, filterFactories, service );
+		IterableRealInterval< DoubleType > sumTarget = sumFilteredGenes( stDataTarget, null, genes, filterFactories, service );
 
 		CompensatedSum sumT = new CompensatedSum();
 		for ( final DoubleType t : sumTarget )
@@ -197,6 +121,65 @@ public class StDataPointMatchIdentification < P extends RealLocalizable > implem
 		SimpleMultiThreading.threadHaltUnClean();*/
 	}
 
+	/**
+	 * Sums the filtered expression values of the genes at every location. The filters search the neighbors of each
+	 * location once for all genes (see {@link Filters#filter(FlatKDTree, List, List, ExecutorService)}).
+	 *
+	 * @param data - the dataset
+	 * @param transform - the transform of the locations, null for none
+	 * @param genes - the genes to sum
+	 * @param filterFactories - the filters, applied in this order
+	 * @param service - the threads
+	 * @return the sum at every (transformed) location, in location order
+	 */
+	public static RealPointSampleList< DoubleType > sumFilteredGenes(
+			final STData data,
+			final AffineTransform2D transform,
+			final Collection< String > genes,
+			final List< RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories,
+			final ExecutorService service )
+	{
+		final FlatKDTree tree =
+				transform == null || transform.isIdentity() ?
+						FlatKDTree.forLocations( data.getLocations() ) : new FlatKDTree( data.getLocations(), transform );
+
+		final int n = tree.numDimensions();
+		final int size = tree.size();
+		final int[] permutation = tree.permutation();
+
+		final List< double[] > values = new ArrayList<>();
+
+		for ( final String gene : genes )
+			values.add( STDataUtils.exprValues( data, gene ) );
+
+		Filters.filter( tree, values, filterFactories, service );
+
+		final double[] sum = new double[ size ];
+
+		for ( final double[] geneValues : values )
+			for ( int i = 0; i < size; ++i )
+				sum[ i ] += geneValues[ i ];
+
+		final RealPoint[] points = new RealPoint[ size ];
+
+		for ( int t = 0; t < size; ++t )
+		{
+			final double[] position = new double[ n ];
+
+			for ( int d = 0; d < n; ++d )
+				position[ d ] = tree.position( t, d );
+
+			points[ permutation[ t ] ] = new RealPoint( position );
+		}
+
+		final RealPointSampleList< DoubleType > sumList = new RealPointSampleList<>( n );
+
+		for ( int i = 0; i < size; ++i )
+			sumList.add( points[ i ], new DoubleType( sum[ i ] ) );
+
+		return sumList;
+	}
+
 	public void setDistanceThreshold( final double distanceThreshold ) { this.distanceThreshold = distanceThreshold; }
 	public double getDistanceThreshold() { return this.distanceThreshold; }
 
@@ -33,12 +33,9 @@ import data.STDataStatistics;
 import filter.Filters;
 import filter.GaussianFilterFactory;
 import filter.GaussianFilterFactory.WeightType;
-import filter.MeanFilterFactory;
-import filter.MedianFilterFactory;
-import filter.SingleSpotRemovingFilterFactory;
+import filter.RadiusSearchFilterFactory;
 import ij.ImageJ;
 import imglib2.ImgLib2Util;
-import imglib2.TransformedIterableRealInterval;
 import mpicbg.models.NotEnoughDataPointsException;
 import mpicbg.models.PointMatch;
 import net.imglib2.IterableRealInterval;
@@ -97,82 +94,14 @@ public class StDataRelativePointMatchIdentification < P extends RealLocalizable
 		this.distanceThreshold = distanceThreshold;
 		this.rankThreshold = rankThreshold;
 
-		RealPointSampleList< DoubleType > sumReference = null;
-		RealPointSampleList< DoubleType > sumTarget = null;
+		// first sum intensity over all genes, with filters applied (all genes are filtered together)
+		final List< RadiusSearchFilterFactory< DoubleType, DoubleType > > filterFactories =
+				Filters.alignmentFilters( ffSingleSpot, ffMedian, ffGauss, ffMean );
 
-		// first sum intensity over all genes, with filters applied
-		for ( final String gene : genes )
-		{
-			System.out.print(  " " + gene );
-
-			IterableRealInterval<DoubleType> ref = stDataReference.getExprData( gene );
-			IterableRealInterval<DoubleType> target = stDataTarget.getExprData( gene );
-
-			ref = new TransformedIterableRealInterval<>( ref, transformReference );
-			target = new TransformedIterableRealInterval<>( target, transformTarget );
-
-			if ( ffSingleSpot != null )
-			{
-				ref = Filters.filter( ref, new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), ffSingleSpot ), service );
-				target = Filters.filter( target, new SingleSpotRemovingFilterFactory<>( new DoubleType( 0 ), ffSingleSpot ), service );
-			}
-
-			if ( ffMedian != null )
-			{
-				ref = Filters.filter( ref, new MedianFilterFactory<>( new DoubleType( 0 ), ffMedian ), service );
-				target = Filters.filter( target, new MedianFilterFactory<>( new DoubleType( 0 ), ffMedian ), service );
-			}
-
-			if ( ffGauss != null )
-			{
-				ref = Filters.filter( ref, new GaussianFilterFactory<>( new DoubleType( 0 ), ffGauss, WeightType.BY_SUM_OF_WEIGHTS ), service );
-				target = Filters.filter( target, new GaussianFilterFactory<>( new DoubleType( 0 ), ffGauss, WeightType.BY_SUM_OF_WEIGHTS ), service );
-			}
-
-			if ( ffMean != null )
-			{
-				ref = Filters.filter( ref, new MeanFilterFactory<>( new DoubleType( 0 ), ffMean ), service );
-				target = Filters.filter( target, new MeanFilterFactory<>( new DoubleType( 0 ), ffMean ), service );
-			}
-
-			if ( sumReference == null )
-			{
-				sumReference = new RealPointSampleList<>( stDataReference.numDimensions() );
-				sumTarget = new RealPointSampleList<>( stDataTarget.numDimensions() );
-
-				final RealCursor< DoubleType > cR = ref.localizingCursor();
-
-				while ( cR.hasNext() )
-				{
-					final DoubleType value = cR.next();
-					sumReference.add( new RealPoint( cR ), value.copy() );
-				}
-
-				final RealCursor< DoubleType > cT = target.localizingCursor();
-
-				while ( cT.hasNext() )
-				{
-					final DoubleType value = cT.next();
-					sumTarget.add( new RealPoint( cT ), value.copy() );
-				}
-			}
-			else
-			{
-				final RealCursor< DoubleType > cR = ref.localizingCursor();
-				final RealCursor< DoubleType > cRout = sumReference.localizingCursor();
-
-				while ( cR.hasNext() )
-					cRout.next().add( cR.next() );
-
-				final RealCursor< DoubleType > cT = target.localizingCursor();
-				final RealCursor< DoubleType > cTout = sumTarget.localizingCursor();
-
-				while ( cT.hasNext() )
-					cTout.next().add( cT.next() );
-			}
-		}
-
-		System.out.println();
+		final RealPointSampleList< DoubleType > sumReference =
+				StDataPointMatchIdentification.sumFilteredGenes( stDataReference, transformReference, genes, filterFactories, service );
+		final RealPointSampleList< DoubleType > sumTarget =
+				StDataPointMatchIdentification.sumFilteredGenes( stDataTarget, transformTarget, genes, filterFactories, service );
 
 		// compute the rank of each spot in it's local neigborhood defined by the distance threshold
 		this.rankRef = buildRank( sumReference );
@@ -196,12 +125,12 @@ public class StDataRelativePointMatchIdentification < P extends RealLocalizable
 		tS.scale( 0.15 );
 		new ImageJ();
 		final RealRandomAccessible< DoubleType > renderRRA =
-				Render.render( rankRef, new GaussianFilterFactory<>( new DoubleType( 0 ), new STDataStatistics(stDataReference).getMedianDistance() * 0.5, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
+				Render.render( rankRef, new GaussianFilterFactory<>( new DoubleType( 0 ), STDataStatistics.of( stDataReference ).getMedianDistance() * 0.5, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
 
 		final RandomAccessibleInterval<DoubleType> imgA = Views.interval( RealViews.affine( renderRRA, tS ), ImgLib2Util.transformInterval( stDataTarget.getRenderInterval(), tS ) );
 
 		final RealRandomAccessible< DoubleType > renderRRA2 =
-				Render.render( rankTarget, new GaussianFilterFactory<>( new DoubleType( 0 ), new STDataStatistics(stDataReference).getMedianDistance() * 0.5, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
+				Render.render( rankTarget, new GaussianFilterFactory<>( new DoubleType( 0 ), STDataStatistics.of( stDataReference ).getMedianDistance() * 0.5, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS ) );
 
 		final RandomAccessibleInterval<DoubleType> imgB = Views.interval( RealViews.affine( renderRRA2, tS ), ImgLib2Util.transformInterval( stDataReference.getRenderInterval(), tS ) );
 
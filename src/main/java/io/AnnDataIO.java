@@ -3,6 +3,7 @@ package io;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -14,12 +15,14 @@ import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 
 import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvStackSource;
 import bdv.viewer.DisplayMode;
 import data.STData;
+import data.STDataSparse;
 import filter.FilterFactory;
 import gui.STDataAssembly;
 import gui.STDataExplorer;
@@ -125,6 +128,70 @@ public class AnnDataIO extends SpatialDataIO {
 		return Converters.convert(expressionVals, (i, o) -> o.set(i.getRealDouble()), new DoubleType());
 	}
 
+	@Override
+	protected STData createSTData(
+			final N5Reader reader,
+			final RandomAccessibleInterval<DoubleType> locations,
+			final RandomAccessibleInterval<DoubleType> exprValues,
+			final List<String> geneNames,
+			final List<String> barcodes,
+			final HashMap<String, Integer> geneLookup) throws IOException {
+
+		if (!sparseExpressionValues)
+			return super.createSTData(reader, locations, exprValues, geneNames, barcodes, geneLookup);
+
+		final String encoding = reader.getAttribute(exprValuePath, "encoding-type", String.class);
+		final boolean isCsr = "csr_matrix".equals(encoding);
+		final boolean isCsc = "csc_matrix".equals(encoding);
+
+		if (!isCsr && !isCsc)
+			return super.createSTData(reader, locations, exprValues, geneNames, barcodes, geneLookup);
+
+		// read the sparse arrays directly instead of going through the dense view
+		final int[] pointers = readIntArray(reader, exprValuePath + "/indptr");
+		final int[] indices = readIntArray(reader, exprValuePath + "/indices");
+		final double[] values = readDoubleArray(reader, exprValuePath + "/data");
+
+		if (isCsc) {
+			// CSC of [numLocations x numGenes] is already gene-major, but scipy does not guarantee
+			// sorted indices within a column (has_sorted_indices), which the sparse accessors rely on
+			final int numSorted = STDataSparse.sortIndicesPerRow(pointers, indices, values);
+			if (numSorted > 0)
+				logger.debug("Sorted the location indices of {} genes in {}", numSorted, exprValuePath);
+
+			return new STDataSparse(locations, pointers, indices, values, geneNames, barcodes, geneLookup);
+		}
+		else {
+			// transposing visits the locations in order, so unsorted gene indices within a row do not matter
+			return STDataSparse.fromLocationMajor(locations, geneNames.size(), pointers, indices, values, geneNames, barcodes, geneLookup);
+		}
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static int[] readIntArray(final N5Reader reader, final String path) {
+		final RandomAccessibleInterval<? extends RealType<?>> array = (RandomAccessibleInterval) N5Utils.open(reader, path);
+		final int[] values = new int[(int) array.dimension(0)];
+		int i = 0;
+		for (final RealType<?> t : Views.flatIterable(array)) {
+			final double value = t.getRealDouble();
+			if (value < 0 || value > Integer.MAX_VALUE || value != Math.rint(value))
+				throw new UnsupportedOperationException("Value " + value + " at index " + i + " of '" + path
+						+ "' is not a valid int index (sparse matrices with more than " + Integer.MAX_VALUE + " entries are not supported).");
+			values[i++] = (int) value;
+		}
+		return values;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static double[] readDoubleArray(final N5Reader reader, final String path) {
+		final RandomAccessibleInterval<? extends RealType<?>> array = (RandomAccessibleInterval) N5Utils.open(reader, path);
+		final double[] values = new double[(int) array.dimension(0)];
+		int i = 0;
+		for (final RealType<?> t : Views.flatIterable(array))
+			values[i++] = t.getRealDouble();
+		return values;
+	}
+
 	protected <T extends NativeType<T> & RealType<T>> void readAndSetTransformation(N5Reader reader, AffineSet transform, String name) {
 		if (!reader.exists("/uns/" + name))
 			return;
@@ -210,7 +277,12 @@ public class AnnDataIO extends SpatialDataIO {
 	}
 
 	@Override
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	protected void writeExpressionValues(N5Writer writer, RandomAccessibleInterval<DoubleType> exprValues, String exprValuePath) throws IOException {
-		AnnDataUtils.writeNumericalArray(exprValues, writer, exprValuePath, options, AnnDataFieldType.CSR_MATRIX);
+		// other tools would read quantized values as they are
+		if (storageType.isQuantized())
+			throw new SpatialDataException("Storage type " + storageType + " is not supported for AnnData.");
+
+		AnnDataUtils.writeNumericalArray((RandomAccessibleInterval) storageType.encode(exprValues, 1.0), writer, exprValuePath, options, AnnDataFieldType.CSR_MATRIX);
 	}
 }
@@ -0,0 +1,165 @@
+package io;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+
+import util.LoggerUtil;
+
+/**
+ * A byte-bounded LRU cache for decoded blocks of N5 datasets. One instance is shared by all
+ * {@link SpatialDataIO} instances opened from a {@link SpatialDataContainer}.
+ *
+ * @author spreibi
+ */
+public class BlockCache {
+
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	/**
+	 * a quarter of the maximal heap size
+	 */
+	public static long defaultMaxBytes() {
+		return Runtime.getRuntime().maxMemory() / 4;
+	}
+
+	public static class Key {
+		final String dataset;
+		final long blockIndex;
+
+		public Key(final String dataset, final long blockIndex) {
+			this.dataset = dataset;
+			this.blockIndex = blockIndex;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key))
+				return false;
+			final Key other = (Key) o;
+			return blockIndex == other.blockIndex && dataset.equals(other.dataset);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * dataset.hashCode() + Long.hashCode(blockIndex);
+		}
+	}
+
+	private final LinkedHashMap<Key, double[]> blocks = new LinkedHashMap<>(1024, 0.75f, true);
+
+	private long maxBytes;
+	private long currentBytes = 0;
+	private long hits = 0, misses = 0, evictions = 0;
+
+	public BlockCache(final long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public BlockCache() {
+		this(defaultMaxBytes());
+	}
+
+	/**
+	 * Returns the cached block or loads it, the loader is called outside of the lock so that
+	 * different blocks can be decoded in parallel.
+	 *
+	 * @param key - dataset and block index
+	 * @param loader - decodes the block if it is not cached
+	 * @return the decoded block
+	 */
+	public double[] get(final Key key, final Supplier<double[]> loader) {
+		synchronized (this) {
+			final double[] block = blocks.get(key);
+			if (block != null) {
+				++hits;
+				return block;
+			}
+			++misses;
+		}
+
+		final double[] block = loader.get();
+		put(key, block);
+		return block;
+	}
+
+	protected synchronized void put(final Key key, final double[] block) {
+		final long bytes = sizeOf(block);
+
+		// blocks that do not fit are not cached at all
+		if (bytes > maxBytes)
+			return;
+
+		final double[] previous = blocks.put(key, block);
+		currentBytes += bytes;
+		if (previous != null)
+			currentBytes -= sizeOf(previous);
+
+		evict();
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<Key, double[]>> it = blocks.entrySet().iterator();
+		while (currentBytes > maxBytes && it.hasNext()) {
+			currentBytes -= sizeOf(it.next().getValue());
+			it.remove();
+			++evictions;
+		}
+	}
+
+	private static long sizeOf(final double[] block) {
+		return 8L * block.length;
+	}
+
+	/**
+	 * Removes all blocks of a dataset, e.g. after it was rewritten.
+	 *
+	 * @param dataset - the dataset key used to load the blocks
+	 */
+	public synchronized void invalidate(final String dataset) {
+		final Iterator<Map.Entry<Key, double[]>> it = blocks.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<Key, double[]> entry = it.next();
+			if (entry.getKey().dataset.equals(dataset)) {
+				currentBytes -= sizeOf(entry.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		blocks.clear();
+		currentBytes = 0;
+	}
+
+	public synchronized void setMaxBytes(final long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long maxBytes() { return maxBytes; }
+	public synchronized long currentBytes() { return currentBytes; }
+	public synchronized int numBlocks() { return blocks.size(); }
+	public synchronized long hits() { return hits; }
+	public synchronized long misses() { return misses; }
+	public synchronized long evictions() { return evictions; }
+
+	public synchronized void resetCounters() {
+		hits = misses = evictions = 0;
+	}
+
+	public void logStatistics() {
+		logger.info(toString());
+	}
+
+	@Override
+	public synchronized String toString() {
+		final long requests = hits + misses;
+		return "BlockCache: " + blocks.size() + " blocks, " + (currentBytes / (1024 * 1024)) + "/" + (maxBytes / (1024 * 1024)) + " MB, " +
+				"hits=" + hits + ", misses=" + misses + ", evictions=" + evictions +
+				(requests > 0 ? String.format(", hit rate=%.1f%%", 100.0 * hits / requests) : "");
+	}
+}
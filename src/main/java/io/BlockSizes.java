@@ -0,0 +1,78 @@
+package io;
+
+/**
+ * Chooses block shapes for the expression value matrix [numGenes x numLocations] from its size and the expected access pattern.
+ *
+ * @author spreibi
+ */
+public class BlockSizes {
+
+	public enum AccessPattern {
+		/** whole genes are read, e.g. rendering or scrubbing genes in BDV */
+		GENE,
+		/** whole locations are read, e.g. normalization or clustering */
+		LOCATION,
+		/** no preference */
+		BALANCED
+	}
+
+	// about 2MB of doubles per block, large enough for good compression, small enough for little overhead
+	public static final int targetBlockElements = 1 << 18;
+
+	// genes (locations) per block for GENE (LOCATION) access, every read loads at most this many rows (columns) at once
+	public static final int maxRowsPerBlock = 16;
+
+	public static int[] matrixBlockSize(final long numGenes, final long numLocations, final AccessPattern pattern) {
+		switch (pattern) {
+			case GENE: {
+				final int genes = clamp(targetBlockElements / Math.max(1, numLocations), 1, Math.min(maxRowsPerBlock, numGenes));
+				return new int[]{genes, clamp(targetBlockElements / genes, 1, numLocations)};
+			}
+			case LOCATION: {
+				final int locations = clamp(targetBlockElements / Math.max(1, numGenes), 1, Math.min(maxRowsPerBlock, numLocations));
+				return new int[]{clamp(targetBlockElements / locations, 1, numGenes), locations};
+			}
+			default: {
+				final int side = (int) Math.sqrt(targetBlockElements);
+				final int genes = clamp(side, 1, numGenes);
+				return new int[]{genes, clamp(targetBlockElements / genes, 1, numLocations)};
+			}
+		}
+	}
+
+	public static int vectorBlockSize(final long numLocations) {
+		return clamp(targetBlockElements / 4, 1, numLocations);
+	}
+
+	/**
+	 * @param spec - "auto" or comma-separated block size, e.g. "512,512"
+	 * @return the block size, or null for "auto"
+	 * @throws IllegalArgumentException if spec is neither "auto" nor two positive integers
+	 */
+	public static int[] parse(final String spec) {
+		if (spec.trim().equalsIgnoreCase("auto"))
+			return null;
+
+		final String[] values = spec.split(",");
+		if (values.length != 2)
+			throw new IllegalArgumentException("Block size '" + spec + "' needs to be 'auto' or two comma-separated values.");
+
+		final int[] blockSize = new int[2];
+		for (int d = 0; d < 2; ++d) {
+			try {
+				blockSize[d] = Integer.parseInt(values[d].trim());
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("Block size '" + spec + "' contains '" + values[d].trim() + "', which is not an integer.", e);
+			}
+
+			if (blockSize[d] <= 0)
+				throw new IllegalArgumentException("Block size '" + spec + "' needs to be positive.");
+		}
+
+		return blockSize;
+	}
+
+	private static int clamp(final long value, final long min, final long max) {
+		return (int) Math.max(min, Math.min(max, value));
+	}
+}
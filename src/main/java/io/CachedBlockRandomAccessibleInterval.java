@@ -0,0 +1,236 @@
+package io;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * A read-only view of a numerical N5 dataset whose blocks are decoded to double and kept in a
+ * shared {@link BlockCache}, replaces the soft-referenced cache of {@code N5Utils.open(...)}.
+ *
+ * @author spreibi
+ */
+public class CachedBlockRandomAccessibleInterval extends AbstractInterval implements RandomAccessibleInterval<DoubleType> {
+
+	final N5Reader reader;
+	final String dataset, cacheKey;
+	final DatasetAttributes attributes;
+	final BlockCache cache;
+	final long[] dims;
+	final int[] blockSize;
+	final long[] gridDims;
+
+	/**
+	 * @param reader - the N5 reader
+	 * @param dataset - path of the dataset within the reader
+	 * @param cacheKey - identifies the dataset in the cache, must be unique across all containers using the cache
+	 * @param cache - the shared cache
+	 */
+	public CachedBlockRandomAccessibleInterval(final N5Reader reader, final String dataset, final String cacheKey, final BlockCache cache) {
+		this(reader, dataset, cacheKey, reader.getDatasetAttributes(dataset), cache);
+	}
+
+	protected CachedBlockRandomAccessibleInterval(final N5Reader reader, final String dataset, final String cacheKey, final DatasetAttributes attributes, final BlockCache cache) {
+		super(attributes.getDimensions());
+
+		this.reader = reader;
+		this.dataset = dataset;
+		this.cacheKey = cacheKey;
+		this.attributes = attributes;
+		this.cache = cache;
+		this.dims = attributes.getDimensions();
+		this.blockSize = attributes.getBlockSize();
+		this.gridDims = new long[dims.length];
+
+		for (int d = 0; d < dims.length; ++d)
+			gridDims[d] = (dims[d] + blockSize[d] - 1) / blockSize[d];
+	}
+
+	@Override
+	public CachedBlockRandomAccess randomAccess() {
+		return new CachedBlockRandomAccess();
+	}
+
+	@Override
+	public CachedBlockRandomAccess randomAccess(final Interval interval) {
+		return randomAccess();
+	}
+
+	public DoubleType getType() {
+		return new DoubleType();
+	}
+
+	/**
+	 * @param gridPosition - the block
+	 * @return the decoded block, size of the block cropped to the dataset, zeros if the block does not exist
+	 */
+	protected double[] getBlock(final long[] gridPosition) {
+		long index = 0;
+		for (int d = dims.length - 1; d >= 0; --d)
+			index = index * gridDims[d] + gridPosition[d];
+
+		final long[] pos = gridPosition.clone();
+		return cache.get(new BlockCache.Key(cacheKey, index), () -> loadBlock(pos));
+	}
+
+	protected double[] loadBlock(final long[] gridPosition) {
+		final int n = dims.length;
+		final int[] cellDims = new int[n];
+		int size = 1;
+		for (int d = 0; d < n; ++d) {
+			cellDims[d] = (int) Math.min(blockSize[d], dims[d] - gridPosition[d] * blockSize[d]);
+			size *= cellDims[d];
+		}
+
+		final DataBlock<?> block = reader.readBlock(dataset, attributes, gridPosition);
+		if (block == null)
+			return new double[size];
+
+		final double[] values = toDouble(block.getData(), attributes.getDataType(), block.getNumElements());
+		final int[] blockDims = block.getSize();
+
+		boolean sameLayout = true;
+		for (int d = 0; d < n; ++d)
+			sameLayout &= (blockDims[d] == cellDims[d]);
+
+		if (sameLayout)
+			return values;
+
+		// some backends (e.g. zarr) store padded border blocks, crop them
+		final double[] cropped = new double[size];
+		final int[] local = new int[n];
+		for (int i = 0; i < size; ++i) {
+			int src = 0;
+			for (int d = n - 1; d >= 0; --d)
+				src = src * blockDims[d] + local[d];
+			cropped[i] = values[src];
+
+			for (int d = 0; d < n; ++d) {
+				if (++local[d] < cellDims[d])
+					break;
+				local[d] = 0;
+			}
+		}
+		return cropped;
+	}
+
+	protected static double[] toDouble(final Object data, final DataType dataType, final int numElements) {
+		// the decoded block is not shared, so it can be cached as it is
+		if (dataType == DataType.FLOAT64)
+			return (double[]) data;
+
+		final double[] values = new double[numElements];
+
+		switch (dataType) {
+			case FLOAT32: {
+				final float[] a = (float[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i];
+				break;
+			}
+			case INT8: {
+				final byte[] a = (byte[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i];
+				break;
+			}
+			case UINT8: {
+				final byte[] a = (byte[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i] & 0xff;
+				break;
+			}
+			case INT16: {
+				final short[] a = (short[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i];
+				break;
+			}
+			case UINT16: {
+				final short[] a = (short[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i] & 0xffff;
+				break;
+			}
+			case INT32: {
+				final int[] a = (int[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i];
+				break;
+			}
+			case UINT32: {
+				final int[] a = (int[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i] & 0xffffffffL;
+				break;
+			}
+			case INT64:
+			case UINT64: {
+				final long[] a = (long[]) data;
+				for (int i = 0; i < numElements; ++i)
+					values[i] = a[i];
+				break;
+			}
+			default:
+				throw new SpatialDataException("Unsupported data type for cached reading: " + dataType);
+		}
+
+		return values;
+	}
+
+	public class CachedBlockRandomAccess extends Point implements RandomAccess<DoubleType> {
+
+		final DoubleType value = new DoubleType();
+		final long[] gridPosition, blockMin;
+		final int[] cellDims;
+		double[] block = null;
+
+		public CachedBlockRandomAccess() {
+			super(dims.length);
+
+			this.gridPosition = new long[dims.length];
+			this.blockMin = new long[dims.length];
+			this.cellDims = new int[dims.length];
+		}
+
+		@Override
+		public DoubleType get() {
+			final int n = dims.length;
+
+			boolean sameBlock = block != null;
+			for (int d = 0; d < n && sameBlock; ++d)
+				sameBlock = position[d] >= blockMin[d] && position[d] < blockMin[d] + cellDims[d];
+
+			if (!sameBlock) {
+				for (int d = 0; d < n; ++d) {
+					gridPosition[d] = position[d] / blockSize[d];
+					blockMin[d] = gridPosition[d] * blockSize[d];
+					cellDims[d] = (int) Math.min(blockSize[d], dims[d] - blockMin[d]);
+				}
+				block = getBlock(gridPosition);
+			}
+
+			int index = 0;
+			for (int d = n - 1; d >= 0; --d)
+				index = index * cellDims[d] + (int) (position[d] - blockMin[d]);
+
+			value.set(block[index]);
+			return value;
+		}
+
+		@Override
+		public CachedBlockRandomAccess copy() {
+			final CachedBlockRandomAccess copy = new CachedBlockRandomAccess();
+			copy.setPosition(this);
+			return copy;
+		}
+	}
+}
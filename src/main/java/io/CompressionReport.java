@@ -0,0 +1,119 @@
+package io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+/**
+ * Measures compression ratio and decode throughput of a dataset on a sample of its blocks. The sampled blocks are
+ * re-encoded in memory with the dataset's compression, so the numbers describe the codec independent of the storage backend.
+ *
+ * @author spreibi
+ */
+public class CompressionReport {
+
+	public final String dataset;
+	public final String compression;
+	public final int[] blockSize;
+	public final int numBlocks;
+	public final long uncompressedBytes, compressedBytes;
+	public final double decodeMBPerSecond;
+
+	protected CompressionReport(
+			final String dataset,
+			final String compression,
+			final int[] blockSize,
+			final int numBlocks,
+			final long uncompressedBytes,
+			final long compressedBytes,
+			final double decodeMBPerSecond) {
+		this.dataset = dataset;
+		this.compression = compression;
+		this.blockSize = blockSize;
+		this.numBlocks = numBlocks;
+		this.uncompressedBytes = uncompressedBytes;
+		this.compressedBytes = compressedBytes;
+		this.decodeMBPerSecond = decodeMBPerSecond;
+	}
+
+	public double ratio() {
+		return compressedBytes > 0 ? (double) uncompressedBytes / compressedBytes : 0;
+	}
+
+	/**
+	 * @param reader - the reader
+	 * @param dataset - the dataset
+	 * @param maxBlocks - maximal number of blocks that are sampled (evenly spaced along the grid)
+	 * @return the report
+	 */
+	public static CompressionReport measure(final N5Reader reader, final String dataset, final int maxBlocks) throws IOException {
+		final DatasetAttributes attributes = reader.getDatasetAttributes(dataset);
+		final long[] dims = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+
+		final long[] gridDims = new long[dims.length];
+		long numGridBlocks = 1;
+		for (int d = 0; d < dims.length; ++d) {
+			gridDims[d] = (dims[d] + blockSize[d] - 1) / blockSize[d];
+			numGridBlocks *= gridDims[d];
+		}
+
+		final long step = Math.max(1, numGridBlocks / Math.max(1, maxBlocks));
+		final int bytesPerElement = bytesPerElement(attributes);
+
+		long uncompressed = 0, compressed = 0, decodeNanos = 0;
+		int numBlocks = 0;
+
+		for (long index = 0; index < numGridBlocks && numBlocks < maxBlocks; index += step) {
+			final long[] gridPosition = new long[dims.length];
+			long remainder = index;
+			for (int d = 0; d < dims.length; ++d) {
+				gridPosition[d] = remainder % gridDims[d];
+				remainder /= gridDims[d];
+			}
+
+			final DataBlock<?> block = reader.readBlock(dataset, attributes, gridPosition);
+			if (block == null)
+				continue;
+
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			DefaultBlockWriter.writeBlock(out, attributes, block);
+			final byte[] encoded = out.toByteArray();
+
+			final long start = System.nanoTime();
+			DefaultBlockReader.readBlock(new ByteArrayInputStream(encoded), attributes, gridPosition);
+			decodeNanos += System.nanoTime() - start;
+
+			uncompressed += (long) block.getNumElements() * bytesPerElement;
+			compressed += encoded.length;
+			++numBlocks;
+		}
+
+		final double decodeMBPerSecond = decodeNanos > 0 ? (uncompressed / (1024.0 * 1024.0)) / (decodeNanos / 1e9) : 0;
+
+		return new CompressionReport(dataset, attributes.getCompression().getType(), blockSize, numBlocks, uncompressed, compressed, decodeMBPerSecond);
+	}
+
+	private static int bytesPerElement(final DatasetAttributes attributes) {
+		switch (attributes.getDataType()) {
+			case INT8: case UINT8: return 1;
+			case INT16: case UINT16: return 2;
+			case INT32: case UINT32: case FLOAT32: return 4;
+			default: return 8;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: compression=%s, blockSize=%s, sampled %d blocks, %.1f MB -> %.1f MB (ratio %.2f), decode %.0f MB/s",
+				dataset, compression, Arrays.toString(blockSize), numBlocks,
+				uncompressedBytes / (1024.0 * 1024.0), compressedBytes / (1024.0 * 1024.0), ratio(), decodeMBPerSecond);
+	}
+}
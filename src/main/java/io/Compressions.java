@@ -0,0 +1,80 @@
+package io;
+
+import java.lang.reflect.Constructor;
+
+import org.apache.logging.log4j.Logger;
+import org.janelia.saalfeldlab.n5.Bzip2Compression;
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.XzCompression;
+
+import util.LoggerUtil;
+
+/**
+ * Creates N5 compressions from short specifications such as "gzip:3", "zstd:5", "lz4" or "blosc:zstd:5".
+ * Zstandard and Blosc are provided by the n5 codec plugins and are instantiated reflectively, so they are
+ * only available if the respective plugin is on the classpath.
+ *
+ * @author spreibi
+ */
+public class Compressions {
+
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	public static String zstandardClass = "org.janelia.scicomp.n5.zstandard.ZstandardCompression";
+	public static String bloscClass = "org.janelia.saalfeldlab.n5.blosc.BloscCompression";
+
+	public static final String[] names = new String[]{"raw", "gzip", "bzip2", "xz", "lz4", "zstd", "blosc"};
+
+	/**
+	 * @param spec - name[:level] or blosc[:codec[:level]], e.g. "gzip:3", "zstd", "blosc:lz4:5"
+	 * @return the compression
+	 */
+	public static Compression create(final String spec) {
+		final String[] parts = spec.trim().toLowerCase().split(":");
+		final String name = parts[0];
+
+		switch (name) {
+			case "raw":
+				return new RawCompression();
+			case "gzip":
+				return new GzipCompression(level(parts, 1, 3));
+			case "bzip2":
+				return new Bzip2Compression(level(parts, 1, 9));
+			case "xz":
+				return new XzCompression(level(parts, 1, 6));
+			case "lz4":
+				return new Lz4Compression();
+			case "zstd":
+				return instantiate(zstandardClass, new Class<?>[]{int.class}, level(parts, 1, 3));
+			case "blosc": {
+				final String codec = parts.length > 1 ? parts[1] : "zstd";
+				// BloscCompression(cname, clevel, shuffle (1 = byte shuffle), blocksize (0 = automatic), nthreads)
+				return instantiate(bloscClass, new Class<?>[]{String.class, int.class, int.class, int.class, int.class},
+						codec, level(parts, 2, 5), 1, 0, 1);
+			}
+			default:
+				throw new IllegalArgumentException("Unknown compression '" + spec + "', supported: " + String.join(", ", names));
+		}
+	}
+
+	private static int level(final String[] parts, final int index, final int defaultLevel) {
+		return parts.length > index ? Integer.parseInt(parts[index]) : defaultLevel;
+	}
+
+	private static Compression instantiate(final String className, final Class<?>[] parameterTypes, final Object... arguments) {
+		try {
+			final Constructor<?> constructor = Class.forName(className).getConstructor(parameterTypes);
+			return (Compression) constructor.newInstance(arguments);
+		}
+		catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Compression plugin '" + className + "' is not on the classpath.", e);
+		}
+		catch (ReflectiveOperationException e) {
+			logger.error("Could not instantiate compression '{}'", className, e);
+			throw new IllegalArgumentException("Could not instantiate compression '" + className + "'.", e);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package io;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+/**
+ * Writes batches of parsed gene rows directly as blocks of an expression value dataset, size: [numGenes x numLocations].
+ * Each batch must cover exactly one block-row, i.e. start at a multiple of blockSize[0] and contain at most blockSize[0] genes.
+ *
+ * @author spreibi
+ */
+public class N5GeneBatchWriter implements TextFileIO.GeneBatchConsumer {
+
+	final N5Writer writer;
+	final String dataset;
+	final int numLocations;
+	final int[] blockSize;
+	final DatasetAttributes attributes;
+	final StorageType storageType;
+	final double scale;
+
+	/**
+	 * Creates a writer for an unknown number of genes, the dataset is only created by {@link #finish(long)}
+	 * once all batches were written. This relies on the N5 block layout, which does not depend on the
+	 * dimensions of the dataset, so it is only supported for N5 (not Zarr).
+	 *
+	 * @param writer - the N5 writer
+	 * @param dataset - the dataset to create
+	 * @param numLocations - number of locations
+	 * @param blockSize - block size, blockSize[0] has to be the batch size of the parser
+	 * @param compression - compression of the blocks
+	 */
+	public N5GeneBatchWriter(
+			final N5FSWriter writer,
+			final String dataset,
+			final int numLocations,
+			final int[] blockSize,
+			final Compression compression) {
+
+		this.writer = writer;
+		this.dataset = dataset;
+		this.numLocations = numLocations;
+		this.blockSize = blockSize;
+		this.storageType = StorageType.FLOAT64;
+		this.scale = 1.0;
+
+		// the dimensions are not used for writing N5 blocks, the dataset is sized in finish()
+		this.attributes = new DatasetAttributes(new long[]{blockSize[0], numLocations}, blockSize, storageType.dataType(), compression);
+	}
+
+	/**
+	 * @param writer - the N5 writer
+	 * @param dataset - the dataset to create
+	 * @param numGenes - number of genes
+	 * @param numLocations - number of locations
+	 * @param blockSize - block size, blockSize[0] has to be the batch size of the parser
+	 * @param compression - compression of the blocks
+	 * @param storageType - how the values are stored
+	 * @param scale - quantization scale, see {@link StorageType#quantizationScale(double)}
+	 */
+	public N5GeneBatchWriter(
+			final N5Writer writer,
+			final String dataset,
+			final long numGenes,
+			final int numLocations,
+			final int[] blockSize,
+			final Compression compression,
+			final StorageType storageType,
+			final double scale) {
+
+		this.writer = writer;
+		this.dataset = dataset;
+		this.numLocations = numLocations;
+		this.blockSize = blockSize;
+		this.storageType = storageType;
+		this.scale = scale;
+
+		writer.createDataset(dataset, new long[]{numGenes, numLocations}, blockSize, storageType.dataType(), compression);
+		storageType.writeAttributes(writer, dataset, scale);
+		this.attributes = writer.getDatasetAttributes(dataset);
+	}
+
+	@Override
+	public void accept(final long firstRow, final List<String> geneNames, final List<double[]> values) throws IOException {
+		final int numRows = values.size();
+
+		if (firstRow % blockSize[0] != 0 || numRows > blockSize[0])
+			throw new IllegalArgumentException("Batch of " + numRows + " rows starting at " + firstRow + " does not match block size " + blockSize[0]);
+
+		final long gridRow = firstRow / blockSize[0];
+
+		for (int l0 = 0; l0 < numLocations; l0 += blockSize[1]) {
+			final int length = Math.min(blockSize[1], numLocations - l0);
+			final double[] data = new double[numRows * length];
+
+			// dimension 0 (genes) is the fastest moving index within the block
+			for (int g = 0; g < numRows; ++g) {
+				final double[] row = values.get(g);
+				for (int l = 0; l < length; ++l)
+					data[l * numRows + g] = row[l0 + l];
+			}
+
+			writer.writeBlock(dataset, attributes, storageType.createDataBlock(new int[]{numRows, length}, new long[]{gridRow, l0 / blockSize[1]}, data, scale));
+		}
+	}
+
+	/**
+	 * Creates the dataset with its final size after all batches were written, only needed if the number of genes was not known.
+	 *
+	 * @param numGenes - the number of genes
+	 */
+	public void finish(final long numGenes) {
+		writer.createDataset(dataset, new long[]{numGenes, numLocations}, blockSize, attributes.getDataType(), attributes.getCompression());
+	}
+}
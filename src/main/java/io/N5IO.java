@@ -3,6 +3,7 @@ package io;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -10,6 +11,7 @@ import java.util.function.Supplier;
 
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineSet;
+import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
 import org.janelia.saalfeldlab.n5.Compression;
@@ -21,8 +23,12 @@ import data.STData;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.real.DoubleType;
+import org.apache.logging.log4j.Logger;
+import util.LoggerUtil;
 
-public class N5IO extends SpatialDataIO {
+public class N5IO extends SpatialDataIO implements StreamingSpatialDataWriter {
+
+	private static final Logger logger = LoggerUtil.getLogger();
 
 	public N5IO(final Supplier<? extends N5Reader> ioSupplier, final String basePath, final boolean readOnly, final ExecutorService service) {
 		super(ioSupplier, basePath, readOnly, service);
@@ -48,6 +54,19 @@ public class N5IO extends SpatialDataIO {
 		this.geneAnnotationPath = (geneAnnotationPath == null) ? "/geneAnnotations" : geneAnnotationPath;
 	}
 
+	// one block per gene is at most this long (8MB of doubles)
+	protected static final int maxGeneMajorBlockLength = 1 << 20;
+
+	@Override
+	protected String geneMajorExprValuePath() {
+		return exprValuePath + "GeneMajor";
+	}
+
+	@Override
+	protected String spatialIndexPath() {
+		return "/spatialIndex";
+	}
+
 	@Override
 	protected void initializeDataset(N5Writer writer, STData data) {
 		writer.createGroup(locationPath);
@@ -67,8 +86,42 @@ public class N5IO extends SpatialDataIO {
 	}
 
 	@Override
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	protected RandomAccessibleInterval<DoubleType> readExpressionValues(N5Reader reader, String exprValuesPath) {
-		return N5Utils.open(reader, exprValuesPath);
+		final StorageType storedAs = StorageType.read(reader, exprValuesPath);
+		final double scale = StorageType.readScale(reader, exprValuesPath);
+
+		if (blockCache != null) {
+			// the cache decodes every data type to double, only the quantization has to be undone
+			final RandomAccessibleInterval<DoubleType> cached = new CachedBlockRandomAccessibleInterval(reader, exprValuesPath, blockCacheKey(exprValuesPath), blockCache);
+			return storedAs.isQuantized() ? storedAs.decode(cached, scale) : cached;
+		}
+
+		return storedAs.decode((RandomAccessibleInterval) N5Utils.open(reader, exprValuesPath), scale);
+	}
+
+	// the quantization scale of the expression values that were written last, the gene-major copy reuses it instead of another pass
+	private RandomAccessibleInterval<DoubleType> scaledValues = null;
+	private double scale = 1.0;
+
+	protected synchronized double quantizationScale(final RandomAccessibleInterval<DoubleType> values) {
+		if (!storageType.isQuantized())
+			return 1.0;
+
+		if (values != scaledValues) {
+			scale = StorageType.quantizationScale(StorageType.maxValue(values));
+			scaledValues = values;
+		}
+
+		return scale;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	protected void saveEncoded(N5Writer writer, RandomAccessibleInterval<DoubleType> values, String dataset, int[] blockSize)
+			throws InterruptedException, ExecutionException {
+		final double scale = quantizationScale(values);
+		N5Utils.save((RandomAccessibleInterval) storageType.encode(values, scale), writer, dataset, blockSize, options.compression(), options.executorService());
+		storageType.writeAttributes(writer, dataset, scale);
 	}
 
 	@Override
@@ -122,13 +175,111 @@ public class N5IO extends SpatialDataIO {
 
 	@Override
 	protected void writeExpressionValues(N5Writer writer, RandomAccessibleInterval<DoubleType> exprValues, String exprValuesPath) throws IOException {
+		synchronized (this) {
+			scaledValues = null; // the values might have changed since the last write
+		}
+
 		try {
-			N5Utils.save(exprValues, writer, exprValuesPath, options.blockSize(), options.compression(), options.executorService());
+			saveEncoded(writer, exprValues, exprValuesPath, options.blockSize());
 		} catch (InterruptedException | ExecutionException e) {
 			throw new IOException("Could not write expression values.", e);
 		}
 	}
 	
+	@Override
+	protected void writeExpressionValues(N5Writer writer, RandomAccessibleInterval<DoubleType> exprValues) throws IOException {
+		super.writeExpressionValues(writer, exprValues);
+
+		if (writeGeneMajorExpressionValues)
+			writeGeneMajorExpressionValues(writer, exprValues, geneMajorExprValuePath());
+		else if (writer.exists(geneMajorExprValuePath()))
+			writer.remove(geneMajorExprValuePath()); // would be stale otherwise
+	}
+
+	protected void writeGeneMajorExpressionValues(N5Writer writer, RandomAccessibleInterval<DoubleType> exprValues, String geneMajorPath) throws IOException {
+		try {
+			int[] blockSize = new int[]{1, (int) Math.min(exprValues.dimension(1), maxGeneMajorBlockLength)};
+			saveEncoded(writer, exprValues, geneMajorPath, blockSize);
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Could not write gene-major expression values.", e);
+		}
+	}
+
+	@Override
+	public void writeDataStreaming(
+			final RandomAccessibleInterval<DoubleType> locations,
+			final List<String> barcodes,
+			final Map<String, RandomAccessibleInterval<? extends NativeType<?>>> annotations,
+			final long numGenes,
+			final double maxValue,
+			final GeneBatchSource source) throws IOException {
+		if (readOnly)
+			throw new IllegalStateException("Trying to write to read-only file.");
+
+		try (N5Writer writer = (N5Writer) ioSupplier.get()) {
+			logger.debug("Streaming spatial data ... ");
+			long time = System.currentTimeMillis();
+
+			final int numLocations = (int) locations.dimension(0);
+			applyAutoBlockSize(numGenes, numLocations);
+
+			writer.createGroup(locationPath);
+			writer.createGroup(annotationPath);
+			writer.createGroup(geneAnnotationPath);
+			writer.setAttribute("/", "dim", (int) locations.dimension(1));
+			writer.setAttribute("/", "numLocations", numLocations);
+			writer.setAttribute("/", "numGenes", (int) numGenes);
+			writeBarcodes(writer, barcodes);
+
+			if (blockCache != null) {
+				blockCache.invalidate(blockCacheKey(exprValuePath));
+				blockCache.invalidate(blockCacheKey(geneMajorExprValuePath()));
+			}
+
+			// the parser delivers exactly one block-row per batch
+			final int[] blockSize = new int[]{options.blockSize()[0], Math.min(options.blockSize()[1], numLocations)};
+			final double scale = StorageType.quantizationScale(maxValue);
+			final N5GeneBatchWriter exprValueWriter = new N5GeneBatchWriter(writer, exprValuePath, numGenes, numLocations, blockSize, options.compression(), storageType, scale);
+
+			final N5GeneBatchWriter geneMajorWriter;
+			if (writeGeneMajorExpressionValues)
+				geneMajorWriter = new N5GeneBatchWriter(writer, geneMajorExprValuePath(), numGenes, numLocations,
+						new int[]{1, Math.min(numLocations, maxGeneMajorBlockLength)}, options.compression(), storageType, scale);
+			else {
+				geneMajorWriter = null;
+				if (writer.exists(geneMajorExprValuePath()))
+					writer.remove(geneMajorExprValuePath()); // would be stale otherwise
+			}
+
+			final String[] geneNames = new String[(int) numGenes];
+
+			final long numGenesRead = source.readGenes(blockSize[0], (firstRow, names, values) -> {
+				if (firstRow + names.size() > numGenes)
+					throw new SpatialDataException("More genes than the expected " + numGenes + ".");
+
+				exprValueWriter.accept(firstRow, names, values);
+
+				for (int i = 0; i < names.size(); ++i) {
+					geneNames[(int) firstRow + i] = names.get(i);
+
+					if (geneMajorWriter != null)
+						geneMajorWriter.accept(firstRow + i, names.subList(i, i + 1), values.subList(i, i + 1));
+				}
+			});
+
+			if (numGenesRead != numGenes)
+				throw new SpatialDataException("Expected " + numGenes + " genes, but got " + numGenesRead + ".");
+
+			writeGeneNames(writer, Arrays.asList(geneNames));
+			writeLocations(writer, locations);
+			updateTransformation(writer, new AffineTransform2D(), transformFieldName);
+
+			logger.debug("Streaming took {} ms.", System.currentTimeMillis() - time);
+		}
+
+		updateStoredAnnotations(annotations);
+	}
+
 	protected void writeBarcodes(N5Writer writer, List<String> barcodes) {
 		writer.setAttribute("/", "barcodeList", barcodes);
 	}
@@ -1,6 +1,7 @@
 package io;
 
 import analyze.Entropy;
+import mpicbg.imagefeatures.Feature;
 import mpicbg.models.PointMatch;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.DoubleType;
@@ -28,6 +29,7 @@ import java.util.function.BinaryOperator;
 
 
 import align.SiftMatch;
+import gui.STDataAssembly;
 import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.universe.N5Factory.StorageFormat;
@@ -42,6 +44,7 @@ public class SpatialDataContainer {
 	final private boolean readOnly;
 	final private ExecutorService service;
 	final private N5Reader n5;
+	final private BlockCache blockCache = new BlockCache();
 	private List<String> datasets = new ArrayList<>();
 	private List<String> matches = new ArrayList<>();
 	final private static String version = "0.1.0";
@@ -54,6 +57,7 @@ public class SpatialDataContainer {
 	final private static String geneAnnotationPathKey = "-geneAnnotations";
 	final private static String entropyPath = "/entropies";
 	final private static String matchPath = "/matches";
+	final private static String featurePath = "/features";
 
 
 	protected SpatialDataContainer(final String path, final ExecutorService service, final boolean readOnly) throws IOException {
@@ -206,6 +210,10 @@ public class SpatialDataContainer {
 			// TODO: no cloud support yet
 			if (Cloud.isFile(rootPathURI)) {
 				deleteFileOrDirectory(Paths.get(rootPath, datasetName));
+
+				final String featureGroupName = n5.groupPath(featurePath, datasetName);
+				if (n5.exists(featureGroupName))
+					((N5Writer) n5).remove(featureGroupName);
 			} else {
 				throw new RuntimeException("not supported for cloud yet.");
 			}
@@ -232,6 +240,7 @@ public class SpatialDataContainer {
 
 		SpatialDataIO sdio = SpatialDataIO.open( path, service);
 		sdio.setDataPaths(path1, path2, path3, path4);
+		sdio.setBlockCache(blockCache);
 		return sdio;
 	}
 
@@ -252,20 +261,44 @@ public class SpatialDataContainer {
 
 		SpatialDataIO sdio = SpatialDataIO.openReadOnly(path, service);
 		sdio.setDataPaths(path1, path2, path3, path4);
+		sdio.setBlockCache(blockCache);
 		return sdio;
 	}
 
 	public List<SpatialDataIO> openAllDatasets() throws IOException {
+		return openDatasets(datasets);
+	}
+
+	/**
+	 * @param datasetNames - the datasets to open (read-only if the container was opened for reading)
+	 * @return the (not yet read) datasets in the given order
+	 */
+	public List<SpatialDataIO> openDatasets(final List<String> datasetNames) throws IOException {
 		List<SpatialDataIO> datasetIOs = new ArrayList<>();
 		if (readOnly)
-			for (final String datasetName : datasets)
+			for (final String datasetName : datasetNames)
 				datasetIOs.add(openDatasetReadOnly(datasetName));
 		else
-			for (final String datasetName : datasets)
+			for (final String datasetName : datasetNames)
 				datasetIOs.add(openDataset(datasetName));
 		return datasetIOs;
 	}
 
+	/**
+	 * Opens and reads (metadata, locations, statistics) the given datasets concurrently, see {@link SpatialDataIO#readData(List, int)}.
+	 *
+	 * @param datasetNames - the datasets to read
+	 * @param maxConcurrency - maximal number of datasets that are read at the same time
+	 * @return the data in the given order
+	 */
+	public List<STDataAssembly> readDatasets(final List<String> datasetNames, final int maxConcurrency) throws IOException {
+		return SpatialDataIO.readData(openDatasets(datasetNames), maxConcurrency);
+	}
+
+	public List<STDataAssembly> readAllDatasets(final int maxConcurrency) throws IOException {
+		return readDatasets(datasets, maxConcurrency);
+	}
+
 	public static boolean isCompatibleContainer(String path) {
 		try (N5Reader reader = Cloud.instantiateN5Reader( StorageFormat.N5, URI.create( path ))/*new N5FSReader(path)*/)
 		{
@@ -276,6 +309,20 @@ public class SpatialDataContainer {
 		}
 	}
 
+	/**
+	 * @return the cache for decoded blocks that is shared by all datasets opened from this container
+	 */
+	public BlockCache getBlockCache() {
+		return blockCache;
+	}
+
+	/**
+	 * @param maxBytes - the memory budget of the shared block cache
+	 */
+	public void setBlockCacheSize(final long maxBytes) {
+		blockCache.setMaxBytes(maxBytes);
+	}
+
 	public List<String> getDatasets() {
 		return new ArrayList<>(datasets);
 	}
@@ -373,6 +420,61 @@ public class SpatialDataContainer {
 			return stDataBName + "-" + stDataAName;
 	}
 
+	public boolean hasFeatures(final String dataset, final String key) {
+		final String featureGroupName = n5.groupPath(featurePath, dataset, constructFeatureName(key));
+		return n5.exists(featureGroupName) && key.equals(n5.getAttribute(featureGroupName, "key", String.class));
+	}
+
+	public List<Feature> loadFeatures(final String dataset, final String key) throws ClassNotFoundException {
+		final String featureGroupName = n5.groupPath(featurePath, dataset, constructFeatureName(key));
+
+		if (!hasFeatures(dataset, key))
+			throw new SpatialDataException("Features '" + key + "' of dataset '" + dataset + "' do not exist.");
+
+		final int numFeatures = n5.getAttribute(featureGroupName, "features", int.class);
+		final ArrayList<Feature> features =
+				n5.readSerializedBlock(featureGroupName, n5.getDatasetAttributes(featureGroupName), new long[]{0L});
+
+		if (numFeatures != features.size())
+			throw new SpatialDataException("Loaded features '" + key + "' of dataset '" + dataset + "' not consistent.");
+
+		return features;
+	}
+
+	public void saveFeatures(final String dataset, final String key, final List<Feature> features) {
+		if (readOnly)
+			throw new IllegalStateException("Trying to modify a read-only spatial data container.");
+		if (! datasets.contains(dataset))
+			throw new SpatialDataException("Dataset '" + dataset + "' does not exist.");
+
+		final N5Writer writer = (N5Writer) n5;
+		final String featureGroupName = writer.groupPath(featurePath, dataset, constructFeatureName(key));
+
+		if (writer.exists(featureGroupName))
+			writer.remove(featureGroupName);
+
+		writer.createDataset(
+				featureGroupName,
+				new long[] {1},
+				new int[] {1},
+				DataType.OBJECT,
+				new GzipCompression());
+
+		writer.setAttribute(featureGroupName, "key", key);
+		writer.setAttribute(featureGroupName, "features", features.size());
+
+		writer.writeSerializedBlock(
+				new ArrayList<>(features),
+				featureGroupName,
+				n5.getDatasetAttributes(featureGroupName),
+				0);
+	}
+
+	protected String constructFeatureName(final String key) {
+		// the key contains the gene and parameters, a colliding hash is detected by comparing the stored key
+		return Integer.toHexString(key.hashCode());
+	}
+
 	public static boolean exists(String path) {
 		final URI uri = URI.create(path);
 		if (Cloud.isFile(uri))
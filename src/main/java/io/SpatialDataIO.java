@@ -5,11 +5,16 @@ import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 import org.janelia.n5anndata.io.N5Options;
@@ -19,23 +24,30 @@ import org.janelia.saalfeldlab.n5.N5Reader;
 import org.janelia.saalfeldlab.n5.N5Writer;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Reader;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Writer;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.janelia.saalfeldlab.n5.universe.N5Factory.StorageFormat;
 
 import data.STData;
 import data.STDataImgLib2;
+import data.STDataSparse;
 import data.STDataStatistics;
 import gui.STDataAssembly;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineSet;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 import org.apache.logging.log4j.Logger;
 
 import util.Cloud;
+import util.FlatKDTree;
+import util.LazyMap;
 import util.LoggerUtil;
 
 
@@ -43,6 +55,9 @@ public abstract class SpatialDataIO {
 	
 	private static final Logger logger = LoggerUtil.getLogger();
 	public static String transformFieldName = "transform";
+	public static String locationHashKey = "locationHash";
+	public static String distanceStatsKey = "distanceStats";
+	public static String permutationName = "permutation";
 
 	protected final Supplier<? extends N5Reader> ioSupplier;
 
@@ -59,9 +74,146 @@ public abstract class SpatialDataIO {
 	protected String annotationPath;
 	protected String geneAnnotationPath;
 	protected String path;
+	protected boolean sparseExpressionValues = false;
+	protected boolean writeGeneMajorExpressionValues = false;
+	protected boolean preferGeneMajorExpressionValues = true;
+	protected boolean persistStatistics = false;
+	protected BlockCache blockCache = null;
+	protected StorageType storageType = StorageType.FLOAT64;
+	protected BlockSizes.AccessPattern autoBlockSize = null;
+	protected boolean prefetchAnnotations = false;
 
 	public String getPath() { return path; }
 
+	/**
+	 * @param sparseExpressionValues - if true, {@link #readData()} holds the expression values in an {@link STDataSparse};
+	 * sparse matrices are read natively where possible, dense matrices are compressed on load
+	 */
+	public void setSparseExpressionValues(final boolean sparseExpressionValues) { this.sparseExpressionValues = sparseExpressionValues; }
+
+	public boolean sparseExpressionValues() { return sparseExpressionValues; }
+
+	/**
+	 * @param writeGeneMajorExpressionValues - if true, {@link #writeData(STDataAssembly)} additionally stores the expression
+	 * values in a gene-major layout (one block per gene row), so that loading a single gene fetches a single block;
+	 * only supported by the N5/Zarr backend, ignored otherwise
+	 */
+	public void setWriteGeneMajorExpressionValues(final boolean writeGeneMajorExpressionValues) { this.writeGeneMajorExpressionValues = writeGeneMajorExpressionValues; }
+
+	public boolean writeGeneMajorExpressionValues() { return writeGeneMajorExpressionValues; }
+
+	/**
+	 * @param preferGeneMajorExpressionValues - if true (default), expression values are read from the gene-major layout if present
+	 */
+	public void setPreferGeneMajorExpressionValues(final boolean preferGeneMajorExpressionValues) { this.preferGeneMajorExpressionValues = preferGeneMajorExpressionValues; }
+
+	public boolean preferGeneMajorExpressionValues() { return preferGeneMajorExpressionValues; }
+
+	/**
+	 * @param persistStatistics - if true, {@link #readData()} stores the spatial index and distance statistics in a
+	 * writable dataset if they are missing or outdated; by default reading never modifies the dataset and they are only
+	 * stored by {@link #writeData(STDataAssembly)}
+	 */
+	public void setPersistStatistics(final boolean persistStatistics) { this.persistStatistics = persistStatistics; }
+
+	public boolean persistStatistics() { return persistStatistics; }
+
+	/**
+	 * @param prefetchAnnotations - if true, {@link #readData()} starts loading all annotations in the background,
+	 * otherwise each annotation is read on its first access (default)
+	 */
+	public void setPrefetchAnnotations(final boolean prefetchAnnotations) { this.prefetchAnnotations = prefetchAnnotations; }
+
+	public boolean prefetchAnnotations() { return prefetchAnnotations; }
+
+	/**
+	 * @param storageType - how {@link #writeData(STDataAssembly)} stores the expression values (default: FLOAT64);
+	 * values are always converted lazily to double when read
+	 */
+	public void setStorageType(final StorageType storageType) { this.storageType = storageType; }
+
+	public StorageType storageType() { return storageType; }
+
+	/**
+	 * @param compression - compression for all datasets that are written
+	 */
+	public void setCompression(final Compression compression) {
+		this.options = new N5Options(options.blockSize(), compression, options.executorService());
+		this.options1d = new N5Options(options1d.blockSize(), compression, options1d.executorService());
+	}
+
+	public Compression compression() { return options.compression(); }
+
+	/**
+	 * @param vectorBlockSize - block size for vector data, e.g. annotations
+	 * @param matrixBlockSize - block size for the expression values and locations
+	 */
+	public void setBlockSize(final int vectorBlockSize, final int[] matrixBlockSize) {
+		this.options = new N5Options(matrixBlockSize, options.compression(), options.executorService());
+		this.options1d = new N5Options(new int[]{vectorBlockSize}, options1d.compression(), options1d.executorService());
+		this.autoBlockSize = null;
+	}
+
+	/**
+	 * @param accessPattern - if not null, block sizes are chosen from the size of the data when writing (see {@link BlockSizes})
+	 */
+	public void setAutoBlockSize(final BlockSizes.AccessPattern accessPattern) { this.autoBlockSize = accessPattern; }
+
+	public int[] matrixBlockSize() { return options.blockSize(); }
+
+	protected void applyAutoBlockSize(final long numGenes, final long numLocations) {
+		if (autoBlockSize == null)
+			return;
+
+		final int[] matrixBlockSize = BlockSizes.matrixBlockSize(numGenes, numLocations, autoBlockSize);
+		final int vectorBlockSize = BlockSizes.vectorBlockSize(numLocations);
+		logger.debug("Block sizes for {} access: matrix={}, vector={}", autoBlockSize, Arrays.toString(matrixBlockSize), vectorBlockSize);
+
+		this.options = new N5Options(matrixBlockSize, options.compression(), options.executorService());
+		this.options1d = new N5Options(new int[]{vectorBlockSize}, options1d.compression(), options1d.executorService());
+	}
+
+	/**
+	 * Measures the compression ratio and decode throughput of the stored expression values.
+	 *
+	 * @param maxBlocks - maximal number of sampled blocks
+	 * @return the report, or null if the expression values are not stored as a single dataset
+	 */
+	public CompressionReport measureCompression(final int maxBlocks) throws IOException {
+		final N5Reader reader = ioSupplier.get();
+
+		if (reader.datasetExists(exprValuePath))
+			return CompressionReport.measure(reader, exprValuePath, maxBlocks);
+
+		// sparse matrices (AnnData) store the non-zero values separately
+		if (reader.datasetExists(exprValuePath + "/data"))
+			return CompressionReport.measure(reader, exprValuePath + "/data", maxBlocks);
+
+		return null;
+	}
+
+	/**
+	 * @param blockCache - cache for decoded blocks of the expression values, null reads them through N5Utils (default)
+	 */
+	public void setBlockCache(final BlockCache blockCache) { this.blockCache = blockCache; }
+
+	public BlockCache getBlockCache() { return blockCache; }
+
+	/**
+	 * @return the key that identifies a dataset within this file in the {@link BlockCache}
+	 */
+	protected String blockCacheKey(final String dataset) { return path + ":" + dataset; }
+
+	/**
+	 * @return the path of the gene-major copy of the expression values, or null if the backend does not support it
+	 */
+	protected String geneMajorExprValuePath() { return null; }
+
+	/**
+	 * @return the group that holds the spatial index and distance statistics of the locations, or null if the backend does not persist them
+	 */
+	protected String spatialIndexPath() { return null; }
+
 	/**
 	 * Create a new SpatialDataIO instance.
 	 *
@@ -76,9 +228,16 @@ public abstract class SpatialDataIO {
 			final boolean readOnly,
 			final ExecutorService service )
 	{
-		this(ioSupplier, basePath, readOnly, 128*128, new int[]{512, 512}, new GzipCompression(3), service);
+		this(ioSupplier, basePath, readOnly, defaultVectorBlockSize, defaultMatrixBlockSize(), defaultCompression(), service);
 	}
 
+	public static final int defaultVectorBlockSize = 128*128;
+	private static final int[] defaultMatrixBlockSize = new int[]{512, 512};
+
+	public static int[] defaultMatrixBlockSize() { return defaultMatrixBlockSize.clone(); }
+
+	public static Compression defaultCompression() { return new GzipCompression(3); }
+
 	/**
 	 * Create a new SpatialDataIO instance.
 	 *
@@ -160,42 +319,205 @@ public abstract class SpatialDataIO {
 		for (int i = 0; i < geneNames.size(); ++i )
 			geneLookup.put(geneNames.get(i), i);
 
-		STData stData = new STDataImgLib2(locations, exprValues, geneNames, barcodes, geneLookup);
+		STData stData = createSTData(reader, locations, exprValues, geneNames, barcodes, geneLookup);
 
 		AffineTransform2D transform = new AffineTransform2D();
 		readAndSetTransformation(reader, transform, transformFieldName);
 
 		try
 		{
-			for (final String annotationLabel : detectAnnotations(reader)) {
-				try {
-					stData.getAnnotations().put(annotationLabel, readAnnotations(reader, annotationLabel));
-				} catch (Exception e) {
-					logger.warn("Could not read annotation '{}'. Skipping", annotationLabel);
-				}
-			}
+			for (final String annotationLabel : detectAnnotations(reader))
+				putAnnotation(stData.getAnnotations(), annotationLabel, () -> readAnnotations(reader, annotationLabel));
 		} catch (Exception e) {
 			logger.warn("Could not detectAnnotations. Skipping" );
 		}
 
 		try
 		{
-			for (final String geneAnnotationLabel : detectGeneAnnotations(reader)) {
-				try {
-					stData.getGeneAnnotations().put(geneAnnotationLabel, readGeneAnnotations(reader, geneAnnotationLabel));
-				} catch (Exception e) {
-					logger.warn("Could not read annotation '{}'. Skipping", geneAnnotationLabel);
-				}
-			}
+			for (final String geneAnnotationLabel : detectGeneAnnotations(reader))
+				putAnnotation(stData.getGeneAnnotations(), geneAnnotationLabel, () -> readGeneAnnotations(reader, geneAnnotationLabel));
 		} catch (Exception e) {
 			logger.warn("Could not detectGeneAnnotations. Skipping" );
 		}
 
+		if (prefetchAnnotations) {
+			if (stData.getAnnotations() instanceof LazyMap)
+				((LazyMap<?, ?>) stData.getAnnotations()).prefetch(options.executorService());
+			if (stData.getGeneAnnotations() instanceof LazyMap)
+				((LazyMap<?, ?>) stData.getGeneAnnotations()).prefetch(options.executorService());
+		}
+
 		logger.debug("Loading took {} ms.", System.currentTimeMillis() - time);
 		logger.debug("Metadata: dims={}, numLocations={}, numGenes={}, size(locations)={}, size(exprValues)={}",
 					 locationDims[1], numLocations, numGenes, Util.printCoordinates(locationDims), Util.printCoordinates(exprDims));
 
-		return new STDataAssembly(stData, new STDataStatistics(stData), transform);
+		return new STDataAssembly(stData, readOrComputeStatistics(reader, stData), transform);
+	}
+
+	/**
+	 * Loads the persisted statistics and spatial index if they were computed for the same locations, otherwise
+	 * computes them in memory; they are only written back if {@link #setPersistStatistics(boolean)} is enabled.
+	 */
+	protected STDataStatistics readOrComputeStatistics(final N5Reader reader, final STData stData) {
+		final String indexPath = spatialIndexPath();
+		final long locationHash = FlatKDTree.locationHash(stData.getLocations());
+
+		if (indexPath != null && reader.exists(indexPath)) {
+			try {
+				final Long storedHash = reader.getAttribute(indexPath, locationHashKey, Long.class);
+				if (storedHash != null && storedHash == locationHash) {
+					final double[] d = reader.getAttribute(indexPath, distanceStatsKey, double[].class);
+					final STDataStatistics stats = new STDataStatistics(d[0], d[1], d[2], d[3], locationHash);
+					stats.setSpatialIndex(new FlatKDTree(stData.getLocations(), readPermutation(reader, indexPath)));
+					FlatKDTree.register(stData.getLocations(), stats.getSpatialIndex(), locationHash);
+					STDataStatistics.remember(stData, stats);
+					logger.debug("Loaded spatial index of '{}'.", path);
+					return stats;
+				}
+				logger.debug("Spatial index of '{}' does not match the locations, recomputing.", path);
+			}
+			catch (Exception e) {
+				logger.warn("Could not read spatial index of '{}', recomputing: {}", path, e.getMessage());
+			}
+		}
+
+		final STDataStatistics stats = new STDataStatistics(FlatKDTree.forLocations(stData.getLocations()), locationHash);
+		STDataStatistics.remember(stData, stats);
+
+		if (persistStatistics && !readOnly)
+			writeStatistics((N5Writer) reader, stats);
+
+		return stats;
+	}
+
+	protected static int[] readPermutation(final N5Reader reader, final String indexPath) {
+		final RandomAccessibleInterval<IntType> stored = N5Utils.open(reader, reader.groupPath(indexPath, permutationName));
+		final int[] permutation = new int[(int) stored.dimension(0)];
+
+		int i = 0;
+		for (final IntType t : Views.flatIterable(stored))
+			permutation[i++] = t.get();
+
+		return permutation;
+	}
+
+	protected void writeStatistics(final N5Writer writer, final STDataStatistics stats) {
+		final String indexPath = spatialIndexPath();
+		if (indexPath == null || stats.getSpatialIndex() == null)
+			return;
+
+		try {
+			final int[] permutation = stats.getSpatialIndex().permutation();
+			if (writer.exists(indexPath))
+				writer.remove(indexPath);
+
+			writer.createGroup(indexPath);
+			N5Utils.save(ArrayImgs.ints(permutation, permutation.length), writer, writer.groupPath(indexPath, permutationName),
+						 new int[]{options1d.blockSize()[0]}, options.compression());
+			writer.setAttribute(indexPath, distanceStatsKey,
+								new double[]{stats.getMeanDistance(), stats.getMedianDistance(), stats.getMinDistance(), stats.getMaxDistance()});
+
+			// written last, so that an incomplete index is never used
+			writer.setAttribute(indexPath, locationHashKey, stats.getLocationHash());
+		}
+		catch (Exception e) {
+			logger.warn("Could not store spatial index of '{}': {}", path, e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads several datasets concurrently, each with {@link #readData()} (which includes computing the statistics).
+	 * A separate thread pool is used so that reading does not compete with the executor service of the datasets.
+	 *
+	 * @param datasets - the datasets to read
+	 * @param maxConcurrency - maximal number of datasets that are read at the same time
+	 * @return the data in the same order as the datasets
+	 */
+	public static List<STDataAssembly> readData(final List<SpatialDataIO> datasets, final int maxConcurrency) throws IOException {
+		final long time = System.currentTimeMillis();
+		final ExecutorService readService = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrency, datasets.size())));
+
+		final List<Callable<STDataAssembly>> tasks = new ArrayList<>();
+		for (final SpatialDataIO sdio : datasets) {
+			tasks.add(() -> {
+				final long start = System.currentTimeMillis();
+				final STDataAssembly data = sdio.readData();
+				logger.info("Opened '{}' ({} locations, {} genes) in {} ms.",
+							sdio.getPath(), data.data().numLocations(), data.data().numGenes(), System.currentTimeMillis() - start);
+				return data;
+			});
+		}
+
+		final List<STDataAssembly> data = new ArrayList<>();
+		try {
+			for (final Future<STDataAssembly> future : readService.invokeAll(tasks))
+				data.add(future.get());
+		}
+		catch (InterruptedException | ExecutionException e) {
+			logger.error("Failed to read datasets", e);
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new RuntimeException(e);
+		}
+		finally {
+			readService.shutdown();
+		}
+
+		logger.info("Opened {} datasets in {} ms.", datasets.size(), System.currentTimeMillis() - time);
+		return data;
+	}
+
+	@FunctionalInterface
+	protected interface AnnotationLoader {
+		RandomAccessibleInterval<? extends NativeType<?>> load() throws IOException;
+	}
+
+	/**
+	 * Registers an annotation that is read on first access if the map supports it (see {@link LazyMap}), otherwise it is read right away.
+	 */
+	@SuppressWarnings("unchecked")
+	protected static void putAnnotation(
+			final Map<String, RandomAccessibleInterval<? extends NativeType<?>>> annotations,
+			final String label,
+			final AnnotationLoader loader) {
+
+		final Supplier<RandomAccessibleInterval<? extends NativeType<?>>> supplier = () -> {
+			try {
+				return loader.load();
+			} catch (IOException e) {
+				throw new SpatialDataException("Could not read annotation '" + label + "'.", e);
+			}
+		};
+
+		if (annotations instanceof LazyMap) {
+			((LazyMap<String, RandomAccessibleInterval<? extends NativeType<?>>>) annotations).putLazy(label, supplier);
+		}
+		else {
+			try {
+				annotations.put(label, supplier.get());
+			} catch (Exception e) {
+				logger.warn("Could not read annotation '{}'. Skipping", label);
+			}
+		}
+	}
+
+	/**
+	 * Create the STData object holding the data that was read, either dense or sparse (see {@link #setSparseExpressionValues(boolean)}).
+	 */
+	protected STData createSTData(
+			final N5Reader reader,
+			final RandomAccessibleInterval<DoubleType> locations,
+			final RandomAccessibleInterval<DoubleType> exprValues,
+			final List<String> geneNames,
+			final List<String> barcodes,
+			final HashMap<String, Integer> geneLookup) throws IOException {
+
+		if (sparseExpressionValues) {
+			logger.debug("Compressing dense expression values into sparse format ... ");
+			return STDataSparse.fromDense(locations, exprValues, geneNames, barcodes, geneLookup);
+		}
+
+		return new STDataImgLib2(locations, exprValues, geneNames, barcodes, geneLookup);
 	}
 
 	protected RandomAccessibleInterval<DoubleType> readLocations(N5Reader reader) throws IOException {
@@ -205,6 +527,11 @@ public abstract class SpatialDataIO {
 	protected abstract RandomAccessibleInterval<DoubleType> readLocations(N5Reader reader, String locationPath) throws IOException; // size: [numLocations x numDimensions]
 
 	protected RandomAccessibleInterval<DoubleType> readExpressionValues(N5Reader reader) throws IOException {
+		final String geneMajorPath = geneMajorExprValuePath();
+		if (preferGeneMajorExpressionValues && geneMajorPath != null && reader.exists(geneMajorPath)) {
+			logger.debug("Reading gene-major expression values from '{}'", geneMajorPath);
+			return readExpressionValues(reader, geneMajorPath);
+		}
 		return readExpressionValues(reader, exprValuePath);
 	}
 
@@ -255,12 +582,26 @@ public abstract class SpatialDataIO {
 			logger.debug("Saving spatial data ... ");
 			long time = System.currentTimeMillis();
 
+			applyAutoBlockSize(stData.numGenes(), stData.numLocations());
+
 			initializeDataset(writer, stData);
 
+			if (blockCache != null) {
+				blockCache.invalidate(blockCacheKey(exprValuePath));
+				if (geneMajorExprValuePath() != null)
+					blockCache.invalidate(blockCacheKey(geneMajorExprValuePath()));
+			}
+
 			writeExpressionValues(writer, stData.getAllExprValues());
+
 			writeLocations(writer, stData.getLocations());
 			updateTransformation(writer, data.transform(), transformFieldName);
 
+			final STDataStatistics stats = STDataStatistics.of(stData);
+			if (stats.getSpatialIndex() == null)
+				stats.setSpatialIndex(FlatKDTree.forLocations(stData.getLocations()));
+			writeStatistics(writer, stats);
+
 			updateStoredAnnotations(stData.getAnnotations());
 			logger.debug("Saving took {} ms.", System.currentTimeMillis() - time);
 		}
@@ -279,10 +620,17 @@ public abstract class SpatialDataIO {
 			List<String> existingAnnotations = detectAnnotations(writer);
 
 			for (Entry<String, RandomAccessibleInterval<? extends NativeType<?>>> newEntry : metadata.entrySet()) {
-				if (existingAnnotations.contains(newEntry.getKey()))
+				if (existingAnnotations.contains(newEntry.getKey())) {
 					logger.warn("Metadata '{}' already exists. Skip writing.", newEntry.getKey());
+					continue;
+				}
+
+				// lazily loaded annotations are only read here
+				final RandomAccessibleInterval<? extends NativeType<?>> annotation = newEntry.getValue();
+				if (annotation == null)
+					logger.warn("Metadata '{}' could not be loaded. Skip writing.", newEntry.getKey());
 				else
-					writeAnnotations(writer, newEntry.getKey(), newEntry.getValue());
+					writeAnnotations(writer, newEntry.getKey(), annotation);
 			}
 		}
 	}
@@ -301,6 +649,7 @@ public abstract class SpatialDataIO {
 
 	protected abstract void writeExpressionValues(N5Writer writer, RandomAccessibleInterval<DoubleType> exprValues, String exprValuesPath) throws IOException;
 
+
 	// public to be able to only write the transformation to a dataset
 	public abstract void updateTransformation(N5Writer writer, AffineGet transform, String name) throws IOException;
 
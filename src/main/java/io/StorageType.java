@@ -0,0 +1,183 @@
+package io;
+
+import org.janelia.saalfeldlab.n5.ByteArrayDataBlock;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DoubleArrayDataBlock;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * How expression values are stored on disk; they are always converted lazily to {@link DoubleType} when read.
+ * <p>
+ * UINT16 rounds and clamps to [0, 65535], which is lossless for raw counts. LOG_UINT8 stores round(log(1+v)/scale)
+ * with scale = log(1+max)/255, i.e. a relative error of about 1% at the maximum value; negative values become 0.
+ *
+ * @author spreibi
+ */
+public enum StorageType {
+
+	FLOAT64(DataType.FLOAT64),
+	FLOAT32(DataType.FLOAT32),
+	UINT16(DataType.UINT16),
+	LOG_UINT8(DataType.UINT8);
+
+	public static final String storageTypeKey = "storageType";
+	public static final String scaleKey = "quantizationScale";
+
+	private final DataType dataType;
+
+	StorageType(final DataType dataType) {
+		this.dataType = dataType;
+	}
+
+	public DataType dataType() { return dataType; }
+
+	public boolean isQuantized() { return this == LOG_UINT8; }
+
+	/**
+	 * @return true if only integer values are stored exactly, e.g. raw counts but not normalized values
+	 */
+	public boolean isIntegral() { return this == UINT16; }
+
+	/**
+	 * @param maxValue - the largest value that will be stored
+	 * @return the scale for {@link #LOG_UINT8}
+	 */
+	public static double quantizationScale(final double maxValue) {
+		return maxValue > 0 ? Math.log1p(maxValue) / 255.0 : 1.0;
+	}
+
+	/**
+	 * @param values - the values
+	 * @return the largest value
+	 */
+	public static double maxValue(final RandomAccessibleInterval<DoubleType> values) {
+		double max = 0;
+		for (final DoubleType t : Views.flatIterable(values))
+			max = Math.max(max, t.get());
+		return max;
+	}
+
+	/**
+	 * @param value - the value
+	 * @param scale - the quantization scale (only used by {@link #LOG_UINT8})
+	 * @return the value as it is stored (before the cast to the primitive type)
+	 */
+	public double encode(final double value, final double scale) {
+		switch (this) {
+			case UINT16:
+				return Math.max(0, Math.min(65535, Math.round(value)));
+			case LOG_UINT8:
+				return Math.min(255, Math.round(Math.log1p(Math.max(0, value)) / scale));
+			default:
+				return value;
+		}
+	}
+
+	/**
+	 * @param values - the values, size: [numGenes x numLocations]
+	 * @param scale - the quantization scale (only used by {@link #LOG_UINT8})
+	 * @return a lazily converted view in the storage type
+	 */
+	public RandomAccessibleInterval<? extends NativeType<?>> encode(final RandomAccessibleInterval<DoubleType> values, final double scale) {
+		switch (this) {
+			case FLOAT32:
+				return Converters.convert(values, (i, o) -> o.set((float) i.get()), new FloatType());
+			case UINT16:
+				return Converters.convert(values, (i, o) -> o.set((int) encode(i.get(), scale)), new UnsignedShortType());
+			case LOG_UINT8:
+				return Converters.convert(values, (i, o) -> o.set((int) encode(i.get(), scale)), new UnsignedByteType());
+			default:
+				return values;
+		}
+	}
+
+	/**
+	 * @param stored - the stored values, any real type
+	 * @param scale - the quantization scale (only used by {@link #LOG_UINT8})
+	 * @return a lazily converted view as doubles
+	 */
+	@SuppressWarnings("unchecked")
+	public RandomAccessibleInterval<DoubleType> decode(final RandomAccessibleInterval<? extends RealType<?>> stored, final double scale) {
+		if (this == LOG_UINT8) {
+			// a lookup table avoids one exp per access
+			final double[] lut = new double[256];
+			for (int q = 0; q < lut.length; ++q)
+				lut[q] = Math.expm1(q * scale);
+
+			return Converters.convert(stored, (i, o) -> o.set(lut[(int) i.getRealDouble()]), new DoubleType());
+		}
+
+		if (Util.getTypeFromInterval(stored) instanceof DoubleType)
+			return (RandomAccessibleInterval<DoubleType>) stored;
+
+		return Converters.convert(stored, (i, o) -> o.set(i.getRealDouble()), new DoubleType());
+	}
+
+	/**
+	 * @param size - size of the block
+	 * @param gridPosition - position of the block
+	 * @param values - the values of the block
+	 * @param scale - the quantization scale (only used by {@link #LOG_UINT8})
+	 * @return a data block of the storage type
+	 */
+	public DataBlock<?> createDataBlock(final int[] size, final long[] gridPosition, final double[] values, final double scale) {
+		switch (this) {
+			case FLOAT32: {
+				final float[] data = new float[values.length];
+				for (int i = 0; i < values.length; ++i)
+					data[i] = (float) values[i];
+				return new FloatArrayDataBlock(size, gridPosition, data);
+			}
+			case UINT16: {
+				final short[] data = new short[values.length];
+				for (int i = 0; i < values.length; ++i)
+					data[i] = (short) encode(values[i], scale);
+				return new ShortArrayDataBlock(size, gridPosition, data);
+			}
+			case LOG_UINT8: {
+				final byte[] data = new byte[values.length];
+				for (int i = 0; i < values.length; ++i)
+					data[i] = (byte) encode(values[i], scale);
+				return new ByteArrayDataBlock(size, gridPosition, data);
+			}
+			default:
+				return new DoubleArrayDataBlock(size, gridPosition, values);
+		}
+	}
+
+	public void writeAttributes(final N5Writer writer, final String dataset, final double scale) {
+		writer.setAttribute(dataset, storageTypeKey, name());
+		writer.setAttribute(dataset, scaleKey, scale);
+	}
+
+	/**
+	 * @return the storage type of a dataset, FLOAT64 if not specified (the type is then read natively)
+	 */
+	public static StorageType read(final N5Reader reader, final String dataset) {
+		final String name = reader.getAttribute(dataset, storageTypeKey, String.class);
+		return name == null ? FLOAT64 : StorageType.valueOf(name);
+	}
+
+	/**
+	 * @return the quantization scale of a dataset, 1 if not specified
+	 */
+	public static double readScale(final N5Reader reader, final String dataset) {
+		final Double scale = reader.getAttribute(dataset, scaleKey, Double.class);
+		return scale == null ? 1.0 : scale;
+	}
+}
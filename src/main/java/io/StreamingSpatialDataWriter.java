@@ -0,0 +1,47 @@
+package io;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Implemented by the {@link SpatialDataIO} backends that can write a dataset without holding all expression values in memory.
+ */
+public interface StreamingSpatialDataWriter {
+
+	/**
+	 * Produces the gene rows of a dataset in batches, e.g. by parsing a text file.
+	 */
+	@FunctionalInterface
+	interface GeneBatchSource {
+		/**
+		 * @param batchSize - every batch has to start at a multiple of batchSize and contain at most batchSize genes
+		 * @param consumer - receives the batches, possibly concurrently
+		 * @return the number of genes produced
+		 */
+		long readGenes(int batchSize, TextFileIO.GeneBatchConsumer consumer) throws IOException;
+	}
+
+	/**
+	 * Write a dataset whose expression values are never held in memory as a whole; each batch of genes is written
+	 * as soon as it is produced. The gene names are stored in the order they are produced.
+	 *
+	 * @param locations the locations, size: [numLocations x numDimensions]
+	 * @param barcodes the barcodes
+	 * @param annotations the location annotations
+	 * @param numGenes the exact number of genes the source will produce
+	 * @param maxValue an upper bound of all expression values, only needed for quantized storage types
+	 * @param source produces the expression values in batches of genes
+	 */
+	void writeDataStreaming(
+			RandomAccessibleInterval<DoubleType> locations,
+			List<String> barcodes,
+			Map<String, RandomAccessibleInterval<? extends NativeType<?>>> annotations,
+			long numGenes,
+			double maxValue,
+			GeneBatchSource source) throws IOException;
+}
@@ -4,23 +4,47 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+
+import data.NormalizingRandomAccess;
+import data.NormalizingSTData;
 import data.STData;
+import data.STDataImgLib2;
+import data.STDataImgLib2.STDataImgLib2Factory;
 import data.STDataText;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 import org.apache.logging.log4j.Logger;
 import util.LoggerUtil;
+import util.Threads;
 
 public class TextFileIO
 {
@@ -46,38 +70,146 @@ public class TextFileIO
 	}
 
 	public static STData readSlideSeq( final BufferedReader beadLocations, final BufferedReader reads )
+	{
+		try
+		{
+			return readSlideSeq( beadLocations, reads, new HashMap<>() );
+		}
+		catch ( IOException e )
+		{
+			logger.error("Error parsing slide-seq data from text files", e);
+			return null;
+		}
+	}
+
+	public static STData readSlideSeq( final BufferedReader beadLocations, final BufferedReader reads, final Map<String, BufferedReader> annotations ) throws IOException
+	{
+		final ExecutorService service = Threads.createFixedExecutorService();
+
+		try
+		{
+			return readSlideSeq( beadLocations, reads, annotations, service, null );
+		}
+		finally
+		{
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * Parses the reads file in batches of rows in parallel and writes the values directly into the final layout,
+	 * either one primitive array per gene or, if a spill directory is given, a temporary N5 dataset that is read back
+	 * lazily. In both cases genes are sorted by name and duplicate gene names are rejected. Locations that are missing
+	 * in any annotation are excluded.
+	 *
+	 * @param beadLocations - csv with barcode and coordinates
+	 * @param reads - csv with a header of barcodes and one row per gene
+	 * @param annotations - csv files with barcode and integer id
+	 * @param service - for parallel parsing
+	 * @param spillDirectory - directory for a temporary N5 holding the expression values, null keeps them in memory
+	 * @return the parsed data
+	 */
+	public static STData readSlideSeq(
+			final BufferedReader beadLocations,
+			final BufferedReader reads,
+			final Map<String, BufferedReader> annotations,
+			final ExecutorService service,
+			final File spillDirectory ) throws IOException
 	{
 		long time = System.currentTimeMillis();
 
-		final HashMap< String, double[] > coordinateMap = readSlideSeqCoordinates( beadLocations );
-		logger.debug("Read {} coordinates.", coordinateMap.keySet().size());
+		final SlideSeqLocations locations = readSlideSeqLocations( beadLocations, reads, annotations );
+		final List< Pair< double[], String > > coordinatesRed = locations.coordinates;
+		final int numLocations = coordinatesRed.size();
 
-		final Pair< List< Pair< double[], String > >, HashMap< String, double[] > > geneData = readSlideSeqGenes( reads, coordinateMap );
-		logger.debug("Read data for {} genes.", geneData.getB().keySet().size());
+		final STData data;
 
-		final STData data = new STDataText( geneData.getA(), geneData.getB() );
-		//logger.debug( data );
+		if ( spillDirectory == null )
+		{
+			final GeneRowCollector collector = new GeneRowCollector();
+			readSlideSeqGenes( reads, locations.numColumns, locations.keep, defaultBatchSize, service, collector );
+			logger.debug("Read data for {} genes.", collector.numGenes());
+
+			data = new STDataImgLib2( collector.createFactory( coordinatesRed ) );
+		}
+		else
+		{
+			final N5FSWriter writer = new N5FSWriter( spillDirectory.getAbsolutePath() );
+			final String dataset = "/expressionValues";
+			final List< String > geneNames = Collections.synchronizedList( new ArrayList<>() );
+
+			final N5GeneBatchWriter batchWriter = new N5GeneBatchWriter(
+					writer, dataset, numLocations,
+					new int[] { defaultBatchSize, Math.min( numLocations, 16384 ) }, new RawCompression() );
+
+			final long numGenes = readSlideSeqGenes( reads, locations.numColumns, locations.keep, defaultBatchSize, service,
+					( firstRow, names, values ) -> {
+						batchWriter.accept( firstRow, names, values );
+						synchronized ( geneNames ) { setAll( geneNames, (int)firstRow, names ); }
+					} );
+
+			batchWriter.finish( numGenes );
+			logger.debug("Spilled data for {} genes to '{}'.", numGenes, spillDirectory.getAbsolutePath());
+
+			// the spilled rows are in file order, present them sorted by name like the in-memory path
+			final HashMap< String, Integer > fileRows = createGeneLookup( geneNames );
+			final RandomAccessibleInterval< DoubleType > spilled = N5Utils.open( writer, dataset );
+
+			final STDataImgLib2Factory factory = new STDataImgLib2Factory();
+			factory.geneNames = new ArrayList<>( geneNames );
+			Collections.sort( factory.geneNames );
+			factory.geneLookup = createGeneLookup( factory.geneNames );
+			factory.barcodes = coordinatesRed.stream().map( Pair::getB ).collect( Collectors.toList() );
+			factory.locations = STDataText.locationsToImgLib2( coordinatesRed );
+			factory.exprValues = Views.permute( Views.stack( factory.geneNames.stream()
+					.map( gene -> Views.hyperSlice( spilled, 0, fileRows.get( gene ) ) )
+					.collect( Collectors.toList() ) ), 0, 1 );
+
+			data = new STDataImgLib2( factory );
+		}
+
+		for (Entry<String, int[]> entry : locations.annotations.entrySet())
+			data.getAnnotations().put(entry.getKey(), ArrayImgs.ints(entry.getValue(), numLocations));
 
 		logger.debug("Parsing took {} ms.", System.currentTimeMillis() - time);
 
 		return data;
 	}
 
-	public static STData readSlideSeq( final BufferedReader beadLocations, final BufferedReader reads, final Map<String, BufferedReader> annotations ) throws IOException
+	/**
+	 * The locations of a slide-seq dataset after reading coordinates, the header of the reads file and the annotations.
+	 */
+	protected static class SlideSeqLocations
 	{
-		long time = System.currentTimeMillis();
+		// number of values in each row of the reads file
+		public int numColumns;
+
+		// columns of the reads file that are kept (locations present in all annotations), null if all are kept
+		public int[] keep;
+
+		// coordinates and barcodes of the kept locations
+		public List< Pair< double[], String > > coordinates;
+
+		// annotation ids of the kept locations
+		public Map< String, int[] > annotations;
+	}
 
+	/**
+	 * Reads the coordinates, the header of the reads file and all annotations; afterwards the reads file is positioned at the first gene.
+	 */
+	protected static SlideSeqLocations readSlideSeqLocations(
+			final BufferedReader beadLocations,
+			final BufferedReader reads,
+			final Map<String, BufferedReader> annotations ) throws IOException
+	{
 		final HashMap< String, double[] > coordinateMap = readSlideSeqCoordinates( beadLocations );
 		logger.debug("Read {} coordinates.", coordinateMap.keySet().size());
 
-		// coordinates, geneMap
-		final Pair< List< Pair< double[], String > >, HashMap< String, double[] > > geneData = readSlideSeqGenes( reads, coordinateMap );
-		logger.debug("Read data for {} genes.", geneData.getB().keySet().size());
+		final List< String > barcodes = readSlideSeqHeader( reads );
+		final List< Pair< double[], String > > coordinates = matchCoordinates( barcodes, coordinateMap );
 
 		final HashSet< Integer > notAssigned = new HashSet<>();
-		final List< String > barcodes = geneData.getA().stream().map(Pair::getB).collect(Collectors.toList() );
-
-		Map<String, int[]> annotationIds = new HashMap<>();
+		final Map<String, int[]> annotationIds = new HashMap<>();
 		for (Entry<String, BufferedReader> entry : annotations.entrySet()) {
 			int[] ids = readAnnotations(
 					entry.getValue(),
@@ -88,61 +220,468 @@ public class TextFileIO
 				logger.warn("not assigned after reading '{}': {}", entry.getKey(), notAssigned.size());
 		}
 
-		final STData data;
+		// locations that are kept, unassigned ones are dropped while parsing
+		final int[] keep = IntStream.range( 0, barcodes.size() ).filter( j -> !notAssigned.contains( j ) ).toArray();
+
+		final SlideSeqLocations locations = new SlideSeqLocations();
+		locations.numColumns = barcodes.size();
+		locations.keep = notAssigned.isEmpty() ? null : keep;
+		locations.coordinates = Arrays.stream( keep ).mapToObj( coordinates::get ).collect( Collectors.toList() );
+		locations.annotations = new HashMap<>();
 
-		if (!notAssigned.isEmpty())
+		for (Entry<String, int[]> entry : annotationIds.entrySet())
 		{
-			// reduce celltypes
-			final Map<String, int[]> annotationIdsRed = new HashMap<>();
-			for (final String annotationName : annotationIds.keySet())
-				annotationIdsRed.put(annotationName, new int[barcodes.size() - notAssigned.size()]);
+			final int[] ids = entry.getValue();
+			locations.annotations.put( entry.getKey(), Arrays.stream( keep ).map( j -> ids[ j ] ).toArray() );
+		}
 
-			// reduce coordinates
-			List< Pair< double[], String > > coordinatesRed = new ArrayList<>();
+		return locations;
+	}
 
-			int i = 0;
+	/**
+	 * Converts a slide-seq dataset to N5/Zarr without holding the expression values in memory, the gene rows are parsed
+	 * in batches of one block-row and written as soon as they are parsed. Only one batch is parsed (by all threads of the
+	 * service) or written at a time, so peak memory is bounded by one block-row of values plus the text lines of the next batch.
+	 * The reads file is parsed twice: the first pass counts the genes and computes the library sizes (stored as
+	 * {@link NormalizingSTData#librarySizeAnnotation} annotation), the second pass writes. Genes are stored in file order.
+	 *
+	 * @param beadLocations - csv with barcode and coordinates
+	 * @param reads - csv with a header of barcodes and one row per gene, used for the first pass
+	 * @param readsSecondPass - the same reads file opened again, used for the second pass
+	 * @param annotations - csv files with barcode and integer id
+	 * @param normalize - log-normalize the expression values like {@link NormalizingSTData}
+	 * @param service - for parallel parsing
+	 * @param sdio - the output
+	 */
+	public static void resaveSlideSeqStreaming(
+			final BufferedReader beadLocations,
+			final BufferedReader reads,
+			final BufferedReader readsSecondPass,
+			final Map<String, BufferedReader> annotations,
+			final boolean normalize,
+			final ExecutorService service,
+			final StreamingSpatialDataWriter sdio ) throws IOException
+	{
+		long time = System.currentTimeMillis();
 
-			for ( int j = 0; j < barcodes.size(); ++j )
+		final SlideSeqLocations locations = readSlideSeqLocations( beadLocations, reads, annotations );
+		final int numLocations = locations.coordinates.size();
+
+		if ( readSlideSeqHeader( readsSecondPass ).size() != locations.numColumns )
+			throw new IOException( "reads file changed between the two passes." );
+
+		// the library size of each location is stored as annotation and needed before the first value can be normalized
+		final double[] sumsPerLocation = new double[ numLocations ];
+		final double[] maxValue = new double[ 1 ];
+		// both passes hold at most one batch at a time, which is parsed by all threads
+		final long numGenes = readSlideSeqGenes( reads, locations.numColumns, locations.keep, defaultBatchSize, defaultBatchSize, service,
+				( firstRow, names, values ) -> {
+					final double[] sums = new double[ numLocations ];
+					double max = 0;
+					for ( final double[] row : values )
+						for ( int l = 0; l < numLocations; ++l )
+						{
+							sums[ l ] += row[ l ];
+							max = Math.max( max, row[ l ] );
+						}
+
+					synchronized ( sumsPerLocation )
+					{
+						for ( int l = 0; l < numLocations; ++l )
+							sumsPerLocation[ l ] += sums[ l ];
+						maxValue[ 0 ] = Math.max( maxValue[ 0 ], max );
+					}
+				} );
+
+		logger.debug("First pass found {} genes, took {} ms.", numGenes, System.currentTimeMillis() - time);
+
+		final Map< String, RandomAccessibleInterval< ? extends NativeType< ? > > > annotationImgs = new HashMap<>();
+		for (Entry<String, int[]> entry : locations.annotations.entrySet())
+			annotationImgs.put(entry.getKey(), ArrayImgs.ints(entry.getValue(), numLocations));
+		annotationImgs.putIfAbsent( NormalizingSTData.librarySizeAnnotation, ArrayImgs.doubles( sumsPerLocation, numLocations ) );
+
+		sdio.writeDataStreaming(
+				STDataText.locationsToImgLib2( locations.coordinates ),
+				locations.coordinates.stream().map( Pair::getB ).collect( Collectors.toList() ),
+				annotationImgs,
+				numGenes,
+				normalize ? Math.log( 10001 ) : maxValue[ 0 ], // log( 10000 * d / sum + 1 ) is at most log( 10001 ) since d <= sum
+				( batchSize, consumer ) -> readSlideSeqGenes( readsSecondPass, locations.numColumns, locations.keep, batchSize, batchSize, service,
+						!normalize ? consumer : ( firstRow, names, values ) -> {
+							for ( final double[] row : values )
+								for ( int l = 0; l < numLocations; ++l )
+									row[ l ] = NormalizingRandomAccess.normalize( row[ l ], sumsPerLocation[ l ] );
+
+							consumer.accept( firstRow, names, values );
+						} ) );
+
+		logger.debug("Streaming resave took {} ms.", System.currentTimeMillis() - time);
+	}
+
+	/**
+	 * @param geneNames - the gene names in row order
+	 * @return the row of each gene
+	 * @throws IOException if a gene name is listed more than once
+	 */
+	protected static HashMap< String, Integer > createGeneLookup( final List< String > geneNames ) throws IOException
+	{
+		final HashMap< String, Integer > geneLookup = new HashMap<>();
+		for ( int i = 0; i < geneNames.size(); ++i )
+			if ( geneLookup.put( geneNames.get( i ), i ) != null )
+				throw new IOException( "gene '" + geneNames.get( i ) + "' is listed more than once in the reads file." );
+
+		return geneLookup;
+	}
+
+	private static void setAll( final List< String > list, final int index, final List< String > values )
+	{
+		while ( list.size() < index + values.size() )
+			list.add( null );
+
+		for ( int i = 0; i < values.size(); ++i )
+			list.set( index + i, values.get( i ) );
+	}
+
+	/**
+	 * Receives batches of parsed gene rows, called concurrently from the parsing threads.
+	 */
+	@FunctionalInterface
+	public interface GeneBatchConsumer
+	{
+		/**
+		 * @param firstRow - index of the first gene of the batch (rows of a batch are contiguous)
+		 * @param geneNames - the gene names
+		 * @param values - the expression values of each gene, one entry per (kept) location
+		 */
+		void accept( long firstRow, List< String > geneNames, List< double[] > values ) throws IOException;
+	}
+
+	// number of genes parsed by one task, also the block height when writing to N5 directly
+	public static int defaultBatchSize = 64;
+
+	/**
+	 * Collects all parsed rows in memory, the rows become the cells of the expression value image without copying.
+	 */
+	protected static class GeneRowCollector implements GeneBatchConsumer
+	{
+		final ConcurrentHashMap< Long, Pair< List< String >, List< double[] > > > batches = new ConcurrentHashMap<>();
+
+		@Override
+		public void accept( final long firstRow, final List< String > geneNames, final List< double[] > values )
+		{
+			batches.put( firstRow, new ValuePair<>( geneNames, values ) );
+		}
+
+		public int numGenes()
+		{
+			return batches.values().stream().mapToInt( b -> b.getA().size() ).sum();
+		}
+
+		public STDataImgLib2Factory createFactory( final List< Pair< double[], String > > coordinates ) throws IOException
+		{
+			final HashMap< String, double[] > rowMap = new HashMap<>();
+			for ( final Long firstRow : new TreeSet<>( batches.keySet() ) )
 			{
-				if ( !notAssigned.contains( j ) )
-				{
-					for (final String annotationName : annotationIds.keySet())
-						annotationIdsRed.get(annotationName)[i] = annotationIds.get(annotationName)[j];
-					coordinatesRed.add( geneData.getA().get( j ) );
-					++i;
-				}
+				final Pair< List< String >, List< double[] > > batch = batches.get( firstRow );
+				for ( int i = 0; i < batch.getA().size(); ++i )
+					if ( rowMap.put( batch.getA().get( i ), batch.getB().get( i ) ) != null )
+						throw new IOException( "gene '" + batch.getA().get( i ) + "' is listed more than once in the reads file." );
 			}
+			batches.clear();
+
+			final STDataImgLib2Factory factory = new STDataImgLib2Factory();
+
+			factory.geneNames = new ArrayList<>( rowMap.keySet() );
+			Collections.sort( factory.geneNames );
+			factory.geneLookup = createGeneLookup( factory.geneNames );
+
+			factory.barcodes = coordinates.stream().map( Pair::getB ).collect( Collectors.toList() );
+			factory.locations = STDataText.locationsToImgLib2( coordinates );
+			factory.exprValues = STDataText.geneRowsToImgLib2( factory.geneNames.stream().map( rowMap::get ).collect( Collectors.toList() ), coordinates.size() );
+
+			return factory;
+		}
+	}
+
+	/**
+	 * @param in - the reads file, positioned at the header
+	 * @return the barcodes listed in the header: Row,GACGCAAGAAACA,TTGGGAGAAAACT,GGTCTCAGAAACG, ...
+	 */
+	public static List< String > readSlideSeqHeader( final BufferedReader in ) throws IOException
+	{
+		final String header = in.readLine();
+
+		if ( header == null )
+			throw new IOException( "reads file is empty." );
 
-			// reduce geneMap
-			HashMap< String, double[] > geneMapRed = new HashMap<>();
+		final String[] values = header.trim().split( "," );
+		return new ArrayList<>( Arrays.asList( values ).subList( 1, values.length ) );
+	}
+
+	protected static List< Pair< double[], String > > matchCoordinates( final List< String > barcodes, final HashMap< String, double[] > coordinateMap )
+	{
+		if ( barcodes.size() != coordinateMap.keySet().size() )
+			throw new RuntimeException( "length of header inconsistent with number of locations: " + barcodes.size() + " != " + coordinateMap.keySet().size() + "\n" +
+					"You defined " + coordinateMap.keySet().size() + " locations (ids), but the reads file only contains data for " + barcodes.size() + " locations.");
 
-			for ( final Entry< String, double[] > entry : geneData.getB().entrySet() )
+		final ArrayList< Pair< double[], String > > coordinates = new ArrayList<>();
+
+		for ( final String barcode : barcodes )
+		{
+			final double[] coordinate = coordinateMap.get( barcode );
+			if ( coordinate == null )
+				throw new RuntimeException( "barcode " + barcode + " not present in file." );
+
+			coordinates.add( new ValuePair<>( coordinate, barcode ) );
+		}
+
+		return coordinates;
+	}
+
+	/**
+	 * Parses all gene rows after the header in parallel. Lines are read sequentially and handed out in batches,
+	 * at most a few batches per thread are pending at any time.
+	 *
+	 * @param in - the reads file, positioned after the header
+	 * @param numColumns - the number of values per row
+	 * @param keep - the columns to keep (sorted), null keeps all
+	 * @param batchSize - number of rows per batch
+	 * @param service - executes the parsing
+	 * @param consumer - receives the parsed batches
+	 * @return the number of gene rows
+	 */
+	public static long readSlideSeqGenes(
+			final BufferedReader in,
+			final int numColumns,
+			final int[] keep,
+			final int batchSize,
+			final ExecutorService service,
+			final GeneBatchConsumer consumer ) throws IOException
+	{
+		return readSlideSeqGenes( in, numColumns, keep, batchSize, 2L * Threads.numThreads( service ) * batchSize, service, consumer );
+	}
+
+	/**
+	 * Parses all gene rows after the header in parallel. Lines are read sequentially and handed out in batches,
+	 * at most maxPendingRows parsed rows are held by batches that were not consumed yet, so memory stays bounded.
+	 * If that allows less than one batch per thread, each batch is parsed by several tasks.
+	 *
+	 * @param in - the reads file, positioned after the header
+	 * @param numColumns - the number of values per row
+	 * @param keep - the columns to keep (sorted), null keeps all
+	 * @param batchSize - number of rows per batch
+	 * @param maxPendingRows - maximal number of rows in batches that are parsed or consumed, at least one batch is always allowed
+	 * @param service - executes the parsing
+	 * @param consumer - receives the parsed batches
+	 * @return the number of gene rows
+	 */
+	public static long readSlideSeqGenes(
+			final BufferedReader in,
+			final int numColumns,
+			final int[] keep,
+			final int batchSize,
+			final long maxPendingRows,
+			final ExecutorService service,
+			final GeneBatchConsumer consumer ) throws IOException
+	{
+		final int numThreads = Threads.numThreads( service );
+		final int numTasksPerBatch = (int)Math.max( 1, Math.min( numThreads, ( (long)numThreads * batchSize ) / Math.max( 1, maxPendingRows ) ) );
+
+		final ArrayDeque< Pair< Future< Void >, Integer > > pending = new ArrayDeque<>();
+		long pendingRows = 0;
+
+		long numRows = 0;
+		List< String > lines = new ArrayList<>( batchSize );
+		String nextLine;
+
+		try
+		{
+			while ( (nextLine = in.readLine()) != null )
 			{
-				double[] exp = entry.getValue();
-				double[] expRed = new double[barcodes.size() - notAssigned.size()];
+				if ( nextLine.trim().isEmpty() )
+					continue;
 
-				i = 0;
-				for ( int j = 0; j < exp.length; ++j )
-					if ( !notAssigned.contains( j ) )
-						expRed[ i++ ] = exp[ j ];
+				lines.add( nextLine );
 
-				geneMapRed.put( entry.getKey(),  expRed );
+				if ( lines.size() == batchSize )
+				{
+					pendingRows = waitForPending( pending, pendingRows, maxPendingRows - lines.size() );
+					pending.add( new ValuePair<>( submitBatch( lines, numRows, numColumns, keep, numTasksPerBatch, service, consumer ), lines.size() ) );
+					pendingRows += lines.size();
+					numRows += lines.size();
+					lines = new ArrayList<>( batchSize );
+				}
+			}
+
+			if ( !lines.isEmpty() )
+			{
+				pendingRows = waitForPending( pending, pendingRows, maxPendingRows - lines.size() );
+				pending.add( new ValuePair<>( submitBatch( lines, numRows, numColumns, keep, numTasksPerBatch, service, consumer ), lines.size() ) );
+				pendingRows += lines.size();
+				numRows += lines.size();
 			}
 
-			data = new STDataText( coordinatesRed, geneMapRed );
-			for (Entry<String, int[]> entry : annotationIdsRed.entrySet())
-				data.getAnnotations().put(entry.getKey(), ArrayImgs.ints(entry.getValue(), (int)data.numLocations()));
+			waitForPending( pending, pendingRows, 0 );
 		}
-		else
+		catch ( InterruptedException | ExecutionException e )
 		{
-			data = new STDataText( geneData.getA(), geneData.getB() );
-			for (Entry<String, int[]> entry : annotationIds.entrySet())
-				data.getAnnotations().put(entry.getKey(), ArrayImgs.ints(entry.getValue(), (int)data.numLocations()));
+			for ( final Pair< Future< Void >, Integer > batch : pending )
+				batch.getA().cancel( true );
+
+			throw new IOException( "Error parsing gene expression from text file", e );
 		}
 
-		logger.debug("Parsing took {} ms.", System.currentTimeMillis() - time);
+		in.close();
 
-		return data;
+		return numRows;
+	}
+
+	/**
+	 * Waits for the oldest batches until at most maxRows rows are pending.
+	 *
+	 * @return the number of rows that are still pending
+	 */
+	private static long waitForPending(
+			final ArrayDeque< Pair< Future< Void >, Integer > > pending,
+			long pendingRows,
+			final long maxRows ) throws InterruptedException, ExecutionException
+	{
+		while ( !pending.isEmpty() && pendingRows > Math.max( 0, maxRows ) )
+		{
+			final Pair< Future< Void >, Integer > batch = pending.peek();
+			batch.getA().get();
+			pending.poll();
+			pendingRows -= batch.getB();
+		}
+
+		return pendingRows;
+	}
+
+	/**
+	 * Parses a batch with numTasks tasks, the task that finishes last hands the batch to the consumer.
+	 *
+	 * @return completes once the consumer received the batch
+	 */
+	private static Future< Void > submitBatch(
+			final List< String > lines,
+			final long firstRow,
+			final int numColumns,
+			final int[] keep,
+			final int numTasks,
+			final ExecutorService service,
+			final GeneBatchConsumer consumer )
+	{
+		final int numLines = lines.size();
+		final int numSlices = Math.max( 1, Math.min( numTasks, numLines ) );
+
+		// fixed-size lists, each task sets its own slice
+		final List< String > geneNames = Arrays.asList( new String[ numLines ] );
+		final List< double[] > values = Arrays.asList( new double[ numLines ][] );
+
+		final AtomicInteger remaining = new AtomicInteger( numSlices );
+		final CompletableFuture< Void > consumed = new CompletableFuture<>();
+
+		for ( int s = 0; s < numSlices; ++s )
+		{
+			final int from = (int)( (long)numLines * s / numSlices );
+			final int to = (int)( (long)numLines * ( s + 1 ) / numSlices );
+
+			service.submit( () -> {
+				try
+				{
+					final double[] row = keep == null ? null : new double[ numColumns ];
+
+					for ( int i = from; i < to; ++i )
+					{
+						if ( keep == null )
+						{
+							final double[] exprValues = new double[ numColumns ];
+							geneNames.set( i, parseGeneRow( lines.get( i ), exprValues ) );
+							values.set( i, exprValues );
+						}
+						else
+						{
+							geneNames.set( i, parseGeneRow( lines.get( i ), row ) );
+							final double[] exprValues = new double[ keep.length ];
+							for ( int j = 0; j < keep.length; ++j )
+								exprValues[ j ] = row[ keep[ j ] ];
+							values.set( i, exprValues );
+						}
+					}
+
+					// the decrement makes the other slices visible to the last task
+					if ( remaining.decrementAndGet() == 0 )
+					{
+						consumer.accept( firstRow, geneNames, values );
+						consumed.complete( null );
+					}
+				}
+				catch ( final Throwable e )
+				{
+					consumed.completeExceptionally( e );
+				}
+			} );
+		}
+
+		return consumed;
+	}
+
+	/**
+	 * Parses one row 'geneName,value0,value1,...' without splitting the line into Strings.
+	 *
+	 * @param line - the line
+	 * @param values - filled with the values, the number of values in the line must match its length
+	 * @return the gene name
+	 */
+	public static String parseGeneRow( final String line, final double[] values )
+	{
+		int comma = line.indexOf( ',' );
+		if ( comma < 0 )
+			throw new RuntimeException( "length of row inconsistent with number of locations: 0 != " + values.length );
+
+		final String geneName = line.substring( 0, comma ).trim();
+
+		for ( int i = 0; i < values.length; ++i )
+		{
+			if ( comma < 0 )
+				throw new RuntimeException( "length of row '" + geneName + "' inconsistent with number of locations: " + i + " != " + values.length );
+
+			final int start = comma + 1;
+			comma = line.indexOf( ',', start );
+			values[ i ] = parseValue( line, start, comma < 0 ? line.length() : comma );
+		}
+
+		if ( comma >= 0 && !line.substring( comma + 1 ).trim().isEmpty() )
+			throw new RuntimeException( "length of row '" + geneName + "' inconsistent with number of locations: more than " + values.length + " values." );
+
+		return geneName;
+	}
+
+	private static double parseValue( final String line, int start, int end )
+	{
+		while ( start < end && line.charAt( start ) <= ' ' )
+			++start;
+		while ( end > start && line.charAt( end - 1 ) <= ' ' )
+			--end;
+
+		// fast path for (small) integer counts, which is what most reads files contain
+		if ( end - start > 0 && end - start < 10 )
+		{
+			long value = 0;
+			int i = start;
+			for ( ; i < end; ++i )
+			{
+				final char c = line.charAt( i );
+				if ( c < '0' || c > '9' )
+					break;
+				value = value * 10 + ( c - '0' );
+			}
+
+			if ( i == end )
+				return value;
+		}
+
+		return Double.parseDouble( line.substring( start, end ) );
 	}
 
 	public static int[] readAnnotations( final BufferedReader annotationFile, final List< String > barcodes ) throws IOException
@@ -236,58 +775,33 @@ public class TextFileIO
 			final BufferedReader in,
 			final HashMap< String, double[] > coordinateMap )
 	{
-		final ArrayList< Pair< double[], String > > coordinates = new ArrayList<>();
+		final ExecutorService service = Threads.createFixedExecutorService();
 		final HashMap< String, double[] > geneMap = new HashMap<>();
 
-		//final BufferedReader in = TextFileAccess.openFileRead( file );
-
 		try
 		{
-			int line = 0;
-
-			String nextLine;
-
-			while ( (nextLine = in.readLine()) != null ) 
-			{
-				final String[] values = nextLine.trim().split( "," );
+			final List< String > barcodes = readSlideSeqHeader( in );
+			final List< Pair< double[], String > > coordinates = matchCoordinates( barcodes, coordinateMap );
 
-				if ( values.length - 1 != coordinateMap.keySet().size() )
-					throw new RuntimeException( "length of header inconsistent with number of locations: " + (values.length - 1) + " != " + coordinateMap.keySet().size() + "\n" +
-							"You defined " + coordinateMap.keySet().size() + " locations (ids), but the reads file only contains data for " + (values.length - 1) + " locations.");
-
-				if ( line++ == 0 ) 
+			readSlideSeqGenes( in, barcodes.size(), null, defaultBatchSize, service, ( firstRow, names, values ) -> {
+				synchronized ( geneMap )
 				{
-					// header: Row,GACGCAAGAAACA,TTGGGAGAAAACT,GGTCTCAGAAACG, ...
-					for ( int i = 1; i < values.length; ++i )
-					{
-						final double[] coordinate = coordinateMap.get( values[ i ] );
-						if ( coordinate == null )
-							throw new RuntimeException( "barcode " + values[ i ] + " not present in file." );
-
-						coordinates.add( new ValuePair<>( coordinate, values[ i ] ) );
-					}
+					for ( int i = 0; i < names.size(); ++i )
+						geneMap.put( names.get( i ), values.get( i ) );
 				}
-				else
-				{
-					final String geneName = values[ 0 ];
-					final double[] exprValues = new double[ values.length - 1 ];
-
-					for ( int i = 1; i < values.length; ++i )
-						exprValues[ i - 1 ] = Double.parseDouble( values[ i ] );
+			} );
 
-					geneMap.put( geneName, exprValues );
-				}
-			}
-
-			in.close();
+			return new ValuePair<>( coordinates, geneMap );
 		}
 		catch (Exception e )
 		{
 			logger.error("Error parsing gene expression from text file", e);
 			return null;
 		}
-
-		return new ValuePair<>( coordinates, geneMap );
+		finally
+		{
+			service.shutdown();
+		}
 	}
 
 	public static HashMap< String, double[] > readSlideSeqCoordinates( final BufferedReader in )
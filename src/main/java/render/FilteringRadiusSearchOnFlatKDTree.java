@@ -2,28 +2,27 @@ package render;
 
 import filter.Filter;
 import filter.RadiusSearchFilterFactory;
-import net.imglib2.KDTree;
 import net.imglib2.RealLocalizable;
 import net.imglib2.Sampler;
 import util.SimpleSampler;
 
-public class FilteringRadiusSearchOnKDTree< S, T > implements IntegratingNeighborSearch< T >
+public class FilteringRadiusSearchOnFlatKDTree< S, T > implements IntegratingNeighborSearch< T >
 {
 	protected final int n;
-	final KDTree< S > tree;
+	final FlatKDTreeSamples< S > samples;
 	final SimpleSampler< T > value;
 	final RadiusSearchFilterFactory< S, T > filterFactory;
 	final Filter< T > filter;
 
-	public FilteringRadiusSearchOnKDTree(
-			final KDTree< S > tree,
+	public FilteringRadiusSearchOnFlatKDTree(
+			final FlatKDTreeSamples< S > samples,
 			final RadiusSearchFilterFactory< S, T > filterFactory )
 	{
-		this.n = tree.numDimensions();
-		this.tree = tree;
+		this.n = samples.numDimensions();
+		this.samples = samples;
 		this.value = new SimpleSampler<>(filterFactory::create);
 		this.filterFactory = filterFactory;
-		this.filter = filterFactory.createFilter( tree );
+		this.filter = filterFactory.createFilter( samples );
 	}
 
 	@Override
@@ -45,8 +44,9 @@ public class FilteringRadiusSearchOnKDTree< S, T > implements IntegratingNeighbo
 	}
 
 	@Override
-	public FilteringRadiusSearchOnKDTree< S, T > copy()
+	public FilteringRadiusSearchOnFlatKDTree< S, T > copy()
 	{
-		return new FilteringRadiusSearchOnKDTree<>(tree, filterFactory);
+		// the copy shares the tree and values, but has its own search
+		return new FilteringRadiusSearchOnFlatKDTree<>(samples, filterFactory);
 	}
 }
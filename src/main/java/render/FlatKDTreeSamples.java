@@ -0,0 +1,199 @@
+package render;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import imglib2.ExpValueRealIterable;
+import imglib2.SparseExpValueRealIterable;
+import net.imglib2.IterableRealInterval;
+import net.imglib2.RealCursor;
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.RealType;
+import util.FlatKDTree;
+
+/**
+ * The values of an {@link IterableRealInterval} indexed by a {@link FlatKDTree}. Real values are held in a double[] in
+ * location order and looked up through the point order of the tree, so the expression values of all genes of a dataset
+ * (that are not transformed or filtered) share the tree of its locations.
+ *
+ * @param <T> value type
+ *
+ * @author spreibi
+ */
+public class FlatKDTreeSamples< T >
+{
+	final FlatKDTree tree;
+	final int[] permutation;
+
+	// location order, only one of them is set
+	final double[] values;
+	final List< T > objects;
+
+	final T type;
+
+	public FlatKDTreeSamples( final FlatKDTree tree, final double[] values, final T type )
+	{
+		this.tree = tree;
+		this.permutation = tree.permutation();
+		this.values = values;
+		this.objects = null;
+		this.type = type;
+	}
+
+	public FlatKDTreeSamples( final FlatKDTree tree, final List< T > objects )
+	{
+		this.tree = tree;
+		this.permutation = tree.permutation();
+		this.values = null;
+		this.objects = objects;
+		this.type = null;
+	}
+
+	/**
+	 * Indexes the data, without building a tree if the data are (untransformed) expression values of a dataset whose tree is known.
+	 *
+	 * @param data - the data
+	 * @return the indexed data
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < T > FlatKDTreeSamples< T > of( final IterableRealInterval< T > data )
+	{
+		if ( data.size() == 0 )
+			return new FlatKDTreeSamples<>( new FlatKDTree( new double[ 0 ], data.numDimensions() ), new ArrayList<>() );
+
+		final T first = data.firstElement();
+		final T type = first instanceof RealType ? (T)( (RealType< ? >)first ).createVariable() : null;
+
+		if ( type != null )
+		{
+			if ( data instanceof ExpValueRealIterable )
+			{
+				final ExpValueRealIterable< T > expData = (ExpValueRealIterable< T >)data;
+				final double[] values = new double[ (int)data.size() ];
+
+				int i = 0;
+				for ( final T t : expData.getValues() )
+					values[ i++ ] = ( (RealType< ? >)t ).getRealDouble();
+
+				return new FlatKDTreeSamples<>( FlatKDTree.forLocations( expData.getLocations() ), values, type );
+			}
+
+			if ( data instanceof SparseExpValueRealIterable && ( (SparseExpValueRealIterable)data ).implicitZeros() )
+			{
+				final SparseExpValueRealIterable sparseData = (SparseExpValueRealIterable)data;
+				return new FlatKDTreeSamples<>( FlatKDTree.forLocations( sparseData.getLocations() ), sparseData.getDenseValues(), type );
+			}
+		}
+
+		final int n = data.numDimensions();
+		final int size = (int)data.size();
+		final double[] positions = new double[ size * n ];
+		final double[] values = type != null ? new double[ size ] : null;
+		final List< T > objects = values == null ? new ArrayList<>( size ) : null;
+
+		final RealCursor< T > cursor = data.localizingCursor();
+
+		for ( int i = 0; i < size; ++i )
+		{
+			final T t = cursor.next();
+
+			for ( int d = 0; d < n; ++d )
+				positions[ i * n + d ] = cursor.getDoublePosition( d );
+
+			if ( values != null )
+				values[ i ] = ( (RealType< ? >)t ).getRealDouble();
+			else
+				objects.add( t instanceof Type ? (T)( (Type< ? >)t ).copy() : t );
+		}
+
+		final FlatKDTree tree = new FlatKDTree( positions, n );
+
+		if ( values != null )
+			return new FlatKDTreeSamples<>( tree, values, type );
+		else
+			return new FlatKDTreeSamples<>( tree, objects );
+	}
+
+	public FlatKDTree tree() { return tree; }
+
+	public int numDimensions() { return tree.numDimensions(); }
+
+	/**
+	 * @return the real values in location order, null if the values are not real; changes are seen by all searches on the samples
+	 */
+	public double[] values() { return values; }
+
+	/**
+	 * @return a sampler that can be pointed at any node of the tree, each thread needs its own
+	 */
+	public IndexedSampler sampler() { return new IndexedSampler(); }
+
+	/**
+	 * @return a position that can be pointed at any node of the tree
+	 */
+	public IndexedPosition position() { return new IndexedPosition(); }
+
+	public class IndexedSampler implements Sampler< T >
+	{
+		final T variable = type == null ? null : copyType();
+		int treeIndex;
+
+		public void setTreeIndex( final int treeIndex ) { this.treeIndex = treeIndex; }
+
+		@Override
+		public T get()
+		{
+			if ( values == null )
+				return objects.get( permutation[ treeIndex ] );
+
+			( (RealType< ? >)variable ).setReal( values[ permutation[ treeIndex ] ] );
+			return variable;
+		}
+
+		@Override
+		public IndexedSampler copy()
+		{
+			final IndexedSampler copy = new IndexedSampler();
+			copy.treeIndex = treeIndex;
+			return copy;
+		}
+	}
+
+	public class IndexedPosition implements RealLocalizable
+	{
+		int treeIndex;
+
+		public void setTreeIndex( final int treeIndex ) { this.treeIndex = treeIndex; }
+
+		@Override
+		public int numDimensions() { return tree.numDimensions(); }
+
+		@Override
+		public double getDoublePosition( final int d ) { return tree.position( treeIndex, d ); }
+
+		@Override
+		public float getFloatPosition( final int d ) { return (float)getDoublePosition( d ); }
+
+		@Override
+		public void localize( final float[] position )
+		{
+			for ( int d = 0; d < position.length; ++d )
+				position[ d ] = getFloatPosition( d );
+		}
+
+		@Override
+		public void localize( final double[] position )
+		{
+			for ( int d = 0; d < position.length; ++d )
+				position[ d ] = getDoublePosition( d );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private T copyType()
+	{
+		return (T)( (RealType< ? >)type ).createVariable();
+	}
+}
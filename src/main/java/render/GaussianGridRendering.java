@@ -0,0 +1,180 @@
+package render;
+
+import filter.GaussianFilter;
+import filter.GaussianFilterFactory;
+import filter.GaussianFilterFactory.WeightType;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+import util.FlatKDTree;
+
+/**
+ * Approximate Gaussian rendering of 2D locations whose cost does not depend on sigma: the values and weights of the
+ * locations are binned (linearly) into a grid with a spacing relative to sigma, blurred with {@link Gauss3}, normalized
+ * like {@link GaussianFilter#normalize} and resampled (linearly) into the image. Meant for smooth renderings with a large
+ * sigma, where searching all neighbors within the radius of every pixel is expensive.
+ *
+ * @author spreibi
+ */
+public class GaussianGridRendering
+{
+	// grid spacing in units of sigma
+	public static double defaultGridSpacing = 0.25;
+
+	// upper bound for the number of grid cells, the spacing increases if necessary
+	public static long maxGridSize = 1l << 26;
+
+	/**
+	 * @param samples - the values to render
+	 * @param factory - sigma, normalization and out of bounds value of the Gaussian (weighting by the number of samples is not supported)
+	 * @param transform - maps the locations into the image
+	 * @param interval - the image interval
+	 * @return the rendered image
+	 */
+	public static RandomAccessibleInterval< DoubleType > render(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final GaussianFilterFactory< DoubleType, DoubleType > factory,
+			final AffineGet transform,
+			final Interval interval )
+	{
+		if ( interval.numDimensions() != 2 || transform.numDimensions() != 2 || samples.numDimensions() != 2 )
+			throw new IllegalArgumentException( "Grid rendering is only implemented for 2D." );
+
+		if ( factory.getNormalize() == WeightType.BY_SUM_OF_SAMPLES )
+			throw new IllegalArgumentException( "Grid rendering does not support " + WeightType.BY_SUM_OF_SAMPLES );
+
+		final AffineGet inverse = transform.inverse();
+		final double sigma = factory.getSigma();
+
+		// the image in the coordinates of the locations, extended by the radius of the Gaussian
+		final double[] min = new double[] { Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE };
+		final double[] pixel = new double[ 2 ];
+		final double[] location = new double[ 2 ];
+
+		for ( int corner = 0; corner < 4; ++corner )
+		{
+			for ( int d = 0; d < 2; ++d )
+				pixel[ d ] = ( ( corner >> d ) & 1 ) == 0 ? interval.min( d ) : interval.max( d );
+
+			inverse.apply( pixel, location );
+
+			for ( int d = 0; d < 2; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], location[ d ] - factory.getRadius() );
+				max[ d ] = Math.max( max[ d ], location[ d ] + factory.getRadius() );
+			}
+		}
+
+		final double spacing = Math.max(
+				sigma * defaultGridSpacing,
+				Math.sqrt( ( max[ 0 ] - min[ 0 ] ) * ( max[ 1 ] - min[ 1 ] ) / maxGridSize ) );
+
+		final int w = (int)Math.ceil( ( max[ 0 ] - min[ 0 ] ) / spacing ) + 2;
+		final int h = (int)Math.ceil( ( max[ 1 ] - min[ 1 ] ) / spacing ) + 2;
+
+		final double[] v = new double[ w * h ];
+		final double[] wt = new double[ w * h ];
+		final ArrayImg< DoubleType, DoubleArray > values = ArrayImgs.doubles( v, w, h );
+		final ArrayImg< DoubleType, DoubleArray > weights = ArrayImgs.doubles( wt, w, h );
+
+		// bin the locations
+		final FlatKDTree tree = samples.tree();
+		final int[] permutation = tree.permutation();
+		final double[] sampleValues = samples.values();
+
+		for ( int t = 0; t < tree.size(); ++t )
+		{
+			final double gx = ( tree.position( t, 0 ) - min[ 0 ] ) / spacing;
+			final double gy = ( tree.position( t, 1 ) - min[ 1 ] ) / spacing;
+
+			if ( gx < 0 || gy < 0 || gx >= w - 1 || gy >= h - 1 )
+				continue;
+
+			final double value = sampleValues[ permutation[ t ] ];
+			final int x = (int)gx;
+			final int y = (int)gy;
+			final double fx = gx - x;
+			final double fy = gy - y;
+			final int i = y * w + x;
+
+			add( v, wt, i, value, ( 1 - fx ) * ( 1 - fy ) );
+			add( v, wt, i + 1, value, fx * ( 1 - fy ) );
+			add( v, wt, i + w, value, ( 1 - fx ) * fy );
+			add( v, wt, i + w + 1, value, fx * fy );
+		}
+
+		// the linear binning and resampling add a variance of 1/6 each
+		final double gridSigma = Math.sqrt( Math.max( 0.25, Math.pow( sigma / spacing, 2 ) - 1.0 / 3.0 ) );
+
+		Gauss3.gauss( gridSigma, Views.extendZero( values ), values );
+		Gauss3.gauss( gridSigma, Views.extendZero( weights ), weights );
+
+		// Gauss3 normalizes its kernel, the filter sums unnormalized weights
+		final double scale = Math.pow( kernelSum( gridSigma ), 2 );
+		final double outOfBounds = factory.getOutOfBounds().getRealDouble();
+
+		for ( int i = 0; i < v.length; ++i )
+			v[ i ] = wt[ i ] == 0 ? outOfBounds : GaussianFilter.normalize( v[ i ] * scale, wt[ i ] * scale, 0, factory.getNormalize() );
+
+		// resample into the image
+		final int iw = (int)interval.dimension( 0 );
+		final int ih = (int)interval.dimension( 1 );
+		final double[] image = new double[ iw * ih ];
+
+		for ( int y = 0; y < ih; ++y )
+			for ( int x = 0; x < iw; ++x )
+			{
+				pixel[ 0 ] = x + interval.min( 0 );
+				pixel[ 1 ] = y + interval.min( 1 );
+				inverse.apply( pixel, location );
+
+				final double gx = ( location[ 0 ] - min[ 0 ] ) / spacing;
+				final double gy = ( location[ 1 ] - min[ 1 ] ) / spacing;
+
+				if ( gx < 0 || gy < 0 || gx >= w - 1 || gy >= h - 1 )
+				{
+					image[ y * iw + x ] = outOfBounds;
+					continue;
+				}
+
+				final int gxi = (int)gx;
+				final int gyi = (int)gy;
+				final double fx = gx - gxi;
+				final double fy = gy - gyi;
+				final int i = gyi * w + gxi;
+
+				image[ y * iw + x ] =
+						( 1 - fy ) * ( ( 1 - fx ) * v[ i ] + fx * v[ i + 1 ] ) +
+						fy * ( ( 1 - fx ) * v[ i + w ] + fx * v[ i + w + 1 ] );
+			}
+
+		return Views.translate( ArrayImgs.doubles( image, iw, ih ), interval.minAsLongArray() );
+	}
+
+	private static void add( final double[] values, final double[] weights, final int i, final double value, final double weight )
+	{
+		values[ i ] += value * weight;
+		weights[ i ] += weight;
+	}
+
+	/**
+	 * @return the sum of the unnormalized kernel that {@link Gauss3} uses for this sigma
+	 */
+	protected static double kernelSum( final double sigma )
+	{
+		final int size = Gauss3.halfkernelsizes( new double[] { sigma } )[ 0 ];
+
+		double sum = 1;
+		for ( int i = 1; i < size; ++i )
+			sum += 2 * Math.exp( -( i * i ) / ( 2 * sigma * sigma ) );
+
+		return sum;
+	}
+}
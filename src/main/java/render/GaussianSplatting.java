@@ -0,0 +1,213 @@
+package render;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.Logger;
+
+import filter.GaussianFilter;
+import filter.GaussianFilterFactory;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+import util.FlatKDTree;
+import util.LoggerUtil;
+import util.Threads;
+
+/**
+ * Gaussian rendering of 2D locations into an image by scattering: every location adds its weighted value to the pixels
+ * within the radius of the filter, instead of every pixel searching its neighbors like {@link GaussianFilter}. The sums
+ * are normalized by {@link GaussianFilter#normalize}, so the image is the same as rasterizing {@link Render#render} with
+ * the same {@link GaussianFilterFactory}. If the transform does not rotate or shear, the kernel is separable and only
+ * one exponential per row and column of the footprint of a location is computed.
+ *
+ * @author spreibi
+ */
+public class GaussianSplatting
+{
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	/**
+	 * @param samples - the values to render
+	 * @param factory - radius, sigma, normalization and out of bounds value of the Gaussian
+	 * @param transform - maps the locations into the image
+	 * @param interval - the image interval
+	 * @param service - renders bands of rows together with the calling thread, null renders in the calling thread only
+	 * @return the rendered image
+	 */
+	public static RandomAccessibleInterval< DoubleType > render(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final GaussianFilterFactory< DoubleType, DoubleType > factory,
+			final AffineGet transform,
+			final Interval interval,
+			final ExecutorService service )
+	{
+		if ( interval.numDimensions() != 2 || transform.numDimensions() != 2 || samples.numDimensions() != 2 )
+			throw new IllegalArgumentException( "Splatting is only implemented for 2D." );
+
+		final int w = (int)interval.dimension( 0 );
+		final int h = (int)interval.dimension( 1 );
+
+		final double[] values = new double[ w * h ];
+		final double[] weights = new double[ w * h ];
+		final int[] counts = new int[ w * h ];
+
+		// every band of rows is written by one thread only
+		final int numBands = service == null ? 1 : Math.min( h, Threads.numThreads( service ) * 4 );
+		final List< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( int b = 0; b < numBands; ++b )
+		{
+			final int y0 = (int)( (long)h * b / numBands );
+			final int y1 = (int)( (long)h * ( b + 1 ) / numBands );
+
+			tasks.add( () ->
+			{
+				splat( samples, factory, transform, interval, y0, y1, values, weights, counts );
+				return null;
+			});
+		}
+
+		Threads.runTasks( tasks, service );
+
+		final double outOfBounds = factory.getOutOfBounds().getRealDouble();
+
+		for ( int i = 0; i < values.length; ++i )
+			values[ i ] = counts[ i ] == 0 ? outOfBounds : GaussianFilter.normalize( values[ i ], weights[ i ], counts[ i ], factory.getNormalize() );
+
+		return Views.translate( ArrayImgs.doubles( values, w, h ), interval.minAsLongArray() );
+	}
+
+	protected static void splat(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final GaussianFilterFactory< DoubleType, DoubleType > factory,
+			final AffineGet transform,
+			final Interval interval,
+			final int bandMin,
+			final int bandMax,
+			final double[] values,
+			final double[] weights,
+			final int[] counts )
+	{
+		final FlatKDTree tree = samples.tree();
+		final int[] permutation = tree.permutation();
+		final double[] sampleValues = samples.values();
+
+		final AffineGet inverse = transform.inverse();
+		final int w = (int)interval.dimension( 0 );
+		final long minX = interval.min( 0 );
+		final long minY = interval.min( 1 );
+
+		final double radius = factory.getRadius();
+		final double sqRadius = radius * radius;
+		final double twoSqSigma = factory.getTwoSqSigma();
+
+		// half size of the footprint of the radius in pixels, with one pixel margin against rounding
+		final double extentX = radius * Math.hypot( transform.get( 0, 0 ), transform.get( 0, 1 ) ) + 1;
+		final double extentY = radius * Math.hypot( transform.get( 1, 0 ), transform.get( 1, 1 ) ) + 1;
+
+		final boolean separable = transform.get( 0, 1 ) == 0 && transform.get( 1, 0 ) == 0;
+		final double[] weightsX = new double[ (int)Math.ceil( 2 * extentX ) + 2 ];
+		final double[] weightsY = new double[ (int)Math.ceil( 2 * extentY ) + 2 ];
+		final double[] sqDistX = new double[ weightsX.length ];
+
+		final double[] location = new double[ 2 ];
+		final double[] pixel = new double[ 2 ];
+		final double[] position = new double[ 2 ];
+
+		// only locations that map into the band (expanded by the footprint) can contribute, the box around the
+		// inverse-transformed corners contains all of them
+		final double[] min = new double[] { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+
+		for ( int c = 0; c < 4; ++c )
+		{
+			pixel[ 0 ] = ( c & 1 ) == 0 ? minX - extentX : minX + w - 1 + extentX;
+			pixel[ 1 ] = ( c & 2 ) == 0 ? minY + bandMin - extentY : minY + bandMax - 1 + extentY;
+			inverse.apply( pixel, position );
+
+			for ( int d = 0; d < 2; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], position[ d ] );
+				max[ d ] = Math.max( max[ d ], position[ d ] );
+			}
+		}
+
+		final FlatKDTree.Neighbors candidates = new FlatKDTree.Neighbors();
+		tree.boxSearch( min, max, candidates );
+
+		for ( int j = 0; j < candidates.size(); ++j )
+		{
+			final int t = candidates.treeIndex( j );
+
+			location[ 0 ] = tree.position( t, 0 );
+			location[ 1 ] = tree.position( t, 1 );
+			transform.apply( location, pixel );
+
+			final int y0 = (int)Math.max( bandMin, Math.ceil( pixel[ 1 ] - extentY - minY ) );
+			final int y1 = (int)Math.min( bandMax - 1, Math.floor( pixel[ 1 ] + extentY - minY ) );
+			final int x0 = (int)Math.max( 0, Math.ceil( pixel[ 0 ] - extentX - minX ) );
+			final int x1 = (int)Math.min( w - 1, Math.floor( pixel[ 0 ] + extentX - minX ) );
+
+			if ( y0 > y1 || x0 > x1 )
+				continue;
+
+			final double value = sampleValues[ permutation[ t ] ];
+
+			if ( separable )
+			{
+				for ( int x = x0; x <= x1; ++x )
+				{
+					final double dx = inverse.get( 0, 0 ) * ( x + minX ) + inverse.get( 0, 2 ) - location[ 0 ];
+					sqDistX[ x - x0 ] = dx * dx;
+					weightsX[ x - x0 ] = GaussianFilter.exp( sqDistX[ x - x0 ] / twoSqSigma );
+				}
+
+				for ( int y = y0; y <= y1; ++y )
+				{
+					final double dy = inverse.get( 1, 1 ) * ( y + minY ) + inverse.get( 1, 2 ) - location[ 1 ];
+					final double sqDistY = dy * dy;
+					final double weightY = GaussianFilter.exp( sqDistY / twoSqSigma );
+
+					for ( int x = x0, i = y * w + x0; x <= x1; ++x, ++i )
+					{
+						if ( sqDistX[ x - x0 ] + sqDistY > sqRadius )
+							continue;
+
+						final double weight = weightsX[ x - x0 ] * weightY;
+						values[ i ] += value * weight;
+						weights[ i ] += weight;
+						++counts[ i ];
+					}
+				}
+			}
+			else
+			{
+				for ( int y = y0; y <= y1; ++y )
+					for ( int x = x0, i = y * w + x0; x <= x1; ++x, ++i )
+					{
+						pixel[ 0 ] = x + minX;
+						pixel[ 1 ] = y + minY;
+						inverse.apply( pixel, position );
+
+						final double dx = position[ 0 ] - location[ 0 ];
+						final double dy = position[ 1 ] - location[ 1 ];
+						final double sqDist = dx * dx + dy * dy;
+
+						if ( sqDist > sqRadius )
+							continue;
+
+						final double weight = GaussianFilter.exp( sqDist / twoSqSigma );
+						values[ i ] += value * weight;
+						weights[ i ] += weight;
+						++counts[ i ];
+					}
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package render;
+
+import java.util.function.Supplier;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.neighborsearch.KNearestNeighborSearch;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+import util.SimpleRealLocalizable;
+import util.SimpleSampler;
+
+/**
+ * k-nearest neighbor search on a {@link FlatKDTree}, also serves as nearest neighbor search (k = 1).
+ * Optionally, neighbors further away than a maximal distance are replaced by an out of bounds value: if none is within
+ * the distance, the first neighbor is the out of bounds value at distance 0 (like {@link NearestNeighborMaxDistanceSearchOnKDTree}),
+ * further missing neighbors are the out of bounds value at infinite distance, so they get no weight when interpolating.
+ * Not thread-safe, every thread needs its own instance (see {@link #copy()}).
+ *
+ * @param <T> value type
+ *
+ * @author spreibi
+ */
+public class KNearestNeighborSearchOnFlatKDTree< T > implements KNearestNeighborSearch< T >
+{
+	final FlatKDTreeSamples< T > samples;
+	final int k;
+	final Supplier< T > outOfBounds;
+	final MaxDistanceParam param;
+
+	final Neighbors neighbors = new Neighbors();
+	final double[] query;
+	final SimpleRealLocalizable queryPosition;
+	final SimpleSampler< T > oobSampler;
+
+	final FlatKDTreeSamples< T >.IndexedSampler[] indexedSamplers;
+	final FlatKDTreeSamples< T >.IndexedPosition[] indexedPositions;
+
+	final Sampler< T >[] samplers;
+	final RealLocalizable[] positions;
+	final double[] squaredDistances;
+
+	public KNearestNeighborSearchOnFlatKDTree( final FlatKDTreeSamples< T > samples, final int k )
+	{
+		this( samples, k, null, null );
+	}
+
+	/**
+	 * @param samples - the indexed data
+	 * @param k - number of neighbors
+	 * @param outOfBounds - value for neighbors further away than the maximal distance (can be null if param is null)
+	 * @param param - the maximal distance, null for no limit
+	 */
+	@SuppressWarnings( "unchecked" )
+	public KNearestNeighborSearchOnFlatKDTree(
+			final FlatKDTreeSamples< T > samples,
+			final int k,
+			final Supplier< T > outOfBounds,
+			final MaxDistanceParam param )
+	{
+		this.samples = samples;
+		this.k = k;
+		this.outOfBounds = outOfBounds;
+		this.param = param;
+
+		this.query = new double[ samples.numDimensions() ];
+		this.queryPosition = new SimpleRealLocalizable( query );
+		this.oobSampler = outOfBounds == null ? null : new SimpleSampler<>( outOfBounds );
+
+		this.indexedSamplers = new FlatKDTreeSamples.IndexedSampler[ k ];
+		this.indexedPositions = new FlatKDTreeSamples.IndexedPosition[ k ];
+
+		for ( int i = 0; i < k; ++i )
+		{
+			indexedSamplers[ i ] = samples.sampler();
+			indexedPositions[ i ] = samples.position();
+		}
+
+		this.samplers = new Sampler[ k ];
+		this.positions = new RealLocalizable[ k ];
+		this.squaredDistances = new double[ k ];
+	}
+
+	@Override
+	public void search( final RealLocalizable reference )
+	{
+		reference.localize( query );
+		samples.tree().kNearestNeighbors( query, k, neighbors );
+
+		final double maxSqDistance = param == null ? Double.MAX_VALUE : param.maxSqDistance();
+
+		for ( int i = 0; i < k; ++i )
+		{
+			if ( i < neighbors.size() && neighbors.squaredDistance( i ) <= maxSqDistance )
+			{
+				indexedSamplers[ i ].setTreeIndex( neighbors.treeIndex( i ) );
+				indexedPositions[ i ].setTreeIndex( neighbors.treeIndex( i ) );
+
+				samplers[ i ] = indexedSamplers[ i ];
+				positions[ i ] = indexedPositions[ i ];
+				squaredDistances[ i ] = neighbors.squaredDistance( i );
+			}
+			else
+			{
+				samplers[ i ] = oobSampler != null ? oobSampler : indexedSamplers[ 0 ];
+				positions[ i ] = queryPosition;
+				squaredDistances[ i ] = i == 0 ? 0 : Double.MAX_VALUE;
+			}
+		}
+	}
+
+	@Override
+	public int getK() { return k; }
+
+	@Override
+	public Sampler< T > getSampler( final int i ) { return samplers[ i ]; }
+
+	@Override
+	public RealLocalizable getPosition( final int i ) { return positions[ i ]; }
+
+	@Override
+	public double getSquareDistance( final int i ) { return squaredDistances[ i ]; }
+
+	@Override
+	public double getDistance( final int i ) { return Math.sqrt( squaredDistances[ i ] ); }
+
+	@Override
+	public Sampler< T > getSampler() { return getSampler( 0 ); }
+
+	@Override
+	public RealLocalizable getPosition() { return getPosition( 0 ); }
+
+	@Override
+	public double getSquareDistance() { return getSquareDistance( 0 ); }
+
+	@Override
+	public double getDistance() { return getDistance( 0 ); }
+
+	@Override
+	public int numDimensions() { return samples.numDimensions(); }
+
+	@Override
+	public KNearestNeighborSearchOnFlatKDTree< T > copy()
+	{
+		final KNearestNeighborSearchOnFlatKDTree< T > copy = new KNearestNeighborSearchOnFlatKDTree<>( samples, k, outOfBounds, param );
+
+		// make sure the state is preserved
+		copy.search( queryPosition );
+
+		return copy;
+	}
+}
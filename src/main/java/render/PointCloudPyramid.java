@@ -0,0 +1,234 @@
+package render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import util.FlatKDTree;
+
+/**
+ * Coarser versions of a set of locations for rendering at lower resolutions: the locations are binned into cells whose
+ * size doubles from level to level, every cell is represented by the centroid of its locations and its value is the
+ * average of their values. The levels only depend on the locations, so they are built once per tree and shared by all
+ * genes of a dataset.
+ *
+ * @author spreibi
+ */
+public class PointCloudPyramid
+{
+	// pyramids of trees that were built before
+	private static final Map< FlatKDTree, PointCloudPyramid > shared = Collections.synchronizedMap( new WeakHashMap<>() );
+
+	public static final int maxLevels = 8;
+
+	// no coarser level is built if a level has fewer cells
+	public static final int minCells = 1000;
+
+	// 21 bits per dimension are packed into the key of a cell
+	private static final int bits = 21;
+
+	final double medianDistance;
+	final List< Level > levels = new ArrayList<>();
+
+	/**
+	 * One level of the pyramid.
+	 */
+	public static class Level
+	{
+		final double cellSize;
+
+		// location index to cell index
+		final int[] cellOfLocation;
+
+		// number of locations per cell
+		final int[] counts;
+
+		// the centroids of the cells, the cell index is the location index of this tree
+		final FlatKDTree tree;
+
+		Level( final double cellSize, final int[] cellOfLocation, final int[] counts, final FlatKDTree tree )
+		{
+			this.cellSize = cellSize;
+			this.cellOfLocation = cellOfLocation;
+			this.counts = counts;
+			this.tree = tree;
+		}
+
+		public double cellSize() { return cellSize; }
+		public int numCells() { return counts.length; }
+		public FlatKDTree tree() { return tree; }
+
+		/**
+		 * @param values - the values of the locations in location order
+		 * @param cellValues - the average value of each cell, in cell order
+		 */
+		public void aggregate( final double[] values, final double[] cellValues )
+		{
+			Arrays.fill( cellValues, 0 );
+
+			for ( int i = 0; i < cellOfLocation.length; ++i )
+				cellValues[ cellOfLocation[ i ] ] += values[ i ];
+
+			for ( int c = 0; c < cellValues.length; ++c )
+				cellValues[ c ] /= counts[ c ];
+		}
+
+		/**
+		 * @param values - the values of the locations in location order
+		 * @return the average value of each cell, in cell order
+		 */
+		public double[] aggregate( final double[] values )
+		{
+			final double[] cellValues = new double[ numCells() ];
+			aggregate( values, cellValues );
+			return cellValues;
+		}
+	}
+
+	/**
+	 * Builds the levels, the cells of the first one are twice the median distance.
+	 *
+	 * @param tree - the locations
+	 * @param medianDistance - median distance between locations
+	 */
+	public PointCloudPyramid( final FlatKDTree tree, final double medianDistance )
+	{
+		this.medianDistance = medianDistance;
+
+		if ( tree.numDimensions() > 3 || tree.size() == 0 || !( medianDistance > 0 ) )
+			return;
+
+		FlatKDTree current = tree;
+		int[] weights = null;
+		int[] cellOfLocation = null;
+		double cellSize = 2 * medianDistance;
+
+		while ( levels.size() < maxLevels && current.size() > minCells )
+		{
+			final Level level = bin( current, weights, cellSize );
+
+			if ( level == null )
+				break;
+
+			// map the original locations through the previous level, so every level aggregates the original values directly
+			if ( cellOfLocation == null )
+				cellOfLocation = level.cellOfLocation;
+			else
+				for ( int i = 0; i < cellOfLocation.length; ++i )
+					cellOfLocation[ i ] = level.cellOfLocation[ cellOfLocation[ i ] ];
+
+			weights = counts( cellOfLocation, level.numCells() );
+			levels.add( new Level( cellSize, cellOfLocation.clone(), weights, level.tree ) );
+
+			current = level.tree;
+			cellSize *= 2;
+		}
+	}
+
+	/**
+	 * @return the pyramid of the tree that was built before if the median distance is the same
+	 */
+	public static PointCloudPyramid forTree( final FlatKDTree tree, final double medianDistance )
+	{
+		synchronized ( shared )
+		{
+			PointCloudPyramid pyramid = shared.get( tree );
+
+			if ( pyramid == null || pyramid.medianDistance != medianDistance )
+			{
+				pyramid = new PointCloudPyramid( tree, medianDistance );
+				shared.put( tree, pyramid );
+			}
+
+			return pyramid;
+		}
+	}
+
+	public int numLevels() { return levels.size(); }
+
+	public Level level( final int i ) { return levels.get( i ); }
+
+	/**
+	 * Bins the locations of a tree into cells.
+	 *
+	 * @param tree - the locations
+	 * @param weights - the weights of the locations for the centroids in location order, null for equal weights
+	 * @param cellSize - the size of the cells
+	 * @return the level (with the locations of this tree), or null if the locations span too many cells
+	 */
+	protected static Level bin( final FlatKDTree tree, final int[] weights, final double cellSize )
+	{
+		final int n = tree.numDimensions();
+		final int size = tree.size();
+		final int[] permutation = tree.permutation();
+
+		final double[] min = new double[ n ];
+		Arrays.fill( min, Double.MAX_VALUE );
+
+		for ( int t = 0; t < size; ++t )
+			for ( int d = 0; d < n; ++d )
+				min[ d ] = Math.min( min[ d ], tree.position( t, d ) );
+
+		final HashMap< Long, Integer > cells = new HashMap<>();
+		final int[] cellOfLocation = new int[ size ];
+		final double[] sums = new double[ size * n ];
+		final int[] counts = new int[ size ];
+		final double[] sumWeights = new double[ size ];
+
+		for ( int t = 0; t < size; ++t )
+		{
+			long key = 0;
+
+			for ( int d = 0; d < n; ++d )
+			{
+				final long index = (long)( ( tree.position( t, d ) - min[ d ] ) / cellSize );
+
+				if ( index >= 1l << bits )
+					return null;
+
+				key |= index << ( d * bits );
+			}
+
+			Integer cell = cells.get( key );
+
+			if ( cell == null )
+			{
+				cell = cells.size();
+				cells.put( key, cell );
+			}
+
+			final int location = permutation[ t ];
+			final double weight = weights == null ? 1 : weights[ location ];
+
+			cellOfLocation[ location ] = cell;
+			++counts[ cell ];
+			sumWeights[ cell ] += weight;
+
+			for ( int d = 0; d < n; ++d )
+				sums[ cell * n + d ] += tree.position( t, d ) * weight;
+		}
+
+		final int numCells = cells.size();
+		final double[] centroids = new double[ numCells * n ];
+
+		for ( int c = 0; c < numCells; ++c )
+			for ( int d = 0; d < n; ++d )
+				centroids[ c * n + d ] = sums[ c * n + d ] / sumWeights[ c ];
+
+		return new Level( cellSize, cellOfLocation, Arrays.copyOf( counts, numCells ), new FlatKDTree( centroids, n ) );
+	}
+
+	protected static int[] counts( final int[] cellOfLocation, final int numCells )
+	{
+		final int[] counts = new int[ numCells ];
+
+		for ( final int cell : cellOfLocation )
+			++counts[ cell ];
+
+		return counts;
+	}
+}
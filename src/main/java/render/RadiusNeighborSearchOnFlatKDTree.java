@@ -0,0 +1,84 @@
+package render;
+
+import java.util.Arrays;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.Sampler;
+import net.imglib2.neighborsearch.RadiusNeighborSearch;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+
+/**
+ * Radius search on a {@link FlatKDTree}; searches only allocate when the number of neighbors exceeds all previous searches.
+ * Not thread-safe, every thread needs its own instance (they can share the {@link FlatKDTreeSamples}).
+ *
+ * @param <T> value type
+ *
+ * @author spreibi
+ */
+public class RadiusNeighborSearchOnFlatKDTree< T > implements RadiusNeighborSearch< T >
+{
+	final FlatKDTreeSamples< T > samples;
+	final Neighbors neighbors = new Neighbors();
+	final double[] query;
+
+	FlatKDTreeSamples< T >.IndexedSampler[] samplers;
+	FlatKDTreeSamples< T >.IndexedPosition[] positions;
+
+	@SuppressWarnings( "unchecked" )
+	public RadiusNeighborSearchOnFlatKDTree( final FlatKDTreeSamples< T > samples )
+	{
+		this.samples = samples;
+		this.query = new double[ samples.numDimensions() ];
+		this.samplers = new FlatKDTreeSamples.IndexedSampler[ 0 ];
+		this.positions = new FlatKDTreeSamples.IndexedPosition[ 0 ];
+	}
+
+	@Override
+	public void search( final RealLocalizable reference, final double radius, final boolean sortResults )
+	{
+		reference.localize( query );
+		samples.tree().radiusSearch( query, radius, sortResults, neighbors );
+
+		final int numNeighbors = neighbors.size();
+
+		if ( numNeighbors > samplers.length )
+		{
+			final int oldLength = samplers.length;
+			final int newLength = Math.max( numNeighbors, oldLength * 2 );
+
+			samplers = Arrays.copyOf( samplers, newLength );
+			positions = Arrays.copyOf( positions, newLength );
+
+			for ( int i = oldLength; i < newLength; ++i )
+			{
+				samplers[ i ] = samples.sampler();
+				positions[ i ] = samples.position();
+			}
+		}
+
+		for ( int i = 0; i < numNeighbors; ++i )
+		{
+			samplers[ i ].setTreeIndex( neighbors.treeIndex( i ) );
+			positions[ i ].setTreeIndex( neighbors.treeIndex( i ) );
+		}
+	}
+
+	@Override
+	public int numNeighbors() { return neighbors.size(); }
+
+	@Override
+	public Sampler< T > getSampler( final int i ) { return samplers[ i ]; }
+
+	@Override
+	public RealLocalizable getPosition( final int i ) { return positions[ i ]; }
+
+	@Override
+	public double getSquareDistance( final int i ) { return neighbors.squaredDistance( i ); }
+
+	@Override
+	public double getDistance( final int i ) { return Math.sqrt( neighbors.squaredDistance( i ) ); }
+
+	@Override
+	public int numDimensions() { return samples.numDimensions(); }
+}
@@ -18,14 +18,11 @@ import imglib2.TransformedIterableRealInterval;
 import net.imglib2.FinalRealInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableRealInterval;
-import net.imglib2.KDTree;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.converter.Converters;
 import net.imglib2.interpolation.neighborsearch.InverseDistanceWeightingInterpolatorFactory;
 import net.imglib2.interpolation.neighborsearch.NearestNeighborSearchInterpolatorFactory;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
-import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform2D;
 import net.imglib2.type.Type;
@@ -37,7 +34,6 @@ import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
-import util.KDTreeUtil;
 import org.apache.logging.log4j.Logger;
 import util.LoggerUtil;
 
@@ -229,7 +225,7 @@ public class Render
 	public static < T extends RealType< T > > RealRandomAccessible< T > renderNN( final IterableRealInterval< T > data )
 	{
 		return Views.interpolate(
-				new NearestNeighborSearchOnKDTree<>(KDTreeUtil.createParallelizableKDTreeFrom(data)),
+				new KNearestNeighborSearchOnFlatKDTree<>(FlatKDTreeSamples.of(data), 1),
 				new NearestNeighborSearchInterpolatorFactory<>() );
 	}
 
@@ -239,7 +235,7 @@ public class Render
 			final double p )
 	{
 		return Views.interpolate(
-				new KNearestNeighborSearchOnKDTree<>(KDTreeUtil.createParallelizableKDTreeFrom(data), numNeighbors),
+				new KNearestNeighborSearchOnFlatKDTree<>(FlatKDTreeSamples.of(data), numNeighbors),
 				new InverseDistanceWeightingInterpolatorFactory<>(p) );
 	}
 
@@ -250,56 +246,57 @@ public class Render
 			final T outofbounds,
 			final MaxDistanceParam param )
 	{
-		return renderLinear2(data, numNeighbors, p, outofbounds, param).getA();
+		return renderLinear( FlatKDTreeSamples.of( data ), numNeighbors, p, outofbounds, param );
 	}
 
-	public static < T extends RealType< T > > Pair< RealRandomAccessible< T >, KDTree< T > > renderLinear2(
-			final IterableRealInterval< T > data,
+	public static < T extends RealType< T > > RealRandomAccessible< T > renderLinear(
+			final FlatKDTreeSamples< T > samples,
 			final int numNeighbors,
 			final double p,
 			final T outofbounds,
 			final MaxDistanceParam param )
 	{
-		final KDTree< T > tree = KDTreeUtil.createParallelizableKDTreeFrom(data);
-
-		return new ValuePair<>(Views.interpolate(
-				new KNearestNeighborMaxDistanceSearchOnKDTree<>(
-						tree,
+		return Views.interpolate(
+				new KNearestNeighborSearchOnFlatKDTree<>(
+						samples,
 						numNeighbors,
 						outofbounds::copy,
 						param),
-				new InverseDistanceWeightingInterpolatorFactory<>(p) ), tree );
+				new InverseDistanceWeightingInterpolatorFactory<>(p) );
 	}
 
 	public static < T extends RealType< T > > RealRandomAccessible< T > renderNN( final IterableRealInterval< T > data, final T outofbounds, final MaxDistanceParam maxRadius )
 	{
-		return renderNN2(data, outofbounds, maxRadius).getA();
+		return renderNN( FlatKDTreeSamples.of( data ), outofbounds, maxRadius );
 	}
 
-	public static < T extends RealType< T > > Pair< RealRandomAccessible< T >, KDTree< T > > renderNN2( final IterableRealInterval< T > data, final T outofbounds, final MaxDistanceParam maxRadius )
+	public static < T extends RealType< T > > RealRandomAccessible< T > renderNN( final FlatKDTreeSamples< T > samples, final T outofbounds, final MaxDistanceParam maxRadius )
 	{
-		final KDTree< T > tree = KDTreeUtil.createParallelizableKDTreeFrom(data);
-		return new ValuePair<>(Views.interpolate(
-				new NearestNeighborMaxDistanceSearchOnKDTree<>(
-						tree,
+		return Views.interpolate(
+				new KNearestNeighborSearchOnFlatKDTree<>(
+						samples,
+						1,
 						outofbounds::copy,
 						maxRadius),
-				new NearestNeighborSearchInterpolatorFactory<>() ), tree );
+				new NearestNeighborSearchInterpolatorFactory<>() );
 	}
 
 	public static < S extends Type<S>, T > RealRandomAccessible< T > render( final IterableRealInterval< S > data, final RadiusSearchFilterFactory< S, T > filterFactory )
 	{
-		return render2( data, filterFactory ).getA();
+		return render( FlatKDTreeSamples.of( data ), filterFactory );
 	}
 
-	public static < S extends Type<S>, T > Pair< RealRandomAccessible< T >, KDTree< S > > render2( final IterableRealInterval< S > data, final RadiusSearchFilterFactory< S, T > filterFactory )
+	/**
+	 * Renders values that are bound to a location index, e.g. from {@link STDataAssembly#samples(String)}. The values
+	 * are read on demand, so changing {@link FlatKDTreeSamples#values()} changes the rendering.
+	 */
+	public static < S extends Type<S>, T > RealRandomAccessible< T > render( final FlatKDTreeSamples< S > samples, final RadiusSearchFilterFactory< S, T > filterFactory )
 	{
-		final KDTree< S > tree = KDTreeUtil.createParallelizableKDTreeFrom(data);
-		return new ValuePair<>(Views.interpolate(
-				new FilteringRadiusSearchOnKDTree<>( // data source (F)
-													 tree,
-													 filterFactory),
-				new IntegratingNeighborSearchInterpolatorFactory<>() ), tree ); // interpolatorfactory (T,F)
+		return Views.interpolate(
+				new FilteringRadiusSearchOnFlatKDTree<>( // data source (F)
+														 samples,
+														 filterFactory),
+				new IntegratingNeighborSearchInterpolatorFactory<>() ); // interpolatorfactory (T,F)
 	}
 
 	public static < T extends IntegerType< T > > RealRandomAccessible< ARGBType > convertToRGB( final RealRandomAccessible< T > rra, final T outofbounds, final ARGBType background, final HashMap<Long, ARGBType> lut )
@@ -0,0 +1,256 @@
+package render;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.Logger;
+
+import filter.GaussianFilterFactory;
+import filter.GaussianFilterFactory.WeightType;
+import filter.MeanFilterFactory;
+import gui.bdv.AddedGene.Rendering;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
+import net.imglib2.algorithm.util.Grids;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import util.FlatKDTree;
+import util.FlatKDTree.Neighbors;
+import util.LoggerUtil;
+import util.Threads;
+
+/**
+ * Renders values into an image tile by tile, in parallel. The locations that can contribute to a tile are gathered with
+ * a single radius search and indexed by a small tree, so the searches of all pixels of a tile share this neighborhood
+ * instead of walking the tree of the whole dataset. The renderer is evaluated like the lazy views of {@link Render}, so
+ * the images are the same as copying {@code Views.interval( RealViews.affine( rra, transform ), interval )}.
+ *
+ * @author spreibi
+ */
+public class TiledRasterizer
+{
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	public static final int defaultTileSize = 64;
+
+	/**
+	 * Renders the locations (of a tile) to a continuous image.
+	 */
+	public interface Renderer
+	{
+		RealRandomAccessible< DoubleType > render( FlatKDTreeSamples< DoubleType > samples );
+
+		/**
+		 * @return the distance beyond which locations do not contribute to a position
+		 */
+		double supportRadius();
+	}
+
+	public static Renderer renderer( final Function< FlatKDTreeSamples< DoubleType >, RealRandomAccessible< DoubleType > > render, final double supportRadius )
+	{
+		return new Renderer()
+		{
+			@Override
+			public RealRandomAccessible< DoubleType > render( final FlatKDTreeSamples< DoubleType > samples ) { return render.apply( samples ); }
+
+			@Override
+			public double supportRadius() { return supportRadius; }
+		};
+	}
+
+	/**
+	 * @return the renderer of the given type with the same parameters as {@link cmd.RenderImage#createRRA}
+	 */
+	public static Renderer renderer( final Rendering renderType, final double medianDistance, final double renderingFactor )
+	{
+		final double distance = medianDistance * renderingFactor;
+
+		if ( renderType == Rendering.Gauss || renderType == Rendering.Splat || renderType == Rendering.GaussGrid )
+		{
+			final GaussianFilterFactory< DoubleType, DoubleType > factory = gaussFactory( medianDistance, renderingFactor );
+			return renderer( samples -> Render.render( samples, factory ), factory.getRadius() );
+		}
+		else if ( renderType == Rendering.NN )
+		{
+			return renderer( samples -> Render.renderNN( samples, new DoubleType( 0 ), new MaxDistanceParam( distance ) ), distance );
+		}
+		else if ( renderType == Rendering.Mean )
+		{
+			final MeanFilterFactory< DoubleType, DoubleType > factory = new MeanFilterFactory<>( new DoubleType( 0 ), distance );
+			return renderer( samples -> Render.render( samples, factory ), factory.getRadius() );
+		}
+		else // LINEAR
+		{
+			return renderer( samples -> Render.renderLinear( samples, 5, 3.0, new DoubleType( 0 ), new MaxDistanceParam( distance ) ), distance );
+		}
+	}
+
+	protected static GaussianFilterFactory< DoubleType, DoubleType > gaussFactory( final double medianDistance, final double renderingFactor )
+	{
+		return new GaussianFilterFactory<>( new DoubleType( 0 ), medianDistance * renderingFactor, WeightType.PARTIAL_BY_SUM_OF_WEIGHTS );
+	}
+
+	/**
+	 * Renders with the renderer of the given type, {@link Rendering#Splat} scatters the locations with {@link GaussianSplatting}
+	 * and {@link Rendering#GaussGrid} uses {@link GaussianGridRendering}.
+	 *
+	 * @param samples - the values to render
+	 * @param renderType - the rendering
+	 * @param medianDistance - median distance between locations
+	 * @param renderingFactor - multiplies the median distance for the smoothness or radius of the rendering
+	 * @param transform - maps the locations into the image
+	 * @param interval - the image interval
+	 * @param service - renders tiles together with the calling thread, null renders in the calling thread only
+	 * @return the rendered image
+	 */
+	public static RandomAccessibleInterval< DoubleType > rasterize(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final Rendering renderType,
+			final double medianDistance,
+			final double renderingFactor,
+			final AffineGet transform,
+			final Interval interval,
+			final ExecutorService service )
+	{
+		if ( renderType == Rendering.Splat && interval.numDimensions() == 2 )
+			return GaussianSplatting.render( samples, gaussFactory( medianDistance, renderingFactor ), transform, interval, service );
+		else if ( renderType == Rendering.GaussGrid && interval.numDimensions() == 2 )
+			return GaussianGridRendering.render( samples, gaussFactory( medianDistance, renderingFactor ), transform, interval );
+		else
+			return rasterize( samples, renderer( renderType, medianDistance, renderingFactor ), transform, interval, service );
+	}
+
+	/**
+	 * @param samples - the values to render
+	 * @param renderer - how to render them
+	 * @param transform - maps the locations into the image
+	 * @param interval - the image interval
+	 * @param service - renders tiles together with the calling thread, null renders in the calling thread only
+	 * @return the rendered image
+	 */
+	public static RandomAccessibleInterval< DoubleType > rasterize(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final Renderer renderer,
+			final AffineGet transform,
+			final Interval interval,
+			final ExecutorService service )
+	{
+		final ArrayImg< DoubleType, DoubleArray > img = ArrayImgs.doubles( Intervals.dimensionsAsLongArray( interval ) );
+		final AffineGet inverse = transform.inverse();
+
+		final int[] tileSize = new int[ interval.numDimensions() ];
+		Arrays.fill( tileSize, defaultTileSize );
+
+		final List< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( final Interval tile : Grids.collectAllContainedIntervals( img.dimensionsAsLongArray(), tileSize ) )
+			tasks.add( () ->
+			{
+				renderTile( samples, renderer, inverse, interval.minAsLongArray(), tile, img );
+				return null;
+			});
+
+		Threads.runTasks( tasks, service );
+
+		return Views.translate( img, interval.minAsLongArray() );
+	}
+
+	protected static void renderTile(
+			final FlatKDTreeSamples< DoubleType > samples,
+			final Renderer renderer,
+			final AffineGet inverse,
+			final long[] offset,
+			final Interval tile,
+			final RandomAccessibleInterval< DoubleType > img )
+	{
+		final int n = tile.numDimensions();
+		final double[] pixel = new double[ n ];
+		final double[] location = new double[ n ];
+		final double[] center = new double[ n ];
+
+		// the tile in the coordinates of the locations: its center and the radius of a sphere containing it
+		for ( int d = 0; d < n; ++d )
+			pixel[ d ] = offset[ d ] + ( tile.min( d ) + tile.max( d ) ) / 2.0;
+
+		inverse.apply( pixel, center );
+
+		double radius = 0;
+
+		for ( int corner = 0; corner < 1 << n; ++corner )
+		{
+			for ( int d = 0; d < n; ++d )
+				pixel[ d ] = offset[ d ] + ( ( ( corner >> d ) & 1 ) == 0 ? tile.min( d ) : tile.max( d ) );
+
+			inverse.apply( pixel, location );
+
+			double sqDist = 0;
+			for ( int d = 0; d < n; ++d )
+				sqDist += ( location[ d ] - center[ d ] ) * ( location[ d ] - center[ d ] );
+
+			radius = Math.max( radius, Math.sqrt( sqDist ) );
+		}
+
+		final RealRandomAccess< DoubleType > rra =
+				renderer.render( gather( samples, center, radius + renderer.supportRadius() ) ).realRandomAccess();
+
+		final RandomAccess< DoubleType > out = img.randomAccess();
+		final LocalizingIntervalIterator it = new LocalizingIntervalIterator( tile );
+
+		while ( it.hasNext() )
+		{
+			it.fwd();
+
+			for ( int d = 0; d < n; ++d )
+				pixel[ d ] = offset[ d ] + it.getLongPosition( d );
+
+			inverse.apply( pixel, location );
+			rra.setPosition( location );
+
+			out.setPosition( it );
+			out.get().set( rra.get() );
+		}
+	}
+
+	/**
+	 * @return all samples within the radius, indexed by their own tree
+	 */
+	protected static FlatKDTreeSamples< DoubleType > gather( final FlatKDTreeSamples< DoubleType > samples, final double[] center, final double radius )
+	{
+		final FlatKDTree tree = samples.tree();
+		final int[] permutation = tree.permutation();
+		final double[] values = samples.values();
+		final int n = tree.numDimensions();
+
+		final Neighbors neighbors = new Neighbors();
+		tree.radiusSearch( center, radius, false, neighbors );
+
+		final int m = neighbors.size();
+		final double[] positions = new double[ m * n ];
+		final double[] tileValues = new double[ m ];
+
+		for ( int i = 0; i < m; ++i )
+		{
+			final int treeIndex = neighbors.treeIndex( i );
+
+			for ( int d = 0; d < n; ++d )
+				positions[ i * n + d ] = tree.position( treeIndex, d );
+
+			tileValues[ i ] = values[ permutation[ treeIndex ] ];
+		}
+
+		return new FlatKDTreeSamples<>( new FlatKDTree( positions, n ), tileValues, new DoubleType() );
+	}
+}
@@ -0,0 +1,543 @@
+package util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.realtransform.RealTransform;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * A balanced KD-tree over the locations of a dataset that is stored implicitly in flat arrays: the root of a range
+ * [lo, hi) is the element at (lo + hi) / 2, its left subtree is [lo, mid) and its right subtree [mid + 1, hi), the split
+ * dimension is depth % numDimensions. The tree is therefore fully described by the order of the points
+ * ({@link #permutation()}), which is small to persist and rebuilds the tree in linear time.
+ *
+ * @author spreibi
+ */
+public class FlatKDTree
+{
+	// trees of location arrays that were built before, validated by the hash of the locations on every access
+	private static final Map< RandomAccessibleInterval< DoubleType >, FlatKDTree > shared = Collections.synchronizedMap( new WeakHashMap<>() );
+
+	final int n, size;
+	long locationHash = 0;
+
+	// tree order, interleaved: positions[ i * n + d ]
+	final double[] positions;
+
+	// tree index to location index
+	final int[] permutation;
+
+	/**
+	 * Builds the tree.
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 */
+	public FlatKDTree( final RandomAccessibleInterval< DoubleType > locations )
+	{
+		this( readPositions( locations ), (int)locations.dimension( 1 ) );
+	}
+
+	/**
+	 * Builds the tree.
+	 *
+	 * @param locations - the locations, size of double[] corresponds to the number of dimensions
+	 */
+	public FlatKDTree( final List< double[] > locations )
+	{
+		this( flatten( locations ), locations.isEmpty() ? 0 : locations.get( 0 ).length );
+	}
+
+	/**
+	 * Builds the tree of transformed locations, which is not shared with other callers.
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @param transform - applied to every location
+	 */
+	public FlatKDTree( final RandomAccessibleInterval< DoubleType > locations, final RealTransform transform )
+	{
+		this( transformPositions( readPositions( locations ), (int)locations.dimension( 1 ), transform ), transform.numTargetDimensions() );
+	}
+
+	/**
+	 * Restores a tree from a previously computed point order in linear time.
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @param permutation - the point order from {@link #permutation()} of a tree built on the same locations
+	 */
+	public FlatKDTree( final RandomAccessibleInterval< DoubleType > locations, final int[] permutation )
+	{
+		this.n = (int)locations.dimension( 1 );
+		this.size = (int)locations.dimension( 0 );
+
+		if ( permutation.length != size )
+			throw new IllegalArgumentException( "Spatial index has " + permutation.length + " entries, but there are " + size + " locations." );
+
+		final double[] unordered = readPositions( locations );
+
+		this.permutation = permutation.clone();
+		this.positions = new double[ size * n ];
+
+		for ( int i = 0; i < size; ++i )
+			System.arraycopy( unordered, this.permutation[ i ] * n, positions, i * n, n );
+	}
+
+	/**
+	 * Builds the tree, the positions are reordered in place.
+	 *
+	 * @param positions - interleaved positions in location order, positions[ i * n + d ]
+	 * @param n - number of dimensions
+	 */
+	public FlatKDTree( final double[] positions, final int n )
+	{
+		this.n = n;
+		this.size = n == 0 ? 0 : positions.length / n;
+		this.positions = positions;
+		this.permutation = new int[ size ];
+
+		for ( int i = 0; i < size; ++i )
+			permutation[ i ] = i;
+
+		build( 0, size, 0 );
+	}
+
+	/**
+	 * Returns the tree of a location array that was built (or registered) before if the locations did not change,
+	 * so that all genes of a dataset share one tree.
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @return the tree
+	 */
+	public static FlatKDTree forLocations( final RandomAccessibleInterval< DoubleType > locations )
+	{
+		final long hash = locationHash( locations );
+		final FlatKDTree tree = shared.get( locations );
+
+		if ( tree != null && tree.locationHash == hash )
+			return tree;
+
+		final FlatKDTree newTree = new FlatKDTree( locations );
+		register( locations, newTree, hash );
+		return newTree;
+	}
+
+	/**
+	 * @param locations - the locations the tree was built on
+	 * @param tree - the tree
+	 * @param locationHash - see {@link #hashLocations(RandomAccessibleInterval)}
+	 */
+	public static void register( final RandomAccessibleInterval< DoubleType > locations, final FlatKDTree tree, final long locationHash )
+	{
+		tree.locationHash = locationHash;
+		shared.put( locations, tree );
+	}
+
+	/**
+	 * The hash is computed on every call (a single pass without copying), so that locations changed in place are detected.
+	 *
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @return the hash of the locations
+	 */
+	public static long locationHash( final RandomAccessibleInterval< DoubleType > locations )
+	{
+		return hashLocations( locations );
+	}
+
+	public int numDimensions() { return n; }
+
+	public int size() { return size; }
+
+	/**
+	 * @return the location index of every tree node, i.e. the point order that defines the tree
+	 */
+	public int[] permutation() { return permutation; }
+
+	/**
+	 * @param treeIndex - index in tree order
+	 * @param d - dimension
+	 * @return the coordinate
+	 */
+	public double position( final int treeIndex, final int d ) { return positions[ treeIndex * n + d ]; }
+
+	/**
+	 * @return for every location (in location order) the distance to its closest other location
+	 */
+	public double[] nearestNeighborDistances()
+	{
+		final double[] distances = new double[ size ];
+		final double[] query = new double[ n ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			System.arraycopy( positions, i * n, query, 0, n );
+			distances[ permutation[ i ] ] = Math.sqrt( nearestSquaredDistance( 0, size, 0, query, i, Double.MAX_VALUE ) );
+		}
+
+		return distances;
+	}
+
+	/**
+	 * Finds all points within a radius.
+	 *
+	 * @param query - the query position
+	 * @param radius - the radius
+	 * @param sort - sort the results by distance
+	 * @param result - receives the tree indices and squared distances
+	 */
+	public void radiusSearch( final double[] query, final double radius, final boolean sort, final Neighbors result )
+	{
+		result.clear();
+		radiusSearch( 0, size, 0, query, radius * radius, result );
+
+		if ( sort )
+			result.sort();
+	}
+
+	private void radiusSearch( final int lo, final int hi, final int depth, final double[] query, final double squaredRadius, final Neighbors result )
+	{
+		if ( lo >= hi )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		final double squaredDistance = squaredDistance( mid, query );
+
+		if ( squaredDistance <= squaredRadius )
+			result.add( mid, squaredDistance );
+
+		final int d = depth % n;
+		final double diff = query[ d ] - positions[ mid * n + d ];
+
+		if ( diff < 0 || diff * diff <= squaredRadius )
+			radiusSearch( lo, mid, depth + 1, query, squaredRadius, result );
+		if ( diff >= 0 || diff * diff <= squaredRadius )
+			radiusSearch( mid + 1, hi, depth + 1, query, squaredRadius, result );
+	}
+
+	/**
+	 * Finds the k nearest points, sorted by distance.
+	 *
+	 * @param query - the query position
+	 * @param k - number of neighbors, fewer are returned if the tree is smaller
+	 * @param result - receives the tree indices and squared distances
+	 */
+	public void kNearestNeighbors( final double[] query, final int k, final Neighbors result )
+	{
+		result.clear();
+		kNearestNeighbors( 0, size, 0, query, k, result );
+	}
+
+	private void kNearestNeighbors( final int lo, final int hi, final int depth, final double[] query, final int k, final Neighbors result )
+	{
+		if ( lo >= hi )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		result.insert( mid, squaredDistance( mid, query ), k );
+
+		final int d = depth % n;
+		final double diff = query[ d ] - positions[ mid * n + d ];
+		final boolean left = diff < 0;
+
+		if ( left )
+			kNearestNeighbors( lo, mid, depth + 1, query, k, result );
+		else
+			kNearestNeighbors( mid + 1, hi, depth + 1, query, k, result );
+
+		if ( result.size < k || diff * diff < result.squaredDistances[ result.size - 1 ] )
+		{
+			if ( left )
+				kNearestNeighbors( mid + 1, hi, depth + 1, query, k, result );
+			else
+				kNearestNeighbors( lo, mid, depth + 1, query, k, result );
+		}
+	}
+
+	/**
+	 * Finds all points within an axis-aligned box (bounds inclusive), the squared distances of the result are 0.
+	 *
+	 * @param min - the minimum of the box
+	 * @param max - the maximum of the box
+	 * @param result - receives the tree indices
+	 */
+	public void boxSearch( final double[] min, final double[] max, final Neighbors result )
+	{
+		result.clear();
+		boxSearch( 0, size, 0, min, max, result );
+	}
+
+	private void boxSearch( final int lo, final int hi, final int depth, final double[] min, final double[] max, final Neighbors result )
+	{
+		if ( lo >= hi )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+
+		boolean inside = true;
+		for ( int d = 0; d < n && inside; ++d )
+			inside = positions[ mid * n + d ] >= min[ d ] && positions[ mid * n + d ] <= max[ d ];
+
+		if ( inside )
+			result.add( mid, 0 );
+
+		final int d = depth % n;
+		final double split = positions[ mid * n + d ];
+
+		if ( min[ d ] <= split )
+			boxSearch( lo, mid, depth + 1, min, max, result );
+		if ( max[ d ] >= split )
+			boxSearch( mid + 1, hi, depth + 1, min, max, result );
+	}
+
+	/**
+	 * The result of a search: tree indices (see {@link #permutation()} for the location index) and squared distances.
+	 * Not thread-safe, every thread needs its own instance.
+	 */
+	public static class Neighbors
+	{
+		int size = 0;
+		int[] treeIndices = new int[ 16 ];
+		double[] squaredDistances = new double[ 16 ];
+
+		public int size() { return size; }
+		public int treeIndex( final int i ) { return treeIndices[ i ]; }
+		public double squaredDistance( final int i ) { return squaredDistances[ i ]; }
+
+		void clear() { size = 0; }
+
+		void add( final int treeIndex, final double squaredDistance )
+		{
+			if ( size == treeIndices.length )
+			{
+				treeIndices = Arrays.copyOf( treeIndices, size * 2 );
+				squaredDistances = Arrays.copyOf( squaredDistances, size * 2 );
+			}
+
+			treeIndices[ size ] = treeIndex;
+			squaredDistances[ size ] = squaredDistance;
+			++size;
+		}
+
+		// insert into the sorted list of the k best
+		void insert( final int treeIndex, final double squaredDistance, final int k )
+		{
+			if ( size == k && squaredDistance >= squaredDistances[ size - 1 ] )
+				return;
+
+			if ( size < k )
+				add( treeIndex, squaredDistance );
+
+			int i = size - 1;
+			while ( i > 0 && squaredDistances[ i - 1 ] > squaredDistance )
+			{
+				treeIndices[ i ] = treeIndices[ i - 1 ];
+				squaredDistances[ i ] = squaredDistances[ i - 1 ];
+				--i;
+			}
+
+			treeIndices[ i ] = treeIndex;
+			squaredDistances[ i ] = squaredDistance;
+		}
+
+		void sort()
+		{
+			for ( int j = 1; j < size; ++j )
+			{
+				final int index = treeIndices[ j ];
+				final double distance = squaredDistances[ j ];
+
+				int i = j;
+				while ( i > 0 && squaredDistances[ i - 1 ] > distance )
+				{
+					treeIndices[ i ] = treeIndices[ i - 1 ];
+					squaredDistances[ i ] = squaredDistances[ i - 1 ];
+					--i;
+				}
+
+				treeIndices[ i ] = index;
+				squaredDistances[ i ] = distance;
+			}
+		}
+	}
+
+	private double nearestSquaredDistance( final int lo, final int hi, final int depth, final double[] query, final int exclude, double best )
+	{
+		if ( lo >= hi )
+			return best;
+
+		final int mid = ( lo + hi ) >>> 1;
+
+		if ( mid != exclude )
+			best = Math.min( best, squaredDistance( mid, query ) );
+
+		final int d = depth % n;
+		final double diff = query[ d ] - positions[ mid * n + d ];
+
+		// visit the side of the query first, the other side only if the splitting plane is closer than the best match
+		if ( diff < 0 )
+		{
+			best = nearestSquaredDistance( lo, mid, depth + 1, query, exclude, best );
+			if ( diff * diff < best )
+				best = nearestSquaredDistance( mid + 1, hi, depth + 1, query, exclude, best );
+		}
+		else
+		{
+			best = nearestSquaredDistance( mid + 1, hi, depth + 1, query, exclude, best );
+			if ( diff * diff < best )
+				best = nearestSquaredDistance( lo, mid, depth + 1, query, exclude, best );
+		}
+
+		return best;
+	}
+
+	protected double squaredDistance( final int treeIndex, final double[] query )
+	{
+		double sum = 0;
+		for ( int d = 0, o = treeIndex * n; d < n; ++d, ++o )
+		{
+			final double diff = positions[ o ] - query[ d ];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	private void build( final int lo, final int hi, final int depth )
+	{
+		if ( hi - lo <= 1 )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		select( lo, hi - 1, mid, depth % n );
+
+		build( lo, mid, depth + 1 );
+		build( mid + 1, hi, depth + 1 );
+	}
+
+	// quickselect, afterwards the element at k is in its sorted position with respect to dimension d
+	private void select( int left, int right, final int k, final int d )
+	{
+		while ( right > left )
+		{
+			final double pivot = positions[ ( ( left + right ) >>> 1 ) * n + d ];
+			int i = left, j = right;
+
+			while ( i <= j )
+			{
+				while ( positions[ i * n + d ] < pivot )
+					++i;
+				while ( positions[ j * n + d ] > pivot )
+					--j;
+				if ( i <= j )
+					swap( i++, j-- );
+			}
+
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap( final int i, final int j )
+	{
+		final int tmp = permutation[ i ];
+		permutation[ i ] = permutation[ j ];
+		permutation[ j ] = tmp;
+
+		for ( int d = 0; d < n; ++d )
+		{
+			final double p = positions[ i * n + d ];
+			positions[ i * n + d ] = positions[ j * n + d ];
+			positions[ j * n + d ] = p;
+		}
+	}
+
+	/**
+	 * @param locations - size: [numLocations x numDimensions]
+	 * @return a hash over all coordinates, used to check whether a persisted index still matches the locations
+	 */
+	public static long hashLocations( final RandomAccessibleInterval< DoubleType > locations )
+	{
+		final int size = (int)locations.dimension( 0 );
+		final int n = (int)locations.dimension( 1 );
+
+		long hash = 1125899906842597L;
+		hash = 31 * hash + size;
+		hash = 31 * hash + n;
+
+		final RandomAccess< DoubleType > ra = locations.randomAccess();
+		final long min0 = locations.min( 0 ), min1 = locations.min( 1 );
+
+		for ( int i = 0; i < size; ++i )
+		{
+			ra.setPosition( min0 + i, 0 );
+			for ( int d = 0; d < n; ++d )
+			{
+				ra.setPosition( min1 + d, 1 );
+
+				// FNV-like mixing of the raw bits
+				hash ^= Double.doubleToLongBits( ra.get().get() );
+				hash *= 1099511628211L;
+			}
+		}
+
+		return hash;
+	}
+
+	private static double[] readPositions( final RandomAccessibleInterval< DoubleType > locations )
+	{
+		final int size = (int)locations.dimension( 0 );
+		final int n = (int)locations.dimension( 1 );
+		final double[] positions = new double[ size * n ];
+
+		final RandomAccess< DoubleType > ra = locations.randomAccess();
+		final long min0 = locations.min( 0 ), min1 = locations.min( 1 );
+
+		for ( int i = 0; i < size; ++i )
+		{
+			ra.setPosition( min0 + i, 0 );
+			for ( int d = 0; d < n; ++d )
+			{
+				ra.setPosition( min1 + d, 1 );
+				positions[ i * n + d ] = ra.get().get();
+			}
+		}
+
+		return positions;
+	}
+
+	private static double[] transformPositions( final double[] positions, final int n, final RealTransform transform )
+	{
+		final int size = n == 0 ? 0 : positions.length / n;
+		final int m = transform.numTargetDimensions();
+		final double[] source = new double[ n ];
+		final double[] target = new double[ m ];
+		final double[] transformed = new double[ size * m ];
+
+		for ( int i = 0; i < size; ++i )
+		{
+			System.arraycopy( positions, i * n, source, 0, n );
+			transform.apply( source, target );
+			System.arraycopy( target, 0, transformed, i * m, m );
+		}
+
+		return transformed;
+	}
+
+	private static double[] flatten( final List< double[] > locations )
+	{
+		final int n = locations.isEmpty() ? 0 : locations.get( 0 ).length;
+		final double[] positions = new double[ locations.size() * n ];
+
+		for ( int i = 0; i < locations.size(); ++i )
+			System.arraycopy( locations.get( i ), 0, positions, i * n, n );
+
+		return positions;
+	}
+}
@@ -0,0 +1,217 @@
+package util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An insertion-ordered map whose values can be registered as loaders that are resolved on the first access of the
+ * respective key. Listing or checking keys never loads a value. Values that fail to load are logged and removed.
+ * Otherwise it behaves like a LinkedHashMap; all methods are thread-safe and different values load in parallel.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ *
+ * @author spreibi
+ */
+public class LazyMap<K, V> extends AbstractMap<K, V> {
+
+	private static final Logger logger = LoggerUtil.getLogger();
+
+	private static class Value<V> {
+		private Supplier<V> loader;
+		private V value;
+
+		Value(final Supplier<V> loader, final V value) {
+			this.loader = loader;
+			this.value = value;
+		}
+
+		synchronized boolean isLoaded() { return loader == null; }
+
+		synchronized V get() {
+			if (loader != null) {
+				value = loader.get();
+				loader = null;
+			}
+			return value;
+		}
+
+		synchronized V getIfLoaded() { return loader == null ? value : null; }
+	}
+
+	private final LinkedHashMap<K, Value<V>> values = new LinkedHashMap<>();
+
+	/**
+	 * @param key - the key
+	 * @param loader - called once on the first access of the key
+	 */
+	public synchronized void putLazy(final K key, final Supplier<V> loader) {
+		values.put(key, new Value<>(loader, null));
+	}
+
+	/**
+	 * @return the previous value only if it was loaded already, otherwise null
+	 */
+	@Override
+	public V put(final K key, final V value) {
+		final Value<V> previous;
+		synchronized (this) {
+			previous = values.put(key, new Value<>(null, value));
+		}
+		return previous == null ? null : previous.getIfLoaded();
+	}
+
+	/**
+	 * Values of another LazyMap that are not loaded yet stay lazy.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void putAll(final Map<? extends K, ? extends V> map) {
+		if (!(map instanceof LazyMap)) {
+			super.putAll(map);
+			return;
+		}
+
+		final LazyMap<K, V> other = (LazyMap<K, V>) map;
+		final List<K> keys;
+		synchronized (other) {
+			keys = new ArrayList<>(other.values.keySet());
+		}
+
+		for (final K key : keys) {
+			if (other.isLoaded(key))
+				put(key, other.get(key));
+			else
+				putLazy(key, () -> other.get(key));
+		}
+	}
+
+	@Override
+	public V get(final Object key) {
+		final Value<V> value;
+		synchronized (this) {
+			value = values.get(key);
+		}
+
+		if (value == null)
+			return null;
+
+		try {
+			return value.get();
+		}
+		catch (RuntimeException e) {
+			logger.warn("Could not load '{}', removing it: {}", key, e.getMessage());
+			synchronized (this) {
+				values.remove(key, value);
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized boolean containsKey(final Object key) {
+		return values.containsKey(key);
+	}
+
+	/**
+	 * @return the previous value only if it was loaded already, otherwise null
+	 */
+	@Override
+	public V remove(final Object key) {
+		final Value<V> previous;
+		synchronized (this) {
+			previous = values.remove(key);
+		}
+		return previous == null ? null : previous.getIfLoaded();
+	}
+
+	@Override
+	public synchronized void clear() {
+		values.clear();
+	}
+
+	@Override
+	public synchronized int size() {
+		return values.size();
+	}
+
+	public boolean isLoaded(final K key) {
+		final Value<V> value;
+		synchronized (this) {
+			value = values.get(key);
+		}
+		return value != null && value.isLoaded();
+	}
+
+	/**
+	 * Loads all values that are not loaded yet in the background.
+	 *
+	 * @param service - executes the loading
+	 */
+	public void prefetch(final ExecutorService service) {
+		final List<K> keys;
+		synchronized (this) {
+			keys = new ArrayList<>(values.keySet());
+		}
+
+		for (final K key : keys)
+			if (!isLoaded(key))
+				service.submit(() -> get(key));
+	}
+
+	/**
+	 * Iterates over a snapshot of the keys, values are loaded when {@link java.util.Map.Entry#getValue()} is called.
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				final List<K> keys;
+				synchronized (LazyMap.this) {
+					keys = new ArrayList<>(values.keySet());
+				}
+
+				final Iterator<K> it = keys.iterator();
+				return new Iterator<Map.Entry<K, V>>() {
+					K current = null;
+
+					@Override
+					public boolean hasNext() { return it.hasNext(); }
+
+					@Override
+					public Map.Entry<K, V> next() {
+						current = it.next();
+						final K key = current;
+						return new Map.Entry<K, V>() {
+							@Override
+							public K getKey() { return key; }
+
+							@Override
+							public V getValue() { return get(key); }
+
+							@Override
+							public V setValue(final V value) { return put(key, value); }
+						};
+					}
+
+					@Override
+					public void remove() { LazyMap.this.remove(current); }
+				};
+			}
+
+			@Override
+			public int size() { return LazyMap.this.size(); }
+		};
+	}
+}
@@ -1,10 +1,17 @@
 package util;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.logging.log4j.Logger;
 
 public class Threads
@@ -12,6 +19,20 @@ public class Threads
 	private static final Logger logger = LoggerUtil.getLogger();
 	public static int numThreads() { return Math.max( 1, Runtime.getRuntime().availableProcessors() ); }
 
+	/**
+	 * @param service - an executor service
+	 * @return the number of threads of the service if it is known, otherwise {@link #numThreads()}
+	 */
+	public static int numThreads( final ExecutorService service )
+	{
+		if ( service instanceof ThreadPoolExecutor && ((ThreadPoolExecutor)service).getMaximumPoolSize() < Integer.MAX_VALUE ) // not a cached pool
+			return Math.max( 1, ((ThreadPoolExecutor)service).getMaximumPoolSize() );
+		else if ( service instanceof ForkJoinPool )
+			return ((ForkJoinPool)service).getParallelism();
+		else
+			return numThreads();
+	}
+
 	public static ExecutorService createFlexibleExecutorService( final int nThreads ) { return Executors.newWorkStealingPool( nThreads ); }
 	public static ExecutorService createFlexibleExecutorService() { return createFlexibleExecutorService( numThreads() ); }
 
@@ -75,6 +96,67 @@ public class Threads
 		}
 	}
 
+	/**
+	 * Runs the tasks with up to {@link #numThreads(ExecutorService)} threads of the service. The calling thread works on
+	 * the tasks as well, so this also finishes if it is called from a task of the same, fully busy service.
+	 *
+	 * @param tasks - the tasks
+	 * @param service - helps with the tasks, null runs them in the calling thread only
+	 * @throws RuntimeException if a task failed or the calling thread was interrupted
+	 */
+	public static void runTasks( final List< ? extends Callable< ? > > tasks, final ExecutorService service )
+	{
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch( tasks.size() );
+		final AtomicReference< Throwable > failure = new AtomicReference<>();
+
+		final Runnable worker = () ->
+		{
+			for ( int i = next.getAndIncrement(); i < tasks.size(); i = next.getAndIncrement() )
+			{
+				try
+				{
+					if ( failure.get() == null )
+						tasks.get( i ).call();
+				}
+				catch ( final Throwable e )
+				{
+					failure.compareAndSet( null, e );
+				}
+				finally
+				{
+					done.countDown();
+				}
+			}
+		};
+
+		final List< Future< ? > > helpers = new ArrayList<>();
+
+		if ( service != null )
+			for ( int t = 1; t < Math.min( tasks.size(), numThreads( service ) ); ++t )
+				helpers.add( service.submit( worker ) );
+
+		try
+		{
+			worker.run();
+			done.await();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		}
+		finally
+		{
+			// helpers that did not start yet have nothing left to do
+			for ( final Future< ? > helper : helpers )
+				helper.cancel( false );
+		}
+
+		if ( failure.get() != null )
+			throw new RuntimeException( failure.get() );
+	}
+
 	public static class ImagePortion
 	{
 		public ImagePortion( final long startPosition, final long loopSize )
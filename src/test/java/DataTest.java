@@ -14,12 +14,14 @@ import java.util.stream.IntStream;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import data.NormalizingSTData;
 import data.STData;
 import data.STDataImgLib2;
+import data.STDataSparse;
 import data.STDataStatistics;
 import data.STDataText;
 import net.imglib2.Interval;
@@ -31,12 +33,14 @@ import net.imglib2.RealLocalizable;
 import net.imglib2.RealPoint;
 import net.imglib2.RealPointSampleList;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.kdtree.KDTreeData;
 import net.imglib2.neighborsearch.KNearestNeighborSearch;
 import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 
 
 @DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
@@ -102,6 +106,81 @@ public class DataTest {
 	}
 
 
+	@Test
+	public void sparse_data_iterates_nonzero_values_only() {
+		STData dense = createDataInstances().get(1).getPayload();
+		STDataSparse sparse = STDataSparse.fromSTData(dense);
+
+		assertEquals(0, sparse.numNonZeros("Gene 1"));
+		assertEquals(0, sparse.getNonZeroExprData("Gene 1").size());
+		assertEquals(5, sparse.getExprData("Gene 1").size());
+
+		for (String gene : Arrays.asList("Gene 2", "Gene 3", "Gene 4")) {
+			double[] expected = dense.getExpValuesCopy(gene);
+			assertArrayEquals(expected, sparse.getExpValuesCopy(gene), 1e-8);
+
+			RealCursor<DoubleType> cursor = sparse.getNonZeroExprData(gene).localizingCursor();
+			int count = 0;
+			while (cursor.hasNext()) {
+				assertNotEquals(0.0, cursor.next().get(), 1e-8);
+				++count;
+			}
+			assertEquals(sparse.numNonZeros(gene), count);
+			assertEquals(Arrays.stream(expected).filter(v -> v != 0).count(), count);
+		}
+
+		double[] newValues = new double[]{0, 0, 7, 0, 3};
+		sparse.setExpValues("Gene 3", newValues);
+		assertArrayEquals(newValues, sparse.getExpValuesCopy("Gene 3"), 1e-8);
+		assertEquals(2, sparse.numNonZeros("Gene 3"));
+		assertArrayEquals(dense.getExpValuesCopy("Gene 4"), sparse.getExpValuesCopy("Gene 4"), 1e-8);
+	}
+
+	@Test
+	public void unsorted_sparse_indices_are_sorted_per_row() {
+		int[] pointers = new int[]{0, 3, 3, 5};
+		int[] indices = new int[]{4, 0, 2, 1, 3};
+		double[] values = new double[]{4.0, 0.5, 2.0, 1.0, 3.0};
+
+		assertEquals(1, STDataSparse.sortIndicesPerRow(pointers, indices, values));
+		assertArrayEquals(new int[]{0, 2, 4, 1, 3}, indices);
+		assertArrayEquals(new double[]{0.5, 2.0, 4.0, 1.0, 3.0}, values, 1e-8);
+
+		assertEquals(0, STDataSparse.sortIndicesPerRow(pointers, indices, values));
+	}
+
+	@Test
+	public void materialized_normalization_matches_virtual_normalization() {
+		STData raw = createDataInstances().get(1).getPayload();
+		NormalizingSTData virtual = new NormalizingSTData(raw);
+
+		raw.getAnnotations().put(NormalizingSTData.librarySizeAnnotation, virtual.getLibrarySizes());
+
+		NormalizingSTData materialized = new NormalizingSTData(raw, true);
+		for (String gene : raw.getGeneNames())
+			assertArrayEquals(virtual.getExpValuesCopy(gene), materialized.getExpValuesCopy(gene), 1e-8);
+	}
+
+	@Test
+	public void stored_library_sizes_are_only_used_if_they_match() {
+		STData raw = createDataInstances().get(1).getPayload();
+		double[] expected = new double[]{6, 6, 6, 6, 6};
+
+		raw.getAnnotations().put(NormalizingSTData.librarySizeAnnotation, ArrayImgs.doubles(new double[]{1, 1, 1, 1, 1}, 5));
+		assertLibrarySizes(expected, NormalizingSTData.getLibrarySizes(raw));
+
+		raw.getAnnotations().put(NormalizingSTData.librarySizeAnnotation, ArrayImgs.doubles(expected.clone(), 5));
+		assertLibrarySizes(expected, NormalizingSTData.getLibrarySizes(raw));
+	}
+
+	private static void assertLibrarySizes(double[] expected, RandomAccessibleInterval<DoubleType> actual) {
+		double[] values = new double[expected.length];
+		int i = 0;
+		for (DoubleType t : Views.flatIterable(actual))
+			values[i++] = t.get();
+		assertArrayEquals(expected, values, 1e-8);
+	}
+
 	protected static List<Named<STData>> createDataInstances() {
 		/* Create locations  5 - 4
 		   with the          |   3
@@ -142,6 +221,7 @@ public class DataTest {
 
 		dataList.add(named("ImgLib2 Data", new STDataImgLib2(locations, exprValues, geneNames, barcodeNames, geneLookup)));
 		dataList.add(named("Normalized Data", new NormalizingSTData(dataList.get(1).getPayload())));
+		dataList.add(named("Sparse Data", STDataSparse.fromSTData(dataList.get(1).getPayload())));
 
 		return dataList;
 	}
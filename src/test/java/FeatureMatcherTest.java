@@ -0,0 +1,87 @@
+import align.FeatureMatcher;
+import mpicbg.ij.FeatureTransform;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.PointMatch;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class FeatureMatcherTest {
+
+	@Test
+	public void feature_matcher_matches_like_brute_force() {
+		Random random = new Random(41);
+		List<Feature> fs1 = new ArrayList<>();
+		List<Feature> fs2 = new ArrayList<>();
+		for (List<Feature> fs : Arrays.asList(fs1, fs2))
+			for (int i = 0; i < 300; ++i) {
+				float[] descriptor = new float[64];
+				for (int d = 0; d < descriptor.length; ++d)
+					descriptor[d] = random.nextInt(4) / 4.0f;
+				// few distinct locations, so some targets are matched more than once
+				fs.add(new Feature(1, 0, new double[] {random.nextInt(40), random.nextInt(40)}, descriptor));
+			}
+
+		for (double rod : new double[] {0.92, 1.5})
+			assertMatchesLikeBruteForce(fs1, fs2, rod);
+	}
+
+	@Test
+	public void feature_matcher_matches_correlated_descriptors_like_brute_force() {
+		// SIFT-like: 128 dimensions that mostly vary along a few directions, and pairs of similar features
+		Random random = new Random(43);
+		float[][] directions = new float[4][128];
+		for (float[] direction : directions)
+			for (int d = 0; d < direction.length; ++d)
+				direction[d] = (float) random.nextGaussian();
+
+		List<Feature> fs1 = new ArrayList<>();
+		List<Feature> fs2 = new ArrayList<>();
+		for (int i = 0; i < 500; ++i) {
+			float[] descriptor = new float[128];
+			for (float[] direction : directions) {
+				float weight = (float) random.nextGaussian();
+				for (int d = 0; d < descriptor.length; ++d)
+					descriptor[d] += weight * direction[d];
+			}
+			for (int d = 0; d < descriptor.length; ++d)
+				descriptor[d] += 0.1f * (float) random.nextGaussian();
+
+			float[] similar = descriptor.clone();
+			for (int d = 0; d < similar.length; ++d)
+				similar[d] += 0.05f * (float) random.nextGaussian();
+
+			fs1.add(new Feature(1, 0, new double[] {random.nextDouble() * 100, random.nextDouble() * 100}, descriptor));
+			fs2.add(new Feature(1, 0, new double[] {random.nextDouble() * 100, random.nextDouble() * 100}, similar));
+		}
+
+		List<PointMatch> matches = assertMatchesLikeBruteForce(fs1, fs2, 0.92);
+		assertFalse(matches.isEmpty());
+	}
+
+	protected List<PointMatch> assertMatchesLikeBruteForce(List<Feature> fs1, List<Feature> fs2, double rod) {
+		List<PointMatch> expected = new ArrayList<>();
+		List<PointMatch> actual = new ArrayList<>();
+		FeatureTransform.matchFeatures(fs1, fs2, expected, rod);
+		FeatureMatcher.matchFeatures(fs1, fs2, actual, rod);
+
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertArrayEquals(expected.get(i).getP1().getL(), actual.get(i).getP1().getL(), 0.0);
+			assertArrayEquals(expected.get(i).getP2().getL(), actual.get(i).getP2().getL(), 0.0);
+			assertEquals(expected.get(i).getWeight(), actual.get(i).getWeight(), 0.0);
+		}
+
+		return actual;
+	}
+}
@@ -1,21 +1,35 @@
 import filter.DensityFilterFactory;
 import filter.Filter;
+import filter.Filters;
+import filter.GaussianFilter;
 import filter.GaussianFilterFactory;
 import filter.MeanFilterFactory;
+import filter.MedianFilter;
 import filter.MedianFilterFactory;
+import filter.RadiusSearchFilterFactory;
 import filter.SingleSpotRemovingFilterFactory;
+import net.imglib2.IterableRealInterval;
 import net.imglib2.KDTree;
+import net.imglib2.RealCursor;
 import net.imglib2.RealPoint;
 import net.imglib2.RealPointSampleList;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Util;
+import render.FlatKDTreeSamples;
+import util.FlatKDTree;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Named;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -82,6 +96,145 @@ public class FilterTest {
 		assertTrue(0.0 < actualValue.getRealDouble());
 	}
 
+	@Test
+	public void flat_tree_filters_like_kdtree() {
+		Random random = new Random(42);
+		RealPointSampleList<DoubleType> samples = TestUtils.createRandomSamples(random, 1000, 10);
+
+		KDTree<DoubleType> tree = new KDTree<>(samples);
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(samples);
+
+		List<RadiusSearchFilterFactory<DoubleType, DoubleType>> factories = Arrays.asList(
+				new DensityFilterFactory<DoubleType>(new DoubleType(0), 0.5),
+				new MedianFilterFactory<DoubleType>(new DoubleType(0), 0.5),
+				new MeanFilterFactory<DoubleType, DoubleType>(new DoubleType(0), 0.5),
+				new GaussianFilterFactory<DoubleType, DoubleType>(new DoubleType(0), 0.2));
+
+		for (RadiusSearchFilterFactory<DoubleType, DoubleType> factory : factories) {
+			Filter<DoubleType> expectedFilter = factory.createFilter(tree);
+			Filter<DoubleType> actualFilter = factory.createFilter(flatTree);
+			DoubleType expected = new DoubleType(), actual = new DoubleType();
+
+			for (int i = 0; i < 100; ++i) {
+				RealPoint queryPoint = new RealPoint(random.nextDouble() * 10, random.nextDouble() * 10);
+				expectedFilter.filter(queryPoint, expected);
+				actualFilter.filter(queryPoint, actual);
+				assertEquals(expected.get(), actual.get(), 1e-8);
+			}
+		}
+	}
+
+	@Test
+	public void bound_values_filter_like_point_list() {
+		RealPointSampleList<DoubleType> samples = TestUtils.createRandomSamples(new Random(7), 1000, 10);
+
+		MeanFilterFactory<DoubleType, DoubleType> factory = new MeanFilterFactory<>(new DoubleType(0), 0.5);
+		RealPointSampleList<DoubleType> expected = Filters.filter(samples, factory);
+		double[] actual = Filters.filter(FlatKDTreeSamples.of(samples), factory);
+
+		int i = 0;
+		for (DoubleType value : expected)
+			assertEquals(value.get(), actual[i++], 1e-8);
+	}
+
+	@Test
+	public void gaussian_kernel_table_matches_exp() {
+		for (double x = 0; x < 40; x += 0.0137)
+			assertEquals(Math.exp(-x), GaussianFilter.exp(x), 1e-12 * Math.exp(-x));
+	}
+
+	@Test
+	public void median_selection_matches_sorting() {
+		Random random = new Random(29);
+		double[] buffer = new double[64];
+		for (int length = 1; length < 50; ++length) {
+			double[] values = new double[length];
+			for (int i = 0; i < length; ++i)
+				values[i] = random.nextInt(10);
+
+			System.arraycopy(values, 0, buffer, 0, length);
+			assertEquals(Util.median(values), MedianFilter.median(buffer, length), 0.0);
+		}
+	}
+
+	@Test
+	public void batched_filters_match_single_gene_filters() {
+		Random random = new Random(31);
+		double[] positions = new double[3000 * 2];
+		for (int i = 0; i < positions.length; ++i)
+			positions[i] = random.nextDouble() * 20;
+
+		// the tree reorders its positions
+		FlatKDTree tree = new FlatKDTree(positions.clone(), 2);
+		List<double[]> values = new ArrayList<>();
+		for (int g = 0; g < 4; ++g) {
+			double[] geneValues = new double[tree.size()];
+			for (int i = 0; i < geneValues.length; ++i)
+				geneValues[i] = random.nextInt(3) == 0 ? 0 : random.nextDouble();
+			values.add(geneValues);
+		}
+
+		// expected: every gene and filter on its own, with the imglib2 KDTree and RealPointSampleList
+		List<RadiusSearchFilterFactory<DoubleType, DoubleType>> factories = Filters.alignmentFilters(0.5, 0.4, 0.3, 0.4);
+		List<double[]> expected = new ArrayList<>();
+		for (double[] geneValues : values) {
+			RealPointSampleList<DoubleType> samples = new RealPointSampleList<>(2);
+			for (int i = 0; i < geneValues.length; ++i)
+				samples.add(new RealPoint(positions[2 * i], positions[2 * i + 1]), new DoubleType(geneValues[i]));
+
+			for (RadiusSearchFilterFactory<DoubleType, DoubleType> factory : factories) {
+				Filter<DoubleType> filter = factory.createFilter(new KDTree<>(samples));
+				RealPointSampleList<DoubleType> filtered = new RealPointSampleList<>(2);
+				RealCursor<DoubleType> cursor = samples.localizingCursor();
+				while (cursor.hasNext()) {
+					cursor.fwd();
+					DoubleType value = new DoubleType();
+					filter.filter(cursor, value);
+					filtered.add(new RealPoint(cursor), value);
+				}
+				samples = filtered;
+			}
+
+			double[] expectedValues = new double[geneValues.length];
+			int i = 0;
+			for (DoubleType value : samples)
+				expectedValues[i++] = value.get();
+			expected.add(expectedValues);
+		}
+
+		ExecutorService service = Executors.newFixedThreadPool(4);
+		Filters.filter(tree, values, factories, service);
+		service.shutdown();
+
+		for (int g = 0; g < expected.size(); ++g)
+			for (int i = 0; i < tree.size(); ++i)
+				assertEquals(expected.get(g)[i], values.get(g)[i], 1e-8);
+	}
+
+	@Test
+	public void parallel_filter_keeps_order_of_data() {
+		RealPointSampleList<DoubleType> samples = TestUtils.createRandomSamples(new Random(37), 5000, 20);
+
+		ExecutorService service = Executors.newFixedThreadPool(4);
+		for (RadiusSearchFilterFactory<DoubleType, DoubleType> factory : Filters.alignmentFilters(0.5, 0.4, 0.3, 0.4)) {
+			IterableRealInterval<DoubleType> expected = Filters.filter(samples, factory);
+			IterableRealInterval<DoubleType> actual = Filters.filter(samples, factory, service);
+			assertEquals(expected.size(), actual.size());
+
+			double[] actualValues = Filters.filter(FlatKDTreeSamples.of(samples), factory, service).values();
+
+			RealCursor<DoubleType> expectedCursor = expected.localizingCursor();
+			RealCursor<DoubleType> actualCursor = actual.localizingCursor();
+			for (int i = 0; expectedCursor.hasNext(); ++i) {
+				assertEquals(expectedCursor.next().get(), actualCursor.next().get(), 1e-8);
+				assertEquals(expectedCursor.get().get(), actualValues[i], 1e-8);
+				for (int d = 0; d < 2; ++d)
+					assertEquals(expectedCursor.getDoublePosition(d), actualCursor.getDoublePosition(d), 0.0);
+			}
+		}
+		service.shutdown();
+	}
+
 	protected KDTree<DoubleType> createSingleNodeTree() {
 		RealPointSampleList<DoubleType> samples = new RealPointSampleList<>(2);
 		samples.add(new RealPoint(0.0, 0.0), new DoubleType(1.0));
@@ -3,9 +3,18 @@ import data.STDataStatistics;
 import gui.STDataAssembly;
 import io.AnnDataIO;
 import io.SpatialDataIO;
+import io.StorageType;
+import io.StreamingSpatialDataWriter;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Writer;
+import util.FlatKDTree;
+import util.LazyMap;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
 import org.junit.jupiter.api.Named;
@@ -14,11 +23,16 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.Named.named;
 
@@ -55,6 +69,136 @@ public class IOTest extends AbstractIOTest {
 		}
 	}
 
+	@ParameterizedTest
+	@MethodSource("provideDatasetPaths")
+	public void io_with_gene_major_layout_works(String path) {
+		STDataAssembly expected = new STDataAssembly(TestUtils.createTestDataSet());
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.setWriteGeneMajorExpressionValues(true);
+			sdio.writeData(expected);
+			STDataAssembly actual = sdio.readData();
+
+			TestUtils.compareSTDataAssemblies(actual, expected);
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("provideDatasetPaths")
+	public void io_with_uint16_storage_rounds_values(String path) {
+		STData expected = TestUtils.createTestDataSet();
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.setStorageType(StorageType.UINT16);
+			sdio.writeData(new STDataAssembly(expected));
+			RandomAccessibleInterval<DoubleType> actual = sdio.readData().data().getAllExprValues();
+
+			Cursor<DoubleType> cursor = Views.flatIterable(expected.getAllExprValues()).localizingCursor();
+			RandomAccess<DoubleType> ra = actual.randomAccess();
+			while (cursor.hasNext()) {
+				double value = cursor.next().get();
+				assertEquals(Math.round(value), ra.setPositionAndGet(cursor).get(), 1e-8);
+			}
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("provideDatasetPaths")
+	public void io_with_float32_storage_keeps_float_precision(String path) {
+		STData expected = TestUtils.createTestDataSet();
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.setStorageType(StorageType.FLOAT32);
+			sdio.writeData(new STDataAssembly(expected));
+			RandomAccessibleInterval<DoubleType> actual = sdio.readData().data().getAllExprValues();
+
+			Cursor<DoubleType> cursor = Views.flatIterable(expected.getAllExprValues()).localizingCursor();
+			RandomAccess<DoubleType> ra = actual.randomAccess();
+			while (cursor.hasNext()) {
+				double value = cursor.next().get();
+				assertEquals((float) value, ra.setPositionAndGet(cursor).get(), 1e-8);
+			}
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("provideStreamingDatasetPaths")
+	public void io_with_log_uint8_storage_is_within_quantization_error(String path) {
+		STData expected = TestUtils.createTestDataSet();
+		double scale = StorageType.quantizationScale(StorageType.maxValue(expected.getAllExprValues()));
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.setStorageType(StorageType.LOG_UINT8);
+			sdio.setWriteGeneMajorExpressionValues(true);
+			sdio.writeData(new STDataAssembly(expected));
+			sdio.setPreferGeneMajorExpressionValues(false);
+			STData actual = sdio.readData().data();
+
+			Cursor<DoubleType> cursor = Views.flatIterable(expected.getAllExprValues()).localizingCursor();
+			RandomAccess<DoubleType> ra = actual.getAllExprValues().randomAccess();
+			while (cursor.hasNext()) {
+				double value = Math.max(0, cursor.next().get());
+				assertEquals(Math.log1p(value), Math.log1p(ra.setPositionAndGet(cursor).get()), scale / 2 + 1e-8);
+			}
+
+			// the gene-major copy uses the same quantization
+			sdio.setPreferGeneMajorExpressionValues(true);
+			STData geneMajor = sdio.readData().data();
+			for (String gene : expected.getGeneNames())
+				assertArrayEquals(actual.getExpValuesCopy(gene), geneMajor.getExpValuesCopy(gene), 1e-8);
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("provideStreamingDatasetPaths")
+	public void streaming_io_works(String path) {
+		STDataAssembly expected = new STDataAssembly(TestUtils.createTestDataSet());
+		STData data = expected.data();
+		int numLocations = (int) data.numLocations();
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			((StreamingSpatialDataWriter) sdio).writeDataStreaming(data.getLocations(), data.getBarcodes(), data.getAnnotations(), data.numGenes(), 0, (batchSize, consumer) -> {
+				for (int firstRow = 0; firstRow < data.numGenes(); firstRow += batchSize) {
+					List<String> names = new ArrayList<>();
+					List<double[]> values = new ArrayList<>();
+					for (int g = firstRow; g < Math.min(firstRow + batchSize, data.numGenes()); ++g) {
+						double[] row = new double[numLocations];
+						int l = 0;
+						for (DoubleType t : data.getExprData(data.getGeneNames().get(g)))
+							row[l++] = t.get();
+						names.add(data.getGeneNames().get(g));
+						values.add(row);
+					}
+					consumer.accept(firstRow, names, values);
+				}
+				return data.numGenes();
+			});
+			STDataAssembly actual = sdio.readData();
+
+			TestUtils.compareSTDataAssemblies(actual, expected);
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
 	@ParameterizedTest
 	@MethodSource("provideDatasetPaths")
 	public void io_works_for_transformations(String path) {
@@ -100,6 +244,48 @@ public class IOTest extends AbstractIOTest {
 		}
 	}
 
+	@ParameterizedTest
+	@MethodSource("provideDatasetPaths")
+	public void annotations_are_loaded_on_first_access(String path) {
+		STDataAssembly expected = new STDataAssembly(TestUtils.createTestDataSet());
+		long n = expected.data().numLocations();
+		expected.data().getAnnotations().put("celltypes", ArrayImgs.ints(new int[]{1, 2, 3}, n));
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.writeData(expected);
+			LazyMap<String, ?> annotations = (LazyMap<String, ?>) sdio.readData().data().getAnnotations();
+
+			assertTrue(annotations.containsKey("celltypes"));
+			assertFalse(annotations.isLoaded("celltypes"));
+			assertNotNull(annotations.get("celltypes"));
+			assertTrue(annotations.isLoaded("celltypes"));
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
+	@ParameterizedTest
+	@MethodSource("provideStreamingDatasetPaths")
+	public void spatial_index_is_persisted(String path) {
+		STDataAssembly expected = new STDataAssembly(TestUtils.createTestDataSet());
+
+		try {
+			SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
+			sdio.writeData(expected);
+			STDataStatistics statistics = SpatialDataIO.openReadOnly(getPlaygroundPath(path), executorService).readData().statistics();
+
+			assertNotNull(statistics.getSpatialIndex());
+			assertArrayEquals(new FlatKDTree(expected.data().getLocations()).permutation(), statistics.getSpatialIndex().permutation());
+			assertEquals(expected.statistics().getMeanDistance(), statistics.getMeanDistance(), 1e-8);
+			assertEquals(expected.statistics().getMedianDistance(), statistics.getMedianDistance(), 1e-8);
+		}
+		catch (IOException e) {
+			fail("Could not write / read file: ", e);
+		}
+	}
+
 	protected static List<Named<String>> provideDatasetPaths() {
 		return Arrays.asList(
 				named("AnnData HDF5", "data.h5ad"),
@@ -110,4 +296,11 @@ public class IOTest extends AbstractIOTest {
 				named("N5 FS", "data.n5")
 		);
 	}
+
+	protected static List<Named<String>> provideStreamingDatasetPaths() {
+		return Arrays.asList(
+				named("N5 Zarr", "data.zarr"),
+				named("N5 FS", "data.n5")
+		);
+	}
 }
@@ -0,0 +1,135 @@
+import gui.bdv.AddedGene.Rendering;
+import gui.bdv.MultiResolutionSource;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealRandomAccess;
+import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+import render.FlatKDTreeSamples;
+import render.PointCloudPyramid;
+import render.TiledRasterizer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayNameGeneration;
+import org.junit.jupiter.api.DisplayNameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+
+@DisplayNameGeneration(DisplayNameGenerator.ReplaceUnderscores.class)
+public class RenderTest {
+
+	private static ExecutorService service;
+
+	@BeforeAll
+	public static void setup() {
+		service = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterAll
+	public static void shutdown() {
+		service.shutdown();
+	}
+
+	@Test
+	public void tiled_rasterizer_renders_like_views() {
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(TestUtils.createRandomSamples(new Random(11), 1000, 10));
+		AffineTransform2D transform = new AffineTransform2D();
+		transform.scale(15);
+		Interval interval = new FinalInterval(new long[] {-5, -5}, new long[] {154, 154});
+
+		for (Rendering rendering : Rendering.values()) {
+			TiledRasterizer.Renderer renderer = TiledRasterizer.renderer(rendering, 0.3, 1.5);
+			RandomAccessibleInterval<DoubleType> expected = Views.interval(RealViews.affine(renderer.render(flatTree), transform), interval);
+			RandomAccessibleInterval<DoubleType> actual = TiledRasterizer.rasterize(flatTree, renderer, transform, interval, service);
+
+			TestUtils.assertImagesEqual(expected, actual, 1e-8, rendering.name());
+		}
+	}
+
+	@Test
+	public void splatting_renders_like_gauss() {
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(TestUtils.createRandomSamples(new Random(13), 1000, 10));
+		Interval interval = new FinalInterval(new long[] {-20, -20}, new long[] {154, 154});
+
+		AffineTransform2D scaling = new AffineTransform2D();
+		scaling.scale(15);
+		AffineTransform2D rotation = scaling.copy();
+		rotation.rotate(0.3);
+
+		for (AffineTransform2D transform : Arrays.asList(scaling, rotation)) {
+			RandomAccessibleInterval<DoubleType> expected = TiledRasterizer.rasterize(flatTree, Rendering.Gauss, 0.3, 1.5, transform, interval, null);
+			RandomAccessibleInterval<DoubleType> actual = TiledRasterizer.rasterize(flatTree, Rendering.Splat, 0.3, 1.5, transform, interval, service);
+
+			TestUtils.assertImagesEqual(expected, actual, 1e-8, transform.toString());
+		}
+	}
+
+	@Test
+	public void grid_rendering_approximates_gauss() {
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(TestUtils.createRandomSamples(new Random(17), 2000, 10));
+		AffineTransform2D transform = new AffineTransform2D();
+		transform.scale(10);
+		Interval interval = new FinalInterval(new long[] {20, 20}, new long[] {80, 80});
+
+		RandomAccessibleInterval<DoubleType> expected = TiledRasterizer.rasterize(flatTree, Rendering.Gauss, 0.3, 4.0, transform, interval, service);
+		RandomAccessibleInterval<DoubleType> actual = TiledRasterizer.rasterize(flatTree, Rendering.GaussGrid, 0.3, 4.0, transform, interval, service);
+
+		TestUtils.assertImagesEqual(expected, actual, 0.05, "GaussGrid");
+	}
+
+	@Test
+	public void pyramid_cells_average_their_locations() {
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(TestUtils.createRandomSamples(new Random(19), 5000, 100));
+		PointCloudPyramid pyramid = new PointCloudPyramid(flatTree.tree(), 1.0);
+		assertTrue(pyramid.numLevels() > 1);
+
+		// the x coordinates of the locations in location order
+		double[] x = new double[flatTree.tree().size()];
+		for (int t = 0; t < x.length; ++t)
+			x[flatTree.tree().permutation()[t]] = flatTree.tree().position(t, 0);
+
+		for (int i = 0; i < pyramid.numLevels(); ++i) {
+			PointCloudPyramid.Level level = pyramid.level(i);
+			assertTrue(level.numCells() < x.length);
+
+			// the average of the coordinates of all locations of a cell is its centroid
+			double[] averages = level.aggregate(x);
+			for (int t = 0; t < level.numCells(); ++t)
+				assertEquals(level.tree().position(t, 0), averages[level.tree().permutation()[t]], 1e-9);
+		}
+	}
+
+	@Test
+	public void cached_tiles_follow_values() {
+		FlatKDTreeSamples<DoubleType> flatTree = FlatKDTreeSamples.of(TestUtils.createRandomSamples(new Random(23), 1000, 100));
+		Interval interval = new FinalInterval(new long[] {0, 0}, new long[] {99, 99});
+		MultiResolutionSource source = MultiResolutionSource.of("gene", flatTree, interval, Rendering.Gauss, 3.0, 1.0);
+
+		for (int k = 0; k < 2; ++k) {
+			Cursor<DoubleType> cursor = Views.iterable(Views.interval(source.getSource(0, 0), new FinalInterval(new long[] {0, 0, 0}, new long[] {99, 99, 0}))).localizingCursor();
+			RealRandomAccess<DoubleType> expected = source.fullResolution().realRandomAccess();
+			while (cursor.hasNext()) {
+				DoubleType value = cursor.next();
+				expected.setPosition(cursor.getLongPosition(0), 0);
+				expected.setPosition(cursor.getLongPosition(1), 1);
+				assertEquals(expected.get().get(), value.get(), 1e-8);
+			}
+
+			// the tiles are rendered again after the values change
+			Arrays.fill(flatTree.values(), 1.0);
+			source.updateValues();
+		}
+	}
+}
@@ -1,7 +1,14 @@
+import align.SIFTParam;
+import align.SiftFeatureCache;
 import gui.STDataAssembly;
+import gui.bdv.AddedGene.Rendering;
 import io.SpatialDataContainer;
 import io.SpatialDataIO;
 import io.SpatialDataException;
+import mpicbg.imagefeatures.Feature;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.realtransform.AffineTransform2D;
 import org.janelia.saalfeldlab.n5.hdf5.N5HDF5Writer;
 import org.junit.jupiter.api.DisplayNameGeneration;
 import org.junit.jupiter.api.DisplayNameGenerator;
@@ -14,9 +21,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -159,6 +170,92 @@ public class SpatialDataContainerTest extends AbstractIOTest {
 			fail("Could not write / read file: ", e);
 		}
 	}
+	@Test
+	public void features_can_be_saved_and_loaded() throws IOException, ClassNotFoundException {
+		SpatialDataContainer container = SpatialDataContainer.createNew(getPlaygroundPath("container.n5"), executorService);
+		final String datasetName = "tmp.h5ad";
+		final String fullPath = getPlaygroundPath(datasetName);
+		createAndWriteData(fullPath);
+		container.addExistingDataset(fullPath);
+
+		final List<Feature> expected = Arrays.asList(
+				new Feature(1.5, 0.3, new double[]{10.5, -2.0}, new float[]{0.1f, 0.2f, 0.3f}),
+				new Feature(2.0, -1.2, new double[]{0.0, 7.25}, new float[]{0.4f, 0.5f, 0.6f}));
+		final String key = "tmp.h5ad/Calm2/display=0.0,1.0";
+
+		assertFalse(container.hasFeatures(datasetName, key));
+		container.saveFeatures(datasetName, key, expected);
+		assertTrue(container.hasFeatures(datasetName, key));
+		assertFalse(container.hasFeatures(datasetName, key + "0"));
+
+		final List<Feature> actual = container.loadFeatures(datasetName, key);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			assertEquals(expected.get(i).scale, actual.get(i).scale);
+			assertEquals(expected.get(i).orientation, actual.get(i).orientation);
+			assertArrayEquals(expected.get(i).location, actual.get(i).location);
+			assertArrayEquals(expected.get(i).descriptor, actual.get(i).descriptor);
+		}
+
+		container.deleteDataset(datasetName);
+		assertFalse(container.hasFeatures(datasetName, key));
+	}
+
+	@Test
+	public void feature_key_depends_on_everything_that_changes_the_image() {
+		final SIFTParam p = new SIFTParam();
+		p.setDatasetParameters(10, 0.05, 1024, null, Rendering.Gauss, 1.5, 0.0, 0.5);
+		final AffineTransform2D transform = new AffineTransform2D();
+		final Interval interval = new FinalInterval(new long[]{-10, -10}, new long[]{100, 100});
+		final double[] displayRange = {0.0, 1.0};
+
+		final String key = SiftFeatureCache.key("a", "Calm2", transform, interval, displayRange, p);
+		assertEquals(key, SiftFeatureCache.key("a", "Calm2", transform.copy(), new FinalInterval(interval), displayRange.clone(), p));
+
+		final AffineTransform2D otherTransform = new AffineTransform2D();
+		otherTransform.rotate(0.1);
+
+		assertNotEquals(key, SiftFeatureCache.key("b", "Calm2", transform, interval, displayRange, p));
+		assertNotEquals(key, SiftFeatureCache.key("a", "Actb", transform, interval, displayRange, p));
+		assertNotEquals(key, SiftFeatureCache.key("a", "Calm2", otherTransform, interval, displayRange, p));
+		assertNotEquals(key, SiftFeatureCache.key("a", "Calm2", transform, new FinalInterval(new long[]{-10, -10}, new long[]{100, 101}), displayRange, p));
+		assertNotEquals(key, SiftFeatureCache.key("a", "Calm2", transform, interval, new double[]{0.0, 2.0}, p));
+
+		p.renderingSmoothness = 2.0;
+		assertNotEquals(key, SiftFeatureCache.key("a", "Calm2", transform, interval, displayRange, p));
+	}
+
+	@Test
+	public void failed_feature_extraction_is_not_cached() {
+		final SiftFeatureCache cache = new SiftFeatureCache();
+		final SIFTParam p = new SIFTParam();
+		final AffineTransform2D transform = new AffineTransform2D();
+		final Interval interval = new FinalInterval(new long[]{0, 0}, new long[]{10, 10});
+		final double[] displayRange = {0.0, 1.0};
+
+		final CompletableFuture<List<Feature>> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IllegalStateException("rendering failed"));
+		assertTrue(cache.features("a", "Calm2", transform, interval, displayRange, p, () -> failed).isCompletedExceptionally());
+
+		final List<Feature> expected = new ArrayList<>();
+		assertSame(expected, cache.features("a", "Calm2", transform, interval, displayRange, p, () -> CompletableFuture.completedFuture(expected)).join());
+	}
+
+	@Test
+	public void features_rendered_with_filters_are_not_cached() {
+		final SiftFeatureCache cache = new SiftFeatureCache();
+		final SIFTParam p = new SIFTParam();
+		p.filterFactories = new ArrayList<>();
+		final AffineTransform2D transform = new AffineTransform2D();
+		final Interval interval = new FinalInterval(new long[]{0, 0}, new long[]{10, 10});
+		final double[] displayRange = {0.0, 1.0};
+
+		final List<Feature> first = new ArrayList<>();
+		final List<Feature> second = new ArrayList<>();
+		assertSame(first, cache.features("a", "Calm2", transform, interval, displayRange, p, () -> CompletableFuture.completedFuture(first)).join());
+		assertSame(second, cache.features("a", "Calm2", transform, interval, displayRange, p, () -> CompletableFuture.completedFuture(second)).join());
+	}
+
 	protected STDataAssembly createAndWriteData(String path) throws IOException {
 		SpatialDataIO sdio = SpatialDataIO.open(getPlaygroundPath(path), executorService);
 		STDataAssembly data = new STDataAssembly(TestUtils.createTestDataSet());
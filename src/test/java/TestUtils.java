@@ -1,15 +1,21 @@
 import data.STData;
 import data.STDataText;
 import gui.STDataAssembly;
+import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealPoint;
+import net.imglib2.RealPointSampleList;
 import net.imglib2.type.Type;
 import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -87,4 +93,27 @@ public class TestUtils {
 
 		return new STDataText(coordinates, geneMap);
 	}
+
+	/**
+	 * @return numSamples 2d locations uniformly distributed in [0, size)^2 with values uniformly distributed in [0, 1)
+	 */
+	public static RealPointSampleList<DoubleType> createRandomSamples(Random random, int numSamples, double size) {
+		RealPointSampleList<DoubleType> samples = new RealPointSampleList<>(2);
+		for (int i = 0; i < numSamples; ++i)
+			samples.add(new RealPoint(random.nextDouble() * size, random.nextDouble() * size), new DoubleType(random.nextDouble()));
+		return samples;
+	}
+
+	/**
+	 * Compares two images pixel by pixel over the interval of the expected image.
+	 */
+	public static void assertImagesEqual(RandomAccessibleInterval<DoubleType> expected, RandomAccessibleInterval<DoubleType> actual, double delta, String message) {
+		Cursor<DoubleType> cursor = Views.iterable(expected).localizingCursor();
+		RandomAccess<DoubleType> access = actual.randomAccess();
+		while (cursor.hasNext()) {
+			DoubleType value = cursor.next();
+			access.setPosition(cursor);
+			assertEquals(value.get(), access.get().get(), delta, message);
+		}
+	}
 }